@@ -0,0 +1,129 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the message codecs with a typical chat message. It
+ * compares the decoding with json-lib, which the JSON codec used before,
+ * to the streaming JSON decoder and the binary codec, and measures the
+ * encoding with both codecs.
+ *
+ * Run it with: mvn -P benchmark verify
+ *
+ * @author Ulf Biallas
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	private NetworkMessage message;
+	private NetworkMessage decoded;
+	private JsonCodec jsonCodec;
+	private BinaryCodec binaryCodec;
+	private ByteBuffer json;
+	private ByteBuffer binary;
+	private ByteBuffer output;
+
+
+	/**
+	 * Encodes the chat message with both codecs.
+	 */
+	@Setup
+	public void setup() {
+		message = new NetworkMessage(NetworkMessage.CHAT, "Alice", "Hello everyone, the build on the test server is green again. Lunch at 12?");
+		message.setCapabilities(Capabilities.LOCAL);
+		decoded = new NetworkMessage();
+		jsonCodec = new JsonCodec();
+		binaryCodec = new BinaryCodec();
+		json = ByteBuffer.wrap(Codecs.encode(Codecs.JSON, message));
+		binary = ByteBuffer.wrap(Codecs.encode(Codecs.BINARY, message));
+		output = ByteBuffer.allocate(2048);
+	}
+
+	/**
+	 * Decodes the JSON message with json-lib like the JSON codec did before the streaming decoder.
+	 *
+	 * @return The decoded message.
+	 */
+	@Benchmark
+	public NetworkMessage decodeJsonLib() {
+		json.rewind();
+		decoded.reset();
+		JSONObject jsonMsg = (JSONObject) JSONSerializer.toJSON(StandardCharsets.UTF_8.decode(json).toString());
+		decoded.setCode(jsonMsg.getInt("code"));
+		decoded.setName(jsonMsg.optString("name", null));
+		decoded.setText(jsonMsg.optString("text", null));
+		decoded.setCapabilities(jsonMsg.optInt("caps", 0));
+		return decoded;
+	}
+
+	/**
+	 * Decodes the JSON message with the streaming decoder of the JSON codec.
+	 *
+	 * @return The decoded message.
+	 */
+	@Benchmark
+	public NetworkMessage decodeJsonStream() {
+		json.rewind();
+		jsonCodec.decode(json, decoded);
+		return decoded;
+	}
+
+	/**
+	 * Decodes the binary message.
+	 *
+	 * @return The decoded message.
+	 */
+	@Benchmark
+	public NetworkMessage decodeBinary() {
+		binary.rewind();
+		binaryCodec.decode(binary, decoded);
+		return decoded;
+	}
+
+	/**
+	 * Encodes the message with the JSON codec.
+	 *
+	 * @return The buffer with the encoded message.
+	 */
+	@Benchmark
+	public ByteBuffer encodeJson() {
+		output.clear();
+		jsonCodec.encode(message, output);
+		return output;
+	}
+
+	/**
+	 * Encodes the message with the binary codec.
+	 *
+	 * @return The buffer with the encoded message.
+	 */
+	@Benchmark
+	public ByteBuffer encodeBinary() {
+		output.clear();
+		binaryCodec.encode(message, output);
+		return output;
+	}
+
+}
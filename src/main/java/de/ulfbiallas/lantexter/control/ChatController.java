@@ -4,6 +4,8 @@ import java.awt.AWTException;
 import java.awt.SystemTray;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
@@ -12,6 +14,10 @@ import javax.swing.JOptionPane;
 import de.ulfbiallas.lantexter.model.ChatCore;
 import de.ulfbiallas.lantexter.model.ChatHistory;
 import de.ulfbiallas.lantexter.model.Constants;
+import de.ulfbiallas.lantexter.model.FileTransfer;
+import de.ulfbiallas.lantexter.model.MessageLog;
+import de.ulfbiallas.lantexter.model.ModelEventBus;
+import de.ulfbiallas.lantexter.model.Participant;
 import de.ulfbiallas.lantexter.model.ParticipantList;
 import de.ulfbiallas.lantexter.model.Settings;
 import de.ulfbiallas.lantexter.view.ChatGui;
@@ -36,6 +42,7 @@ public class ChatController implements ChatGuiListener, SettingsGuiListener {
 	private ParticipantList participantList;
 	private ChatHistory chatHistory;
 	private ChatCore chatCore;
+	private MessageLog messageLog;
 	
 	// view
 	private ChatGui chatGui;
@@ -62,15 +69,12 @@ public class ChatController implements ChatGuiListener, SettingsGuiListener {
 		trayView.addChatGuiListener(this);
 		settingsGui.addSettingsGuiListener(this);
 		
-		chatCore.addObserver(chatGui);
-		chatCore.addObserver(trayView);
-		participantList.addObserver(chatGui);
-		participantList.addObserver(trayView);
-		chatHistory.addObserver(chatGui);
-		chatHistory.addObserver(trayView);
-		settings.addObserver(settingsGui);
-		settings.addObserver(chatGui);
-		settings.addObserver(trayView);
+		ModelEventBus eventBus = ModelEventBus.getInstance();
+		eventBus.addListener(chatGui);
+		eventBus.addListener(trayView);
+		eventBus.addListener(settingsGui);
+		
+		openMessageLog();
 		
 		Boolean minimizeToTray = Boolean.parseBoolean(settings.getProperty("minimizeToTray"));
 		if(minimizeToTray && trayView.isSupported()) {
@@ -96,6 +100,41 @@ public class ChatController implements ChatGuiListener, SettingsGuiListener {
 		});
 	}
 	
+	/**
+	 * Opens the persistent message log if it is enabled in the settings 
+	 * and restores the latest messages into the chat history. Otherwise
+	 * a temporary log keeps the messages of the session.
+	 */
+	private void openMessageLog() {
+		if(!Boolean.parseBoolean(settings.getProperty("persistHistory", "true"))) {
+			try {
+				messageLog = MessageLog.createTemporary();
+				messageLog.open(0);
+				chatHistory.setMessageLog(messageLog);
+			} catch (IOException e) {
+				e.printStackTrace();
+				messageLog = null;
+			}
+			return;
+		}
+		
+		int restoreCount = Constants.DEFAULT_HISTORY_RESTORE_COUNT;
+		try {
+			restoreCount = Integer.parseInt(settings.getProperty("historyRestoreCount", Integer.toString(restoreCount)));
+		} catch (NumberFormatException e) {
+			
+		}
+		
+		messageLog = new MessageLog(new File(Constants.HISTORY_LOG_FILE), new File(Constants.HISTORY_INDEX_FILE));
+		try {
+			chatHistory.restoreMessages(messageLog.open(restoreCount));
+			chatHistory.setMessageLog(messageLog);
+		} catch (IOException e) {
+			e.printStackTrace();
+			messageLog = null;
+		}
+	}
+	
 	/**
 	 * Adds the tray icon to the tray bar. Shows an error message if it is not possible to add it.
 	 */
@@ -129,6 +168,9 @@ public class ChatController implements ChatGuiListener, SettingsGuiListener {
 				settings.getLanguage().getLabel("quit_msg_title"),
                 JOptionPane.YES_NO_OPTION);
 		if(dialogResult == JOptionPane.YES_OPTION){
+			if(messageLog != null) {
+				messageLog.close();
+			}
 			System.exit(0);
 		}			
 	}
@@ -159,6 +201,30 @@ public class ChatController implements ChatGuiListener, SettingsGuiListener {
 		chatCore.sendMessage(msg);
 	}
 	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void sendFile(Participant participant, File file) {
+		chatCore.sendFile(participant, file);
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void distributeFile(File file) {
+		chatCore.distributeFile(file);
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void acceptFile(FileTransfer transfer, File target) {
+		chatCore.acceptFile(transfer, target);
+	}
+	
 	/**
 	 * @inheritDoc
 	 */
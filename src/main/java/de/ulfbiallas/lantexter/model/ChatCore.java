@@ -1,25 +1,33 @@
 package de.ulfbiallas.lantexter.model;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Observable;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
 
 import de.ulfbiallas.lantexter.model.message.ChatLeftMessage;
 import de.ulfbiallas.lantexter.model.message.ChatMessage;
 import de.ulfbiallas.lantexter.model.message.NameChangeMessage;
 import de.ulfbiallas.lantexter.model.message.NewParticipantMessage;
+import de.ulfbiallas.lantexter.model.network.Capabilities;
+import de.ulfbiallas.lantexter.model.network.ChannelServerThread;
+import de.ulfbiallas.lantexter.model.network.Codecs;
+import de.ulfbiallas.lantexter.model.network.FileServerThread;
 import de.ulfbiallas.lantexter.model.network.IPacketProcessor;
-import de.ulfbiallas.lantexter.model.network.JsonTools;
+import de.ulfbiallas.lantexter.model.network.IPacketReceiver;
+import de.ulfbiallas.lantexter.model.network.NackDelivery;
+import de.ulfbiallas.lantexter.model.network.NetworkMessage;
+import de.ulfbiallas.lantexter.model.network.RateLimiter;
+import de.ulfbiallas.lantexter.model.network.ReliableDelivery;
 import de.ulfbiallas.lantexter.model.network.ServerThread;
+import de.ulfbiallas.lantexter.model.network.StreamConnections;
+import de.ulfbiallas.lantexter.model.network.StreamServerThread;
 import de.ulfbiallas.lantexter.model.network.UDPTools;
-
-
-
-
-import net.sf.json.JSONObject;
+import de.ulfbiallas.lantexter.model.network.Utf8;
 
 
 /**
@@ -29,16 +37,62 @@ import net.sf.json.JSONObject;
  * @author Ulf Biallas
  *
  */
-public class ChatCore extends Observable implements IPacketProcessor {
+public class ChatCore implements IPacketProcessor {
+
+	/** Time in [ms] to wait for the background tasks when the server is stopped. */
+	private static final long SHUTDOWN_TIMEOUT = 1000;
 
 	private UDPTools updtools;	
 	private Settings settings;
 	private ParticipantList participantList;
 	private ChatHistory chatHistory;
-	private ServerThread serverThread;
+	private IPacketReceiver packetReceiver;
+	
+	/** Receiver of the large messages which are sent over TCP. */
+	private IPacketReceiver streamReceiver;
+	
+	/** Connections to send large messages over TCP. */
+	private StreamConnections streamConnections;
+	
+	/** Receiver of the requests for offered files. */
+	private IPacketReceiver fileServer;
+	
+	/** The files which are offered to and by other participants. */
+	private volatile FileTransferManager fileTransfers;
+	private ModelEventBus eventBus;
+	
+	/** Scheduler which runs the receiver and all periodic tasks while the server is running. */
+	private Scheduler scheduler;
+	
+	/** The gossip membership protocol or null if the membership is determined by broadcasts. */
+	private volatile GossipMembership membership;
+	
+	/** The reliable delivery which acknowledges received messages and sends messages if it is enabled. */
+	private volatile ReliableDelivery reliableDelivery;
+	
+	/** The NACK based delivery of the multicast messages. */
+	private volatile NackDelivery nackDelivery;
+	
+	/** The sequence number of the last multicast message which is announced in an alive broadcast. */
+	private volatile int announcedGroupSequence;
 	
-	/** Timer for an alive signal */
-	private Timer broadcastTimer;
+	/** The current interval in [s] of the alive signal. */
+	private volatile int aliveInterval = Constants.MIN_ALIVE_TIMER_INTERVAL;
+	
+	/** Time at which a message has been sent to all participants the last time. */
+	private volatile long lastContactToAll;
+	
+	/** Counters of the discovery messages. */
+	private DiscoveryCounters discoveryCounters = new DiscoveryCounters();
+	
+	/** The limiter of the received messages per sender or null if it is disabled. */
+	private volatile RateLimiter rateLimiter;
+	
+	/** Lock which serializes the messages of the datagram and the stream receiver. */
+	private final Object receiveLock = new Object();
+	
+	/** Random generator for the delay of IAmOnline replies. */
+	private Random random = new Random();
 	
 	/** Error flag which is set if a connection could not be established */
 	private Boolean errorsWhileStarting = false;
@@ -52,6 +106,7 @@ public class ChatCore extends Observable implements IPacketProcessor {
 		settings = Settings.getInstance();
 		participantList =  ParticipantList.getInstance();
 		chatHistory = ChatHistory.getInstance();
+		eventBus = ModelEventBus.getInstance();
 	}
 
 
@@ -59,28 +114,246 @@ public class ChatCore extends Observable implements IPacketProcessor {
 	 * Starts the UDP server and the alive signal timer.
 	 */
 	public void startServer() {		
-		updtools.init(this, Integer.parseInt(settings.getProperty("port")));
+		int port = Integer.parseInt(settings.getProperty("port"));
+		InetAddress multicastGroup = getMulticastGroup();
+		updtools.init(this, port);
+		updtools.setMulticastGroup(multicastGroup, 
+				Integer.parseInt(settings.getProperty("multicastTtl", Integer.toString(Constants.DEFAULT_MULTICAST_TTL))));
 		errorsWhileStarting = false;
-		serverThread = new ServerThread(this, Integer.parseInt(settings.getProperty("port")));
+		scheduler = new Scheduler();
+		reliableDelivery = new ReliableDelivery();
+		nackDelivery = new NackDelivery();
+		nackDelivery.setParityCount(Integer.parseInt(settings.getProperty("fecK", Integer.toString(Constants.DEFAULT_FEC_K))));
+		announcedGroupSequence = 0;
+		membership = Constants.MEMBERSHIP_GOSSIP.equals(settings.getProperty("membership", Constants.DEFAULT_MEMBERSHIP)) 
+				? new GossipMembership() : null;
+		int rateLimit = Integer.parseInt(settings.getProperty("rateLimit", Integer.toString(Constants.DEFAULT_RATE_LIMIT)));
+		rateLimiter = rateLimit > 0 ? new RateLimiter(rateLimit, 
+				Integer.parseInt(settings.getProperty("rateBurst", Integer.toString(Constants.DEFAULT_RATE_BURST)))) : null;
+		if(Constants.RECEIVER_BLOCKING.equals(settings.getProperty("receiver", Constants.DEFAULT_RECEIVER))) {
+			packetReceiver = new ServerThread(this, port, multicastGroup, rateLimiter, scheduler);
+		} else {
+			packetReceiver = new ChannelServerThread(this, port, multicastGroup, rateLimiter, scheduler);
+		}
+		streamReceiver = new StreamServerThread(this, port, rateLimiter, scheduler);
+		streamConnections = new StreamConnections(port, scheduler);
+		fileTransfers = new FileTransferManager(port + Constants.FILE_PORT_OFFSET, scheduler);
+		fileServer = new FileServerThread(fileTransfers, port + Constants.FILE_PORT_OFFSET, scheduler);
 			
 		// Send an alive signal as broadcast to find out who is online
-		broadcastTimer = new Timer();
-		broadcastTimer.schedule(new TimerTask(){
+		aliveInterval = Constants.MIN_ALIVE_TIMER_INTERVAL;
+		scheduleAliveBroadcast(0);
+		
+		// Set participants offline whose alive signal is too old
+		scheduler.scheduleWithFixedDelay(new Runnable(){
+	         @Override
+	         public void run() {
+	        	 	participantList.expireParticipants();
+	         } 
+	     }, PresenceWheel.DEFAULT_TICK_DURATION, PresenceWheel.DEFAULT_TICK_DURATION);
+		
+		// Retransmit reliable messages which are not acknowledged in time
+		scheduler.scheduleWithFixedDelay(new Runnable(){
+	         @Override
+	         public void run() {
+	        	 	reliableDelivery.checkTimeouts();
+	         } 
+	     }, ReliableDelivery.TIMER_INTERVAL, ReliableDelivery.TIMER_INTERVAL);
+		
+		// Close idle TCP connections
+		scheduler.scheduleWithFixedDelay(new Runnable(){
 	         @Override
 	         public void run() {
-	        	 	UDPTools updtools = UDPTools.getInstance();
-					String msg = JsonTools.createWhoIsOnlineMessage(settings.getProperty("name"));
-					updtools.sendStringToIp("255.255.255.255", msg);
+	        	 	streamConnections.closeIdle();
 	         } 
-	     }, 0, Constants.ALIVE_TIMER_INTERVAL * 1000);	
+	     }, StreamConnections.IDLE_TIMEOUT / 4, StreamConnections.IDLE_TIMEOUT / 4);
+		
+		// Close file transfer connections which have made no progress
+		scheduler.scheduleWithFixedDelay(new Runnable(){
+	         @Override
+	         public void run() {
+	        	 	fileTransfers.closeStalled();
+	         } 
+	     }, FileTransferManager.IDLE_TIMEOUT / 4, FileTransferManager.IDLE_TIMEOUT / 4);
+		
+		// Request missing multicast messages
+		if(updtools.isMulticastEnabled()) {
+			scheduler.scheduleWithFixedDelay(new Runnable(){
+		         @Override
+		         public void run() {
+		        	 	nackDelivery.sendNacks();
+		         } 
+		     }, NackDelivery.TIMER_INTERVAL, NackDelivery.TIMER_INTERVAL);
+		}
+		
+		// Probe the members of the gossip protocol
+		if(membership != null) {
+			scheduler.scheduleAtFixedRate(new Runnable(){
+		         @Override
+		         public void run() {
+		        	 	membership.startProbe();
+		         } 
+		     }, GossipMembership.PROBE_INTERVAL, GossipMembership.PROBE_INTERVAL);
+			scheduler.scheduleAtFixedRate(new Runnable(){
+		         @Override
+		         public void run() {
+		        	 	membership.probeIndirectly();
+		         } 
+		     }, GossipMembership.PROBE_INTERVAL + GossipMembership.PROBE_TIMEOUT, GossipMembership.PROBE_INTERVAL);
+		}
+	}
+	
+	/**
+	 * Schedules the next alive broadcast. The task adapts the interval 
+	 * to the number of participants and schedules itself again.
+	 * 
+	 * @param delay The delay in [ms].
+	 */
+	private void scheduleAliveBroadcast(long delay) {
+		scheduler.schedule(new Runnable(){
+	         @Override
+	         public void run() {
+	        	 	aliveInterval = computeAliveInterval();
+	        	 	if(needsAliveBroadcast()) {
+	        	 		NetworkMessage msg = new NetworkMessage(NetworkMessage.WHO_IS_ONLINE, settings.getProperty("name"), null);
+	        	 		msg.setCapabilities(getLocalCapabilities());
+	        	 		msg.setInterval(aliveInterval);
+	        	 		announcedGroupSequence = nackDelivery.getSequence();
+	        	 		if(announcedGroupSequence > 0) {
+	        	 			msg.setEpoch(nackDelivery.getEpoch());
+	        	 			msg.setGroupSequence(announcedGroupSequence);
+	        	 		}
+	        	 		updtools.sendMsgToIp("255.255.255.255", Codecs.encode(Codecs.JSON, msg));
+	        	 		lastContactToAll = System.currentTimeMillis();
+	        	 	}
+	        	 	scheduleAliveBroadcast(aliveInterval * 1000L);
+	         } 
+	     }, delay);
+	}
+
+	
+	/**
+	 * Computes the interval of the alive signal. It grows linearly with the number 
+	 * of participants, so the number of broadcasts in the network stays constant, 
+	 * but at most doubles per step, so the other participants do not time out 
+	 * before they have learned the new interval.
+	 * 
+	 * @return The interval in [s].
+	 */
+	private int computeAliveInterval() {
+		int count = participantList.getOnlineSnapshot().getParticipants().length;
+		int interval = Constants.ALIVE_TIMER_INTERVAL * count / Constants.ALIVE_TIMER_GROUP_SIZE;
+		interval = Math.min(interval, 2 * aliveInterval);
+		return Math.max(Constants.MIN_ALIVE_TIMER_INTERVAL, Math.min(Constants.MAX_ALIVE_TIMER_INTERVAL, interval));
+	}
+	
+	/**
+	 * Returns whether the periodic WhoIsOnline broadcast is needed. It is not needed 
+	 * if every participant has received a message from us within the alive interval 
+	 * and treats it as alive signal. With the gossip protocol it is only needed to 
+	 * find the first member and to stay visible for participants which do not take 
+	 * part in the gossip protocol. It is always needed if multicast messages have been 
+	 * sent since the last broadcast, so the receivers can detect a lost last message.
+	 * 
+	 * @return Boolean which is true if the broadcast is needed.
+	 */
+	private Boolean needsAliveBroadcast() {
+		Participant[] participants = participantList.getOnlineSnapshot().getParticipants();
+		if(participants.length == 0) return true;
+		if(nackDelivery.getSequence() != announcedGroupSequence) return true;
+		
+		Boolean gossip = membership != null && membership.hasMembers();
+		long since = System.currentTimeMillis() - aliveInterval * 1000L;
+		for(int k=0; k<participants.length; ++k) {
+			Participant participant = participants[k];
+			if(gossip && participant.isGossipMember()) continue;
+			if(!participant.supports(Capabilities.ADAPTIVE_HEARTBEAT)) return true;
+			if(Math.max(lastContactToAll, participant.getLastContact()) <= since) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the multicast group from the settings if the multicast mode is enabled.
+	 * Returns null to fall back to unicast if the mode is disabled, the address is 
+	 * not a multicast address or no multicast capable network interface is available.
+	 * 
+	 * @return The multicast group or null.
+	 */
+	private InetAddress getMulticastGroup() {
+		if(!Boolean.parseBoolean(settings.getProperty("multicast"))) {
+			return null;
+		}
+		try {
+			InetAddress group = InetAddress.getByName(settings.getProperty("multicastGroup", Constants.DEFAULT_MULTICAST_GROUP));
+			if(group.isMulticastAddress() && UDPTools.getMulticastInterface() != null) {
+				return group;
+			}
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+		} catch (SocketException e) {
+			e.printStackTrace();
+		}
+		System.out.println("multicast not available, using unicast");
+		return null;
 	}
 	
 	/**
-	 * Stops the UDP server.
+	 * Stops the UDP server. The receiver is stopped first, then all scheduled 
+	 * tasks are cancelled and the receive task is awaited.
 	 */
 	public void stopServer() {
-		broadcastTimer.cancel();
-		serverThread.shutdown();
+		if(packetReceiver != null) packetReceiver.shutdown();
+		if(streamReceiver != null) streamReceiver.shutdown();
+		if(streamConnections != null) streamConnections.closeAll();
+		if(fileServer != null) fileServer.shutdown();
+		if(fileTransfers != null) fileTransfers.shutdown();
+		if(scheduler != null) scheduler.shutdown(SHUTDOWN_TIMEOUT);
+	}
+	
+	/**
+	 * Returns the scheduler which runs the background tasks while the server is running.
+	 * 
+	 * @return The scheduler or null if the server has never been started.
+	 */
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+	
+	/**
+	 * Returns the counters of the discovery messages.
+	 * 
+	 * @return The counters.
+	 */
+	public DiscoveryCounters getDiscoveryCounters() {
+		return discoveryCounters;
+	}
+	
+	/**
+	 * Returns the limiter of the received messages per sender with its counters.
+	 * 
+	 * @return The limiter or null if it is disabled or the server has never been started.
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+	
+	/**
+	 * Returns the reliable delivery of the unicast messages with its counters.
+	 * 
+	 * @return The reliable delivery or null if the server has never been started.
+	 */
+	public ReliableDelivery getReliableDelivery() {
+		return reliableDelivery;
+	}
+	
+	/**
+	 * Returns the NACK based delivery of the multicast messages with its counters.
+	 * 
+	 * @return The delivery or null if the server has never been started.
+	 */
+	public NackDelivery getNackDelivery() {
+		return nackDelivery;
 	}
 	
 	/**
@@ -89,16 +362,7 @@ public class ChatCore extends Observable implements IPacketProcessor {
 	 * @param name The new nick name.
 	 */
 	public void changeMyName(String name) {
-		ArrayList<Participant> participants = participantList.getParticipants();
-		Participant receiver;
-		String msg;
-		for(int k=0; k<participants.size(); ++k) {
-			receiver = participants.get(k);
-			if(receiver.isOnline()) {
-				msg = JsonTools.createNewNameMessage(name);
-				updtools.sendMsg(receiver.getInetAddress(), msg.getBytes());			
-			}
-		}		
+		sendToAllOnline(new NetworkMessage(NetworkMessage.NEW_NAME, name, null));
 	}
 	
 	/**
@@ -117,8 +381,7 @@ public class ChatCore extends Observable implements IPacketProcessor {
 	 */
 	@Override
 	public void onError(ModelNotification notification) {		
-		setChanged();
-		notifyObservers(notification);	
+		eventBus.publish(notification);
 		errorsWhileStarting = true;
 		stopServer();
 	}
@@ -130,8 +393,7 @@ public class ChatCore extends Observable implements IPacketProcessor {
 	public void onSuccessfulStarted() {
 		System.out.println("onSuccessfulStarted!");
 		if(!errorsWhileStarting) {
-			setChanged();
-			notifyObservers(ModelNotification.CONNECTION_ESTABLISHED);	
+			eventBus.publish(ModelNotification.CONNECTION_ESTABLISHED);
 		}
 	}
 
@@ -139,16 +401,7 @@ public class ChatCore extends Observable implements IPacketProcessor {
 	 * Informs all participants which are online about leaving the chat.
 	 */
 	public void leaveChat() {
-		ArrayList<Participant> participants = participantList.getParticipants();
-		Participant receiver;
-		String msg;
-		for(int k=0; k<participants.size(); ++k) {
-			receiver = participants.get(k);
-			if(receiver.isOnline()) {
-				msg = JsonTools.createChatLeftMessage(settings.getProperty("name"));
-				updtools.sendMsg(receiver.getInetAddress(), msg.getBytes());			
-			}
-		}		
+		sendToAllOnline(new NetworkMessage(NetworkMessage.CHAT_LEFT, settings.getProperty("name"), null));
 	}
 
 	/**
@@ -157,77 +410,447 @@ public class ChatCore extends Observable implements IPacketProcessor {
 	 * @param msg The message text.
 	 */
 	public void sendMessage(String cmsg) {
-		ArrayList<Participant> participants = participantList.getParticipants();
-		Participant receiver;
-		String msg;
-		for(int k=0; k<participants.size(); ++k) {
-			receiver = participants.get(k);
-			if(receiver.isOnline()) {
-				msg = JsonTools.createChatMessage(settings.getProperty("name"), cmsg);
-				updtools.sendMsg(receiver.getInetAddress(), msg.getBytes());			
+		sendToAllOnline(new NetworkMessage(NetworkMessage.CHAT, settings.getProperty("name"), cmsg));
+	}
+	
+	/**
+	 * Offers a file to a participant.
+	 * 
+	 * @param participant The participant which should receive the file.
+	 * @param file The file to send.
+	 * @return The offered transfer or null if the server is not running or the participant can not receive files.
+	 */
+	public FileTransfer sendFile(Participant participant, File file) {
+		if(fileTransfers == null || !participant.supports(Capabilities.FILE_TRANSFER)) return null;
+		FileTransfer transfer = fileTransfers.createOffer(participant, file);
+		sendOffer(participant, fileTransfers.createOfferMessage(transfer));
+		return transfer;
+	}
+	
+	/**
+	 * Distributes a file to all participants which are online. The participants which 
+	 * support the distribution in chunks fetch the chunks from each other, all others 
+	 * get a plain offer. The chunks are hashed by a background task before the file 
+	 * is offered.
+	 * 
+	 * @param file The file to send.
+	 */
+	public void distributeFile(final File file) {
+		if(fileTransfers == null) return;
+		final FileTransferManager manager = fileTransfers;
+		scheduler.execute(new Runnable(){
+	         @Override
+	         public void run() {
+	        	 	ArrayList<Participant> swarmParticipants = new ArrayList<Participant>();
+	        	 	Participant[] participants = participantList.getOnlineSnapshot().getParticipants();
+	        	 	for(int k=0; k<participants.length; ++k) {
+	        	 		if(participants[k].supports(Capabilities.FILE_SWARM)) {
+	        	 			swarmParticipants.add(participants[k]);
+	        	 		} else {
+	        	 			sendFile(participants[k], file);
+	        	 		}
+	        	 	}
+	        	 	if(swarmParticipants.isEmpty() || file.length() == 0) {
+	        	 		for(int k=0; k<swarmParticipants.size(); ++k) {
+	        	 			sendFile(swarmParticipants.get(k), file);
+	        	 		}
+	        	 		return;
+	        	 	}
+	        	 	try {
+	        	 		Participant[] receivers = swarmParticipants.toArray(new Participant[swarmParticipants.size()]);
+	        	 		NetworkMessage msg = manager.createOfferMessage(manager.createSwarmOffer(receivers, file));
+	        	 		for(int k=0; k<receivers.length; ++k) {
+	        	 			sendOffer(receivers[k], msg);
+	        	 		}
+	        	 	} catch (IOException e) {
+	        	 		e.printStackTrace();
+	        	 	}
+	         } 
+	     });
+	}
+	
+	/**
+	 * Sends the offer of a file to a participant. The offer is sent reliably if the 
+	 * participant supports it, since a lost offer would not be noticed.
+	 * 
+	 * @param participant The participant.
+	 * @param msg The FILE_OFFER message.
+	 */
+	private void sendOffer(Participant participant, NetworkMessage msg) {
+		if(participant.supports(Capabilities.RELIABLE)) {
+			reliableDelivery.send(participant.getInetAddress(), msg);
+		} else {
+			updtools.sendMsg(participant.getInetAddress(), Codecs.encode(Codecs.BINARY, msg));
+		}
+	}
+	
+	/**
+	 * Starts to receive an offered file.
+	 * 
+	 * @param transfer The offered file.
+	 * @param target The file to write.
+	 */
+	public void acceptFile(FileTransfer transfer, File target) {
+		if(fileTransfers != null) fileTransfers.accept(transfer, target);
+	}
+	
+	/**
+	 * Encodes a network message once per codec and sends it to all participants 
+	 * which are online. The binary codec is used for all participants which 
+	 * support it, the JSON codec for all others. In multicast mode a single 
+	 * datagram is sent to the multicast group, which is only binary encoded 
+	 * if all participants support it. If the reliable delivery is enabled in 
+	 * unicast mode, the message is sent reliably to all participants which 
+	 * support it. In multicast mode a binary encoded message is stamped with 
+	 * a sequence number instead, so the receivers can request lost messages 
+	 * or rebuild them from the parity messages of the forward error correction. 
+	 * Large chat texts are sent over TCP where possible.
+	 * 
+	 * @param msg The network message.
+	 */
+	private void sendToAllOnline(NetworkMessage msg) {
+		OnlineSnapshot online = participantList.getOnlineSnapshot();
+		markContacted(online);
+		if(isLargeMessage(msg) && sendStreamed(online, msg)) {
+			return;
+		}
+		Boolean reliable = Boolean.parseBoolean(settings.getProperty("reliable"));
+		if(!updtools.isMulticastEnabled() && reliable) {
+			sendReliably(online, msg);
+			return;
+		}
+		if(!Constants.CODEC_BINARY.equals(settings.getProperty("codec", Constants.DEFAULT_CODEC))) {
+			if(updtools.isMulticastEnabled()) {
+				updtools.sendMsgToGroup(Codecs.encode(Codecs.JSON, msg));
+			} else if(online.getAddresses().length > 0) {
+				updtools.sendMsg(online.getAddresses(), Codecs.encode(Codecs.JSON, msg));
+			}
+			return;
+		}
+		
+		if(updtools.isMulticastEnabled()) {
+			if(online.getJsonAddresses().length > 0) {
+				updtools.sendMsgToGroup(Codecs.encode(Codecs.JSON, msg));
+			} else if(reliable || Integer.parseInt(settings.getProperty("fecK", Integer.toString(Constants.DEFAULT_FEC_K))) > 0) {
+				nackDelivery.send(msg);
+			} else {
+				updtools.sendMsgToGroup(Codecs.encode(Codecs.BINARY, msg));
+			}
+			return;
+		}
+		if(online.getBinaryAddresses().length > 0) updtools.sendMsg(online.getBinaryAddresses(), Codecs.encode(Codecs.BINARY, msg));
+		if(online.getJsonAddresses().length > 0) updtools.sendMsg(online.getJsonAddresses(), Codecs.encode(Codecs.JSON, msg));
+	}
+
+	/**
+	 * Returns whether the text of a message reaches the threshold 
+	 * from which it is sent over TCP.
+	 * 
+	 * @param msg The network message.
+	 * @return Boolean which is true if the message should be sent over TCP.
+	 */
+	private Boolean isLargeMessage(NetworkMessage msg) {
+		int threshold = Integer.parseInt(settings.getProperty("streamThreshold", 
+				Integer.toString(Constants.DEFAULT_STREAM_THRESHOLD)));
+		return threshold > 0 && msg.getText() != null && Utf8.length(msg.getText()) >= threshold;
+	}
+	
+	/**
+	 * Sends a large network message over TCP to all participants which support it 
+	 * and as datagram to all others. In multicast mode TCP is only used if all 
+	 * participants support it, otherwise a single datagram to the group is cheaper.
+	 * 
+	 * @param online The participants which are online.
+	 * @param msg The network message.
+	 * @return Boolean which is false if the message has not been sent.
+	 */
+	private Boolean sendStreamed(OnlineSnapshot online, NetworkMessage msg) {
+		Participant[] participants = online.getParticipants();
+		ArrayList<InetAddress> binaryAddresses = new ArrayList<InetAddress>();
+		ArrayList<InetAddress> jsonAddresses = new ArrayList<InetAddress>();
+		ArrayList<InetAddress> streamAddresses = new ArrayList<InetAddress>();
+		Boolean binary = Constants.CODEC_BINARY.equals(settings.getProperty("codec", Constants.DEFAULT_CODEC));
+		for(int k=0; k<participants.length; ++k) {
+			Participant participant = participants[k];
+			if(participant.supports(Capabilities.STREAM)) {
+				streamAddresses.add(participant.getInetAddress());
+			} else if(binary && participant.supports(Capabilities.CODEC_BINARY)) {
+				binaryAddresses.add(participant.getInetAddress());
+			} else {
+				jsonAddresses.add(participant.getInetAddress());
 			}
 		}
+		if(streamAddresses.isEmpty()) return false;
+		if(updtools.isMulticastEnabled() && (!binaryAddresses.isEmpty() || !jsonAddresses.isEmpty())) return false;
+		
+		byte[] data = Codecs.encode(Codecs.BINARY, msg);
+		for(int k=0; k<streamAddresses.size(); ++k) {
+			streamConnections.send(streamAddresses.get(k), data);
+		}
+		if(binaryAddresses.size() > 0) updtools.sendMsg(binaryAddresses.toArray(new InetAddress[binaryAddresses.size()]), data);
+		if(jsonAddresses.size() > 0) updtools.sendMsg(jsonAddresses.toArray(new InetAddress[jsonAddresses.size()]), Codecs.encode(Codecs.JSON, msg));
+		return true;
+	}
+	
+	/**
+	 * Sends a network message reliably to all participants which support the 
+	 * reliable delivery and as plain datagram to all others.
+	 * 
+	 * @param online The participants which are online.
+	 * @param msg The network message.
+	 */
+	private void sendReliably(OnlineSnapshot online, NetworkMessage msg) {
+		Boolean binary = Constants.CODEC_BINARY.equals(settings.getProperty("codec", Constants.DEFAULT_CODEC));
+		ArrayList<InetAddress> binaryAddresses = new ArrayList<InetAddress>();
+		ArrayList<InetAddress> jsonAddresses = new ArrayList<InetAddress>();
+		Participant[] participants = online.getParticipants();
+		for(int k=0; k<participants.length; ++k) {
+			Participant participant = participants[k];
+			if(participant.supports(Capabilities.RELIABLE)) {
+				reliableDelivery.send(participant.getInetAddress(), msg);
+			} else if(binary && participant.supports(Capabilities.CODEC_BINARY)) {
+				binaryAddresses.add(participant.getInetAddress());
+			} else {
+				jsonAddresses.add(participant.getInetAddress());
+			}
+		}
+		if(binaryAddresses.size() > 0) updtools.sendMsg(binaryAddresses.toArray(new InetAddress[binaryAddresses.size()]), Codecs.encode(Codecs.BINARY, msg));
+		if(jsonAddresses.size() > 0) updtools.sendMsg(jsonAddresses.toArray(new InetAddress[jsonAddresses.size()]), Codecs.encode(Codecs.JSON, msg));
+	}
+
+	/**
+	 * Remembers that a message is sent to all participants which are online.
+	 * 
+	 * @param online The participants which are online.
+	 */
+	private void markContacted(OnlineSnapshot online) {
+		long time = System.currentTimeMillis();
+		if(updtools.isMulticastEnabled()) {
+			lastContactToAll = time;
+			return;
+		}
+		Participant[] participants = online.getParticipants();
+		for(int k=0; k<participants.length; ++k) {
+			participants[k].setLastContact(time);
+		}
+	}
+	
+	/**
+	 * Answers a WhoIsOnline message with an IAmOnline message.
+	 * 
+	 * @param addr The address of the requester.
+	 */
+	private void sendIAmOnline(InetAddress addr) {
+		NetworkMessage reply = new NetworkMessage(NetworkMessage.I_AM_ONLINE, settings.getProperty("name"), null);
+		reply.setCapabilities(getLocalCapabilities());
+		reply.setInterval(aliveInterval);
+		updtools.sendMsg(addr, Codecs.encode(Codecs.JSON, reply));
+		discoveryCounters.replySent();
+		Participant participant = participantList.getParticipant(addr.toString());
+		if(participant != null) participant.setLastContact(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Answers a WhoIsOnline message after a random delay, so the replies of all 
+	 * participants do not arrive at the same time. The reply is suppressed if the 
+	 * requester has heard from us recently.
+	 * 
+	 * @param addr The address of the requester.
+	 */
+	private void scheduleIAmOnline(final InetAddress addr) {
+		if(isRecentlyContacted(addr)) {
+			discoveryCounters.replySuppressed();
+			return;
+		}
+		int maxDelay = Integer.parseInt(settings.getProperty("discoveryReplyDelay", 
+				Integer.toString(Constants.DEFAULT_DISCOVERY_REPLY_DELAY)));
+		scheduler.schedule(new Runnable(){
+	         @Override
+	         public void run() {
+	        	 	if(isRecentlyContacted(addr)) {
+	        	 		discoveryCounters.replySuppressed();
+	        	 	} else {
+	        	 		sendIAmOnline(addr);
+	        	 	}
+	         } 
+	     }, maxDelay > 0 ? random.nextInt(maxDelay) : 0);
+	}
+	
+	/**
+	 * Returns whether a requester has heard from us recently. This is the case if 
+	 * it is known and online and we have sent a message to it or to all 
+	 * participants since it has come online and within the last alive interval.
+	 * 
+	 * @param addr The address of the requester.
+	 * @return Boolean which is true if the requester has heard from us recently.
+	 */
+	private Boolean isRecentlyContacted(InetAddress addr) {
+		Participant participant = participantList.getParticipant(addr.toString());
+		if(participant == null || !participant.isOnline()) return false;
+		long lastContact = Math.max(lastContactToAll, participant.getLastContact());
+		long since = Math.max(participant.getOnlineSince(), 
+				System.currentTimeMillis() - aliveInterval * 1000L);
+		return lastContact > since;
+	}
+
+	/**
+	 * Adds a participant to the participant list or sets it online.
+	 * 
+	 * @param addr The address of the participant.
+	 * @param name The name of the participant.
+	 * @return Boolean which is true if the participant is new or was offline.
+	 */
+	private Boolean registerParticipant(InetAddress addr, String name) {
+		String id = addr.toString();
+		if(!participantList.containsParticipant(id) 
+				&& participantList.addParticipant(participantList.createNewParticipant(id, name, addr))) {
+			return true;
+		}
+		Boolean wasOffline = !participantList.isOnline(id);
+		participantList.setParticipantOnline(id);
+		return wasOffline;
+	}
+
+	/**
+	 * Returns the capabilities which are advertised in the WhoIsOnline and IAmOnline messages.
+	 * 
+	 * @return A bit mask of flags from the class Capabilities.
+	 */
+	private int getLocalCapabilities() {
+		return membership != null ? Capabilities.LOCAL | Capabilities.GOSSIP : Capabilities.LOCAL;
+	}
+
+	/**
+	 * Adds a discovered participant to the gossip protocol if both take part in it.
+	 * 
+	 * @param msg The WhoIsOnline or IAmOnline message.
+	 * @param addr The address of the participant.
+	 */
+	private void addGossipMember(NetworkMessage msg, InetAddress addr) {
+		if(membership != null && Capabilities.supports(msg.getCapabilities(), Capabilities.GOSSIP)) {
+			membership.addMember(addr, msg.getName());
+		}
 	}
 
 	/**
 	 * @inheritDoc
+	 * 
+	 * The datagram and the stream receiver call this method from their own
+	 * threads. The messages are processed one after another, so a participant
+	 * who is discovered on both ways at once is only added once.
 	 */
 	@Override
-	public void processMessage(JSONObject msg_, InetAddress addr_, int port_) {
-		int code = msg_.getInt("code");
+	public void processMessage(NetworkMessage msg_, InetAddress addr_, int port_) {
+		synchronized(receiveLock) {
+			handleMessage(msg_, addr_, port_);
+		}
+	}
+	
+	/**
+	 * Processes an incoming message while the receive lock is held.
+	 * 
+	 * @param msg_ The decoded message.
+	 * @param addr_ The sender of the message.
+	 * @param port_ The port of the sender.
+	 */
+	private void handleMessage(NetworkMessage msg_, InetAddress addr_, int port_) {
+		int code = msg_.getCode();
 		String msg;
 		String name = "";
 		Boolean newParticipant = false;
 		
+		if(code == NetworkMessage.DELIVERY_ACK) {
+			reliableDelivery.processAck(addr_, msg_);
+			return;
+		}
+		// Acknowledge reliable messages and drop retransmitted duplicates
+		if(msg_.getReliableSequence() != 0 && !reliableDelivery.receive(addr_, msg_)) {
+			return;
+		}
+		if(code == NetworkMessage.NACK) {
+			nackDelivery.processNack(msg_);
+			return;
+		}
+		if(code == NetworkMessage.PARITY) {
+			NetworkMessage rebuilt = nackDelivery.processParity(addr_, msg_);
+			if(rebuilt != null) handleMessage(rebuilt, addr_, port_);
+			return;
+		}
+		// Detect gaps in the multicast messages and drop retransmitted duplicates
+		if(code != NetworkMessage.WHO_IS_ONLINE && msg_.getGroupSequence() != 0 && !nackDelivery.receive(addr_, msg_)) {
+			return;
+		}
+		
 		switch(code) {
 			
 			case 1:
-				name = msg_.getString("name");
+				name = msg_.getName();
 				System.out.println("received WhoIsOnlineMessage from " + addr_ + " : " + port_);
-				msg = JsonTools.createIAmOnlineMessage(settings.getProperty("name"));
-				updtools.sendMsg(addr_, msg.getBytes());
-				
-				newParticipant = false;
-				if(!participantList.containsParticipant(addr_.toString())) {
-					participantList.addParticipant(participantList.createNewParticipant(addr_.toString(), name, addr_));
-					newParticipant = true;
+				discoveryCounters.requestReceived();
+				if(Constants.DISCOVERY_CLASSIC.equals(settings.getProperty("discoveryMode", Constants.DEFAULT_DISCOVERY_MODE))) {
+					sendIAmOnline(addr_);
 				} else {
-					if(!participantList.isOnline(addr_.toString())) newParticipant = true;
-					participantList.setParticipantOnline(addr_.toString());
+					scheduleIAmOnline(addr_);
 				}
+				
+				newParticipant = registerParticipant(addr_, name);
+				participantList.setCapabilities(addr_.toString(), msg_.getCapabilities());
+				participantList.setAliveInterval(addr_.toString(), msg_.getInterval());
+				addGossipMember(msg_, addr_);
+				if(msg_.getGroupSequence() != 0) nackDelivery.processAnnouncement(addr_, msg_);
 				break;
 				
 			case 2: 
-				name = msg_.getString("name");
+				name = msg_.getName();
 				System.out.println("received IAmOnlineMessage from " + name + ": " + addr_ + " : " + port_);
 				
-				newParticipant = false;
-				if(!participantList.containsParticipant(addr_.toString())) {
-					participantList.addParticipant(participantList.createNewParticipant(addr_.toString(), name, addr_));
-					newParticipant = true;
-				} else {
-					if(!participantList.isOnline(addr_.toString())) newParticipant = true;
-					participantList.setParticipantOnline(addr_.toString());
-				}				
+				newParticipant = registerParticipant(addr_, name);
+				participantList.setCapabilities(addr_.toString(), msg_.getCapabilities());
+				participantList.setAliveInterval(addr_.toString(), msg_.getInterval());
+				addGossipMember(msg_, addr_);
 				break;
 				
 			case 3: 
-				name = msg_.getString("name");
-				msg = msg_.getString("text");
+				// Ignore multicast messages of participants which are not known yet
+				if(!participantList.containsParticipant(addr_.toString())) break;
+				participantList.setParticipantOnline(addr_.toString());
+				name = msg_.getName();
+				msg = msg_.getText();
 				addMessageToChatText(addr_.toString(), msg);
 				break;
 				
 			case 4:
-				name = msg_.getString("name");
+				if(!participantList.containsParticipant(addr_.toString())) break;
+				participantList.setParticipantOnline(addr_.toString());
+				name = msg_.getName();
 				String oldName = participantList.getNameOfParticipant(addr_.toString());
 				participantList.changeName(addr_.toString(), name);
 				chatHistory.addMessage(new NameChangeMessage(oldName, name));
 				break;
 				
 			case 5:
-				name = msg_.getString("name");
+				name = msg_.getName();
 				participantList.setParticipantOffline(addr_.toString());
+				if(membership != null) membership.removeMember(addr_);
+				reliableDelivery.removePeer(addr_);
 				chatHistory.addMessage(new ChatLeftMessage(name));
+				break;
+				
+			case 6:
+			case 7:
+			case 8:
+				if(membership != null) membership.processMessage(msg_, addr_);
+				break;
+				
+			case 12:
+				if(!participantList.containsParticipant(addr_.toString())) break;
+				participantList.setParticipantOnline(addr_.toString());
+				fileTransfers.processOffer(msg_, addr_);
+				break;
+				
+			case 14:
+				if(!participantList.containsParticipant(addr_.toString())) break;
+				fileTransfers.processHave(msg_, addr_);
 		}	
 		
 		if(newParticipant) {
@@ -1,31 +1,51 @@
 package de.ulfbiallas.lantexter.model;
 
 
-import java.util.ArrayList;
-import java.util.Observable;
+import java.util.List;
 
 import de.ulfbiallas.lantexter.model.message.IMessage;
 
 /**
  * Singleton class which represents a list of all chat messages and notifications.
+ * Only the latest messages are kept in memory in a ring buffer. Every message is
+ * also appended to the message log, older messages are read back from there on 
+ * demand. Without a message log they are lost when they are evicted.
  * 
  * @author Ulf Biallas
  *
  */
-public class ChatHistory extends Observable  {
+public class ChatHistory {
 
 	/** The singleton object of the class. */
 	private static final ChatHistory chatHistory = new ChatHistory();
 	
-	/** The message list. */
-	private ArrayList<IMessage> history;
+	/** Bus which delivers the notifications to the views. */
+	private ModelEventBus eventBus = ModelEventBus.getInstance();
+	
+	/** Ring buffer with the latest messages. */
+	private IMessage[] history;
+	
+	/** Number of messages which have been added since the start. */
+	private int count = 0;
+	
+	/** Log of all messages or null if the messages are not logged. */
+	private MessageLog messageLog;
+	
+	/** Number of the log record of the message with the index 0. */
+	private long logBase = 0;
 	
 	
 	/**
 	 * Constructor. Creates an empty message list.
 	 */
 	private ChatHistory() {
-		history = new ArrayList<IMessage>();
+		int capacity = Constants.DEFAULT_HISTORY_CAPACITY;
+		try {
+			capacity = Integer.parseInt(Settings.getInstance().getProperty("historyCapacity", Integer.toString(capacity)));
+		} catch (NumberFormatException e) {
+			
+		}
+		history = new IMessage[Math.max(1, capacity)];
 	}
 	
 	/** 
@@ -38,52 +58,155 @@ public class ChatHistory extends Observable  {
 	}
 	
 	/**
-	 * Adds a new message to the chat history.
+	 * Sets the log to which all new messages are written. The messages
+	 * which are already in the history are taken as the latest records
+	 * of the log, so they have to be restored from it before.
+	 * 
+	 * @param messageLog The message log or null.
+	 */
+	public synchronized void setMessageLog(MessageLog messageLog) {
+		this.messageLog = messageLog;
+		if(messageLog != null) {
+			logBase = messageLog.getRecordCount() - count;
+		}
+	}
+	
+	/**
+	 * Adds a new message to the chat history. If the ring buffer is full, 
+	 * the oldest message is evicted. The message is queued for the log in
+	 * the same order, so its record number follows from its index.
 	 * 
 	 * @param message The new message to add.
 	 */
 	public void addMessage(IMessage message) {
-		history.add(message);
-		setChanged();
-		notifyObservers(ModelNotification.MESSAGE_RECEIVED);
+		int index;
+		synchronized(this) {
+			index = insertMessage(message);
+			if(messageLog != null) {
+				messageLog.append(message);
+			}
+		}
+		eventBus.publish(new ModelEvent(ModelNotification.MESSAGE_APPENDED, index));
 	}
 	
 	/**
-	 * Returns the complete message history.
+	 * Adds messages which were restored from the message log. 
+	 * The messages are not written to the log again.
 	 * 
-	 * @return The message history.
+	 * @param messages The restored messages in chronological order.
 	 */
-	public ArrayList<IMessage> getHistory() {
-		return history;
+	public void restoreMessages(List<IMessage> messages) {
+		if(messages.isEmpty()) return;
+		int index = 0;
+		synchronized(this) {
+			for(int k=0; k<messages.size(); ++k) {
+				index = insertMessage(messages.get(k));
+			}
+		}
+		eventBus.publish(new ModelEvent(ModelNotification.MESSAGE_APPENDED, index));
 	}
 	
 	/**
-	 * Returns a String which contains all messages and notifications (HTML-formatted).
+	 * Inserts a message into the ring buffer and overwrites
+	 * the oldest message if the buffer is full.
 	 * 
-	 * @return A HTML-formatted String with all messages and notifications.
+	 * @param message The message to insert.
+	 * @return The index of the message.
 	 */
-	public String getChatText() {
-		String chatText = "";
-		String latestMessage;
-		IMessage msg;
-		for(int k=0; k<history.size(); ++k) {
-			msg = history.get(k);
-			latestMessage = msg.getMessageTextAsHTML();
-			chatText += latestMessage + "<br><br>";
-		}
-		return chatText;
+	private int insertMessage(IMessage message) {
+		history[count % history.length] = message;
+		return count++;
+	}
+	
+	/**
+	 * Returns the number of messages in the chat history.
+	 * 
+	 * @return The number of messages.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of messages which are kept in memory.
+	 * 
+	 * @return The capacity of the ring buffer.
+	 */
+	public int getCapacity() {
+		return history.length;
 	}
 	
 	/**
-	 * Returns the latest message or notification.
+	 * Returns the index of the oldest message which is kept in memory.
 	 * 
-	 * @return The latest message or notification.
+	 * @return The index of the oldest message in memory.
 	 */
-	public String getLatestMessage() {
-		if(history.size()>0) {
-			return history.get(history.size()-1).getMessageText();
-		} else {
+	public synchronized int getFirstIndexInMemory() {
+		return Math.max(0, count - history.length);
+	}
+	
+	/**
+	 * Returns a message which is kept in memory.
+	 * 
+	 * @param index The index of the message.
+	 * @return The message or null if it is not in memory anymore.
+	 */
+	public synchronized IMessage getMessage(int index) {
+		if(index < getFirstIndexInMemory() || index >= count) {
 			return null;
 		}
+		return history[index % history.length];
+	}
+	
+	/**
+	 * Returns a String which contains a range of messages and notifications (HTML-formatted).
+	 * Every message is enclosed in its own div element, so a view can append 
+	 * the text of new messages to an already rendered document. Messages which
+	 * are not in memory anymore are read from the message log without holding 
+	 * the lock, so adding messages does not wait for the disk.
+	 * 
+	 * @param fromIndex The index of the first message (inclusive).
+	 * @param toIndex The index of the last message (exclusive).
+	 * @return A HTML-formatted String with the messages and notifications.
+	 */
+	public String getChatText(int fromIndex, int toIndex) {
+		IMessage[] inMemory;
+		int firstIndexInMemory;
+		MessageLog log;
+		long base;
+		synchronized(this) {
+			toIndex = Math.min(toIndex, count);
+			firstIndexInMemory = Math.max(fromIndex, getFirstIndexInMemory());
+			inMemory = new IMessage[Math.max(0, toIndex - firstIndexInMemory)];
+			for(int k=0; k<inMemory.length; ++k) {
+				inMemory[k] = history[(firstIndexInMemory + k) % history.length];
+			}
+			log = messageLog;
+			base = logBase;
+		}
+		
+		StringBuilder chatText = new StringBuilder();
+		if(fromIndex < firstIndexInMemory && log != null) {
+			List<IMessage> logged = log.read(base + fromIndex, base + Math.min(toIndex, firstIndexInMemory));
+			for(int k=0; k<logged.size(); ++k) {
+				appendHTML(chatText, logged.get(k).getMessageTextAsHTML());
+			}
+		}
+		for(int k=0; k<inMemory.length; ++k) {
+			appendHTML(chatText, inMemory[k].getMessageTextAsHTML());
+		}
+		return chatText.toString();
+	}
+	
+	/**
+	 * Appends the HTML-formatted text of a message enclosed in a div element.
+	 * 
+	 * @param chatText The text to append to.
+	 * @param html The HTML-formatted text of the message.
+	 */
+	private static void appendHTML(StringBuilder chatText, String html) {
+		chatText.append("<div>");
+		chatText.append(html);
+		chatText.append("<br><br></div>");
 	}
 }
@@ -23,6 +23,81 @@ public class Constants {
 	/** Default port which is opened by the application. */
 	public static final int DEFAULT_PORT = 12345;
 
+	/** Size in [bytes] of a buffer to receive a single datagram. */
+	public static final int RECEIVE_BUFFER_SIZE = 1024;
+
+	/** Number of pooled direct buffers of the channel based receiver. */
+	public static final int RECEIVE_BUFFER_POOL_SIZE = 16;
+
+	/** Receiver which uses a blocking DatagramSocket. */
+	public static final String RECEIVER_BLOCKING = "blocking";
+
+	/** Receiver which uses a DatagramChannel and a Selector. */
+	public static final String RECEIVER_NIO = "nio";
+
+	/** Default receiver */
+	public static final String DEFAULT_RECEIVER = RECEIVER_NIO;
+
+	/** Default multicast group which is used if the multicast mode is enabled. */
+	public static final String DEFAULT_MULTICAST_GROUP = "239.255.77.77";
+
+	/** Default time to live of multicast datagrams (1 = local network only). */
+	public static final int DEFAULT_MULTICAST_TTL = 1;
+
+	/** Codec for the original JSON wire format. */
+	public static final String CODEC_JSON = "json";
+
+	/** Codec for the compact binary wire format. */
+	public static final String CODEC_BINARY = "binary";
+
+	/** Default codec for participants which support it. */
+	public static final String DEFAULT_CODEC = CODEC_BINARY;
+
+	/** Discovery which answers every WhoIsOnline message immediately. */
+	public static final String DISCOVERY_CLASSIC = "classic";
+
+	/** 
+	 * Discovery which answers WhoIsOnline messages after a random delay and 
+	 * only if the requester has not heard from us recently.
+	 */
+	public static final String DISCOVERY_SUPPRESSED = "suppressed";
+
+	/** Default discovery mode */
+	public static final String DEFAULT_DISCOVERY_MODE = DISCOVERY_SUPPRESSED;
+
+	/** Default maximum delay in [ms] of an IAmOnline reply in the suppressed discovery mode. */
+	public static final int DEFAULT_DISCOVERY_REPLY_DELAY = 1000;
+
+	/** Default number of multicast messages which are protected by one parity message, 0 disables the forward error correction. */
+	public static final int DEFAULT_FEC_K = 0;
+
+	/** Maximum number of multicast messages which are protected by one parity message. */
+	public static final int MAX_FEC_K = 16;
+
+	/** Default size in [bytes] of a chat text from which it is sent over TCP, 0 disables TCP. */
+	public static final int DEFAULT_STREAM_THRESHOLD = 8 * 1024;
+
+	/** Default number of messages per second which are accepted from a single sender, 0 disables the limit. */
+	public static final int DEFAULT_RATE_LIMIT = 200;
+
+	/** Default number of messages which are accepted from a single sender at once. */
+	public static final int DEFAULT_RATE_BURST = 400;
+
+	/** Offset of the TCP port for the file transfer to the chat port. */
+	public static final int FILE_PORT_OFFSET = 1;
+
+	/** Suffix of a file which is being received. */
+	public static final String FILE_PART_SUFFIX = ".part";
+
+	/** Membership by periodic WhoIsOnline broadcasts. */
+	public static final String MEMBERSHIP_BROADCAST = "broadcast";
+
+	/** Membership by the gossip protocol (see class GossipMembership). */
+	public static final String MEMBERSHIP_GOSSIP = "gossip";
+
+	/** Default membership protocol */
+	public static final String DEFAULT_MEMBERSHIP = MEMBERSHIP_BROADCAST;
+
 	/** Default language */
 	public static final String DEFAULT_LANGUAGE = "language_english";
 
@@ -32,9 +107,36 @@ public class Constants {
 	 */
 	public static final int ALIVE_TIMER_INTERVAL = 20;
 
-	/** Time interval in [s] after which a participant is set offline. */
+	/** 
+	 * Time interval in [s] after which a participant is set offline 
+	 * if it does not advertise its alive interval.
+	 */
 	public static final int NOT_ALIVE_INTERVAL = 70;
 
+	/** Minimum time interval in [s] of the adaptive alive signal. */
+	public static final int MIN_ALIVE_TIMER_INTERVAL = 10;
+
+	/** Maximum time interval in [s] of the adaptive alive signal. */
+	public static final int MAX_ALIVE_TIMER_INTERVAL = 120;
+
+	/** Number of participants at which the adaptive alive signal uses ALIVE_TIMER_INTERVAL. */
+	public static final int ALIVE_TIMER_GROUP_SIZE = 25;
+
+	/** Factor of the advertised alive interval after which a participant is set offline. */
+	public static final double NOT_ALIVE_FACTOR = 3.5;
+
+	/** Path and file name of the persistent message log. */
+	public static final String HISTORY_LOG_FILE = "history.log";
+
+	/** Path and file name of the index of the persistent message log. */
+	public static final String HISTORY_INDEX_FILE = "history.idx";
+
+	/** Default number of messages which are restored from the message log at startup. */
+	public static final int DEFAULT_HISTORY_RESTORE_COUNT = 100;
+
+	/** Default number of chat messages which are kept in memory. */
+	public static final int DEFAULT_HISTORY_CAPACITY = 500;
+
 	/** Text color of a notification in the chat history. */
 	public static final String NOTIFICATION_COLOR = "#aaaaaa";
 
@@ -0,0 +1,83 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the discovery messages which show how many 
+ * IAmOnline replies are saved by the suppression.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class DiscoveryCounters {
+
+	/** Number of received WhoIsOnline messages. */
+	private final AtomicLong requestsReceived = new AtomicLong();
+	
+	/** Number of sent IAmOnline replies. */
+	private final AtomicLong repliesSent = new AtomicLong();
+	
+	/** Number of IAmOnline replies which have been suppressed. */
+	private final AtomicLong repliesSuppressed = new AtomicLong();
+	
+	
+	/**
+	 * Counts a received WhoIsOnline message.
+	 */
+	public void requestReceived() {
+		requestsReceived.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a sent IAmOnline reply.
+	 */
+	public void replySent() {
+		repliesSent.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a suppressed IAmOnline reply.
+	 */
+	public void replySuppressed() {
+		repliesSuppressed.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the number of received WhoIsOnline messages.
+	 * 
+	 * @return The number of messages.
+	 */
+	public long getRequestsReceived() {
+		return requestsReceived.get();
+	}
+	
+	/**
+	 * Returns the number of sent IAmOnline replies.
+	 * 
+	 * @return The number of replies.
+	 */
+	public long getRepliesSent() {
+		return repliesSent.get();
+	}
+	
+	/**
+	 * Returns the number of suppressed IAmOnline replies.
+	 * 
+	 * @return The number of replies.
+	 */
+	public long getRepliesSuppressed() {
+		return repliesSuppressed.get();
+	}
+	
+	/**
+	 * Converts the counters to a string.
+	 * 
+	 * @return The counters.
+	 */
+	public String toString() {
+		return "WhoIsOnline received: " + getRequestsReceived() 
+				+ ", IAmOnline sent: " + getRepliesSent() 
+				+ ", IAmOnline suppressed: " + getRepliesSuppressed();
+	}
+	
+}
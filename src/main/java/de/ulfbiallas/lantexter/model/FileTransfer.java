@@ -0,0 +1,198 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.io.File;
+import java.net.InetAddress;
+
+/**
+ * Class which represents a file which is sent to or received from another
+ * participant. The progress is updated by the task which transfers the
+ * file and can be read by any thread.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class FileTransfer {
+
+	/**
+	 * Enumeration of the states of a transfer.
+	 */
+	public enum State {
+		OFFERED,
+		RUNNING,
+		COMPLETED,
+		FAILED;
+	}
+
+	/** The id which is chosen by the sender of the file. */
+	private final int id;
+
+	/** Flag which is true if the file is received. */
+	private final Boolean incoming;
+
+	/** The address of the other participant. */
+	private final InetAddress addr;
+
+	/** The name of the other participant. */
+	private final String peerName;
+
+	/** The name of the file without path. */
+	private final String fileName;
+
+	/** The size of the file in bytes. */
+	private final long size;
+
+	/** The local file which is sent or received or null if it is not chosen yet. */
+	private volatile File file;
+
+	/** The number of bytes which have been transferred. */
+	private volatile long transferred;
+
+	/** The state of the transfer. */
+	private volatile State state = State.OFFERED;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param id The id which is chosen by the sender of the file.
+	 * @param incoming True if the file is received.
+	 * @param addr The address of the other participant.
+	 * @param peerName The name of the other participant.
+	 * @param fileName The name of the file. A path is removed, so a received name can not point outside the chosen directory.
+	 * @param size The size of the file in bytes.
+	 */
+	public FileTransfer(int id, Boolean incoming, InetAddress addr, String peerName, String fileName, long size) {
+		this.id = id;
+		this.incoming = incoming;
+		this.addr = addr;
+		this.peerName = peerName;
+		this.fileName = new File(fileName.replace('\\', '/')).getName();
+		this.size = size;
+	}
+
+	/**
+	 * Returns the id which is chosen by the sender of the file.
+	 *
+	 * @return The id.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns whether the file is received.
+	 *
+	 * @return Boolean which is true if the file is received, false if it is sent.
+	 */
+	public Boolean isIncoming() {
+		return incoming;
+	}
+
+	/**
+	 * Returns the address of the other participant.
+	 *
+	 * @return The address.
+	 */
+	public InetAddress getInetAddress() {
+		return addr;
+	}
+
+	/**
+	 * Returns the name of the other participant.
+	 *
+	 * @return The name.
+	 */
+	public String getPeerName() {
+		return peerName;
+	}
+
+	/**
+	 * Returns the name of the file.
+	 *
+	 * @return The name without path.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the size of the file.
+	 *
+	 * @return The size in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the local file which is sent or received.
+	 *
+	 * @return The file or null if it is not chosen yet.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Sets the local file which is sent or received.
+	 *
+	 * @param file The file.
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the number of bytes which have been transferred.
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getTransferred() {
+		return transferred;
+	}
+
+	/**
+	 * Sets the number of bytes which have been transferred.
+	 *
+	 * @param transferred The number of bytes.
+	 */
+	public void setTransferred(long transferred) {
+		this.transferred = transferred;
+	}
+
+	/**
+	 * Returns the progress of the transfer.
+	 *
+	 * @return The progress in percent.
+	 */
+	public int getProgress() {
+		return size > 0 ? (int) (100 * transferred / size) : 100;
+	}
+
+	/**
+	 * Returns the state of the transfer.
+	 *
+	 * @return The state.
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Sets the state of the transfer.
+	 *
+	 * @param state The state.
+	 */
+	public void setState(State state) {
+		this.state = state;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String toString() {
+		return fileName + " (" + peerName + ", " + getProgress() + "%)";
+	}
+
+}
@@ -0,0 +1,811 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.ulfbiallas.lantexter.model.message.FileTransferMessage;
+import de.ulfbiallas.lantexter.model.network.Capabilities;
+import de.ulfbiallas.lantexter.model.network.Codecs;
+import de.ulfbiallas.lantexter.model.network.IFileRequestProcessor;
+import de.ulfbiallas.lantexter.model.network.NetworkMessage;
+import de.ulfbiallas.lantexter.model.network.UDPTools;
+
+/**
+ * Class which manages the files which are offered to and by other participants.
+ *
+ * An offer is a FILE_OFFER datagram. The content is pulled by the receiver:
+ * it connects to the FileServerThread of the sender and requests the file with
+ * a FILE_ACCEPT message which carries the offset from which it is needed. The
+ * sender answers with the number of following bytes (-1 if the request is
+ * refused) and the content. Both sides move the content between the file and
+ * the socket with FileChannel.transferTo and transferFrom in chunks of
+ * CHUNK_SIZE, so the operating system can copy it without passing it through
+ * a buffer of the application.
+ *
+ * A file is received into a file with the suffix FILE_PART_SUFFIX which is
+ * renamed when it is complete. If the connection breaks, the transfer is
+ * resumed from the length of this file. All transfers run as blocking tasks
+ * of the executor and publish their progress on the event bus, so they never
+ * block the receiver of the chat messages.
+ *
+ * A file which is distributed to many participants is offered with the
+ * SHA-1 hashes of its chunks (see class SwarmTransfer). The receivers fetch
+ * the chunks with the same requests from every participant which announces
+ * them in a HAVE message, so the sender only has to send each chunk a few
+ * times. A participant keeps serving the chunks of a distributed file until
+ * the server is stopped.
+ *
+ * A blocking transfer on a socket channel has no read timeout, so the time of
+ * the last progress of every connection is recorded. The connections which
+ * have made no progress for IDLE_TIMEOUT are closed by closeStalled, e.g.
+ * because the other participant has disappeared, and the blocked task fails
+ * like on a broken connection. When no other chunk of a distributed file is
+ * left, a chunk which has made no progress for ENDGAME_TIMEOUT is cancelled
+ * and fetched from another participant.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class FileTransferManager implements IFileRequestProcessor {
+
+	/** Maximum number of bytes which are transferred by one call. */
+	private static final long CHUNK_SIZE = 1024 * 1024;
+
+	/** Timeout in [ms] to establish a connection to the sender. */
+	private static final int CONNECT_TIMEOUT = 2000;
+
+	/** Timeout in [ms] for the answer to a request. */
+	private static final int RESPONSE_TIMEOUT = 10000;
+
+	/** Number of attempts to receive a file. */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/** Time in [ms] between two attempts. */
+	private static final long RETRY_DELAY = 1000;
+
+	/** Number of chunks of a distributed file which are fetched in parallel. */
+	private static final int PARALLEL_REQUESTS = 4;
+
+	/** Time in [ms] to wait for an announced chunk if no participant has a missing chunk. */
+	private static final long POLL_INTERVAL = 200;
+
+	/** Time in [ms] without a received chunk after which the distribution fails. */
+	private static final long STALL_TIMEOUT = 30000;
+
+	/** Time in [ms] without progress after which the connection of a transfer is closed. */
+	public static final long IDLE_TIMEOUT = 15000;
+
+	/** Time in [ms] without progress after which the last chunks are fetched from another participant. */
+	private static final long ENDGAME_TIMEOUT = 3000;
+
+	private UDPTools updtools;
+	private ParticipantList participantList;
+
+	private Settings settings;
+	private ChatHistory chatHistory;
+	private ModelEventBus eventBus;
+
+	/** The file port of the other participants. */
+	private int port;
+
+	/** The executor which runs the transfers. */
+	private Executor executor;
+
+	/** The files which are offered to other participants by their id. */
+	private ConcurrentHashMap<Integer, FileTransfer> offers = new ConcurrentHashMap<Integer, FileTransfer>();
+
+	/** The files which are distributed in chunks by their id. */
+	private ConcurrentHashMap<Integer, SwarmTransfer> swarms = new ConcurrentHashMap<Integer, SwarmTransfer>();
+
+	/** The connections of the running transfers with the time of their last progress. */
+	private ConcurrentHashMap<SocketChannel, Long> channels = new ConcurrentHashMap<SocketChannel, Long>();
+
+	/** Random generator for the transfer ids. */
+	private Random random = new Random();
+
+	/** Flag which is cleared when the manager is shut down. */
+	private volatile boolean running = true;
+
+	/** Number of connections which have been closed because they made no progress. */
+	private final AtomicLong stalledConnections = new AtomicLong();
+
+	/** Number of chunk requests which have failed. */
+	private final AtomicLong failedChunks = new AtomicLong();
+
+	/** Number of stalled chunk requests which have been cancelled to fetch the chunk from another participant. */
+	private final AtomicLong cancelledChunks = new AtomicLong();
+
+
+	/**
+	 * Inner class which holds the state of the fetch tasks of a distributed file.
+	 */
+	private class SwarmDownload {
+		private final SwarmTransfer swarm;
+		private final FileChannel file;
+		private AtomicInteger workers = new AtomicInteger(PARALLEL_REQUESTS);
+		private volatile long lastProgress = System.currentTimeMillis();
+
+		/** The connections of the running requests. */
+		private ConcurrentHashMap<SwarmTransfer.Request, SocketChannel> requests = new ConcurrentHashMap<SwarmTransfer.Request, SocketChannel>();
+
+		private SwarmDownload(SwarmTransfer swarm, FileChannel file) {
+			this.swarm = swarm;
+			this.file = file;
+		}
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param port The file port of the other participants.
+	 * @param executor The executor which runs the transfers.
+	 */
+	public FileTransferManager(int port, Executor executor) {
+		updtools = UDPTools.getInstance();
+		settings = Settings.getInstance();
+		participantList = ParticipantList.getInstance();
+		chatHistory = ChatHistory.getInstance();
+		eventBus = ModelEventBus.getInstance();
+		this.port = port;
+		this.executor = executor;
+	}
+
+	/**
+	 * Registers a file which is offered to another participant. The caller sends
+	 * the FILE_OFFER message which is returned by createOfferMessage.
+	 *
+	 * @param participant The participant which should receive the file.
+	 * @param file The file to send.
+	 * @return The new transfer.
+	 */
+	public FileTransfer createOffer(Participant participant, File file) {
+		while(true) {
+			int id = random.nextInt();
+			if(id == 0) continue;
+			FileTransfer transfer = new FileTransfer(id, false, participant.getInetAddress(), participant.getName(), file.getName(), file.length());
+			transfer.setFile(file);
+			if(offers.putIfAbsent(id, transfer) == null) {
+				return transfer;
+			}
+		}
+	}
+
+	/**
+	 * Registers a file which is distributed in chunks to several participants. The 
+	 * hashes of the chunks are computed, so the method blocks while the file is read. 
+	 * The caller sends the FILE_OFFER message which is returned by createOfferMessage.
+	 *
+	 * @param participants The participants which should receive the file.
+	 * @param file The file to send.
+	 * @return The new transfer.
+	 * @throws IOException If the file can not be read.
+	 */
+	public FileTransfer createSwarmOffer(Participant[] participants, File file) throws IOException {
+		int chunkSize = SwarmTransfer.getChunkSize(file.length());
+		byte[] hashes = SwarmTransfer.hashChunks(file, chunkSize);
+		while(true) {
+			int id = random.nextInt();
+			if(id == 0 || offers.containsKey(id)) continue;
+			FileTransfer transfer = new FileTransfer(id, false, null, settings.getProperty("name"), file.getName(), file.length());
+			transfer.setFile(file);
+			SwarmTransfer swarm = new SwarmTransfer(transfer, chunkSize, hashes);
+			InetAddress[] recipients = new InetAddress[participants.length];
+			for(int k=0; k<participants.length; ++k) {
+				recipients[k] = participants[k].getInetAddress();
+			}
+			swarm.setRecipients(recipients);
+			swarm.setComplete();
+			swarm.setDataFile(file);
+			swarm.setActive(true);
+			if(swarms.putIfAbsent(id, swarm) == null) {
+				return transfer;
+			}
+		}
+	}
+
+	/**
+	 * Creates the FILE_OFFER message of an offered file. The offer of a 
+	 * distributed file contains the hashes of the chunks.
+	 *
+	 * @param transfer The offered file.
+	 * @return The message.
+	 */
+	public NetworkMessage createOfferMessage(FileTransfer transfer) {
+		NetworkMessage msg = new NetworkMessage(NetworkMessage.FILE_OFFER, settings.getProperty("name"), transfer.getFileName());
+		msg.setTransferId(transfer.getId());
+		msg.setFileSize(transfer.getSize());
+		SwarmTransfer swarm = swarms.get(transfer.getId());
+		if(swarm != null && swarm.getTransfer() == transfer) {
+			msg.setChunkSize(swarm.getChunkSize());
+			msg.setChunkHashes(swarm.getHashes());
+		}
+		return msg;
+	}
+
+	/**
+	 * Processes a received FILE_OFFER message. The offer is published on the event
+	 * bus and the transfer starts when it is accepted.
+	 *
+	 * @param msg The message.
+	 * @param addr The sender of the message.
+	 */
+	public void processOffer(NetworkMessage msg, InetAddress addr) {
+		FileTransfer transfer = new FileTransfer(msg.getTransferId(), true, addr, msg.getName(), msg.getText(), msg.getFileSize());
+		if(transfer.getFileName().isEmpty()) return;
+		if(msg.getChunkHashes() != null) {
+			int chunkCount = msg.getChunkSize() > 0 ? SwarmTransfer.getChunkCount(msg.getFileSize(), msg.getChunkSize()) : 0;
+			if(chunkCount <= 0 || chunkCount > SwarmTransfer.MAX_CHUNKS 
+					|| msg.getChunkHashes().length != chunkCount * SwarmTransfer.HASH_SIZE) return;
+			SwarmTransfer swarm = new SwarmTransfer(transfer, msg.getChunkSize(), msg.getChunkHashes());
+			swarm.setPeerChunks(addr, allChunks(chunkCount));
+			if(swarms.putIfAbsent(transfer.getId(), swarm) != null) return;
+		}
+		eventBus.publish(new ModelEvent(ModelNotification.FILE_OFFERED, transfer));
+	}
+
+	/**
+	 * Starts to receive an offered file. A partially received file from an
+	 * earlier attempt is resumed.
+	 *
+	 * @param transfer The offered file.
+	 * @param target The file to write.
+	 */
+	public void accept(final FileTransfer transfer, File target) {
+		if(!running || !transfer.isIncoming() || transfer.getState() == FileTransfer.State.RUNNING) return;
+		transfer.setFile(target);
+		transfer.setState(FileTransfer.State.RUNNING);
+		final SwarmTransfer swarm = swarms.get(transfer.getId());
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(swarm != null && swarm.getTransfer() == transfer) {
+						startSwarmDownload(swarm);
+					} else {
+						download(transfer);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			finish(transfer, FileTransfer.State.FAILED);
+		}
+	}
+
+	/**
+	 * Stops all running transfers by closing their connections.
+	 */
+	public void shutdown() {
+		running = false;
+		for(SocketChannel channel : channels.keySet()) {
+			close(channel);
+		}
+		offers.clear();
+		swarms.clear();
+	}
+
+	/**
+	 * Closes the connections of the running transfers which have made no progress 
+	 * for IDLE_TIMEOUT. Has to be called periodically.
+	 */
+	public void closeStalled() {
+		long time = System.currentTimeMillis();
+		for(Map.Entry<SocketChannel, Long> entry : channels.entrySet()) {
+			if(time - entry.getValue() > IDLE_TIMEOUT && channels.remove(entry.getKey()) != null) {
+				stalledConnections.incrementAndGet();
+				close(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of connections which have been closed because they made no progress.
+	 *
+	 * @return The number of connections.
+	 */
+	public long getStalledConnections() {
+		return stalledConnections.get();
+	}
+
+	/**
+	 * Returns the number of chunk requests which have failed.
+	 *
+	 * @return The number of requests.
+	 */
+	public long getFailedChunks() {
+		return failedChunks.get();
+	}
+
+	/**
+	 * Returns the number of stalled chunk requests which have been cancelled.
+	 *
+	 * @return The number of requests.
+	 */
+	public long getCancelledChunks() {
+		return cancelledChunks.get();
+	}
+
+	/**
+	 * Processes a received HAVE message. A participant which announces its chunks 
+	 * for the first time gets the chunks of this participant in return. The 
+	 * sender of a file only accepts the participants it has offered the file to.
+	 *
+	 * @param msg The message.
+	 * @param addr The sender of the message.
+	 */
+	public void processHave(NetworkMessage msg, InetAddress addr) {
+		SwarmTransfer swarm = swarms.get(msg.getTransferId());
+		if(swarm == null || !swarm.isRecipient(addr)) return;
+		if(swarm.setPeerChunks(addr, msg.getChunks()) && swarm.isActive()) {
+			sendHave(swarm, new InetAddress[] { addr });
+		}
+	}
+
+	/**
+	 * Sends the chunks which this participant has to other participants.
+	 *
+	 * @param swarm The distributed file.
+	 * @param addresses The addresses of the participants.
+	 */
+	private void sendHave(SwarmTransfer swarm, InetAddress[] addresses) {
+		if(addresses.length == 0) return;
+		NetworkMessage msg = new NetworkMessage(NetworkMessage.HAVE, settings.getProperty("name"), null);
+		msg.setTransferId(swarm.getTransfer().getId());
+		msg.setChunks(swarm.getChunks());
+		updtools.sendMsg(addresses, Codecs.encode(Codecs.BINARY, msg));
+	}
+
+	/**
+	 * Returns a bit field in which all chunks are set.
+	 *
+	 * @param chunkCount The number of chunks.
+	 * @return The bit field in the format of BitSet.toByteArray.
+	 */
+	private static byte[] allChunks(int chunkCount) {
+		BitSet bits = new BitSet(chunkCount);
+		bits.set(0, chunkCount);
+		return bits.toByteArray();
+	}
+
+	/**
+	 * Starts to receive a distributed file. The chunks of a partial file from an 
+	 * earlier attempt are verified and kept. The chunks are announced to all 
+	 * participants which support the distribution, which answer with their own 
+	 * chunks, and the fetch tasks are started.
+	 *
+	 * @param swarm The distributed file.
+	 */
+	private void startSwarmDownload(SwarmTransfer swarm) {
+		FileTransfer transfer = swarm.getTransfer();
+		File part = new File(transfer.getFile().getPath() + Constants.FILE_PART_SUFFIX);
+		FileChannel file;
+		try {
+			file = new RandomAccessFile(part, "rw").getChannel();
+			for(int k=0; k<swarm.getChunkCount(); ++k) {
+				if(!swarm.hasChunk(k) && swarm.getOffset(k) + swarm.getLength(k) <= file.size() && swarm.verify(file, k)) {
+					swarm.setChunk(k);
+				}
+			}
+			// The chunks are written in any order, so the file needs its full size
+			if(file.size() < transfer.getSize()) {
+				file.write(ByteBuffer.allocate(1), transfer.getSize() - 1);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			finish(transfer, FileTransfer.State.FAILED);
+			return;
+		}
+		swarm.setDataFile(part);
+		swarm.setActive(true);
+		updateProgress(transfer, swarm.getVerifiedBytes());
+
+		Participant[] participants = participantList.getOnlineSnapshot().getParticipants();
+		ArrayList<InetAddress> addresses = new ArrayList<InetAddress>();
+		for(int k=0; k<participants.length; ++k) {
+			if(participants[k].supports(Capabilities.FILE_SWARM)) addresses.add(participants[k].getInetAddress());
+		}
+		sendHave(swarm, addresses.toArray(new InetAddress[addresses.size()]));
+
+		final SwarmDownload download = new SwarmDownload(swarm, file);
+		for(int k=0; k<PARALLEL_REQUESTS; ++k) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						fetchChunks(download);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				finishSwarmDownload(download);
+			}
+		}
+	}
+
+	/**
+	 * Fetches chunks of a distributed file until it is complete or no chunk has 
+	 * been received for STALL_TIMEOUT. Runs as one of PARALLEL_REQUESTS tasks. 
+	 * The last task which ends finishes the transfer.
+	 *
+	 * @param download The state of the fetch tasks.
+	 */
+	private void fetchChunks(SwarmDownload download) {
+		SwarmTransfer swarm = download.swarm;
+		while(running && !swarm.isComplete() && System.currentTimeMillis() - download.lastProgress < STALL_TIMEOUT) {
+			SwarmTransfer.Request request = swarm.nextRequest();
+			if(request == null) {
+				cancelStalledRequest(download);
+				try {
+					Thread.sleep(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					break;
+				}
+				continue;
+			}
+			Boolean verified = false;
+			try {
+				verified = fetchChunk(download, request);
+			} catch (IOException e) {
+				failedChunks.incrementAndGet();
+			}
+			swarm.finishRequest(request, verified);
+			if(verified) {
+				download.lastProgress = System.currentTimeMillis();
+				updateProgress(swarm.getTransfer(), swarm.getVerifiedBytes());
+				sendHave(swarm, swarm.getPeers());
+			}
+		}
+		finishSwarmDownload(download);
+	}
+
+	/**
+	 * Fetches a chunk of a distributed file from another participant and verifies it.
+	 *
+	 * @param download The state of the fetch tasks.
+	 * @param request The chunk and the participant.
+	 * @return Boolean which is true if the chunk has been received and is correct.
+	 * @throws IOException If the connection breaks.
+	 */
+	private Boolean fetchChunk(SwarmDownload download, SwarmTransfer.Request request) throws IOException {
+		SwarmTransfer swarm = download.swarm;
+		int chunk = request.getChunk();
+		long position = swarm.getOffset(chunk);
+		long end = position + swarm.getLength(chunk);
+		SocketChannel channel = request(request.getPeer(), swarm.getTransfer().getId(), position, swarm.getLength(chunk), swarm.getLength(chunk));
+		if(channel == null) return false;
+		download.requests.put(request, channel);
+		try {
+			while(position < end) {
+				long count = download.file.transferFrom(channel, position, Math.min(CHUNK_SIZE, end - position));
+				if(count <= 0) throw new EOFException("connection closed by sender");
+				position += count;
+				touch(channel);
+			}
+		} finally {
+			download.requests.remove(request);
+			release(channel);
+		}
+		return swarm.verify(download.file, chunk);
+	}
+
+	/**
+	 * Cancels a request which has made no progress for ENDGAME_TIMEOUT if another 
+	 * participant which is not busy has the chunk. The connection is closed, so 
+	 * the fetch task ends before the chunk is requested again and only one task 
+	 * writes the chunk at a time.
+	 *
+	 * @param download The state of the fetch tasks.
+	 */
+	private void cancelStalledRequest(SwarmDownload download) {
+		long time = System.currentTimeMillis();
+		for(Map.Entry<SwarmTransfer.Request, SocketChannel> entry : download.requests.entrySet()) {
+			Long lastActivity = channels.get(entry.getValue());
+			if(lastActivity != null && time - lastActivity > ENDGAME_TIMEOUT && download.swarm.hasOtherSource(entry.getKey())
+					&& download.requests.remove(entry.getKey(), entry.getValue())) {
+				cancelledChunks.incrementAndGet();
+				close(entry.getValue());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Ends a fetch task. The last task renames the complete file or marks the 
+	 * transfer as failed. A failed transfer can be accepted again and resumes 
+	 * with the verified chunks.
+	 *
+	 * @param download The state of the fetch tasks.
+	 */
+	private void finishSwarmDownload(SwarmDownload download) {
+		if(download.workers.decrementAndGet() != 0) return;
+		SwarmTransfer swarm = download.swarm;
+		FileTransfer transfer = swarm.getTransfer();
+		try {
+			download.file.close();
+		} catch (IOException e) {
+
+		}
+		File target = transfer.getFile();
+		File part = swarm.getDataFile();
+		if(swarm.isComplete() && (!target.exists() || target.delete()) && part.renameTo(target)) {
+			swarm.setDataFile(target);
+			finish(transfer, FileTransfer.State.COMPLETED);
+		} else {
+			finish(transfer, FileTransfer.State.FAILED);
+		}
+	}
+
+	/**
+	 * Answers the request for a chunk of a distributed file. Only complete and 
+	 * verified chunks are sent to participants of the distribution.
+	 *
+	 * @param swarm The distributed file.
+	 * @param request The request.
+	 * @param addr The sender of the request.
+	 * @param channel The connection to the sender of the request.
+	 * @throws IOException If the chunk can not be sent.
+	 */
+	private void sendChunk(SwarmTransfer swarm, NetworkMessage request, InetAddress addr, SocketChannel channel) throws IOException {
+		long offset = request.getFileOffset();
+		int chunk = (int) (offset / swarm.getChunkSize());
+		if(!swarm.isActive() || !swarm.isPeer(addr) || offset % swarm.getChunkSize() != 0 || chunk >= swarm.getChunkCount() 
+				|| request.getFileSize() != swarm.getLength(chunk) || !swarm.hasChunk(chunk)) {
+			writeHeader(channel, -1);
+			return;
+		}
+		FileChannel file = new RandomAccessFile(swarm.getDataFile(), "r").getChannel();
+		channels.put(channel, System.currentTimeMillis());
+		try {
+			writeHeader(channel, swarm.getLength(chunk));
+			long position = offset;
+			long end = offset + swarm.getLength(chunk);
+			while(position < end) {
+				long count = file.transferTo(position, Math.min(CHUNK_SIZE, end - position), channel);
+				if(count <= 0) throw new EOFException("file has been truncated");
+				position += count;
+				touch(channel);
+			}
+		} finally {
+			file.close();
+			channels.remove(channel);
+		}
+	}
+
+	/**
+	 * Receives a file. Broken connections are retried up to MAX_ATTEMPTS times
+	 * and resume from the bytes which have been received so far.
+	 *
+	 * @param transfer The file to receive.
+	 */
+	private void download(FileTransfer transfer) {
+		File target = transfer.getFile();
+		File part = new File(target.getPath() + Constants.FILE_PART_SUFFIX);
+		for(int k=0; k<MAX_ATTEMPTS && running; ++k) {
+			try {
+				if(k > 0) Thread.sleep(RETRY_DELAY);
+				if(!receive(transfer, part)) break;
+				if(target.exists() && !target.delete()) break;
+				if(!part.renameTo(target)) break;
+				finish(transfer, FileTransfer.State.COMPLETED);
+				return;
+			} catch (IOException e) {
+				System.out.println("file transfer interrupted: " + e.getMessage());
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		finish(transfer, FileTransfer.State.FAILED);
+	}
+
+	/**
+	 * Requests the missing part of a file from its sender and writes it
+	 * to the partial file.
+	 *
+	 * @param transfer The file to receive.
+	 * @param part The partial file.
+	 * @return Boolean which is false if the sender refuses the request.
+	 * @throws IOException If the connection breaks.
+	 */
+	private Boolean receive(FileTransfer transfer, File part) throws IOException {
+		long size = transfer.getSize();
+		FileChannel file = new RandomAccessFile(part, "rw").getChannel();
+		SocketChannel channel = null;
+		try {
+			long position = Math.min(file.size(), size);
+			file.truncate(position);
+
+			channel = request(transfer.getInetAddress(), transfer.getId(), position, 0, size - position);
+			if(channel == null) return false;
+
+			updateProgress(transfer, position);
+			while(position < size) {
+				long count = file.transferFrom(channel, position, Math.min(CHUNK_SIZE, size - position));
+				if(count <= 0) throw new EOFException("connection closed by sender");
+				position += count;
+				touch(channel);
+				updateProgress(transfer, position);
+			}
+			return true;
+		} finally {
+			file.close();
+			release(channel);
+		}
+	}
+
+	/**
+	 * Requests a part of a file from another participant.
+	 *
+	 * @param addr The address of the participant.
+	 * @param transferId The id of the transfer.
+	 * @param offset The offset of the requested part.
+	 * @param length The length of the requested part or 0 if the file is requested up to the end.
+	 * @param expected The number of bytes which the participant must announce.
+	 * @return The connection from which the part can be read or null if the participant refuses the request.
+	 * @throws IOException If the connection breaks.
+	 */
+	private SocketChannel request(InetAddress addr, int transferId, long offset, long length, long expected) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channels.put(channel, System.currentTimeMillis());
+		try {
+			channel.socket().connect(new InetSocketAddress(addr, port), CONNECT_TIMEOUT);
+			NetworkMessage request = new NetworkMessage(NetworkMessage.FILE_ACCEPT, settings.getProperty("name"), null);
+			request.setTransferId(transferId);
+			request.setFileOffset(offset);
+			request.setFileSize(length);
+			byte[] data = Codecs.encode(Codecs.BINARY, request);
+			ByteBuffer frame = ByteBuffer.allocate(4 + data.length);
+			frame.putInt(data.length).put(data).flip();
+			while(frame.hasRemaining()) {
+				channel.write(frame);
+			}
+
+			channel.socket().setSoTimeout(RESPONSE_TIMEOUT);
+			long announced = new DataInputStream(channel.socket().getInputStream()).readLong();
+			if(announced == expected) {
+				return channel;
+			}
+		} catch (IOException e) {
+			release(channel);
+			throw e;
+		}
+		release(channel);
+		return null;
+	}
+
+	/**
+	 * Records the progress of a connection, so it is not closed as stalled.
+	 *
+	 * @param channel The connection.
+	 */
+	private void touch(SocketChannel channel) {
+		channels.replace(channel, System.currentTimeMillis());
+	}
+
+	/**
+	 * Closes the connection of a request.
+	 *
+	 * @param channel The connection or null.
+	 */
+	private void release(SocketChannel channel) {
+		if(channel != null) {
+			channels.remove(channel);
+			close(channel);
+		}
+	}
+
+	/**
+	 * Writes the number of bytes which follow as answer to a request.
+	 *
+	 * @param channel The connection.
+	 * @param length The number of bytes or -1 if the request is refused.
+	 * @throws IOException If the connection breaks.
+	 */
+	private static void writeHeader(SocketChannel channel, long length) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putLong(0, length);
+		while(header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void processFileRequest(NetworkMessage request, InetAddress addr, SocketChannel channel) throws IOException {
+		SwarmTransfer swarm = swarms.get(request.getTransferId());
+		if(running && swarm != null) {
+			sendChunk(swarm, request, addr, channel);
+			return;
+		}
+		FileTransfer transfer = offers.get(request.getTransferId());
+		if(!running || transfer == null || !transfer.getInetAddress().equals(addr) 
+				|| request.getFileOffset() > transfer.getSize() || request.getFileSize() != 0) {
+			writeHeader(channel, -1);
+			return;
+		}
+
+		long size = transfer.getSize();
+		long position = request.getFileOffset();
+		FileChannel file = new RandomAccessFile(transfer.getFile(), "r").getChannel();
+		channels.put(channel, System.currentTimeMillis());
+		try {
+			writeHeader(channel, size - position);
+			transfer.setState(FileTransfer.State.RUNNING);
+			updateProgress(transfer, position);
+			while(position < size) {
+				long count = file.transferTo(position, Math.min(CHUNK_SIZE, size - position), channel);
+				if(count <= 0) throw new EOFException("file has been truncated");
+				position += count;
+				touch(channel);
+				updateProgress(transfer, position);
+			}
+			offers.remove(transfer.getId());
+			finish(transfer, FileTransfer.State.COMPLETED);
+		} catch (IOException e) {
+			finish(transfer, FileTransfer.State.FAILED);
+			throw e;
+		} finally {
+			file.close();
+			channels.remove(channel);
+		}
+	}
+
+	/**
+	 * Sets the number of transferred bytes and publishes the progress.
+	 *
+	 * @param transfer The transfer.
+	 * @param transferred The number of bytes.
+	 */
+	private void updateProgress(FileTransfer transfer, long transferred) {
+		transfer.setTransferred(transferred);
+		eventBus.publish(new ModelEvent(ModelNotification.FILE_TRANSFER_PROGRESS, transfer));
+	}
+
+	/**
+	 * Finishes a transfer and adds its result to the chat history. A failed
+	 * upload is offered again, since the receiver may resume it.
+	 *
+	 * @param transfer The transfer.
+	 * @param state The final state.
+	 */
+	private void finish(FileTransfer transfer, FileTransfer.State state) {
+		if(!transfer.isIncoming() && state == FileTransfer.State.FAILED) {
+			transfer.setState(FileTransfer.State.OFFERED);
+		} else {
+			transfer.setState(state);
+			chatHistory.addMessage(new FileTransferMessage(transfer));
+		}
+		eventBus.publish(new ModelEvent(ModelNotification.FILE_TRANSFER_FINISHED, transfer));
+	}
+
+	/**
+	 * Closes a connection.
+	 *
+	 * @param channel The connection.
+	 */
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+
+		}
+	}
+
+}
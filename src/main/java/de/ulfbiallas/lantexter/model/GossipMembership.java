@@ -0,0 +1,570 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+import de.ulfbiallas.lantexter.model.message.NewParticipantMessage;
+import de.ulfbiallas.lantexter.model.network.Capabilities;
+import de.ulfbiallas.lantexter.model.network.Codecs;
+import de.ulfbiallas.lantexter.model.network.MemberUpdate;
+import de.ulfbiallas.lantexter.model.network.NetworkMessage;
+import de.ulfbiallas.lantexter.model.network.UDPTools;
+
+/**
+ * SWIM like gossip membership protocol. In every protocol period one member 
+ * is probed with a PING. If it does not answer with an ACK in time, some 
+ * other members are asked to probe it with a PING_REQ. A member which does 
+ * not answer at all is suspected and declared dead if the suspicion is not 
+ * refuted in time. Membership updates are piggybacked on the probe messages. 
+ * So the network load of a node does not depend on the size of the group.
+ * 
+ * The results are fed into the participant list, so the rest of the 
+ * application works unchanged. Participants which are members are not 
+ * expired by the presence wheel.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class GossipMembership {
+
+	/** Duration of a protocol period in [ms]. */
+	public static final long PROBE_INTERVAL = 1000;
+	
+	/** Time in [ms] after which a probed member is probed indirectly. */
+	public static final long PROBE_TIMEOUT = 400;
+	
+	/** Number of members which are asked to probe a member indirectly. */
+	private static final int INDIRECT_PROBES = 3;
+	
+	/** Number of protocol periods times log(n) after which a suspected member is dead. */
+	private static final int SUSPICION_MULTIPLIER = 4;
+	
+	/** Number of times log(n) an update is piggybacked. */
+	private static final int RETRANSMIT_MULTIPLIER = 3;
+	
+	/** Maximum number of updates which are piggybacked on a single message. */
+	private static final int MAX_PIGGYBACK = 4;
+	
+	/** Time in [ms] after which a forwarded probe is forgotten. */
+	private static final long RELAY_TIMEOUT = 2 * PROBE_INTERVAL;
+	
+	/** First sequence number of the forwarded probes. Own probes stay below it, so their ACKs can not be confused. */
+	private static final int RELAY_SEQUENCE_BASE = 0x40000000;
+	
+	private UDPTools updtools;
+	private Settings settings;
+	private ParticipantList participantList;
+	private ChatHistory chatHistory;
+	
+	/** All known members. The key is the IP address. */
+	private HashMap<String, Member> members = new HashMap<String, Member>();
+	
+	/** The members which are probed in random order. */
+	private ArrayList<Member> probeOrder = new ArrayList<Member>();
+	
+	/** The position of the next member in the probe order. */
+	private int probeIndex;
+	
+	/** The latest update of each member which is still piggybacked. The key is the IP address. */
+	private HashMap<String, Broadcast> broadcasts = new HashMap<String, Broadcast>();
+	
+	/** Probes which are forwarded for other members. The key is the sequence number of the forwarded probe. */
+	private HashMap<Integer, Relay> relays = new HashMap<Integer, Relay>();
+	
+	/** The IP addresses of this host. */
+	private HashSet<String> localAddresses = new HashSet<String>();
+	
+	/** The own incarnation number. It is increased to refute a suspicion. */
+	private int incarnation;
+	
+	/** The sequence number of the last own probe. */
+	private int sequence;
+	
+	/** The sequence number of the last forwarded probe. */
+	private int relaySequence = RELAY_SEQUENCE_BASE;
+	
+	/** The member which is probed in the current protocol period. */
+	private Member probeTarget;
+	
+	/** Flag which is true if the current probe has been answered. */
+	private boolean probeAcked;
+	
+	private Random random = new Random();
+	
+	
+	/**
+	 * Inner class which holds the state of a member.
+	 */
+	private static class Member {
+		private InetAddress addr;
+		private String name;
+		private int state = MemberUpdate.ALIVE;
+		private int incarnation;
+		private long suspectSince;
+	}
+	
+	/**
+	 * Inner class which holds an update and how often it has been piggybacked.
+	 */
+	private static class Broadcast {
+		private MemberUpdate update;
+		private int transmits;
+	}
+	
+	/**
+	 * Inner class which holds the origin of a forwarded probe.
+	 */
+	private static class Relay {
+		private InetAddress requester;
+		private int sequence;
+		private long time;
+	}
+	
+	
+	/**
+	 * Constructor.
+	 */
+	public GossipMembership() {
+		updtools = UDPTools.getInstance();
+		settings = Settings.getInstance();
+		participantList = ParticipantList.getInstance();
+		chatHistory = ChatHistory.getInstance();
+		findLocalAddresses();
+	}
+	
+	/**
+	 * Collects the IP addresses of this host to recognize updates about itself.
+	 */
+	private void findLocalAddresses() {
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while(interfaces != null && interfaces.hasMoreElements()) {
+				Enumeration<InetAddress> addresses = interfaces.nextElement().getInetAddresses();
+				while(addresses.hasMoreElements()) {
+					localAddresses.add(addresses.nextElement().getHostAddress());
+				}
+			}
+		} catch (SocketException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns whether any other member is known.
+	 * 
+	 * @return Boolean which is true if a member is known.
+	 */
+	public synchronized Boolean hasMembers() {
+		return !probeOrder.isEmpty();
+	}
+	
+	/**
+	 * Adds a participant which has been discovered directly and 
+	 * advertises the gossip capability as alive member.
+	 * 
+	 * @param addr The address of the participant.
+	 * @param name The name of the participant.
+	 */
+	public synchronized void addMember(InetAddress addr, String name) {
+		String address = addr.getHostAddress();
+		if(localAddresses.contains(address)) {
+			setManaged(addr, true);
+			return;
+		}
+		Member member = members.get(address);
+		if(member == null) {
+			member = createMember(addr, name, MemberUpdate.ALIVE, 0);
+			enqueue(member);
+		} else if(member.state == MemberUpdate.DEAD) {
+			// The member has restarted, so it must win against the old death
+			member.incarnation++;
+			member.state = MemberUpdate.ALIVE;
+			probeOrder.add(random.nextInt(probeOrder.size() + 1), member);
+			setManaged(addr, true);
+			enqueue(member);
+		}
+	}
+	
+	/**
+	 * Declares a member dead which has left the chat.
+	 * 
+	 * @param addr The address of the member.
+	 */
+	public synchronized void removeMember(InetAddress addr) {
+		Member member = members.get(addr.getHostAddress());
+		if(member != null && member.state != MemberUpdate.DEAD) {
+			declareDead(member);
+			enqueue(member);
+		}
+	}
+	
+	/**
+	 * Ends the current protocol period and starts the next one: an unanswered 
+	 * probe leads to a suspicion, suspicions which have timed out lead to a 
+	 * death and the next member is probed. Has to be called every PROBE_INTERVAL.
+	 */
+	public synchronized void startProbe() {
+		long time = System.currentTimeMillis();
+		if(probeTarget != null && !probeAcked && probeTarget.state == MemberUpdate.ALIVE) {
+			probeTarget.state = MemberUpdate.SUSPECT;
+			probeTarget.suspectSince = time;
+			enqueue(probeTarget);
+		}
+		expireSuspects(time);
+		expireRelays(time);
+		
+		probeTarget = nextProbeTarget();
+		if(probeTarget == null) return;
+		probeAcked = false;
+		send(NetworkMessage.PING, probeTarget.addr, ++sequence, null);
+	}
+	
+	/**
+	 * Asks other members to probe the current target if it has not answered yet.
+	 * Has to be called PROBE_TIMEOUT after startProbe().
+	 */
+	public synchronized void probeIndirectly() {
+		if(probeTarget == null || probeAcked) return;
+		ArrayList<Member> candidates = new ArrayList<Member>(probeOrder);
+		candidates.remove(probeTarget);
+		Collections.shuffle(candidates, random);
+		for(int k=0; k<candidates.size() && k<INDIRECT_PROBES; ++k) {
+			send(NetworkMessage.PING_REQ, candidates.get(k).addr, sequence, probeTarget.addr.getHostAddress());
+		}
+	}
+	
+	/**
+	 * Processes a message of the gossip protocol.
+	 * 
+	 * @param msg The message.
+	 * @param addr The address of the sender.
+	 */
+	public synchronized void processMessage(NetworkMessage msg, InetAddress addr) {
+		for(int k=0; k<msg.getUpdates().size(); ++k) {
+			applyUpdate(msg.getUpdates().get(k));
+		}
+		if(!members.containsKey(addr.getHostAddress())) {
+			addMember(addr, msg.getName());
+		}
+		
+		switch(msg.getCode()) {
+			case NetworkMessage.PING:
+				send(NetworkMessage.ACK, addr, msg.getSequence(), null);
+				break;
+				
+			case NetworkMessage.PING_REQ:
+				// Only known members are probed for others, so a sender can not make us ping any address
+				Member target = members.get(msg.getTarget());
+				if(target == null) break;
+				Relay relay = new Relay();
+				relay.requester = addr;
+				relay.sequence = msg.getSequence();
+				relay.time = System.currentTimeMillis();
+				relays.put(++relaySequence, relay);
+				send(NetworkMessage.PING, target.addr, relaySequence, null);
+				break;
+				
+			case NetworkMessage.ACK:
+				if(msg.getSequence() < RELAY_SEQUENCE_BASE) {
+					if(probeTarget != null && msg.getSequence() == sequence) probeAcked = true;
+				} else {
+					Relay origin = relays.remove(msg.getSequence());
+					if(origin != null) {
+						send(NetworkMessage.ACK, origin.requester, origin.sequence, null);
+					}
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Parses an IP address literal which was received from another member. 
+	 * Host names are rejected, so a received update never causes a blocking 
+	 * DNS lookup.
+	 * 
+	 * @param address The IPv4 or IPv6 address literal.
+	 * @return The address or null if the string is no valid address literal.
+	 */
+	static InetAddress parseAddress(String address) {
+		if(address == null || address.isEmpty()) return null;
+		try {
+			if(address.indexOf(':') >= 0) {
+				// An IPv6 literal is parsed by getByName without a lookup
+				for(int k=0; k<address.length(); ++k) {
+					char c = address.charAt(k);
+					if(Character.digit(c, 16) < 0 && c != ':' && c != '.') return null;
+				}
+				return InetAddress.getByName(address);
+			}
+			String[] parts = address.split("\\.", -1);
+			if(parts.length != 4) return null;
+			byte[] bytes = new byte[4];
+			for(int k=0; k<4; ++k) {
+				if(parts[k].isEmpty() || parts[k].length() > 3) return null;
+				int value = 0;
+				for(int n=0; n<parts[k].length(); ++n) {
+					int digit = Character.digit(parts[k].charAt(n), 10);
+					if(digit < 0) return null;
+					value = 10 * value + digit;
+				}
+				if(value > 255) return null;
+				bytes[k] = (byte) value;
+			}
+			return InetAddress.getByAddress(bytes);
+		} catch (UnknownHostException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Applies a piggybacked membership update. Updates about this host 
+	 * which claim that it is suspected or dead are refuted.
+	 * 
+	 * @param update The update.
+	 */
+	private void applyUpdate(MemberUpdate update) {
+		if(localAddresses.contains(update.getAddress())) {
+			if(update.getState() != MemberUpdate.ALIVE && update.getIncarnation() >= incarnation) {
+				incarnation = update.getIncarnation() + 1;
+				enqueue(new MemberUpdate(update.getAddress(), MemberUpdate.ALIVE, incarnation, settings.getProperty("name")));
+			}
+			return;
+		}
+		
+		Member member = members.get(update.getAddress());
+		if(member == null) {
+			if(update.getState() == MemberUpdate.DEAD) return;
+			InetAddress addr = parseAddress(update.getAddress());
+			if(addr == null) return;
+			member = createMember(addr, update.getName(), update.getState(), update.getIncarnation());
+			enqueue(member);
+			return;
+		}
+		
+		switch(update.getState()) {
+			case MemberUpdate.ALIVE:
+				if(update.getIncarnation() > member.incarnation) {
+					member.incarnation = update.getIncarnation();
+					if(member.state == MemberUpdate.DEAD) {
+						probeOrder.add(random.nextInt(probeOrder.size() + 1), member);
+						setOnline(member);
+					}
+					member.state = MemberUpdate.ALIVE;
+					enqueue(member);
+				}
+				break;
+				
+			case MemberUpdate.SUSPECT:
+				if(member.state == MemberUpdate.DEAD) break;
+				if(update.getIncarnation() > member.incarnation 
+						|| (update.getIncarnation() == member.incarnation && member.state == MemberUpdate.ALIVE)) {
+					member.incarnation = update.getIncarnation();
+					member.state = MemberUpdate.SUSPECT;
+					member.suspectSince = System.currentTimeMillis();
+					enqueue(member);
+				}
+				break;
+				
+			case MemberUpdate.DEAD:
+				if(member.state != MemberUpdate.DEAD && update.getIncarnation() >= member.incarnation) {
+					member.incarnation = update.getIncarnation();
+					declareDead(member);
+					enqueue(member);
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Creates a new member and sets the participant online.
+	 * 
+	 * @param addr The address of the member.
+	 * @param name The name of the member.
+	 * @param state The state of the member.
+	 * @param incarnation The incarnation number of the member.
+	 * @return The new member.
+	 */
+	private Member createMember(InetAddress addr, String name, int state, int incarnation) {
+		Member member = new Member();
+		member.addr = addr;
+		member.name = name;
+		member.state = state;
+		member.incarnation = incarnation;
+		member.suspectSince = System.currentTimeMillis();
+		members.put(addr.getHostAddress(), member);
+		probeOrder.add(random.nextInt(probeOrder.size() + 1), member);
+		setOnline(member);
+		return member;
+	}
+	
+	/**
+	 * Declares a member dead and sets the participant offline.
+	 * 
+	 * @param member The member.
+	 */
+	private void declareDead(Member member) {
+		member.state = MemberUpdate.DEAD;
+		probeOrder.remove(member);
+		participantList.setParticipantOffline(member.addr.toString());
+		setManaged(member.addr, false);
+	}
+	
+	/**
+	 * Declares all members dead which have been suspected for too long.
+	 * 
+	 * @param time The current time in [ms].
+	 */
+	private void expireSuspects(long time) {
+		long suspicionTimeout = SUSPICION_MULTIPLIER * log2(members.size() + 1) * PROBE_INTERVAL;
+		for(int k=probeOrder.size()-1; k>=0; --k) {
+			Member member = probeOrder.get(k);
+			if(member.state == MemberUpdate.SUSPECT && time - member.suspectSince > suspicionTimeout) {
+				declareDead(member);
+				enqueue(member);
+			}
+		}
+	}
+	
+	/**
+	 * Forgets forwarded probes which have not been answered.
+	 * 
+	 * @param time The current time in [ms].
+	 */
+	private void expireRelays(long time) {
+		Iterator<Relay> iterator = relays.values().iterator();
+		while(iterator.hasNext()) {
+			if(time - iterator.next().time > RELAY_TIMEOUT) iterator.remove();
+		}
+	}
+	
+	/**
+	 * Returns the next member to probe. The members are probed round robin 
+	 * in an order which is shuffled after each round.
+	 * 
+	 * @return The member or null if no member is known.
+	 */
+	private Member nextProbeTarget() {
+		if(probeOrder.isEmpty()) return null;
+		if(probeIndex >= probeOrder.size()) {
+			Collections.shuffle(probeOrder, random);
+			probeIndex = 0;
+		}
+		return probeOrder.get(probeIndex++);
+	}
+	
+	/**
+	 * Adds a participant for a member or sets it online and marks it as 
+	 * managed by the gossip protocol. The capabilities of a participant 
+	 * which is only known by gossip stay unset until it advertises them itself.
+	 * 
+	 * @param member The member.
+	 */
+	private void setOnline(Member member) {
+		String id = member.addr.toString();
+		String name = member.name != null ? member.name : member.addr.getHostAddress();
+		Boolean isNew = !participantList.containsParticipant(id) 
+				&& participantList.addParticipant(participantList.createNewParticipant(id, name, member.addr));
+		if(!isNew && participantList.isOnline(id)) {
+			setManaged(member.addr, true);
+			return;
+		}
+		participantList.setParticipantOnline(id);
+		setManaged(member.addr, true);
+		chatHistory.addMessage(new NewParticipantMessage(name));
+	}
+	
+	/**
+	 * Marks the participant with the given address as managed by the gossip protocol 
+	 * or hands it back to the presence wheel.
+	 * 
+	 * @param addr The address of the participant.
+	 * @param managed True if the participant is managed by the gossip protocol.
+	 */
+	private void setManaged(InetAddress addr, Boolean managed) {
+		Participant participant = participantList.getParticipant(addr.toString());
+		if(participant != null) participant.setGossipMember(managed);
+	}
+	
+	/**
+	 * Queues the current state of a member for piggybacking.
+	 * 
+	 * @param member The member.
+	 */
+	private void enqueue(Member member) {
+		enqueue(new MemberUpdate(member.addr.getHostAddress(), member.state, member.incarnation, member.name));
+	}
+	
+	/**
+	 * Queues an update for piggybacking. It replaces an older update about the same member.
+	 * 
+	 * @param update The update.
+	 */
+	private void enqueue(MemberUpdate update) {
+		Broadcast broadcast = new Broadcast();
+		broadcast.update = update;
+		broadcasts.put(update.getAddress(), broadcast);
+	}
+	
+	/**
+	 * Sends a message of the gossip protocol with piggybacked updates. The updates 
+	 * which have been sent least often are chosen, and dropped after they have 
+	 * been sent RETRANSMIT_MULTIPLIER * log(n) times.
+	 * 
+	 * @param code The code of the message.
+	 * @param addr The receiver.
+	 * @param sequence The sequence number of the probe.
+	 * @param target The IP address of the member to probe or null.
+	 */
+	private void send(int code, InetAddress addr, int sequence, String target) {
+		NetworkMessage msg = new NetworkMessage(code, settings.getProperty("name"), null);
+		msg.setSequence(sequence);
+		msg.setTarget(target);
+		
+		if(!broadcasts.isEmpty()) {
+			ArrayList<Broadcast> pending = new ArrayList<Broadcast>(broadcasts.values());
+			Collections.sort(pending, new Comparator<Broadcast>() {
+				@Override
+				public int compare(Broadcast b1, Broadcast b2) {
+					return b1.transmits - b2.transmits;
+				}
+			});
+			int retransmitLimit = RETRANSMIT_MULTIPLIER * log2(members.size() + 1);
+			for(int k=0; k<pending.size() && k<MAX_PIGGYBACK; ++k) {
+				Broadcast broadcast = pending.get(k);
+				msg.addUpdate(broadcast.update);
+				if(++broadcast.transmits >= retransmitLimit) {
+					broadcasts.remove(broadcast.update.getAddress());
+				}
+			}
+		}
+		
+		Participant participant = participantList.getParticipant(addr.toString());
+		int codec = Codecs.JSON;
+		if(participant != null && participant.supports(Capabilities.CODEC_BINARY)
+				&& Constants.CODEC_BINARY.equals(settings.getProperty("codec", Constants.DEFAULT_CODEC))) {
+			codec = Codecs.BINARY;
+		}
+		updtools.sendMsg(addr, Codecs.encode(codec, msg));
+	}
+	
+	/**
+	 * Returns the rounded up binary logarithm, but at least 1.
+	 * 
+	 * @param n The number.
+	 * @return The logarithm.
+	 */
+	private static int log2(int n) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(n - 1));
+	}
+	
+}
@@ -0,0 +1,18 @@
+package de.ulfbiallas.lantexter.model;
+
+/**
+ * Interface for classes which are notified of changes of the model.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public interface IModelListener {
+
+	/**
+	 * Is called on the event dispatch thread after the model has changed.
+	 * 
+	 * @param event The change.
+	 */
+	public void modelChanged(ModelEvent event);
+	
+}
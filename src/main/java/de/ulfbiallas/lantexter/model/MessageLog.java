@@ -0,0 +1,772 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import de.ulfbiallas.lantexter.model.message.ChatLeftMessage;
+import de.ulfbiallas.lantexter.model.message.ChatMessage;
+import de.ulfbiallas.lantexter.model.message.FileTransferMessage;
+import de.ulfbiallas.lantexter.model.message.IMessage;
+import de.ulfbiallas.lantexter.model.message.NameChangeMessage;
+import de.ulfbiallas.lantexter.model.message.NewParticipantMessage;
+import de.ulfbiallas.lantexter.model.message.TextMessage;
+
+/**
+ * Persistent, append-only log of all chat messages and notifications.
+ *
+ * The log is split into segment files of at most SEGMENT_SIZE bytes. The
+ * first segment is the log file itself, segment n is the log file with the
+ * suffix ".n". When a new segment is started and there are more than
+ * MAX_SEGMENTS segments, the oldest one is deleted. Only the current segment
+ * is mapped for writing. Every record has the layout
+ * <pre>
+ * length (int) | crc32 of the payload (int) | payload (length bytes)
+ * payload = type (byte) | time (long) | strings (int length + UTF-8)
+ * </pre>
+ * A record with length 0 marks the end of a segment. At the start of every
+ * segment and after every CHECKPOINT_INTERVAL records the record number and
+ * its position are appended to an index file, so a record can be found
+ * without reading the whole log. A position holds the segment number in the
+ * upper and the offset in the segment in the lower 32 bits.
+ *
+ * Messages are encoded by the caller and written by a separate thread which
+ * commits all queued messages with a single force() call. Every appended
+ * message gets the next record number, so the chat history can read evicted
+ * messages back from the log. Therefore every message is stored: a message
+ * of an unknown type as its text and a too large message truncated. Every
+ * record is read back as a message, a record which can not be decoded as
+ * an empty TextMessage.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class MessageLog {
+
+	/** Record types. */
+	private static final byte TYPE_CHAT = 1;
+	private static final byte TYPE_NAME_CHANGE = 2;
+	private static final byte TYPE_NEW_PARTICIPANT = 3;
+	private static final byte TYPE_CHAT_LEFT = 4;
+	private static final byte TYPE_FILE_TRANSFER = 5;
+	private static final byte TYPE_TEXT = 6;
+
+	/** Size of the record header in bytes. */
+	private static final int HEADER_SIZE = 8;
+
+	/** Number of records between two index checkpoints. */
+	private static final int CHECKPOINT_INTERVAL = 256;
+
+	/** Size in [bytes] by which the mapped region of a segment grows. */
+	private static final int REGION_SIZE = 4 * 1024 * 1024;
+
+	/** Default maximum size of a segment in [bytes]. */
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/** Default maximum number of segments which are kept. */
+	private static final int MAX_SEGMENTS = 16;
+
+	/** Maximum size of a single record. */
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	/** Marker which stops the writer thread. */
+	private static final byte[] STOP = new byte[0];
+
+	private File logFile;
+	private File indexFile;
+	private FileChannel logChannel;
+	private FileChannel indexChannel;
+	private MappedByteBuffer mapped;
+
+	/** Maximum size of a segment in [bytes]. */
+	private final int segmentSize;
+
+	/** Maximum number of segments which are kept. */
+	private final int maxSegments;
+
+	/** Size in [bytes] by which the mapped region of a segment grows. */
+	private final int regionSize;
+
+	/** True if the files are deleted on exit and never forced to disk. */
+	private boolean temporary = false;
+
+	/** Number of the segment which is written. */
+	private int segment;
+
+	/** Number of the oldest segment which is kept. */
+	private int firstSegment;
+
+	/** Number of the segment which is mapped for reading or -1. */
+	private int readSegment = -1;
+
+	/** Read-only mapping of readSegment. */
+	private MappedByteBuffer readMapped;
+
+	/** Checkpoints as pairs (record number, position). */
+	private long[] checkpoints = new long[32];
+
+	/** Number of checkpoints. */
+	private int checkpointCount = 0;
+
+	/** Number of records which are written. */
+	private long recordCount;
+
+	/** Number of records which have been appended, including the queued ones. */
+	private long appendCount;
+
+	/** Offset in the current segment at which the next record is written. */
+	private int end;
+
+	/** True if a record could not be written, later messages are not logged anymore. */
+	private volatile boolean failed = false;
+
+	/** Queue of encoded messages which are not written yet. */
+	private LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+
+	private Thread writerThread;
+	private CRC32 crc = new CRC32();
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param logFile The log file.
+	 * @param indexFile The file with the index checkpoints.
+	 */
+	public MessageLog(File logFile, File indexFile) {
+		this(logFile, indexFile, SEGMENT_SIZE, MAX_SEGMENTS);
+	}
+
+	/**
+	 * Constructor with other segment limits, e.g. for tests.
+	 *
+	 * @param logFile The log file.
+	 * @param indexFile The file with the index checkpoints.
+	 * @param segmentSize The maximum size of a segment in [bytes].
+	 * @param maxSegments The maximum number of segments which are kept.
+	 */
+	MessageLog(File logFile, File indexFile, int segmentSize, int maxSegments) {
+		this.logFile = logFile;
+		this.indexFile = indexFile;
+		this.segmentSize = segmentSize;
+		this.maxSegments = Math.max(1, maxSegments);
+		regionSize = Math.min(REGION_SIZE, segmentSize);
+	}
+
+	/**
+	 * Creates a log in temporary files which are deleted on exit.
+	 * It keeps the history of the session if it is not persisted.
+	 *
+	 * @return The message log, which has to be opened.
+	 * @throws IOException If the files can not be created.
+	 */
+	public static MessageLog createTemporary() throws IOException {
+		File logFile = File.createTempFile("lantexter", ".log");
+		File indexFile = File.createTempFile("lantexter", ".idx");
+		logFile.deleteOnExit();
+		indexFile.deleteOnExit();
+		MessageLog messageLog = new MessageLog(logFile, indexFile);
+		messageLog.temporary = true;
+		return messageLog;
+	}
+
+	/**
+	 * Opens the log, restores the latest messages and starts the writer thread.
+	 *
+	 * @param restoreCount The maximum number of messages to restore.
+	 * @return The latest messages in chronological order.
+	 * @throws IOException If the log can not be opened.
+	 */
+	@SuppressWarnings("resource")
+	public synchronized ArrayList<IMessage> open(int restoreCount) throws IOException {
+		indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+		readCheckpoints();
+
+		// Find the end of the log starting at the last checkpoint
+		long count = 0;
+		int offset = 0;
+		segment = firstSegment;
+		if(checkpointCount > 0) {
+			count = checkpoints[2*checkpointCount-2];
+			segment = getSegment(checkpoints[2*checkpointCount-1]);
+			offset = getOffset(checkpoints[2*checkpointCount-1]);
+		}
+		while(true) {
+			MappedByteBuffer buffer = getBuffer(segment);
+			int next;
+			while(buffer != null && (next = nextRecord(buffer, offset)) >= 0) {
+				offset = next;
+				++count;
+			}
+			MappedByteBuffer following = getBuffer(segment + 1);
+			if(following == null || nextRecord(following, 0) < 0) break;
+			++segment;
+			offset = 0;
+		}
+		readSegment = -1;
+		readMapped = null;
+
+		logChannel = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+		map(Math.max(regionSize, logChannel.size()));
+		end = offset;
+		recordCount = count;
+		appendCount = count;
+		clearTail();
+		if(checkpointCount == 0) {
+			writeCheckpoint(0, getPosition(firstSegment, 0));
+		}
+
+		ArrayList<IMessage> messages = readRecords(Math.max(0, recordCount - restoreCount), recordCount);
+
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "MessageLog");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		return messages;
+	}
+
+	/**
+	 * Queues a message for writing. Returns immediately, the message is
+	 * only encoded on the calling thread. The message always takes the
+	 * next record number, even if the log has failed and it is not written,
+	 * so the record numbers of the later messages do not shift.
+	 *
+	 * @param message The message to write.
+	 */
+	public void append(IMessage message) {
+		byte[] payload = encode(message);
+		synchronized(this) {
+			++appendCount;
+		}
+		if(!failed) {
+			queue.offer(payload);
+		}
+	}
+
+	/**
+	 * Returns the number of appended records, including the ones
+	 * which are not written yet. This is the number of the next record.
+	 *
+	 * @return The number of records.
+	 */
+	public synchronized long getRecordCount() {
+		return appendCount;
+	}
+
+	/**
+	 * Reads a range of records. Records which have been deleted with an old
+	 * segment or which are not written yet are skipped.
+	 *
+	 * @param fromRecord The number of the first record (inclusive).
+	 * @param toRecord The number of the last record (exclusive).
+	 * @return The messages in chronological order.
+	 */
+	public synchronized ArrayList<IMessage> read(long fromRecord, long toRecord) {
+		try {
+			return readRecords(fromRecord, Math.min(toRecord, recordCount));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ArrayList<IMessage>();
+		}
+	}
+
+	/**
+	 * Writes all queued messages and stops the writer thread.
+	 */
+	public void close() {
+		if(writerThread == null) return;
+		queue.offer(STOP);
+		try {
+			writerThread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writerThread = null;
+	}
+
+	/**
+	 * Loop of the writer thread. Waits for a message, then writes it together
+	 * with all other queued messages and forces them to disk once. If a record
+	 * can not be written, the following ones are dropped, because their record
+	 * numbers would not match anymore.
+	 */
+	private void writeLoop() {
+		ArrayList<byte[]> batch = new ArrayList<byte[]>();
+		boolean running = true;
+		while(running) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			queue.drainTo(batch);
+
+			try {
+				int lastCheckpointCount = checkpointCount;
+				for(int k=0; k<batch.size(); ++k) {
+					if(batch.get(k) == STOP) {
+						running = false;
+						break;
+					}
+					if(!failed) {
+						writeRecord(batch.get(k));
+					}
+				}
+				if(!temporary && !failed) {
+					mapped.force();
+					if(checkpointCount != lastCheckpointCount) {
+						indexChannel.force(false);
+					}
+				}
+			} catch (IOException e) {
+				failed = true;
+				e.printStackTrace();
+			} catch (RuntimeException e) {
+				failed = true;
+				e.printStackTrace();
+			}
+			batch.clear();
+		}
+
+		try {
+			if(!temporary) mapped.force();
+			logChannel.close();
+			indexChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes an encoded message at the end of the log. Starts a new segment
+	 * if the record does not fit into the current one.
+	 *
+	 * @param payload The encoded message.
+	 * @throws IOException If the segment can not be mapped or the index can not be written.
+	 */
+	private synchronized void writeRecord(byte[] payload) throws IOException {
+		if(end > 0 && (long) end + HEADER_SIZE + payload.length + HEADER_SIZE > segmentSize) {
+			nextSegment();
+		}
+		if(recordCount % CHECKPOINT_INTERVAL == 0 && checkpoints[2*checkpointCount-2] != recordCount) {
+			writeCheckpoint(recordCount, getPosition(segment, end));
+		}
+
+		while(end + HEADER_SIZE + payload.length + HEADER_SIZE > mapped.capacity()) {
+			map(mapped.capacity() + regionSize);
+		}
+		crc.reset();
+		crc.update(payload, 0, payload.length);
+
+		mapped.position(end + HEADER_SIZE);
+		mapped.put(payload);
+		mapped.putInt(end + 4, (int) crc.getValue());
+		// The length is written last, so a partly written record is never valid
+		mapped.putInt(end, payload.length);
+		end += HEADER_SIZE + payload.length;
+		++recordCount;
+	}
+
+	/**
+	 * Forces the current segment to disk and starts the next one. Deletes the
+	 * oldest segment and its checkpoints if there are too many segments.
+	 *
+	 * @throws IOException If the new segment can not be created.
+	 */
+	@SuppressWarnings("resource")
+	private void nextSegment() throws IOException {
+		if(!temporary) mapped.force();
+		logChannel.close();
+
+		++segment;
+		File file = getSegmentFile(segment);
+		if(temporary) file.deleteOnExit();
+		logChannel = new RandomAccessFile(file, "rw").getChannel();
+		logChannel.truncate(0);
+		map(regionSize);
+		end = 0;
+		writeCheckpoint(recordCount, getPosition(segment, 0));
+
+		if(segment - firstSegment >= maxSegments) {
+			if(readSegment == firstSegment) {
+				readSegment = -1;
+				readMapped = null;
+			}
+			if(!getSegmentFile(firstSegment).delete()) {
+				System.out.println("could not delete " + getSegmentFile(firstSegment));
+			}
+			++firstSegment;
+
+			int first = 0;
+			while(getSegment(checkpoints[2*first+1]) < firstSegment) {
+				++first;
+			}
+			System.arraycopy(checkpoints, 2*first, checkpoints, 0, 2*(checkpointCount-first));
+			checkpointCount -= first;
+			writeCheckpoints();
+		}
+	}
+
+	/**
+	 * Appends a checkpoint to the index file.
+	 *
+	 * @param record The number of the record.
+	 * @param position The position of the record in the log.
+	 * @throws IOException If the index file can not be written.
+	 */
+	private void writeCheckpoint(long record, long position) throws IOException {
+		if(2*checkpointCount == checkpoints.length) {
+			checkpoints = Arrays.copyOf(checkpoints, 2 * checkpoints.length);
+		}
+		checkpoints[2*checkpointCount] = record;
+		checkpoints[2*checkpointCount+1] = position;
+		++checkpointCount;
+
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putLong(record);
+		buffer.putLong(position);
+		buffer.flip();
+		long filePosition = 16L * (checkpointCount - 1);
+		while(buffer.hasRemaining()) {
+			filePosition += indexChannel.write(buffer, filePosition);
+		}
+	}
+
+	/**
+	 * Replaces the content of the index file with the checkpoints in memory.
+	 *
+	 * @throws IOException If the index file can not be written.
+	 */
+	private void writeCheckpoints() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(16 * checkpointCount);
+		for(int k=0; k<2*checkpointCount; ++k) {
+			buffer.putLong(checkpoints[k]);
+		}
+		buffer.flip();
+		indexChannel.truncate(0);
+		long filePosition = 0;
+		while(buffer.hasRemaining()) {
+			filePosition += indexChannel.write(buffer, filePosition);
+		}
+	}
+
+	/**
+	 * Reads all valid checkpoints from the index file. Checkpoints of deleted
+	 * segments are dropped, the first checkpoint which points behind the data
+	 * that reached the disk ends the index.
+	 *
+	 * @throws IOException If the index file can not be read.
+	 */
+	private void readCheckpoints() throws IOException {
+		int count = (int) (indexChannel.size() / 16);
+		ByteBuffer buffer = ByteBuffer.allocate(16 * count);
+		while(buffer.hasRemaining() && indexChannel.read(buffer, buffer.position()) > 0);
+		buffer.flip();
+
+		checkpoints = new long[Math.max(32, 2 * count)];
+		checkpointCount = 0;
+		boolean dropped = false;
+		for(int k=0; k<count; ++k) {
+			long record = buffer.getLong();
+			long position = buffer.getLong();
+			if(position < 0) break;
+			MappedByteBuffer segmentBuffer = getBuffer(getSegment(position));
+			if(segmentBuffer == null && checkpointCount == 0) {
+				dropped = true;
+				continue;
+			}
+			if(segmentBuffer == null || nextRecord(segmentBuffer, getOffset(position)) < 0) break;
+			checkpoints[2*checkpointCount] = record;
+			checkpoints[2*checkpointCount+1] = position;
+			++checkpointCount;
+		}
+		firstSegment = checkpointCount > 0 ? getSegment(checkpoints[1]) : 0;
+
+		if(dropped) {
+			writeCheckpoints();
+		} else {
+			indexChannel.truncate(16L * checkpointCount);
+		}
+	}
+
+	/**
+	 * Reads and decodes a range of records starting at the last checkpoint before them.
+	 *
+	 * @param fromRecord The number of the first record (inclusive).
+	 * @param toRecord The number of the last record (exclusive).
+	 * @return The messages in chronological order.
+	 * @throws IOException If a segment can not be mapped.
+	 */
+	private ArrayList<IMessage> readRecords(long fromRecord, long toRecord) throws IOException {
+		ArrayList<IMessage> messages = new ArrayList<IMessage>();
+		if(fromRecord >= toRecord || checkpointCount == 0) return messages;
+
+		int checkpoint = checkpointCount - 1;
+		while(checkpoint > 0 && checkpoints[2*checkpoint] > fromRecord) {
+			--checkpoint;
+		}
+		long count = checkpoints[2*checkpoint];
+		int readingSegment = getSegment(checkpoints[2*checkpoint+1]);
+		int offset = getOffset(checkpoints[2*checkpoint+1]);
+
+		while(count < toRecord) {
+			MappedByteBuffer buffer = getBuffer(readingSegment);
+			int next = buffer != null ? nextRecord(buffer, offset) : -1;
+			if(next < 0) {
+				if(readingSegment >= segment) break;
+				++readingSegment;
+				offset = 0;
+				continue;
+			}
+			if(count >= fromRecord) {
+				messages.add(readRecord(buffer, offset));
+			}
+			offset = next;
+			++count;
+		}
+		return messages;
+	}
+
+	/**
+	 * Validates the record at an offset and returns the offset of the next record.
+	 *
+	 * @param buffer The mapped segment.
+	 * @param offset The offset of the record.
+	 * @return The offset of the next record or -1 if there is no valid record.
+	 */
+	private int nextRecord(ByteBuffer buffer, int offset) {
+		if(offset < 0 || offset + HEADER_SIZE > buffer.capacity()) return -1;
+		int length = buffer.getInt(offset);
+		if(length <= 0 || length > MAX_RECORD_SIZE || length > buffer.capacity() - offset - HEADER_SIZE) return -1;
+
+		crc.reset();
+		for(int k=0; k<length; ++k) {
+			crc.update(buffer.get(offset + HEADER_SIZE + k));
+		}
+		if((int) crc.getValue() != buffer.getInt(offset + 4)) return -1;
+		return offset + HEADER_SIZE + length;
+	}
+
+	/**
+	 * Overwrites an invalid record at the end of the log with zeros,
+	 * so the remains of a torn write can not become valid again.
+	 */
+	private void clearTail() {
+		if(end + HEADER_SIZE > mapped.capacity()) return;
+		int length = mapped.getInt(end);
+		if(length == 0) return;
+
+		int clearEnd = mapped.capacity();
+		if(length > 0 && length <= mapped.capacity() - end - HEADER_SIZE) {
+			clearEnd = end + HEADER_SIZE + length;
+		}
+		for(int k=end; k<clearEnd; ++k) {
+			mapped.put(k, (byte) 0);
+		}
+	}
+
+	/**
+	 * Maps a region of the current segment.
+	 *
+	 * @param size The size of the region.
+	 * @throws IOException If the file can not be mapped.
+	 */
+	private void map(long size) throws IOException {
+		mapped = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Returns the mapping of a segment. Segments other than the current one
+	 * are mapped read-only, the last of these mappings is kept.
+	 *
+	 * @param number The number of the segment.
+	 * @return The mapping or null if the segment does not exist.
+	 * @throws IOException If the segment can not be mapped.
+	 */
+	private MappedByteBuffer getBuffer(int number) throws IOException {
+		if(mapped != null && number == segment) return mapped;
+		if(number == readSegment) return readMapped;
+
+		File file = getSegmentFile(number);
+		if(number < 0 || !file.isFile()) return null;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			readMapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			readSegment = number;
+		} finally {
+			randomAccessFile.close();
+		}
+		return readMapped;
+	}
+
+	/**
+	 * Returns the file of a segment.
+	 *
+	 * @param number The number of the segment.
+	 * @return The file.
+	 */
+	private File getSegmentFile(int number) {
+		return number == 0 ? logFile : new File(logFile.getPath() + "." + number);
+	}
+
+	/**
+	 * Combines a segment number and an offset to a position.
+	 *
+	 * @param number The number of the segment.
+	 * @param offset The offset in the segment.
+	 * @return The position.
+	 */
+	private static long getPosition(int number, int offset) {
+		return ((long) number << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the segment number of a position.
+	 *
+	 * @param position The position.
+	 * @return The segment number.
+	 */
+	private static int getSegment(long position) {
+		return (int) (position >>> 32);
+	}
+
+	/**
+	 * Returns the offset of a position in its segment.
+	 *
+	 * @param position The position.
+	 * @return The offset.
+	 */
+	private static int getOffset(long position) {
+		return (int) position;
+	}
+
+	/**
+	 * Encodes a message as record payload.
+	 *
+	 * A message of an unknown type is stored as its text. If the payload
+	 * is too large, the last field is truncated.
+	 *
+	 * @param message The message.
+	 * @return The payload.
+	 */
+	private static byte[] encode(IMessage message) {
+		byte type;
+		String[] fields;
+		long time = System.currentTimeMillis();
+
+		if(message instanceof ChatMessage) {
+			ChatMessage chatMessage = (ChatMessage) message;
+			type = TYPE_CHAT;
+			time = chatMessage.getTime().getTime();
+			fields = new String[] { chatMessage.getAuthorId(), chatMessage.getAuthorName(), chatMessage.getAuthorColor(), chatMessage.getMessage() };
+		} else if(message instanceof NameChangeMessage) {
+			type = TYPE_NAME_CHANGE;
+			fields = new String[] { ((NameChangeMessage) message).getOldName(), ((NameChangeMessage) message).getNewName() };
+		} else if(message instanceof NewParticipantMessage) {
+			type = TYPE_NEW_PARTICIPANT;
+			fields = new String[] { ((NewParticipantMessage) message).getName() };
+		} else if(message instanceof ChatLeftMessage) {
+			type = TYPE_CHAT_LEFT;
+			fields = new String[] { ((ChatLeftMessage) message).getName() };
+		} else if(message instanceof FileTransferMessage) {
+			FileTransferMessage fileTransferMessage = (FileTransferMessage) message;
+			type = TYPE_FILE_TRANSFER;
+			fields = new String[] { fileTransferMessage.getName(), fileTransferMessage.getFileName(), fileTransferMessage.getLabel() };
+		} else {
+			type = TYPE_TEXT;
+			fields = new String[] { message.getMessageText(), message.getMessageTextAsHTML() };
+		}
+
+		byte[][] data = new byte[fields.length][];
+		int size = 1 + 8;
+		for(int k=0; k<fields.length; ++k) {
+			data[k] = (fields[k] == null ? "" : fields[k]).getBytes(StandardCharsets.UTF_8);
+			size += 4 + data[k].length;
+		}
+		if(size > MAX_RECORD_SIZE) {
+			byte[] last = data[data.length - 1];
+			int length = Math.max(0, last.length - (size - MAX_RECORD_SIZE));
+			// Do not cut a multi-byte UTF-8 character
+			while(length > 0 && (last[length] & 0xC0) == 0x80) {
+				--length;
+			}
+			size -= last.length - length;
+			data[data.length - 1] = Arrays.copyOf(last, length);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put(type);
+		buffer.putLong(time);
+		for(int k=0; k<data.length; ++k) {
+			buffer.putInt(data[k].length);
+			buffer.put(data[k]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Reads and decodes the record at an offset.
+	 *
+	 * @param buffer The mapped segment.
+	 * @param offset The offset of the record.
+	 * @return The message or an empty TextMessage if the record can not be decoded.
+	 */
+	private static IMessage readRecord(ByteBuffer buffer, int offset) {
+		int length = buffer.getInt(offset);
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(offset + HEADER_SIZE);
+		payload.limit(offset + HEADER_SIZE + length);
+
+		try {
+			byte type = payload.get();
+			long time = payload.getLong();
+			switch(type) {
+				case TYPE_CHAT:
+					return new ChatMessage(getString(payload), getString(payload), getString(payload), getString(payload), new Date(time));
+				case TYPE_NAME_CHANGE:
+					return new NameChangeMessage(getString(payload), getString(payload));
+				case TYPE_NEW_PARTICIPANT:
+					return new NewParticipantMessage(getString(payload));
+				case TYPE_CHAT_LEFT:
+					return new ChatLeftMessage(getString(payload));
+				case TYPE_FILE_TRANSFER:
+					return new FileTransferMessage(getString(payload), getString(payload), getString(payload));
+				case TYPE_TEXT:
+					return new TextMessage(getString(payload), getString(payload));
+				default:
+					return new TextMessage("", "");
+			}
+		} catch (BufferUnderflowException e) {
+			return new TextMessage("", "");
+		} catch (IllegalArgumentException e) {
+			return new TextMessage("", "");
+		}
+	}
+
+	/**
+	 * Reads a string with length prefix.
+	 *
+	 * @param buffer The source buffer.
+	 * @return The string.
+	 */
+	private static String getString(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.getInt()];
+		buffer.get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,141 @@
+package de.ulfbiallas.lantexter.model;
+
+/**
+ * Class which represents a change of the model. Besides its type an event 
+ * carries the participant, the index of the message or the file transfer which has changed, 
+ * so listeners can update their views without reloading the whole state.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class ModelEvent {
+
+	/** The type of the change. */
+	private final ModelNotification type;
+	
+	/** The participant which has changed or null. */
+	private final Participant participant;
+	
+	/** The index of the appended message or -1. */
+	private final int messageIndex;
+	
+	/** The file transfer which has changed or null. */
+	private final FileTransfer fileTransfer;
+	
+	
+	/**
+	 * Constructor. Creates an event without payload.
+	 * 
+	 * @param type The type of the change.
+	 */
+	public ModelEvent(ModelNotification type) {
+		this(type, null, -1, null);
+	}
+	
+	/**
+	 * Constructor. Creates an event which concerns a participant.
+	 * 
+	 * @param type The type of the change.
+	 * @param participant The participant which has changed.
+	 */
+	public ModelEvent(ModelNotification type, Participant participant) {
+		this(type, participant, -1, null);
+	}
+	
+	/**
+	 * Constructor. Creates an event which concerns a message.
+	 * 
+	 * @param type The type of the change.
+	 * @param messageIndex The index of the message in the chat history.
+	 */
+	public ModelEvent(ModelNotification type, int messageIndex) {
+		this(type, null, messageIndex, null);
+	}
+	
+	/**
+	 * Constructor. Creates an event which concerns a file transfer.
+	 * 
+	 * @param type The type of the change.
+	 * @param fileTransfer The file transfer which has changed.
+	 */
+	public ModelEvent(ModelNotification type, FileTransfer fileTransfer) {
+		this(type, null, -1, fileTransfer);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param type The type of the change.
+	 * @param participant The participant which has changed or null.
+	 * @param messageIndex The index of the message or -1.
+	 * @param fileTransfer The file transfer which has changed or null.
+	 */
+	private ModelEvent(ModelNotification type, Participant participant, int messageIndex, FileTransfer fileTransfer) {
+		this.type = type;
+		this.participant = participant;
+		this.messageIndex = messageIndex;
+		this.fileTransfer = fileTransfer;
+	}
+
+	/**
+	 * Returns the type of the change.
+	 * 
+	 * @return The type.
+	 */
+	public ModelNotification getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the participant which has changed.
+	 * 
+	 * @return The participant or null.
+	 */
+	public Participant getParticipant() {
+		return participant;
+	}
+
+	/**
+	 * Returns the index of the appended message in the chat history.
+	 * 
+	 * @return The index or -1.
+	 */
+	public int getMessageIndex() {
+		return messageIndex;
+	}
+	
+	/**
+	 * Returns the file transfer which has changed.
+	 * 
+	 * @return The file transfer or null.
+	 */
+	public FileTransfer getFileTransfer() {
+		return fileTransfer;
+	}
+	
+	/**
+	 * Two events are equal if they have the same type and concern the same 
+	 * participant, message and file transfer. Equal events are coalesced by the event bus.
+	 * 
+	 * @param obj The other object.
+	 * @return Boolean which is true if the events are equal.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof ModelEvent)) return false;
+		ModelEvent other = (ModelEvent) obj;
+		return type == other.type && participant == other.participant && messageIndex == other.messageIndex 
+				&& fileTransfer == other.fileTransfer;
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 31 * type.hashCode() + messageIndex;
+		hash = participant != null ? 31 * hash + System.identityHashCode(participant) : hash;
+		return fileTransfer != null ? 31 * hash + System.identityHashCode(fileTransfer) : hash;
+	}
+	
+}
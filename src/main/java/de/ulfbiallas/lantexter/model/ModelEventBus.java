@@ -0,0 +1,118 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Singleton class which delivers the notifications of the model to the listeners. 
+ * Publishing only queues a notification, so the network and timer threads never 
+ * block on the GUI. The queued notifications are delivered in batches on the 
+ * event dispatch thread. Equal events within a batch are coalesced, so 
+ * listeners must derive the current state of a participant from the 
+ * participant itself instead of the order of its events.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class ModelEventBus {
+
+	/** The singleton object of the class. */
+	private static ModelEventBus eventBus = new ModelEventBus();
+	
+	/** The registered listeners. */
+	private CopyOnWriteArrayList<IModelListener> listeners = new CopyOnWriteArrayList<IModelListener>();
+	
+	/** The events which have not been delivered yet. */
+	private ConcurrentLinkedQueue<ModelEvent> queue = new ConcurrentLinkedQueue<ModelEvent>();
+	
+	/** Flag which is true if a delivery is scheduled on the event dispatch thread. */
+	private AtomicBoolean deliveryScheduled = new AtomicBoolean(false);
+	
+	/** Task which delivers the queued notifications. */
+	private Runnable deliveryTask = new Runnable() {
+		@Override
+		public void run() {
+			deliver();
+		}
+	};
+	
+	
+	/** Private constructor. */
+	private ModelEventBus() {
+	}
+	
+	/** 
+	 * Returns the singleton object.
+	 * 
+	 * @return The singleton object.
+	 */
+	public static ModelEventBus getInstance() {
+		return eventBus;
+	}
+	
+	/**
+	 * Adds a listener.
+	 * 
+	 * @param listener The listener.
+	 */
+	public void addListener(IModelListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener The listener.
+	 */
+	public void removeListener(IModelListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Queues an event without payload.
+	 * 
+	 * @param notification The type of the event.
+	 */
+	public void publish(ModelNotification notification) {
+		publish(new ModelEvent(notification));
+	}
+	
+	/**
+	 * Queues an event and schedules its delivery unless a delivery is already scheduled.
+	 * Can be called by any thread.
+	 * 
+	 * @param event The event.
+	 */
+	public void publish(ModelEvent event) {
+		queue.offer(event);
+		if(deliveryScheduled.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(deliveryTask);
+		}
+	}
+	
+	/**
+	 * Delivers all queued events once to all listeners in the order in 
+	 * which they were first published. Runs on the event dispatch thread.
+	 */
+	private void deliver() {
+		// Events which are published from now on need a new delivery
+		deliveryScheduled.set(false);
+		
+		LinkedHashSet<ModelEvent> batch = new LinkedHashSet<ModelEvent>();
+		ModelEvent event;
+		while((event = queue.poll()) != null) {
+			batch.add(event);
+		}
+		
+		for(ModelEvent batchEvent : batch) {
+			for(IModelListener listener : listeners) {
+				listener.modelChanged(batchEvent);
+			}
+		}
+	}
+	
+}
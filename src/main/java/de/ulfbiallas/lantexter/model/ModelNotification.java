@@ -7,11 +7,16 @@ package de.ulfbiallas.lantexter.model;
  *
  */
 public enum ModelNotification {
-	LIST_OF_PARTICIPANTS_CHANGED,
-	MESSAGE_RECEIVED,
+	PARTICIPANT_ADDED,
+	PARTICIPANT_ONLINE,
+	PARTICIPANT_OFFLINE,
+	PARTICIPANT_RENAMED,
+	MESSAGE_APPENDED,
+	FILE_OFFERED,
+	FILE_TRANSFER_PROGRESS,
+	FILE_TRANSFER_FINISHED,
 	SETTINGS_CHANGED,
 	LANGUAGE_CHANGED,
-	NAME_CHANGED,
 	CONNECTION_ESTABLISHED,
 	CONNECTION_ERROR,
 	ERROR;	
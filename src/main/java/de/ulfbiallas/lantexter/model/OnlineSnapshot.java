@@ -0,0 +1,106 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.net.InetAddress;
+
+import de.ulfbiallas.lantexter.model.network.Capabilities;
+
+/**
+ * Immutable snapshot of all participants which are online. It holds the 
+ * receiver addresses precomputed for the send path, split by the codec 
+ * which the participants support.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class OnlineSnapshot {
+
+	/** The participants which are online. */
+	private final Participant[] participants;
+	
+	/** The addresses of all participants which are online. */
+	private final InetAddress[] addresses;
+	
+	/** The addresses of the participants which support the binary codec. */
+	private final InetAddress[] binaryAddresses;
+	
+	/** The addresses of the participants which only support the JSON codec. */
+	private final InetAddress[] jsonAddresses;
+	
+	
+	/**
+	 * Constructor. Creates the snapshot from all participants which are online.
+	 * The state of each participant is read only once, because the receive 
+	 * thread may change it while the snapshot is created.
+	 * 
+	 * @param allParticipants All known participants.
+	 */
+	public OnlineSnapshot(Participant[] allParticipants) {
+		int online = 0, binary = 0;
+		boolean[] isOnline = new boolean[allParticipants.length];
+		boolean[] isBinary = new boolean[allParticipants.length];
+		for(int k=0; k<allParticipants.length; ++k) {
+			if(allParticipants[k].isOnline()) {
+				isOnline[k] = true;
+				++online;
+				if(allParticipants[k].supports(Capabilities.CODEC_BINARY)) {
+					isBinary[k] = true;
+					++binary;
+				}
+			}
+		}
+		
+		participants = new Participant[online];
+		addresses = new InetAddress[online];
+		binaryAddresses = new InetAddress[binary];
+		jsonAddresses = new InetAddress[online - binary];
+		int o = 0, b = 0, j = 0;
+		for(int k=0; k<allParticipants.length; ++k) {
+			if(!isOnline[k]) continue;
+			Participant participant = allParticipants[k];
+			participants[o] = participant;
+			addresses[o++] = participant.getInetAddress();
+			if(isBinary[k]) {
+				binaryAddresses[b++] = participant.getInetAddress();
+			} else {
+				jsonAddresses[j++] = participant.getInetAddress();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the participants which are online.
+	 * 
+	 * @return The participants. The array must not be modified.
+	 */
+	public Participant[] getParticipants() {
+		return participants;
+	}
+
+	/**
+	 * Returns the addresses of all participants which are online.
+	 * 
+	 * @return The addresses. The array must not be modified.
+	 */
+	public InetAddress[] getAddresses() {
+		return addresses;
+	}
+
+	/**
+	 * Returns the addresses of the participants which support the binary codec.
+	 * 
+	 * @return The addresses. The array must not be modified.
+	 */
+	public InetAddress[] getBinaryAddresses() {
+		return binaryAddresses;
+	}
+
+	/**
+	 * Returns the addresses of the participants which only support the JSON codec.
+	 * 
+	 * @return The addresses. The array must not be modified.
+	 */
+	public InetAddress[] getJsonAddresses() {
+		return jsonAddresses;
+	}
+	
+}
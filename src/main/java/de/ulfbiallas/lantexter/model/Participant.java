@@ -2,8 +2,11 @@ package de.ulfbiallas.lantexter.model;
 
 import java.net.InetAddress;
 
+import de.ulfbiallas.lantexter.model.network.Capabilities;
+
 /**
- * Class with represents a chat participant.
+ * Class with represents a chat participant. The mutable fields are volatile,
+ * so a participant can be read by other threads than the receive thread.
  * 
  * @author Ulf Biallas
  *
@@ -14,17 +17,38 @@ public class Participant {
 	private String id;
 	
 	/** The (nick) name of the participant. */
-	private String name;
+	private volatile String name;
 	
 	/** The InetAddress of the participant. */
 	private InetAddress addr;
 	
 	/** The timestamp of the last alive signal of the participant. */
-	private long lastSignal;
+	private volatile long lastSignal;
+	
+	/** Flag which is true if the participant is online. */
+	private volatile boolean online;
+	
+	/** The timestamp at which the participant has come online. */
+	private volatile long onlineSince;
+	
+	/** The timestamp at which a message has been sent to the participant the last time. */
+	private volatile long lastContact;
+	
+	/** Flag which is true if the presence of the participant is managed by the gossip protocol. */
+	private volatile boolean gossipMember;
+	
+	/** Flag which is true if the participant is tracked by the presence wheel. Guarded by the wheel. */
+	private boolean scheduled;
+	
+	/** Time in [ms] after the last alive signal after which the participant is offline. */
+	private volatile long aliveTimeout = Constants.NOT_ALIVE_INTERVAL*1000;
 	
 	/** The text color that belongs to this participant in the message view */
 	private String textColor;
 	
+	/** The capabilities which are advertised by the participant. */
+	private volatile int capabilities;
+	
 	
 	/**
 	 * Constructor. Sets the participant online.
@@ -39,34 +63,140 @@ public class Participant {
 		this.addr = addr;
 		this.textColor = textColor;
 		lastSignal = System.currentTimeMillis();
+		onlineSince = lastSignal;
+		online = true;
 	}
 	
 	/**
 	 * Sets the participant online by refreshing the alive signal timestamp.
+	 * 
+	 * @return Boolean which is true if the participant was offline before.
 	 */
-	public void setOnline() {
+	public synchronized Boolean setOnline() {
 		lastSignal = System.currentTimeMillis();
+		Boolean wasOffline = !online;
+		if(wasOffline) onlineSince = lastSignal;
+		online = true;
+		return wasOffline;
 	}
 	
 	/**  
-	 * Sets the alive signal timestamp to a time in the past.
+	 * Sets the participant offline.
+	 * 
+	 * @return Boolean which is true if the participant was online before.
 	 */
-	public void setOffline() {
-		lastSignal = System.currentTimeMillis()-2*Constants.NOT_ALIVE_INTERVAL*1000;
+	public synchronized Boolean setOffline() {
+		Boolean wasOnline = online;
+		online = false;
+		return wasOnline;
 	}
 	
 	/**
-	 * Determines whether a participant is online or not by checking its alive signal timestamp.
+	 * Sets the participant offline if its timeout has passed.
 	 * 
-	 * @return Boolean which is true if the participant is online.
+	 * @param time The current time in [ms].
+	 * @return Boolean which is true if the participant has gone offline.
 	 */
-	public Boolean isOnline() {
-		long time = System.currentTimeMillis();
-		if(time-lastSignal > Constants.NOT_ALIVE_INTERVAL*1000) {
-			return false;
-		} else {
+	public synchronized Boolean expire(long time) {
+		if(online && time >= getTimeout()) {
+			online = false;
 			return true;
 		}
+		return false;
+	}
+	
+	/**
+	 * Returns whether a participant is online. The flag is cleared explicitly 
+	 * by the presence wheel when the alive signal timestamp is too old.
+	 * 
+	 * @return Boolean which is true if the participant is online.
+	 */
+	public Boolean isOnline() {
+		return online;
+	}
+	
+	/**
+	 * Returns the time after which the participant is offline 
+	 * unless a new alive signal is received.
+	 * 
+	 * @return The time in [ms].
+	 */
+	public long getTimeout() {
+		return lastSignal + aliveTimeout;
+	}
+	
+	/**
+	 * Sets the time after the last alive signal after which the participant is offline.
+	 * A shorter timeout takes effect after the previous timeout has been checked.
+	 * 
+	 * @param aliveTimeout The time in [ms].
+	 */
+	public void setAliveTimeout(long aliveTimeout) {
+		this.aliveTimeout = aliveTimeout;
+	}
+
+	/**
+	 * Returns the time at which the participant has come online.
+	 * 
+	 * @return The time in [ms].
+	 */
+	public long getOnlineSince() {
+		return onlineSince;
+	}
+	
+	/**
+	 * Returns the time at which a message has been sent to the participant the last time.
+	 * 
+	 * @return The time in [ms].
+	 */
+	public long getLastContact() {
+		return lastContact;
+	}
+	
+	/**
+	 * Sets the time at which a message has been sent to the participant the last time.
+	 * 
+	 * @param lastContact The time in [ms].
+	 */
+	public void setLastContact(long lastContact) {
+		this.lastContact = lastContact;
+	}
+	
+	/**
+	 * Returns whether the presence of the participant is managed by the gossip protocol.
+	 * Such participants are not expired by the presence wheel.
+	 * 
+	 * @return Boolean which is true if the participant is a gossip member.
+	 */
+	public Boolean isGossipMember() {
+		return gossipMember;
+	}
+	
+	/**
+	 * Sets whether the presence of the participant is managed by the gossip protocol.
+	 * 
+	 * @param gossipMember True if the participant is a gossip member.
+	 */
+	public void setGossipMember(Boolean gossipMember) {
+		this.gossipMember = gossipMember;
+	}
+	
+	/**
+	 * Returns whether the participant is tracked by the presence wheel.
+	 * 
+	 * @return Boolean which is true if the participant is tracked.
+	 */
+	Boolean isScheduled() {
+		return scheduled;
+	}
+	
+	/**
+	 * Sets whether the participant is tracked by the presence wheel.
+	 * 
+	 * @param scheduled True if the participant is tracked.
+	 */
+	void setScheduled(Boolean scheduled) {
+		this.scheduled = scheduled;
 	}
 
 	/**
@@ -114,6 +244,34 @@ public class Participant {
 		return textColor;
 	}
 	
+	/**
+	 * Sets the capabilities which are advertised by the participant.
+	 * 
+	 * @param capabilities A bit mask of flags from the class Capabilities.
+	 */
+	public void setCapabilities(int capabilities) {
+		this.capabilities = capabilities;
+	}
+	
+	/**
+	 * Returns the capabilities which are advertised by the participant.
+	 * 
+	 * @return A bit mask of flags from the class Capabilities.
+	 */
+	public int getCapabilities() {
+		return capabilities;
+	}
+	
+	/**
+	 * Returns whether the participant has advertised a specific capability.
+	 * 
+	 * @param capability A flag from the class Capabilities.
+	 * @return Boolean which is true if the participant supports the capability.
+	 */
+	public Boolean supports(int capability) {
+		return Capabilities.supports(capabilities, capability);
+	}
+	
 	/**
 	 * Converts the objects to a string which contains the name of the participant.
 	 * 
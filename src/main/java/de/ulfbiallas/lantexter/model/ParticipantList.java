@@ -2,28 +2,62 @@ package de.ulfbiallas.lantexter.model;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Observable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Singleton class to manage the list of chat participants.
+ * The list is modified by the receive thread and read by the timer thread
+ * and the GUI. Lookups use a ConcurrentHashMap, iterations use an immutable
+ * array snapshot which is replaced when a participant is added, 
+ * so readers never lock and never see a partly modified list.
+ * Changes are published on the ModelEventBus.
  * 
  * @author Ulf Biallas
  *
  */
-public class ParticipantList extends Observable {
+public class ParticipantList {
 
 	/** The singleton object of the class. */
 	private static ParticipantList participantList = new ParticipantList();
 	
+	/** Bus which delivers the notifications to the views. */
+	private ModelEventBus eventBus = ModelEventBus.getInstance();
+	
 	/** Map with all participants. The key is given by the method getId() of the class Participant */
-	private HashMap<String, Participant> participants = new HashMap<String, Participant>();
+	private ConcurrentHashMap<String, Participant> participants = new ConcurrentHashMap<String, Participant>();
+	
+	/** Snapshot of all participants for iterations. */
+	private volatile Participant[] snapshot = new Participant[0];
+	
+	/** Cached snapshot of the participants which are online or null if it has never been built. */
+	private volatile CachedSnapshot onlineSnapshot;
+	
+	/** Version of the online states, which is increased after every change of a participant which is online. */
+	private AtomicInteger onlineVersion = new AtomicInteger();
+	
+	/** Timer wheel which sets the participants offline after their timeout. */
+	private PresenceWheel presenceWheel = new PresenceWheel();
 	
 	/** A List of possible text colors. */
 	private ArrayList<String> textColors;
 	
 	
+	/**
+	 * Inner class which holds a snapshot of the participants which are online 
+	 * and the version of the online states from which it has been created.
+	 */
+	private static class CachedSnapshot {
+		private final OnlineSnapshot snapshot;
+		private final int version;
+		
+		private CachedSnapshot(OnlineSnapshot snapshot, int version) {
+			this.snapshot = snapshot;
+			this.version = version;
+		}
+	}
+	
+	
 	/** Private constructor which initializes the list of text colors. */
 	private ParticipantList() {
 		textColors = new ArrayList<String>();
@@ -74,18 +108,31 @@ public class ParticipantList extends Observable {
 	 * @return A Boolean which is true if the specific participant is online.
 	 */
 	public Boolean isOnline(String id) {
-		return participants.get(id).isOnline();
+		Participant participant = participants.get(id);
+		return participant != null && participant.isOnline();
 	}
 	
 	/**
-	 * Adds an participant to the participant list.
+	 * Adds an participant to the participant list 
+	 * unless a participant with the same id exists.
 	 * 
 	 * @param participant The participant to add.
+	 * @return Boolean which is true if the participant was added.
 	 */
-	public void addParticipant(Participant participant) {
-		participants.put(participant.getId(), participant);
-		setChanged();
-		notifyObservers(ModelNotification.LIST_OF_PARTICIPANTS_CHANGED);
+	public Boolean addParticipant(Participant participant) {
+		synchronized(this) {
+			if(participants.putIfAbsent(participant.getId(), participant) != null) {
+				return false;
+			}
+			Participant[] newSnapshot = new Participant[snapshot.length + 1];
+			System.arraycopy(snapshot, 0, newSnapshot, 0, snapshot.length);
+			newSnapshot[snapshot.length] = participant;
+			snapshot = newSnapshot;
+			onlineVersion.incrementAndGet();
+		}
+		presenceWheel.schedule(participant);
+		eventBus.publish(new ModelEvent(ModelNotification.PARTICIPANT_ADDED, participant));
+		return true;
 	}
 	
 	/**
@@ -94,9 +141,11 @@ public class ParticipantList extends Observable {
 	 * @param id The id of the participant.
 	 */
 	public void setParticipantOnline(String id) {
-		participants.get(id).setOnline();
-		setChanged();
-		notifyObservers(ModelNotification.LIST_OF_PARTICIPANTS_CHANGED);		
+		Participant participant = participants.get(id);
+		if(participant == null || !participant.setOnline()) return;
+		presenceWheel.schedule(participant);
+		onlineVersion.incrementAndGet();
+		eventBus.publish(new ModelEvent(ModelNotification.PARTICIPANT_ONLINE, participant));
 	}
 	
 	/**
@@ -105,13 +154,57 @@ public class ParticipantList extends Observable {
 	 * @param id The id of the participant.
 	 */
 	public void setParticipantOffline(String id) {
-		if(participants.containsKey(id)) {
-			participants.get(id).setOffline();
-		}
-		setChanged();
-		notifyObservers(ModelNotification.LIST_OF_PARTICIPANTS_CHANGED);
+		Participant participant = participants.get(id);
+		if(participant == null || !participant.setOffline()) return;
+		onlineVersion.incrementAndGet();
+		eventBus.publish(new ModelEvent(ModelNotification.PARTICIPANT_OFFLINE, participant));
 	}	
 	
+	/**
+	 * Sets all participants offline whose timeout has passed. 
+	 * Has to be called periodically.
+	 */
+	public void expireParticipants() {
+		ArrayList<Participant> expired = presenceWheel.advance(System.currentTimeMillis());
+		if(expired.isEmpty()) return;
+		onlineVersion.incrementAndGet();
+		for(int k=0; k<expired.size(); ++k) {
+			eventBus.publish(new ModelEvent(ModelNotification.PARTICIPANT_OFFLINE, expired.get(k)));
+		}
+	}
+	
+	/**
+	 * Sets the capabilities which are advertised by a specific participant.
+	 * 
+	 * @param id The id of the participant.
+	 * @param capabilities A bit mask of flags from the class Capabilities.
+	 */
+	public void setCapabilities(String id, int capabilities) {
+		Participant participant = participants.get(id);
+		if(participant != null && participant.getCapabilities() != capabilities) {
+			participant.setCapabilities(capabilities);
+			onlineVersion.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Sets the interval in which a specific participant broadcasts its alive signal. 
+	 * The participant is set offline after NOT_ALIVE_FACTOR times this interval 
+	 * without any message, or after NOT_ALIVE_INTERVAL if no interval is advertised.
+	 * 
+	 * @param id The id of the participant.
+	 * @param interval The interval in [s] or 0 if it is not advertised.
+	 */
+	public void setAliveInterval(String id, int interval) {
+		Participant participant = participants.get(id);
+		if(participant == null) return;
+		if(interval > 0) {
+			participant.setAliveTimeout((long) (Constants.NOT_ALIVE_FACTOR * interval * 1000));
+		} else {
+			participant.setAliveTimeout(Constants.NOT_ALIVE_INTERVAL * 1000);
+		}
+	}
+	
 	/**
 	 * Changes the name of a specific participant.
 	 * 
@@ -119,15 +212,23 @@ public class ParticipantList extends Observable {
 	 * @param newName The new name of the participant.
 	 */
 	public void changeName(String id, String newName) {
-		if(participants.containsKey(id)) {
-			participants.get(id).setName(newName);
-			setChanged();
-			notifyObservers(ModelNotification.LIST_OF_PARTICIPANTS_CHANGED);			
-			setChanged();
-			notifyObservers(ModelNotification.NAME_CHANGED);			
+		Participant participant = participants.get(id);
+		if(participant != null) {
+			participant.setName(newName);
+			eventBus.publish(new ModelEvent(ModelNotification.PARTICIPANT_RENAMED, participant));
 		}
 	}
 	
+	/**
+	 * Returns a specific participant.
+	 * 
+	 * @param id The id of the participant.
+	 * @return The participant or null if it is unknown.
+	 */
+	public Participant getParticipant(String id) {
+		return participants.get(id);
+	}
+	
 	/**
 	 * Returns the name of a specific participant
 	 * 
@@ -154,28 +255,43 @@ public class ParticipantList extends Observable {
 	 * @return The list of participants.
 	 */
 	public ArrayList<Participant> getParticipants() {
-		ArrayList<Participant> participantsList = new ArrayList<Participant>();
-		Iterator<String> participantsIter = participants.keySet().iterator();
-		Participant partp;
-		while(participantsIter.hasNext()) {
-			partp = participants.get(participantsIter.next());
-			if(partp.isOnline()) participantsList.add(partp);
+		Participant[] currentSnapshot = snapshot;
+		ArrayList<Participant> participantsList = new ArrayList<Participant>(currentSnapshot.length);
+		for(int k=0; k<currentSnapshot.length; ++k) {
+			if(currentSnapshot[k].isOnline()) participantsList.add(currentSnapshot[k]);
 		}		
 		return participantsList;
 	}
 	
+	/**
+	 * Returns the cached snapshot of all participants which are online.
+	 * The snapshot is only rebuilt after a participant came online, went 
+	 * offline or changed its capabilities. The version is read before the 
+	 * snapshot is created, so a snapshot which misses a concurrent change 
+	 * is stored with an old version and rebuilt by the next call.
+	 * 
+	 * @return The snapshot.
+	 */
+	public OnlineSnapshot getOnlineSnapshot() {
+		int version = onlineVersion.get();
+		CachedSnapshot cached = onlineSnapshot;
+		if(cached == null || cached.version != version) {
+			cached = new CachedSnapshot(new OnlineSnapshot(snapshot), version);
+			onlineSnapshot = cached;
+		}
+		return cached.snapshot;
+	}
+	
 	/**
 	 * Returns a list of the names of all participants which are online.
 	 * 
 	 * @return The list of names of the participants.
 	 */
 	public ArrayList<String> getParticipantNames() {
-		ArrayList<String> participantsList = new ArrayList<String>();
-		Iterator<String> participantsIter = participants.keySet().iterator();
-		Participant partp;
-		while(participantsIter.hasNext()) {
-			partp = participants.get(participantsIter.next());
-			if(partp.isOnline()) participantsList.add(partp.getName());
+		Participant[] currentSnapshot = snapshot;
+		ArrayList<String> participantsList = new ArrayList<String>(currentSnapshot.length);
+		for(int k=0; k<currentSnapshot.length; ++k) {
+			if(currentSnapshot[k].isOnline()) participantsList.add(currentSnapshot[k].getName());
 		}		
 		return participantsList;
 	}
@@ -184,14 +300,17 @@ public class ParticipantList extends Observable {
 	 * Sets all participants offline.
 	 */
 	public void setAllParticipantsOffline() {
-		Iterator<String> participantsIter = participants.keySet().iterator();
-		Participant partp;
-		while(participantsIter.hasNext()) {
-			partp = participants.get(participantsIter.next());
-			partp.setOffline();
+		Participant[] currentSnapshot = snapshot;
+		boolean[] wasOnline = new boolean[currentSnapshot.length];
+		for(int k=0; k<currentSnapshot.length; ++k) {
+			wasOnline[k] = currentSnapshot[k].setOffline();
+		}
+		onlineVersion.incrementAndGet();
+		for(int k=0; k<currentSnapshot.length; ++k) {
+			if(wasOnline[k]) {
+				eventBus.publish(new ModelEvent(ModelNotification.PARTICIPANT_OFFLINE, currentSnapshot[k]));
+			}
 		}
-		setChanged();
-		notifyObservers(ModelNotification.LIST_OF_PARTICIPANTS_CHANGED);
 	}
 	
 }
@@ -0,0 +1,118 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timer wheel which tracks the timeouts of the participants which are online.
+ * A participant is put into the slot of the tick at which it times out. Refreshing 
+ * the alive signal of a participant does not touch the wheel. When its slot is 
+ * reached, a participant whose timeout has moved is put into its new slot and 
+ * one whose timeout has passed is set offline. So every participant goes 
+ * offline exactly once. Participants which are managed by the gossip 
+ * protocol are dropped from the wheel.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class PresenceWheel {
+
+	/** The default number of slots. */
+	public static final int DEFAULT_SLOT_COUNT = 128;
+	
+	/** The default duration of a tick in [ms]. */
+	public static final long DEFAULT_TICK_DURATION = 1000;
+	
+	/** The slots of the wheel. */
+	private final ArrayList<ArrayList<Participant>> slots;
+	
+	/** Spare list which is swapped with the slot which is expired next. */
+	private ArrayList<Participant> spare = new ArrayList<Participant>();
+	
+	/** The duration of a tick in [ms]. */
+	private final long tickDuration;
+	
+	/** The last tick which has been processed. */
+	private long currentTick;
+	
+	
+	/**
+	 * Constructor. Creates a wheel with the default number of slots and tick duration.
+	 */
+	public PresenceWheel() {
+		this(DEFAULT_SLOT_COUNT, DEFAULT_TICK_DURATION);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param slotCount The number of slots.
+	 * @param tickDuration The duration of a tick in [ms].
+	 */
+	public PresenceWheel(int slotCount, long tickDuration) {
+		this.tickDuration = tickDuration;
+		slots = new ArrayList<ArrayList<Participant>>(slotCount);
+		for(int k=0; k<slotCount; ++k) {
+			slots.add(new ArrayList<Participant>());
+		}
+		currentTick = System.currentTimeMillis() / tickDuration;
+	}
+	
+	/**
+	 * Starts tracking the timeout of a participant which has come online.
+	 * Does nothing if the participant is tracked already.
+	 * 
+	 * @param participant The participant.
+	 */
+	public synchronized void schedule(Participant participant) {
+		if(participant.isScheduled()) return;
+		participant.setScheduled(true);
+		insert(participant);
+	}
+	
+	/**
+	 * Processes all ticks up to the given time and sets the participants 
+	 * offline whose timeout has passed.
+	 * 
+	 * @param time The current time in [ms].
+	 * @return The participants which have gone offline.
+	 */
+	public synchronized ArrayList<Participant> advance(long time) {
+		ArrayList<Participant> expired = new ArrayList<Participant>();
+		long targetTick = time / tickDuration;
+		if(targetTick - currentTick > slots.size()) {
+			currentTick = targetTick - slots.size();
+		}
+		while(currentTick < targetTick) {
+			++currentTick;
+			int index = (int)(currentTick % slots.size());
+			ArrayList<Participant> slot = slots.get(index);
+			slots.set(index, spare);
+			for(int k=0; k<slot.size(); ++k) {
+				Participant participant = slot.get(k);
+				if(!participant.isOnline() || participant.isGossipMember()) {
+					participant.setScheduled(false);
+				} else if(participant.expire(time)) {
+					participant.setScheduled(false);
+					expired.add(participant);
+				} else {
+					insert(participant);
+				}
+			}
+			slot.clear();
+			spare = slot;
+		}
+		return expired;
+	}
+	
+	/**
+	 * Puts a participant into the slot of the tick at which it times out.
+	 * 
+	 * @param participant The participant.
+	 */
+	private void insert(Participant participant) {
+		long tick = (participant.getTimeout() + tickDuration - 1) / tickDuration;
+		if(tick <= currentTick) tick = currentTick + 1;
+		slots.get((int)(tick % slots.size())).add(participant);
+	}
+	
+}
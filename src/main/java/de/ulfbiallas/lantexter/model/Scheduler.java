@@ -0,0 +1,254 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class which runs all background work of the chat core. Periodic and delayed 
+ * tasks run on a single timer thread, so they must not block. Blocking work like 
+ * the receive loops is handed to an executor which uses virtual threads if the 
+ * Java runtime supports them and a pool of daemon threads otherwise.
+ * 
+ * A scheduler can not be restarted after it has been shut down.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class Scheduler implements Executor {
+
+	/** Executor of the periodic and delayed tasks. */
+	private ScheduledThreadPoolExecutor timer;
+	
+	/** Executor of the blocking tasks. */
+	private ExecutorService blockingExecutor;
+	
+	/** Flag which is true if the blocking tasks run on virtual threads. */
+	private boolean virtualThreads;
+	
+	/** Number of blocking tasks which are running or waiting to run. */
+	private AtomicInteger blockingTasks = new AtomicInteger();
+	
+	
+	/**
+	 * Constructor. Creates the timer thread and the executor of the blocking tasks.
+	 */
+	public Scheduler() {
+		timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("Scheduler"));
+		timer.setRemoveOnCancelPolicy(true);
+		timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		timer.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+		
+		blockingExecutor = createVirtualThreadExecutor();
+		virtualThreads = blockingExecutor != null;
+		if(!virtualThreads) {
+			blockingExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("Worker"));
+		}
+	}
+	
+	/**
+	 * Creates an executor which starts a virtual thread per task. 
+	 * The method is looked up at runtime, so the class also runs on older Java versions.
+	 * 
+	 * @return The executor or null if virtual threads are not supported.
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs a task once after a delay.
+	 * 
+	 * @param task The task.
+	 * @param delay The delay in [ms].
+	 * @return The future to cancel the task or null if the scheduler has been shut down.
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		try {
+			return timer.schedule(guard(task), delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs a task periodically at a fixed rate.
+	 * 
+	 * @param task The task.
+	 * @param initialDelay The delay of the first run in [ms].
+	 * @param period The time between the starts of two runs in [ms].
+	 * @return The future to cancel the task or null if the scheduler has been shut down.
+	 */
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+		try {
+			return timer.scheduleAtFixedRate(guard(task), initialDelay, period, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs a task periodically with a fixed delay between two runs.
+	 * 
+	 * @param task The task.
+	 * @param initialDelay The delay of the first run in [ms].
+	 * @param delay The time between the end of a run and the start of the next run in [ms].
+	 * @return The future to cancel the task or null if the scheduler has been shut down.
+	 */
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay) {
+		try {
+			return timer.scheduleWithFixedDelay(guard(task), initialDelay, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs a blocking task.
+	 * 
+	 * @param task The task.
+	 * @throws RejectedExecutionException If the scheduler has been shut down.
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		blockingTasks.incrementAndGet();
+		try {
+			blockingExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						blockingTasks.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			blockingTasks.decrementAndGet();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Wraps a task, so an exception is printed and does not cancel a periodic task.
+	 * 
+	 * @param task The task.
+	 * @return The wrapped task.
+	 */
+	private static Runnable guard(final Runnable task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Returns the number of periodic and delayed tasks which wait for their next run.
+	 * 
+	 * @return The number of tasks.
+	 */
+	public int getQueueDepth() {
+		return timer.getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of blocking tasks which are running or waiting to run.
+	 * 
+	 * @return The number of tasks.
+	 */
+	public int getBlockingTaskCount() {
+		return blockingTasks.get();
+	}
+	
+	/**
+	 * Returns the number of runs of periodic and delayed tasks which have completed.
+	 * 
+	 * @return The number of runs.
+	 */
+	public long getCompletedTaskCount() {
+		return timer.getCompletedTaskCount();
+	}
+	
+	/**
+	 * Returns whether the blocking tasks run on virtual threads.
+	 * 
+	 * @return Boolean which is true for virtual threads.
+	 */
+	public Boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	/**
+	 * Cancels all periodic and delayed tasks and waits for the blocking tasks to end.
+	 * The blocking tasks have to be stopped before, e.g. by closing their sockets. 
+	 * They are interrupted if they do not end in time.
+	 * 
+	 * @param timeout The maximum time to wait in [ms].
+	 */
+	public void shutdown(long timeout) {
+		timer.shutdownNow();
+		blockingExecutor.shutdown();
+		try {
+			if(!blockingExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+				blockingExecutor.shutdownNow();
+			}
+			timer.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			blockingExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Converts the metrics of the scheduler to a string.
+	 * 
+	 * @return The metrics.
+	 */
+	public String toString() {
+		return "scheduled tasks: " + getQueueDepth() 
+				+ ", completed runs: " + getCompletedTaskCount() 
+				+ ", blocking tasks: " + getBlockingTaskCount() 
+				+ (virtualThreads ? " (virtual threads)" : " (platform threads)");
+	}
+	
+	
+	/**
+	 * Inner class which creates named daemon threads, so the 
+	 * scheduler does not keep the application alive.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		
+		private String name;
+		private AtomicInteger count = new AtomicInteger();
+		
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+}
@@ -7,7 +7,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Observable;
 import java.util.Properties;
 
 /**
@@ -16,11 +15,14 @@ import java.util.Properties;
  * @author Ulf Biallas
  *
  */
-public class Settings extends Observable {
+public class Settings {
 
 	/** The singleton object of the class. */
 	private static final Settings settings = new Settings();
 
+	/** Bus which delivers the notifications to the views. */
+	private ModelEventBus eventBus = ModelEventBus.getInstance();
+	
 	private Properties properties;
 	private Language language;
 	
@@ -72,6 +74,18 @@ public class Settings extends Observable {
 		return properties.getProperty(property);
 	}
 	
+	/**
+	 * Returns the value of specific property or a default value
+	 * if the property is not set (e.g. in an older properties file).
+	 * 
+	 * @param property The name of the specific property.
+	 * @param defaultValue The value to return if the property is not set.
+	 * @return The value of the specific property.
+	 */
+	public String getProperty(String property, String defaultValue) {
+		return properties.getProperty(property, defaultValue);
+	}
+	
 	/**
 	 * Sets a new property-value pair.
 	 * If a property with the same name exists,
@@ -84,11 +98,9 @@ public class Settings extends Observable {
 		properties.setProperty(property, value);
 		if(property.equals("language")) {
 			language.init(value);
-			setChanged();
-			notifyObservers(ModelNotification.LANGUAGE_CHANGED);	
+			eventBus.publish(ModelNotification.LANGUAGE_CHANGED);
 		}
-		setChanged();
-		notifyObservers(ModelNotification.SETTINGS_CHANGED);
+		eventBus.publish(ModelNotification.SETTINGS_CHANGED);
 	}
 	
 	/**
@@ -110,9 +122,22 @@ public class Settings extends Observable {
 		properties.put("port", new Integer(Constants.DEFAULT_PORT).toString());
 		properties.put("minimizeToTray", new Boolean(true).toString());	
 		properties.put("language", Constants.DEFAULT_LANGUAGE);
+		properties.put("historyCapacity", Integer.toString(Constants.DEFAULT_HISTORY_CAPACITY));
+		properties.put("persistHistory", Boolean.toString(true));
+		properties.put("historyRestoreCount", Integer.toString(Constants.DEFAULT_HISTORY_RESTORE_COUNT));
+		properties.put("receiver", Constants.DEFAULT_RECEIVER);
+		properties.put("codec", Constants.DEFAULT_CODEC);
+		properties.put("multicast", Boolean.toString(false));
+		properties.put("multicastGroup", Constants.DEFAULT_MULTICAST_GROUP);
+		properties.put("multicastTtl", Integer.toString(Constants.DEFAULT_MULTICAST_TTL));
+		properties.put("discoveryMode", Constants.DEFAULT_DISCOVERY_MODE);
+		properties.put("membership", Constants.DEFAULT_MEMBERSHIP);
+		properties.put("discoveryReplyDelay", Integer.toString(Constants.DEFAULT_DISCOVERY_REPLY_DELAY));
+		properties.put("reliable", Boolean.toString(false));
+		properties.put("fecK", Integer.toString(Constants.DEFAULT_FEC_K));
+		properties.put("streamThreshold", Integer.toString(Constants.DEFAULT_STREAM_THRESHOLD));
 		
-		setChanged();
-		notifyObservers(ModelNotification.SETTINGS_CHANGED);
+		eventBus.publish(ModelNotification.SETTINGS_CHANGED);
 	}
 	
 	/**
@@ -0,0 +1,519 @@
+package de.ulfbiallas.lantexter.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Class which holds the state of a file which is distributed in chunks to
+ * many participants. Every participant which has accepted the file fetches
+ * the chunks from all participants which have them, not only from the
+ * sender, and announces each verified chunk with a HAVE message, so the
+ * throughput grows with the number of participants.
+ *
+ * The chunks are verified with the SHA-1 hashes of the offer. The next chunk
+ * is chosen rarest first: among the chunks which are neither received nor
+ * requested, the one which the fewest participants have is fetched from a
+ * participant which is not busy with another request of this participant.
+ * A participant whose request has failed is not asked for a short time.
+ * This spreads the chunks over the participants as fast as possible.
+ * A stalled request for one of the last chunks is cancelled if another
+ * participant has the chunk (see hasOtherSource).
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class SwarmTransfer {
+
+	/** Size of a SHA-1 hash in bytes. */
+	public static final int HASH_SIZE = 20;
+
+	/** Minimum size of a chunk in bytes. */
+	public static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+	/** Maximum number of chunks. The chunk size grows for larger files, so the HAVE messages stay small. */
+	public static final int MAX_CHUNKS = 4096;
+
+	/** Time in [ms] in which a participant is not asked again after a failed request. */
+	private static final long FAILURE_BACKOFF = 2000;
+
+	/** The transfer which is shown to the user. */
+	private final FileTransfer transfer;
+
+	/** The size of the chunks in bytes. */
+	private final int chunkSize;
+
+	/** The number of chunks. */
+	private final int chunkCount;
+
+	/** The SHA-1 hashes of the chunks. */
+	private final byte[] hashes;
+
+	/** The chunks which are verified. Guarded by this. */
+	private BitSet have = new BitSet();
+
+	/** The chunks which are being fetched. Guarded by this. */
+	private BitSet requested = new BitSet();
+
+	/** The chunks of each other participant of the distribution. Guarded by this. */
+	private HashMap<InetAddress, BitSet> peers = new HashMap<InetAddress, BitSet>();
+
+	/** The participants to which this participant has offered the file or null if another participant has offered it. Guarded by this. */
+	private HashSet<InetAddress> recipients = null;
+
+	/** The participants from which a chunk is being fetched. Guarded by this. */
+	private HashSet<InetAddress> busyPeers = new HashSet<InetAddress>();
+
+	/** The time until which a participant is not asked after a failed request. Guarded by this. */
+	private HashMap<InetAddress, Long> failedPeers = new HashMap<InetAddress, Long>();
+
+	/** Flag which is set when the file is accepted or offered by this participant. */
+	private volatile Boolean active = false;
+
+	/** The file which contains the chunks. */
+	private volatile File dataFile;
+
+	/** Random generator to choose between equally rare chunks. */
+	private Random random = new Random();
+
+
+	/**
+	 * Inner class which describes a chunk which is fetched from a participant.
+	 */
+	public static class Request {
+		private final int chunk;
+		private final InetAddress peer;
+
+		private Request(int chunk, InetAddress peer) {
+			this.chunk = chunk;
+			this.peer = peer;
+		}
+
+		/**
+		 * Returns the index of the chunk.
+		 *
+		 * @return The index.
+		 */
+		public int getChunk() {
+			return chunk;
+		}
+
+		/**
+		 * Returns the participant which is asked for the chunk.
+		 *
+		 * @return The address of the participant.
+		 */
+		public InetAddress getPeer() {
+			return peer;
+		}
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param transfer The transfer which is shown to the user.
+	 * @param chunkSize The size of the chunks in bytes.
+	 * @param hashes The SHA-1 hashes of the chunks.
+	 */
+	public SwarmTransfer(FileTransfer transfer, int chunkSize, byte[] hashes) {
+		this.transfer = transfer;
+		this.chunkSize = chunkSize;
+		this.chunkCount = getChunkCount(transfer.getSize(), chunkSize);
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Returns the chunk size for a file, so it has at most MAX_CHUNKS chunks.
+	 *
+	 * @param size The size of the file in bytes.
+	 * @return The chunk size in bytes.
+	 */
+	public static int getChunkSize(long size) {
+		int chunkSize = MIN_CHUNK_SIZE;
+		while(getChunkCount(size, chunkSize) > MAX_CHUNKS) {
+			chunkSize *= 2;
+		}
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the number of chunks of a file.
+	 *
+	 * @param size The size of the file in bytes.
+	 * @param chunkSize The size of the chunks in bytes.
+	 * @return The number of chunks, at most Integer.MAX_VALUE for a forged size.
+	 */
+	public static int getChunkCount(long size, int chunkSize) {
+		return size > 0 ? (int) Math.min(Integer.MAX_VALUE, (size - 1) / chunkSize + 1) : 0;
+	}
+
+	/**
+	 * Computes the SHA-1 hashes of all chunks of a file.
+	 *
+	 * @param file The file.
+	 * @param chunkSize The size of the chunks in bytes.
+	 * @return The concatenated hashes.
+	 * @throws IOException If the file can not be read.
+	 */
+	public static byte[] hashChunks(File file, int chunkSize) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			long size = channel.size();
+			int count = getChunkCount(size, chunkSize);
+			byte[] hashes = new byte[count * HASH_SIZE];
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			for(int k=0; k<count; ++k) {
+				byte[] hash = hash(channel, (long) k * chunkSize, (int) Math.min(chunkSize, size - (long) k * chunkSize), buffer);
+				if(hash == null) throw new IOException("file has been truncated");
+				System.arraycopy(hash, 0, hashes, k * HASH_SIZE, HASH_SIZE);
+			}
+			return hashes;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Computes the SHA-1 hash of a region of a file.
+	 *
+	 * @param channel The file.
+	 * @param position The start of the region.
+	 * @param length The length of the region.
+	 * @param buffer A buffer to read the file.
+	 * @return The hash or null if the file ends before the region.
+	 * @throws IOException If the file can not be read.
+	 */
+	private static byte[] hash(FileChannel channel, long position, int length, ByteBuffer buffer) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		long end = position + length;
+		while(position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int count = channel.read(buffer, position);
+			if(count <= 0) return null;
+			buffer.flip();
+			digest.update(buffer);
+			position += count;
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Verifies a chunk of a file against its hash.
+	 *
+	 * @param channel The file.
+	 * @param chunk The index of the chunk.
+	 * @return Boolean which is true if the chunk is complete and correct.
+	 * @throws IOException If the file can not be read.
+	 */
+	public Boolean verify(FileChannel channel, int chunk) throws IOException {
+		byte[] hash = hash(channel, getOffset(chunk), getLength(chunk), ByteBuffer.allocate(64 * 1024));
+		return hash != null && Arrays.equals(hash, Arrays.copyOfRange(hashes, chunk * HASH_SIZE, (chunk + 1) * HASH_SIZE));
+	}
+
+	/**
+	 * Returns the transfer which is shown to the user.
+	 *
+	 * @return The transfer.
+	 */
+	public FileTransfer getTransfer() {
+		return transfer;
+	}
+
+	/**
+	 * Returns the size of the chunks.
+	 *
+	 * @return The size in bytes.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the number of chunks.
+	 *
+	 * @return The number of chunks.
+	 */
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * Returns the SHA-1 hashes of the chunks.
+	 *
+	 * @return The concatenated hashes.
+	 */
+	public byte[] getHashes() {
+		return hashes;
+	}
+
+	/**
+	 * Returns the offset of a chunk in the file.
+	 *
+	 * @param chunk The index of the chunk.
+	 * @return The offset in bytes.
+	 */
+	public long getOffset(int chunk) {
+		return (long) chunk * chunkSize;
+	}
+
+	/**
+	 * Returns the length of a chunk. Only the last chunk may be shorter than the chunk size.
+	 *
+	 * @param chunk The index of the chunk.
+	 * @return The length in bytes.
+	 */
+	public int getLength(int chunk) {
+		return (int) Math.min(chunkSize, transfer.getSize() - getOffset(chunk));
+	}
+
+	/**
+	 * Returns whether the file is accepted or offered by this participant.
+	 *
+	 * @return Boolean which is true if this participant takes part in the distribution.
+	 */
+	public Boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Sets whether the file is accepted or offered by this participant.
+	 *
+	 * @param active True if this participant takes part in the distribution.
+	 */
+	public void setActive(Boolean active) {
+		this.active = active;
+	}
+
+	/**
+	 * Returns the file which contains the chunks.
+	 *
+	 * @return The file or null.
+	 */
+	public File getDataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * Sets the file which contains the chunks.
+	 *
+	 * @param dataFile The file.
+	 */
+	public void setDataFile(File dataFile) {
+		this.dataFile = dataFile;
+	}
+
+	/**
+	 * Returns the chunks which are verified.
+	 *
+	 * @return The bit field in the format of BitSet.toByteArray.
+	 */
+	public synchronized byte[] getChunks() {
+		return have.toByteArray();
+	}
+
+	/**
+	 * Returns whether a chunk is verified.
+	 *
+	 * @param chunk The index of the chunk.
+	 * @return Boolean which is true if the chunk is verified.
+	 */
+	public synchronized Boolean hasChunk(int chunk) {
+		return have.get(chunk);
+	}
+
+	/**
+	 * Returns the number of bytes of all verified chunks.
+	 *
+	 * @return The number of bytes.
+	 */
+	public synchronized long getVerifiedBytes() {
+		long bytes = (long) have.cardinality() * chunkSize;
+		if(have.get(chunkCount - 1)) bytes -= chunkSize - getLength(chunkCount - 1);
+		return bytes;
+	}
+
+	/**
+	 * Returns whether all chunks are verified.
+	 *
+	 * @return Boolean which is true if the file is complete.
+	 */
+	public synchronized Boolean isComplete() {
+		return have.cardinality() == chunkCount;
+	}
+
+	/**
+	 * Marks all chunks as verified. Used by the sender of the file.
+	 */
+	public synchronized void setComplete() {
+		have.set(0, chunkCount);
+	}
+
+	/**
+	 * Returns the other participants of the distribution.
+	 *
+	 * @return The addresses.
+	 */
+	public synchronized InetAddress[] getPeers() {
+		return peers.keySet().toArray(new InetAddress[peers.size()]);
+	}
+
+	/**
+	 * Returns whether a participant takes part in the distribution.
+	 *
+	 * @param addr The address of the participant.
+	 * @return Boolean which is true if the participant is known.
+	 */
+	public synchronized Boolean isPeer(InetAddress addr) {
+		return peers.containsKey(addr);
+	}
+
+	/**
+	 * Sets the participants to which this participant offers the file. Only
+	 * these participants take part in the distribution.
+	 *
+	 * @param addresses The addresses of the participants.
+	 */
+	public synchronized void setRecipients(InetAddress[] addresses) {
+		recipients = new HashSet<InetAddress>(Arrays.asList(addresses));
+		for(int k=0; k<addresses.length; ++k) {
+			if(!peers.containsKey(addresses[k])) peers.put(addresses[k], new BitSet());
+		}
+	}
+
+	/**
+	 * Returns whether a participant may take part in the distribution. If this
+	 * participant has offered the file, only the recipients of the offer may.
+	 *
+	 * @param addr The address of the participant.
+	 * @return Boolean which is true if the participant may take part.
+	 */
+	public synchronized Boolean isRecipient(InetAddress addr) {
+		return recipients == null || recipients.contains(addr);
+	}
+
+	/**
+	 * Sets the chunks which another participant has.
+	 *
+	 * @param addr The address of the participant.
+	 * @param chunks The bit field in the format of BitSet.toByteArray.
+	 * @return Boolean which is true if the participant was not known before.
+	 */
+	public synchronized Boolean setPeerChunks(InetAddress addr, byte[] chunks) {
+		BitSet bits = BitSet.valueOf(chunks);
+		if(bits.length() > chunkCount) bits.clear(chunkCount, bits.length());
+		return peers.put(addr, bits) == null;
+	}
+
+	/**
+	 * Chooses the next chunk to fetch and the participant to fetch it from. The rarest
+	 * chunk is chosen, equally rare chunks are chosen randomly. The chunk and the
+	 * participant are reserved until the request is finished.
+	 *
+	 * @return The request or null if no chunk is available from a participant which is not busy.
+	 */
+	public synchronized Request nextRequest() {
+		long time = System.currentTimeMillis();
+		Iterator<Long> it = failedPeers.values().iterator();
+		while(it.hasNext()) {
+			if(it.next() <= time) it.remove();
+		}
+		ArrayList<InetAddress> candidates = new ArrayList<InetAddress>();
+		int bestChunk = -1;
+		int bestCount = Integer.MAX_VALUE;
+		int ties = 0;
+		for(int chunk = have.nextClearBit(0); chunk < chunkCount; chunk = have.nextClearBit(chunk + 1)) {
+			if(requested.get(chunk)) continue;
+			int count = 0;
+			Boolean available = false;
+			for(InetAddress addr : peers.keySet()) {
+				if(peers.get(addr).get(chunk)) {
+					++count;
+					if(isAvailable(addr)) available = true;
+				}
+			}
+			if(!available || count > bestCount) continue;
+			if(count < bestCount) {
+				bestCount = count;
+				ties = 0;
+			}
+			if(random.nextInt(++ties) == 0) bestChunk = chunk;
+		}
+		if(bestChunk < 0) return null;
+
+		for(InetAddress addr : peers.keySet()) {
+			if(peers.get(addr).get(bestChunk) && isAvailable(addr)) candidates.add(addr);
+		}
+		InetAddress peer = candidates.get(random.nextInt(candidates.size()));
+		requested.set(bestChunk);
+		busyPeers.add(peer);
+		return new Request(bestChunk, peer);
+	}
+
+	/**
+	 * Finishes a request.
+	 *
+	 * @param request The request.
+	 * @param verified True if the chunk has been received and verified.
+	 */
+	public synchronized void finishRequest(Request request, Boolean verified) {
+		requested.clear(request.chunk);
+		busyPeers.remove(request.peer);
+		if(verified) {
+			have.set(request.chunk);
+		} else {
+			failedPeers.put(request.peer, System.currentTimeMillis() + FAILURE_BACKOFF);
+		}
+	}
+
+	/**
+	 * Returns whether another participant which is not busy has the chunk of a request.
+	 *
+	 * @param request The request.
+	 * @return Boolean which is true if the chunk can be fetched from another participant.
+	 */
+	public synchronized Boolean hasOtherSource(Request request) {
+		for(InetAddress addr : peers.keySet()) {
+			if(!addr.equals(request.peer) && peers.get(addr).get(request.chunk) && isAvailable(addr)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a participant can be asked for a chunk.
+	 *
+	 * @param addr The address of the participant.
+	 * @return Boolean which is true if the participant is neither busy nor has failed recently.
+	 */
+	private Boolean isAvailable(InetAddress addr) {
+		return !busyPeers.contains(addr) && !failedPeers.containsKey(addr);
+	}
+
+	/**
+	 * Marks a chunk as verified which was found in the file of an earlier attempt.
+	 *
+	 * @param chunk The index of the chunk.
+	 */
+	public synchronized void setChunk(int chunk) {
+		have.set(chunk);
+	}
+
+}
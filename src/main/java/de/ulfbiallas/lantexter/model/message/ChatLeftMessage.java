@@ -29,6 +29,15 @@ public class ChatLeftMessage implements IMessage {
 		settings = Settings.getInstance();
 	}
 
+	/**
+	 * Returns the name of the user which has left the chat.
+	 * 
+	 * @return The name of the user.
+	 */
+	public String getName() {
+		return name;
+	}
+
 	/**
 	 * @inheritDoc
 	 */
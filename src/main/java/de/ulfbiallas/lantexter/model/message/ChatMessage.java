@@ -16,6 +16,10 @@ public class ChatMessage implements IMessage {
 	/** The id of the participant which is the author of this message. */
 	private String authorId;
 	
+	/** The name and text color of the author if the message was restored from the message log. */
+	private String authorName;
+	private String authorColor;
+	
 	/** The text of the message. */
 	private String message;
 	
@@ -36,6 +40,25 @@ public class ChatMessage implements IMessage {
 		time = new Date();
 	}
 	
+	/**
+	 * Creates a chat text message which was restored from the message log. 
+	 * The name and text color are used as long as the author is not 
+	 * in the participant list.
+	 * 
+	 * @param authorId The id of the participant which is the author.
+	 * @param authorName The name of the author when the message was received.
+	 * @param authorColor The text color of the author when the message was received.
+	 * @param message The text of the message.
+	 * @param time The time when the message was received.
+	 */
+	public ChatMessage(String authorId, String authorName, String authorColor, String message, Date time) {
+		this.authorId = authorId;
+		this.authorName = authorName;
+		this.authorColor = authorColor;
+		this.message = message;
+		this.time = time;
+	}
+	
 	/**
 	 * Returns the id of the participant which is the author.
 	 * 
@@ -44,6 +67,30 @@ public class ChatMessage implements IMessage {
 	public String getAuthorId() {
 		return authorId;
 	}
+	
+	/**
+	 * Returns the name of the author.
+	 * 
+	 * @return The name of the author.
+	 */
+	public String getAuthorName() {
+		if(authorName == null || participantList.containsParticipant(authorId)) {
+			return participantList.getNameOfParticipant(authorId);
+		}
+		return authorName;
+	}
+	
+	/**
+	 * Returns the text color of the author.
+	 * 
+	 * @return The text color of the author.
+	 */
+	public String getAuthorColor() {
+		if(authorColor == null || participantList.containsParticipant(authorId)) {
+			return participantList.getTextColorOfParticipant(authorId);
+		}
+		return authorColor;
+	}
 
 	/**
 	 * Returns the pure text of the message.
@@ -69,7 +116,7 @@ public class ChatMessage implements IMessage {
 	@Override
 	public String getMessageText() {
 		String msg = "";
-		msg += participantList.getNameOfParticipant(getAuthorId()) + " ("+getTime()+"):\n";
+		msg += getAuthorName() + " ("+getTime()+"):\n";
 		msg += getMessage();
 		return msg;
 	}
@@ -80,8 +127,8 @@ public class ChatMessage implements IMessage {
 	@Override
 	public String getMessageTextAsHTML() {
 		String msg = "";
-		msg += "<font color="+participantList.getTextColorOfParticipant(getAuthorId())+">";
-		msg += participantList.getNameOfParticipant(getAuthorId()) + " ("+getTime()+"):<br>";
+		msg += "<font color="+getAuthorColor()+">";
+		msg += getAuthorName() + " ("+getTime()+"):<br>";
 		msg += getMessage().replace("\n", "<br>");
 		msg += "</font>";
 		return msg;
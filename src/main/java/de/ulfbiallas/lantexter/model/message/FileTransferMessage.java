@@ -0,0 +1,107 @@
+package de.ulfbiallas.lantexter.model.message;
+
+import de.ulfbiallas.lantexter.model.Constants;
+import de.ulfbiallas.lantexter.model.FileTransfer;
+import de.ulfbiallas.lantexter.model.Settings;
+
+/**
+ * Class for a chat message which is automatically added when
+ * a file transfer has finished.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class FileTransferMessage implements IMessage {
+
+	/** The name of the other participant. */
+	private String name;
+
+	/** The name of the file. */
+	private String fileName;
+
+	/** The key of the label which describes the result. */
+	private String label;
+
+	private Settings settings = Settings.getInstance();
+
+
+	/**
+	 * Constructor. Creates a new chat message which
+	 * informs about the result of a file transfer.
+	 *
+	 * @param transfer The finished file transfer.
+	 */
+	public FileTransferMessage(FileTransfer transfer) {
+		this.name = transfer.getPeerName();
+		this.fileName = transfer.getFileName();
+		if(transfer.getState() != FileTransfer.State.COMPLETED) {
+			label = "text_filefailed";
+		} else if(transfer.isIncoming()) {
+			label = "text_filereceived";
+		} else {
+			label = "text_filesent";
+		}
+	}
+
+	/**
+	 * Constructor. Creates a chat message which was restored from the message log.
+	 *
+	 * @param name The name of the other participant.
+	 * @param fileName The name of the file.
+	 * @param label The key of the label which describes the result.
+	 */
+	public FileTransferMessage(String name, String fileName, String label) {
+		this.name = name;
+		this.fileName = fileName;
+		this.label = label;
+	}
+
+	/**
+	 * Returns the name of the other participant.
+	 *
+	 * @return The name of the other participant.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the name of the file.
+	 *
+	 * @return The name of the file.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the key of the label which describes the result.
+	 *
+	 * @return The key of the label.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getMessageText() {
+		String msg = name + " " + settings.getLanguage().getLabel(label) + " " + fileName;
+		return msg;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getMessageTextAsHTML() {
+		String msg = "";
+		msg += "<font color="+Constants.NOTIFICATION_COLOR+">";
+		msg += name + " " + settings.getLanguage().getLabel(label) + " " + fileName;
+		msg += "</font>";
+		return msg;
+	}
+
+}
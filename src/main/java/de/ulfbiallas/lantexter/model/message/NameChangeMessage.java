@@ -33,6 +33,24 @@ public class NameChangeMessage implements IMessage {
 		this.newName = newName;
 	}
 	
+	/**
+	 * Returns the old name of the participant.
+	 * 
+	 * @return The old name of the participant.
+	 */
+	public String getOldName() {
+		return oldName;
+	}
+	
+	/**
+	 * Returns the new name of the participant.
+	 * 
+	 * @return The new name of the participant.
+	 */
+	public String getNewName() {
+		return newName;
+	}
+	
 	/**
 	 * @inheritDoc
 	 */
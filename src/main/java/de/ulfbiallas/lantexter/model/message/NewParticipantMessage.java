@@ -28,6 +28,15 @@ public class NewParticipantMessage implements IMessage {
 		this.name = name;
 	}
 
+	/**
+	 * Returns the name of the new participant.
+	 * 
+	 * @return The name of the new participant.
+	 */
+	public String getName() {
+		return name;
+	}
+
 	/**
 	 * @inheritDoc
 	 */
@@ -0,0 +1,47 @@
+package de.ulfbiallas.lantexter.model.message;
+
+/**
+ * Class for a message which is only known by its text. It is restored
+ * from the message log for a message of a type which the log can not
+ * store or decode.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class TextMessage implements IMessage {
+
+	/** The text of the message. */
+	private String text;
+
+	/** The HTML-formatted text of the message. */
+	private String html;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text The text of the message.
+	 * @param html The HTML-formatted text of the message.
+	 */
+	public TextMessage(String text, String html) {
+		this.text = text;
+		this.html = html;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getMessageText() {
+		return text;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getMessageTextAsHTML() {
+		return html;
+	}
+
+}
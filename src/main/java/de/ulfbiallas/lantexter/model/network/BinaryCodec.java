@@ -0,0 +1,402 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec which encodes network messages in a compact binary format:
+ * 
+ * <pre>
+ * MAGIC (1 byte) | VERSION (1 byte) | code (1 byte) | field*
+ * field = tag (1 byte) | length (varint) | value (length bytes)
+ * </pre>
+ * 
+ * Strings are UTF-8 encoded, numbers are varints. A membership update is 
+ * encoded as state, incarnation, address and name in a single field which 
+ * may occur several times. The fields of the reliable delivery 
+ * (epoch, sequence numbers, acknowledgements, requested ranges and parity) and 
+ * of the file transfer only exist 
+ * in this format, except for the epoch and the last multicast sequence 
+ * number which are also announced in the JSON WhoIsOnline message. Fields with an unknown 
+ * tag are skipped, so new optional fields can be added without changing 
+ * the version. The version only changes for incompatible formats.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class BinaryCodec implements IMessageCodec {
+
+	/** First byte of a binary message. It can never start a valid UTF-8 (JSON) text. */
+	public static final byte MAGIC = (byte) 0x9B;
+	
+	/** Version of the binary format. */
+	public static final byte VERSION = 1;
+	
+	/** Field tags. */
+	private static final byte TAG_NAME = 1;
+	private static final byte TAG_TEXT = 2;
+	private static final byte TAG_CAPABILITIES = 3;
+	private static final byte TAG_SEQUENCE = 4;
+	private static final byte TAG_TARGET = 5;
+	private static final byte TAG_UPDATE = 6;
+	private static final byte TAG_INTERVAL = 7;
+	private static final byte TAG_EPOCH = 8;
+	private static final byte TAG_RELIABLE_SEQUENCE = 9;
+	private static final byte TAG_ACKNOWLEDGED = 10;
+	private static final byte TAG_SELECTIVE_ACKS = 11;
+	private static final byte TAG_GROUP_SEQUENCE = 12;
+	private static final byte TAG_MISSING_RANGE = 13;
+	private static final byte TAG_PARITY_COUNT = 14;
+	private static final byte TAG_PARITY = 15;
+	private static final byte TAG_TRANSFER_ID = 16;
+	private static final byte TAG_FILE_SIZE = 17;
+	private static final byte TAG_FILE_OFFSET = 18;
+	private static final byte TAG_CHUNK_SIZE = 19;
+	private static final byte TAG_CHUNK_HASHES = 20;
+	private static final byte TAG_CHUNKS = 21;
+	private static final byte TAG_RELIABLE_FORWARD = 22;
+	
+	/** Buffer to copy strings out of direct buffers. */
+	private byte[] scratch = new byte[256];
+	
+	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public int getId() {
+		return Codecs.BINARY;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public boolean canDecode(ByteBuffer buffer) {
+		return buffer.remaining() >= 3 && buffer.get(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void encode(NetworkMessage msg, ByteBuffer buffer) {
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.put((byte) msg.getCode());
+		putString(buffer, TAG_NAME, msg.getName());
+		putString(buffer, TAG_TEXT, msg.getText());
+		putNumber(buffer, TAG_CAPABILITIES, msg.getCapabilities());
+		putNumber(buffer, TAG_INTERVAL, msg.getInterval());
+		putNumber(buffer, TAG_SEQUENCE, msg.getSequence());
+		putString(buffer, TAG_TARGET, msg.getTarget());
+		putNumber(buffer, TAG_EPOCH, msg.getEpoch());
+		putNumber(buffer, TAG_RELIABLE_SEQUENCE, msg.getReliableSequence());
+		putNumber(buffer, TAG_RELIABLE_FORWARD, msg.getReliableForward());
+		putNumber(buffer, TAG_ACKNOWLEDGED, msg.getAcknowledged());
+		putNumber(buffer, TAG_SELECTIVE_ACKS, msg.getSelectiveAcks());
+		putNumber(buffer, TAG_GROUP_SEQUENCE, msg.getGroupSequence());
+		for(int k=0; k<msg.getMissingRanges().size(); ++k) {
+			putRange(buffer, msg.getMissingRanges().get(k));
+		}
+		putNumber(buffer, TAG_PARITY_COUNT, msg.getParityCount());
+		putBytes(buffer, TAG_PARITY, msg.getParity());
+		putNumber(buffer, TAG_TRANSFER_ID, msg.getTransferId());
+		putNumber(buffer, TAG_FILE_SIZE, msg.getFileSize());
+		putNumber(buffer, TAG_FILE_OFFSET, msg.getFileOffset());
+		putNumber(buffer, TAG_CHUNK_SIZE, msg.getChunkSize());
+		putBytes(buffer, TAG_CHUNK_HASHES, msg.getChunkHashes());
+		putBytes(buffer, TAG_CHUNKS, msg.getChunks());
+		for(int k=0; k<msg.getUpdates().size(); ++k) {
+			putUpdate(buffer, msg.getUpdates().get(k));
+		}
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public boolean decode(ByteBuffer buffer, NetworkMessage msg) {
+		msg.reset();
+		try {
+			if(buffer.get() != MAGIC || buffer.get() != VERSION) {
+				return false;
+			}
+			msg.setCode(buffer.get() & 0xFF);
+			
+			while(buffer.hasRemaining()) {
+				byte tag = buffer.get();
+				long length = getVarInt(buffer);
+				if(length < 0 || length > buffer.remaining()) {
+					return false;
+				}
+				int end = buffer.position() + (int) length;
+				switch(tag) {
+					case TAG_NAME:
+						msg.setName(getString(buffer, (int) length));
+						break;
+					case TAG_TEXT:
+						msg.setText(getString(buffer, (int) length));
+						break;
+					case TAG_CAPABILITIES:
+						msg.setCapabilities((int) getVarInt(buffer));
+						break;
+					case TAG_INTERVAL:
+						msg.setInterval((int) getVarInt(buffer));
+						break;
+					case TAG_SEQUENCE:
+						msg.setSequence((int) getVarInt(buffer));
+						break;
+					case TAG_TARGET:
+						msg.setTarget(getString(buffer, (int) length));
+						break;
+					case TAG_EPOCH:
+						msg.setEpoch((int) getVarInt(buffer));
+						break;
+					case TAG_RELIABLE_SEQUENCE:
+						msg.setReliableSequence((int) getVarInt(buffer));
+						break;
+					case TAG_RELIABLE_FORWARD:
+						msg.setReliableForward((int) getVarInt(buffer));
+						break;
+					case TAG_ACKNOWLEDGED:
+						msg.setAcknowledged((int) getVarInt(buffer));
+						break;
+					case TAG_SELECTIVE_ACKS:
+						msg.setSelectiveAcks(getVarInt(buffer));
+						break;
+					case TAG_GROUP_SEQUENCE:
+						msg.setGroupSequence((int) getVarInt(buffer));
+						break;
+					case TAG_MISSING_RANGE:
+						msg.addMissingRange(new SequenceRange((int) getVarInt(buffer), (int) getVarInt(buffer)));
+						break;
+					case TAG_PARITY_COUNT:
+						msg.setParityCount((int) getVarInt(buffer));
+						break;
+					case TAG_PARITY:
+						msg.setParity(getBytes(buffer, (int) length));
+						break;
+					case TAG_TRANSFER_ID:
+						msg.setTransferId((int) getVarInt(buffer));
+						break;
+					case TAG_FILE_SIZE:
+						msg.setFileSize(getVarInt(buffer));
+						break;
+					case TAG_FILE_OFFSET:
+						msg.setFileOffset(getVarInt(buffer));
+						break;
+					case TAG_CHUNK_SIZE:
+						msg.setChunkSize((int) getVarInt(buffer));
+						break;
+					case TAG_CHUNK_HASHES:
+						msg.setChunkHashes(getBytes(buffer, (int) length));
+						break;
+					case TAG_CHUNKS:
+						msg.setChunks(getBytes(buffer, (int) length));
+						break;
+					case TAG_UPDATE:
+						msg.addUpdate(getUpdate(buffer, end));
+						break;
+				}
+				buffer.position(end);
+			}
+			return true;
+			
+		} catch (BufferUnderflowException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Writes a string field. Nothing is written if the string is null.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param tag The tag of the field.
+	 * @param value The string to write.
+	 */
+	private static void putString(ByteBuffer buffer, byte tag, String value) {
+		if(value == null) return;
+		buffer.put(tag);
+		putVarInt(buffer, Utf8.length(value));
+		Utf8.put(buffer, value);
+	}
+	
+	/**
+	 * Writes a byte array field. Nothing is written if the array is null.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param tag The tag of the field.
+	 * @param value The bytes to write.
+	 */
+	private static void putBytes(ByteBuffer buffer, byte tag, byte[] value) {
+		if(value == null) return;
+		buffer.put(tag);
+		putVarInt(buffer, value.length);
+		buffer.put(value);
+	}
+	
+	/**
+	 * Writes a number field. Nothing is written if the number is 0.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param tag The tag of the field.
+	 * @param value The number to write.
+	 */
+	private static void putNumber(ByteBuffer buffer, byte tag, long value) {
+		if(value == 0) return;
+		buffer.put(tag);
+		putVarInt(buffer, varIntLength(value));
+		putVarInt(buffer, value);
+	}
+	
+	/**
+	 * Writes a membership update field.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param update The update to write.
+	 */
+	private static void putUpdate(ByteBuffer buffer, MemberUpdate update) {
+		String name = update.getName() != null ? update.getName() : "";
+		int addressLength = Utf8.length(update.getAddress());
+		int nameLength = Utf8.length(name);
+		int length = varIntLength(update.getState()) + varIntLength(update.getIncarnation()) 
+				+ varIntLength(addressLength) + addressLength + varIntLength(nameLength) + nameLength;
+		buffer.put(TAG_UPDATE);
+		putVarInt(buffer, length);
+		putVarInt(buffer, update.getState());
+		putVarInt(buffer, update.getIncarnation());
+		putVarInt(buffer, addressLength);
+		Utf8.put(buffer, update.getAddress());
+		putVarInt(buffer, nameLength);
+		Utf8.put(buffer, name);
+	}
+	
+	/**
+	 * Writes a sequence range field.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param range The range to write.
+	 */
+	private static void putRange(ByteBuffer buffer, SequenceRange range) {
+		buffer.put(TAG_MISSING_RANGE);
+		putVarInt(buffer, varIntLength(range.getFirst()) + varIntLength(range.getLast()));
+		putVarInt(buffer, range.getFirst());
+		putVarInt(buffer, range.getLast());
+	}
+	
+	/**
+	 * Writes a non-negative number with 7 bits per byte.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param value The number to write.
+	 */
+	private static void putVarInt(ByteBuffer buffer, long value) {
+		while((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+	
+	/**
+	 * Returns the number of bytes of a varint.
+	 * 
+	 * @param value The number.
+	 * @return The number of bytes.
+	 */
+	private static int varIntLength(long value) {
+		int length = 1;
+		while((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			++length;
+		}
+		return length;
+	}
+	
+	/**
+	 * Reads a varint.
+	 * 
+	 * @param buffer The source buffer.
+	 * @return The number or -1 if the varint is too long.
+	 */
+	private static long getVarInt(ByteBuffer buffer) {
+		long value = 0;
+		for(int shift=0; shift<64; shift+=7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Reads a membership update field.
+	 * 
+	 * @param buffer The source buffer.
+	 * @param end The position after the field.
+	 * @return The update.
+	 */
+	private MemberUpdate getUpdate(ByteBuffer buffer, int end) {
+		int state = (int) getVarInt(buffer);
+		int incarnation = (int) getVarInt(buffer);
+		String address = getNestedString(buffer, end);
+		String name = getNestedString(buffer, end);
+		return new MemberUpdate(address, state, incarnation, name.isEmpty() ? null : name);
+	}
+	
+	/**
+	 * Reads a length prefixed string within a field.
+	 * 
+	 * @param buffer The source buffer.
+	 * @param end The position after the field.
+	 * @return The string.
+	 */
+	private String getNestedString(ByteBuffer buffer, int end) {
+		long length = getVarInt(buffer);
+		if(length < 0 || length > end - buffer.position()) {
+			throw new IllegalArgumentException("invalid length");
+		}
+		int start = buffer.position();
+		String value = getString(buffer, (int) length);
+		buffer.position(start + (int) length);
+		return value;
+	}
+	
+	/**
+	 * Reads an UTF-8 encoded string.
+	 * 
+	 * @param buffer The source buffer.
+	 * @param length The length of the encoding in bytes.
+	 * @return The string.
+	 */
+	private String getString(ByteBuffer buffer, int length) {
+		if(buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		}
+		if(scratch.length < length) {
+			scratch = new byte[Math.max(length, 2 * scratch.length)];
+		}
+		buffer.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a field with raw bytes.
+	 *
+	 * @param buffer The source buffer.
+	 * @param length The length of the field in bytes.
+	 * @return The bytes.
+	 */
+	private static byte[] getBytes(ByteBuffer buffer, int length) {
+		byte[] value = new byte[length];
+		buffer.get(value);
+		return value;
+	}
+	
+}
@@ -0,0 +1,60 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of direct byte buffers with a fixed size. 
+ * Avoids the allocation of a new buffer for every received datagram.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class ByteBufferPool {
+
+	/** The buffers which are currently not in use. */
+	private ArrayBlockingQueue<ByteBuffer> buffers;
+	
+	/** The capacity of a single buffer. */
+	private int bufferSize;
+	
+	
+	/**
+	 * Constructor. Allocates all buffers of the pool.
+	 * 
+	 * @param poolSize The number of buffers.
+	 * @param bufferSize The capacity of a single buffer.
+	 */
+	public ByteBufferPool(int poolSize, int bufferSize) {
+		this.bufferSize = bufferSize;
+		buffers = new ArrayBlockingQueue<ByteBuffer>(poolSize);
+		for(int k=0; k<poolSize; ++k) {
+			buffers.offer(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+	
+	/**
+	 * Takes a cleared buffer from the pool. If the pool is empty
+	 * a new buffer is allocated.
+	 * 
+	 * @return A cleared buffer.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if(buffer == null) {
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. The buffer is dropped if the pool is full.
+	 * 
+	 * @param buffer The buffer to return.
+	 */
+	public void release(ByteBuffer buffer) {
+		buffers.offer(buffer);
+	}
+	
+}
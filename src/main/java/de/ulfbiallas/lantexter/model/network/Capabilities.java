@@ -0,0 +1,51 @@
+package de.ulfbiallas.lantexter.model.network;
+
+/**
+ * Flags for the capabilities which a participant advertises 
+ * in the WhoIsOnline and IAmOnline messages.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class Capabilities {
+
+	/** The participant can decode the binary codec. */
+	public static final int CODEC_BINARY = 1;
+	
+	/** The participant takes part in the gossip membership protocol. */
+	public static final int GOSSIP = 2;
+	
+	/** 
+	 * The participant advertises its alive interval and treats every received 
+	 * message as alive signal, so it does not need alive broadcasts while 
+	 * it receives chat messages.
+	 */
+	public static final int ADAPTIVE_HEARTBEAT = 4;
+	
+	/** The participant acknowledges messages of the reliable delivery. */
+	public static final int RELIABLE = 8;
+	
+	/** The participant accepts large messages over TCP on the chat port. */
+	public static final int STREAM = 16;
+	
+	/** The participant sends and receives files over TCP on the port after the chat port. */
+	public static final int FILE_TRANSFER = 32;
+	
+	/** The participant takes part in the distribution of a file in hashed chunks to many participants. */
+	public static final int FILE_SWARM = 64;
+	
+	/** The capabilities of this application. GOSSIP is added only if the gossip membership is enabled. */
+	public static final int LOCAL = CODEC_BINARY | ADAPTIVE_HEARTBEAT | RELIABLE | STREAM | FILE_TRANSFER | FILE_SWARM;
+	
+	/**
+	 * Returns whether a bit mask of capabilities contains a specific capability.
+	 * 
+	 * @param capabilities The bit mask of capabilities.
+	 * @param capability The capability to check.
+	 * @return Boolean which is true if the capability is contained.
+	 */
+	public static boolean supports(int capabilities, int capability) {
+		return (capabilities & capability) == capability;
+	}
+	
+}
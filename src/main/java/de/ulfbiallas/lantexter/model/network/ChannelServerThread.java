@@ -0,0 +1,172 @@
+package de.ulfbiallas.lantexter.model.network;
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import de.ulfbiallas.lantexter.model.Constants;
+import de.ulfbiallas.lantexter.model.ModelNotification;
+
+/**
+ * Class which opens a non-blocking DatagramChannel and runs a blocking task 
+ * which waits with a Selector for incoming UDP datagrams. The datagrams are 
+ * received into pooled direct buffers and decoded without copying them.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class ChannelServerThread implements Runnable, IPacketReceiver {
+
+	private IPacketProcessor packetProcessor;
+	private DatagramChannel channel;
+	private Selector selector;
+	private ByteBufferPool bufferPool;
+	private PacketDispatcher dispatcher;
+	
+	/** Flag which is cleared to stop the receive loop. */
+	private volatile boolean running = true;
+	
+	/** Flag which is set when the receive task has been handed to the executor. */
+	private volatile boolean started = false;
+	
+	
+	/**
+	 * Constructor. Opens an UDP port and starts the task to receive datagrams.
+	 * 
+	 * @param packetProcessor Class which processes the incoming UDP datagrams.
+	 * @param port The port to open.
+	 * @param executor The executor which runs the blocking receive task.
+	 */
+	public ChannelServerThread(IPacketProcessor packetProcessor, int port, Executor executor) {
+		this(packetProcessor, port, null, null, executor);
+	}
+	
+	/**
+	 * Constructor. Opens an UDP port, joins a multicast group 
+	 * and starts the task to receive datagrams.
+	 * 
+	 * @param packetProcessor Class which processes the incoming UDP datagrams.
+	 * @param port The port to open.
+	 * @param group The multicast group to join or null to receive unicast only.
+	 * @param rateLimiter The limiter of the datagrams per sender or null to accept all datagrams.
+	 * @param executor The executor which runs the blocking receive task.
+	 */
+	public ChannelServerThread(IPacketProcessor packetProcessor, int port, InetAddress group, RateLimiter rateLimiter, Executor executor) {
+		this.packetProcessor = packetProcessor;
+		
+		bufferPool = new ByteBufferPool(Constants.RECEIVE_BUFFER_POOL_SIZE, Constants.RECEIVE_BUFFER_SIZE);
+		dispatcher = new PacketDispatcher(packetProcessor, rateLimiter);
+		
+		try {
+			if(group != null) {
+				channel = DatagramChannel.open(StandardProtocolFamily.INET);
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			} else {
+				channel = DatagramChannel.open();
+			}
+			channel.configureBlocking(false);
+			channel.socket().bind(new InetSocketAddress(port));
+			if(group != null) {
+				try {
+					NetworkInterface networkInterface = UDPTools.getMulticastInterface();
+					if(networkInterface != null) {
+						channel.join(group, networkInterface);
+					}
+				} catch (IOException e) {
+					// Fall back to unicast
+					e.printStackTrace();
+				}
+			}
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+			executor.execute(this);
+			started = true;
+		} catch (RejectedExecutionException e) {
+			close();
+			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
+		} catch (java.lang.IllegalArgumentException e) {
+			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
+		} catch (IOException e) {
+			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
+		}
+	}
+	
+	/**
+	 * Stops receiving datagrams and closes the UDP port.
+	 */
+	public void shutdown() {
+		running = false;
+		if(selector != null) {
+			selector.wakeup();
+		}
+		if(!started) {
+			close();
+		}
+	}
+	
+	/**
+	 * Waits for incoming UDP datagrams.
+	 */
+	public void run() {
+
+		packetProcessor.onSuccessfulStarted();
+		
+		while(running) {
+			try {
+				selector.select();
+				selector.selectedKeys().clear();
+				receiveAll();
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (IOException e) {
+				
+			}
+		}
+		close();
+	}
+	
+	/**
+	 * Receives all datagrams which are currently available on the channel.
+	 * 
+	 * @throws IOException If the channel can not be read.
+	 */
+	private void receiveAll() throws IOException {
+		while(running) {
+			ByteBuffer buffer = bufferPool.acquire();
+			try {
+				InetSocketAddress sender = (InetSocketAddress) channel.receive(buffer);
+				if(sender == null) {
+					break;
+				}
+				buffer.flip();
+				dispatcher.dispatch(buffer, sender.getAddress(), sender.getPort());
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+	}
+	
+	/**
+	 * Closes the selector and the channel.
+	 */
+	private void close() {
+		try {
+			if(selector != null) selector.close();
+			if(channel != null) channel.close();
+		} catch (IOException e) {
+			
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Tool class which manages the available message codecs and 
+ * encodes messages for sending.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class Codecs {
+
+	/** Id of the JSON codec. */
+	public static final int JSON = 0;
+	
+	/** Id of the binary codec. */
+	public static final int BINARY = 1;
+	
+	/** Initial size of the encoding buffers. */
+	private static final int INITIAL_BUFFER_SIZE = 2048;
+	
+	/** Maximum size of an encoded message. */
+	private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+	
+	/** Encoding buffer and codecs of each sending thread. */
+	private static final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+		@Override
+		protected Encoder initialValue() {
+			return new Encoder();
+		}
+	};
+	
+	
+	/**
+	 * Inner class which holds the encoding state of one thread.
+	 */
+	private static class Encoder {
+		private IMessageCodec[] codecs = createAll();
+		private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Creates new instances of all codecs. The order defines the order 
+	 * in which the codecs are asked whether they can decode a datagram.
+	 * 
+	 * @return An array which is indexed by the codec id.
+	 */
+	public static IMessageCodec[] createAll() {
+		IMessageCodec[] codecs = new IMessageCodec[2];
+		codecs[JSON] = new JsonCodec();
+		codecs[BINARY] = new BinaryCodec();
+		return codecs;
+	}
+	
+	/**
+	 * Encodes a message with a specific codec.
+	 * 
+	 * @param codecId The id of the codec.
+	 * @param msg The message to encode.
+	 * @return The encoded message.
+	 */
+	public static byte[] encode(int codecId, NetworkMessage msg) {
+		Encoder encoder = encoders.get();
+		while(true) {
+			encoder.buffer.clear();
+			try {
+				encoder.codecs[codecId].encode(msg, encoder.buffer);
+				break;
+			} catch (BufferOverflowException e) {
+				if(encoder.buffer.capacity() >= MAX_BUFFER_SIZE) throw e;
+				encoder.buffer = ByteBuffer.allocate(2 * encoder.buffer.capacity());
+			}
+		}
+		encoder.buffer.flip();
+		byte[] data = new byte[encoder.buffer.remaining()];
+		encoder.buffer.get(data);
+		return data;
+	}
+	
+}
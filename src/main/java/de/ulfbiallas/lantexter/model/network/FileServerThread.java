@@ -0,0 +1,146 @@
+package de.ulfbiallas.lantexter.model.network;
+
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Class which opens a TCP port for the file transfer and runs a blocking
+ * task which accepts connections. Each connection is handled by its own
+ * task of the executor, which reads a single length prefixed FILE_ACCEPT
+ * message and passes the connection to the file request processor, so
+ * a running transfer neither blocks further requests nor the chat.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class FileServerThread implements Runnable, IPacketReceiver {
+
+	/** Time in [ms] to wait for the request after a connection is accepted. */
+	private static final int REQUEST_TIMEOUT = 5000;
+
+	/** Maximum size of a request in bytes. */
+	private static final int MAX_REQUEST_SIZE = 1024;
+
+	private ServerSocketChannel serverChannel;
+	private IFileRequestProcessor fileRequestProcessor;
+	private Executor executor;
+
+	/** Flag which is cleared to stop the accept loop. */
+	private volatile boolean running = true;
+
+
+	/**
+	 * Constructor. Opens a TCP port and starts the task to accept connections.
+	 * If the port can not be opened, no files can be sent, but the chat keeps
+	 * working.
+	 *
+	 * @param fileRequestProcessor Class which answers the requests.
+	 * @param port The port to open.
+	 * @param executor The executor which runs the blocking tasks.
+	 */
+	public FileServerThread(IFileRequestProcessor fileRequestProcessor, int port, Executor executor) {
+		this.fileRequestProcessor = fileRequestProcessor;
+		this.executor = executor;
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			executor.execute(this);
+		} catch (RejectedExecutionException e) {
+			shutdown();
+		} catch (IOException e) {
+			e.printStackTrace();
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes the TCP port. Running
+	 * transfers are not affected.
+	 */
+	public void shutdown() {
+		running = false;
+		if(serverChannel != null) {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+
+			}
+		}
+	}
+
+	/**
+	 * Accepts connections and hands each one to a task of the executor.
+	 */
+	public void run() {
+		while(running) {
+			try {
+				final SocketChannel channel = serverChannel.accept();
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							handleRequest(channel);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					close(channel);
+				}
+			} catch (IOException e) {
+				if(!serverChannel.isOpen()) break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the request of a connection and passes it to the file request processor.
+	 * The connection is closed afterwards.
+	 *
+	 * @param channel The accepted connection.
+	 */
+	private void handleRequest(SocketChannel channel) {
+		try {
+			channel.socket().setSoTimeout(REQUEST_TIMEOUT);
+			DataInputStream in = new DataInputStream(channel.socket().getInputStream());
+			int length = in.readInt();
+			if(length <= 0 || length > MAX_REQUEST_SIZE) return;
+			byte[] request = new byte[length];
+			in.readFully(request);
+
+			NetworkMessage msg = new NetworkMessage();
+			BinaryCodec codec = new BinaryCodec();
+			ByteBuffer buffer = ByteBuffer.wrap(request);
+			if(codec.canDecode(buffer) && codec.decode(buffer, msg) && msg.isValid() && msg.getCode() == NetworkMessage.FILE_ACCEPT) {
+				InetSocketAddress sender = (InetSocketAddress) channel.getRemoteAddress();
+				fileRequestProcessor.processFileRequest(msg, sender.getAddress(), channel);
+			}
+		} catch (IOException e) {
+
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			close(channel);
+		}
+	}
+
+	/**
+	 * Closes a connection.
+	 *
+	 * @param channel The connection.
+	 */
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class which reassembles the fragments of the class Fragments into the
+ * original messages. Incomplete messages are dropped after a timeout and
+ * the number and size of incomplete messages is limited, so missing or
+ * forged fragments can not exhaust the memory. Every fragment except the
+ * last one of a message has to carry at least MIN_FRAGMENT_SIZE bytes, so
+ * the number of fragments and the work per message is limited, too. A
+ * fragment which overlaps the received data of its message is dropped, so
+ * every byte is counted once. Each receive thread owns its own reassembler.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class FragmentReassembler {
+
+	/** Default time in [ms] after which an incomplete message is dropped. */
+	private static final long TIMEOUT = 5000;
+
+	/** Maximum size of a reassembled message in bytes. */
+	private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+	/** Maximum number of bytes of all incomplete messages. */
+	private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+	/** Maximum number of incomplete messages. */
+	private static final int MAX_PENDING_MESSAGES = 64;
+
+	/** Maximum number of incomplete messages of one sender. */
+	private static final int MAX_PENDING_PER_SENDER = 8;
+
+	/** Minimum number of payload bytes of a fragment which does not end its message. */
+	private static final int MIN_FRAGMENT_SIZE = 512;
+
+	/** The incomplete messages in the order of their first fragment. */
+	private LinkedHashMap<Key, Reassembly> pending = new LinkedHashMap<Key, Reassembly>();
+
+	/** The number of bytes of all incomplete messages. */
+	private int pendingBytes;
+
+	/** Time in [ms] after which an incomplete message is dropped. */
+	private final long timeout;
+
+
+	/**
+	 * Inner class which identifies a message by its sender and id.
+	 */
+	private static class Key {
+		private final InetAddress addr;
+		private final int messageId;
+
+		private Key(InetAddress addr, int messageId) {
+			this.addr = addr;
+			this.messageId = messageId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return messageId == other.messageId && addr.equals(other.addr);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * addr.hashCode() + messageId;
+		}
+	}
+
+	/**
+	 * Inner class which holds an incomplete message.
+	 */
+	private static class Reassembly {
+		private final byte[] data;
+		private final long startTime;
+		/** The received ranges from their offset to their end. */
+		private TreeMap<Integer, Integer> ranges = new TreeMap<Integer, Integer>();
+		private int received;
+
+		private Reassembly(int length, long startTime) {
+			this.data = new byte[length];
+			this.startTime = startTime;
+		}
+	}
+
+
+	/**
+	 * Constructor.
+	 */
+	public FragmentReassembler() {
+		this(TIMEOUT);
+	}
+
+	/**
+	 * Constructor with another timeout, e.g. for tests.
+	 *
+	 * @param timeout The time in [ms] after which an incomplete message is dropped.
+	 */
+	FragmentReassembler(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Adds a received fragment.
+	 *
+	 * @param fragment The buffer with the fragment datagram.
+	 * @param addr The sender of the fragment.
+	 * @return A buffer with the complete message or null if it is still incomplete or the fragment is invalid.
+	 */
+	public ByteBuffer add(ByteBuffer fragment, InetAddress addr) {
+		long time = System.currentTimeMillis();
+		expire(time);
+		if(fragment.remaining() <= Fragments.HEADER_SIZE) return null;
+
+		fragment.get();
+		int messageId = fragment.getInt();
+		int offset = fragment.getInt();
+		int total = fragment.getInt();
+		int length = fragment.remaining();
+		if(total > MAX_MESSAGE_SIZE || offset < 0 || offset > total - length) return null;
+		if(length < Math.min(MIN_FRAGMENT_SIZE, total - offset)) return null;
+
+		Key key = new Key(addr, messageId);
+		Reassembly reassembly = pending.get(key);
+		if(reassembly == null) {
+			if(countPending(addr) >= MAX_PENDING_PER_SENDER) return null;
+			while(!pending.isEmpty() && (pending.size() >= MAX_PENDING_MESSAGES || pendingBytes + total > MAX_PENDING_BYTES)) {
+				removeOldest();
+			}
+			reassembly = new Reassembly(total, time);
+			pending.put(key, reassembly);
+			pendingBytes += total;
+		} else if(reassembly.data.length != total) {
+			return null;
+		}
+
+		if(overlaps(reassembly, offset, offset + length)) return null;
+		reassembly.ranges.put(offset, offset + length);
+		fragment.get(reassembly.data, offset, length);
+		reassembly.received += length;
+		if(reassembly.received < total) return null;
+
+		pending.remove(key);
+		pendingBytes -= total;
+		return ByteBuffer.wrap(reassembly.data);
+	}
+
+	/**
+	 * Returns whether a range overlaps the received data of a message.
+	 *
+	 * @param reassembly The incomplete message.
+	 * @param offset The start of the range.
+	 * @param end The end of the range (exclusive).
+	 * @return Boolean which is true if a byte of the range has been received.
+	 */
+	private static Boolean overlaps(Reassembly reassembly, int offset, int end) {
+		Map.Entry<Integer, Integer> before = reassembly.ranges.floorEntry(offset);
+		if(before != null && before.getValue() > offset) return true;
+		Integer after = reassembly.ranges.higherKey(offset);
+		return after != null && after < end;
+	}
+
+	/**
+	 * Returns whether a fragment belongs to an incomplete message, 
+	 * i.e. whether it does not start a new reassembly.
+	 *
+	 * @param fragment The buffer with the fragment datagram, its position is not changed.
+	 * @param addr The sender of the fragment.
+	 * @return Boolean which is true if the message of the fragment is incomplete.
+	 */
+	public Boolean isPending(ByteBuffer fragment, InetAddress addr) {
+		if(fragment.remaining() <= Fragments.HEADER_SIZE) return false;
+		return pending.containsKey(new Key(addr, fragment.getInt(fragment.position() + 1)));
+	}
+
+	/**
+	 * Drops the incomplete messages whose first fragment is older than the timeout.
+	 *
+	 * @param time The current time.
+	 */
+	private void expire(long time) {
+		while(!pending.isEmpty() && pending.values().iterator().next().startTime + timeout < time) {
+			removeOldest();
+		}
+	}
+
+	/**
+	 * Drops the oldest incomplete message.
+	 */
+	private void removeOldest() {
+		Iterator<Reassembly> it = pending.values().iterator();
+		pendingBytes -= it.next().data.length;
+		it.remove();
+	}
+
+	/**
+	 * Returns the number of incomplete messages of a sender.
+	 *
+	 * @param addr The sender.
+	 * @return The number of messages.
+	 */
+	private int countPending(InetAddress addr) {
+		int count = 0;
+		for(Key key : pending.keySet()) {
+			if(key.addr.equals(addr)) ++count;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,66 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tool class which splits encoded messages which do not fit into the
+ * receive buffer into several fragment datagrams:
+ *
+ * <pre>
+ * MAGIC (1 byte) | message id (4 bytes) | offset (4 bytes) | total length (4 bytes) | payload
+ * </pre>
+ *
+ * The fragments are reassembled by the class FragmentReassembler before
+ * the message is decoded, so the codecs never see a fragment.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class Fragments {
+
+	/** First byte of a fragment. It differs from the binary codec and can never start a valid UTF-8 (JSON) text. */
+	public static final byte MAGIC = (byte) 0x9C;
+
+	/** Size of the fragment header in bytes. */
+	public static final int HEADER_SIZE = 13;
+
+
+	/**
+	 * Returns whether a received datagram is a fragment.
+	 *
+	 * @param buffer The buffer with the datagram.
+	 * @return Boolean which is true if the datagram is a fragment.
+	 */
+	public static boolean isFragment(ByteBuffer buffer) {
+		return buffer.hasRemaining() && buffer.get(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * Splits an encoded message into datagrams of at most maxDatagramSize bytes.
+	 *
+	 * @param msg The encoded message.
+	 * @param maxDatagramSize The maximum size of a datagram in bytes.
+	 * @param messageId The id which identifies the fragments of the message at the receiver.
+	 * @return The message itself if it is small enough, otherwise the fragments.
+	 */
+	public static byte[][] split(byte[] msg, int maxDatagramSize, int messageId) {
+		if(msg.length <= maxDatagramSize) {
+			return new byte[][] { msg };
+		}
+		int payloadSize = maxDatagramSize - HEADER_SIZE;
+		byte[][] fragments = new byte[(msg.length + payloadSize - 1) / payloadSize][];
+		for(int k=0; k<fragments.length; ++k) {
+			int offset = k * payloadSize;
+			int length = Math.min(payloadSize, msg.length - offset);
+			ByteBuffer fragment = ByteBuffer.allocate(HEADER_SIZE + length);
+			fragment.put(MAGIC);
+			fragment.putInt(messageId);
+			fragment.putInt(offset);
+			fragment.putInt(msg.length);
+			fragment.put(msg, offset, length);
+			fragments[k] = fragment.array();
+		}
+		return fragments;
+	}
+
+}
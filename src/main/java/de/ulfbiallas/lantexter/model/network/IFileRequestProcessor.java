@@ -0,0 +1,28 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Interface for classes which answer the requests for offered files
+ * which are received by the FileServerThread.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public interface IFileRequestProcessor {
+
+	/**
+	 * Answers the request for the content of an offered file. Is called
+	 * by a blocking task of the executor, so it may block until the file
+	 * is sent. The channel is closed when the method returns.
+	 *
+	 * @param request The decoded FILE_ACCEPT message.
+	 * @param addr The sender of the request.
+	 * @param channel The blocking connection to the sender of the request.
+	 * @throws IOException If the file can not be sent.
+	 */
+	void processFileRequest(NetworkMessage request, InetAddress addr, SocketChannel channel) throws IOException;
+
+}
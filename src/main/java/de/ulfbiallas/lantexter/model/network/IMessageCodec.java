@@ -0,0 +1,49 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for classes which encode and decode network messages.
+ * Implementations may keep decoding state, so a codec instance
+ * must only be used by one thread.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public interface IMessageCodec {
+
+	/**
+	 * Returns the id of the codec as defined in the class Codecs.
+	 * 
+	 * @return The id of the codec.
+	 */
+	int getId();
+	
+	/**
+	 * Returns whether the content of the buffer is encoded with this codec.
+	 * The position of the buffer is not changed.
+	 * 
+	 * @param buffer The buffer with the received datagram.
+	 * @return Boolean which is true if the codec can decode the buffer.
+	 */
+	boolean canDecode(ByteBuffer buffer);
+	
+	/**
+	 * Encodes a message into the buffer.
+	 * 
+	 * @param msg The message to encode.
+	 * @param buffer The target buffer.
+	 * @throws java.nio.BufferOverflowException If the buffer is too small.
+	 */
+	void encode(NetworkMessage msg, ByteBuffer buffer);
+	
+	/**
+	 * Decodes the remaining content of the buffer into a message.
+	 * 
+	 * @param buffer The buffer with the received datagram.
+	 * @param msg The message to fill. It is reset before decoding.
+	 * @return Boolean which is true if the buffer contained a valid encoding.
+	 */
+	boolean decode(ByteBuffer buffer, NetworkMessage msg);
+	
+}
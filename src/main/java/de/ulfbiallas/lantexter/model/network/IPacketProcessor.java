@@ -4,8 +4,6 @@ import java.net.InetAddress;
 
 import de.ulfbiallas.lantexter.model.ModelNotification;
 
-import net.sf.json.JSONObject;
-
 /**
  * Interface for classes which can process incoming chat messages.
  * 
@@ -15,23 +13,24 @@ import net.sf.json.JSONObject;
 public interface IPacketProcessor {
 
 	/**
-	 * Processes the incoming chat message.
+	 * Processes the incoming chat message. The receivers call this method 
+	 * from their own threads, so it may be called concurrently.
 	 * 
-	 * @param msg The message.
+	 * @param msg The decoded message. The object is reused for the next message.
 	 * @param addr The sender of the the message.
 	 * @param port The port of the sender.
 	 */
-	void processMessage(JSONObject msg, InetAddress addr, int port);
+	void processMessage(NetworkMessage msg, InetAddress addr, int port);
 	
 	/**
-	 * Notifies the observers of an error during the connection process
+	 * Notifies the listeners of an error during the connection process
 	 * 
 	 * @param notification A detailed notification.
 	 */
 	void onError(ModelNotification notification);
 	
 	/**
-	 * Notifies the observers of the establishment of the connection
+	 * Notifies the listeners of the establishment of the connection
 	 */
 	void onSuccessfulStarted();
 	
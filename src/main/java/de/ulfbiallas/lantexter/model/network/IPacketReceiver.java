@@ -0,0 +1,17 @@
+package de.ulfbiallas.lantexter.model.network;
+
+/**
+ * Interface for classes which receive UDP datagrams and pass them 
+ * to an IPacketProcessor.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public interface IPacketReceiver {
+
+	/**
+	 * Stops receiving datagrams and closes the UDP port.
+	 */
+	void shutdown();
+	
+}
@@ -0,0 +1,82 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec for the original JSON wire format which is understood by all clients.
+ * Messages are created with json-lib and decoded with a streaming decoder.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class JsonCodec implements IMessageCodec {
+
+	private JsonStreamDecoder decoder = new JsonStreamDecoder();
+	
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public int getId() {
+		return Codecs.JSON;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public boolean canDecode(ByteBuffer buffer) {
+		for(int k=buffer.position(); k<buffer.limit(); ++k) {
+			byte b = buffer.get(k);
+			if(b == '{') return true;
+			if(b != ' ' && b != '\t' && b != '\r' && b != '\n') return false;
+		}
+		return false;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public void encode(NetworkMessage msg, ByteBuffer buffer) {
+		String json;
+		switch(msg.getCode()) {
+			case NetworkMessage.WHO_IS_ONLINE:
+				json = JsonTools.createWhoIsOnlineMessage(msg.getName(), msg.getCapabilities(), msg.getInterval(), 
+						msg.getEpoch(), msg.getGroupSequence());
+				break;
+			case NetworkMessage.I_AM_ONLINE:
+				json = JsonTools.createIAmOnlineMessage(msg.getName(), msg.getCapabilities(), msg.getInterval());
+				break;
+			case NetworkMessage.CHAT:
+				json = JsonTools.createChatMessage(msg.getName(), msg.getText());
+				break;
+			case NetworkMessage.NEW_NAME:
+				json = JsonTools.createNewNameMessage(msg.getName());
+				break;
+			case NetworkMessage.CHAT_LEFT:
+				json = JsonTools.createChatLeftMessage(msg.getName());
+				break;
+			case NetworkMessage.PING:
+			case NetworkMessage.PING_REQ:
+			case NetworkMessage.ACK:
+				json = JsonTools.createMembershipMessage(msg.getCode(), msg.getName(), 
+						msg.getSequence(), msg.getTarget(), msg.getUpdates());
+				break;
+			default:
+				throw new IllegalArgumentException("unknown code " + msg.getCode());
+		}
+		buffer.put(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public boolean decode(ByteBuffer buffer, NetworkMessage msg) {
+		return decoder.decode(buffer, msg);
+	}
+	
+}
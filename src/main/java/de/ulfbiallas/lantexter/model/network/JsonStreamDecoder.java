@@ -0,0 +1,506 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder for the JSON wire format. It reads the UTF-8 bytes 
+ * directly from the receive buffer into a reusable NetworkMessage without 
+ * building a JSON object tree. Only the strings which are stored in the 
+ * message are allocated. Unknown keys and nested values are skipped.
+ * 
+ * The name and the text accept any value like the getString method of 
+ * json-lib, because json-lib sends a text which looks like JSON as JSON 
+ * value, e.g. the text "[1, 2]" as array and the text "null" as null. 
+ * Such a value is returned as its JSON text.
+ * 
+ * An instance keeps decoding state and must only be used by one thread.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class JsonStreamDecoder {
+
+	/** Ids of the known keys. */
+	private static final int KEY_UNKNOWN = 0;
+	private static final int KEY_CODE = 1;
+	private static final int KEY_NAME = 2;
+	private static final int KEY_TEXT = 3;
+	private static final int KEY_CAPS = 4;
+	private static final int KEY_SEQ = 5;
+	private static final int KEY_TARGET = 6;
+	private static final int KEY_UPDATES = 7;
+	private static final int KEY_ADDR = 8;
+	private static final int KEY_STATE = 9;
+	private static final int KEY_INC = 10;
+	private static final int KEY_IVAL = 11;
+	private static final int KEY_EPOCH = 12;
+	private static final int KEY_GSEQ = 13;
+	
+	/** The buffer which is currently decoded. */
+	private ByteBuffer buffer;
+	
+	/** Reusable character buffer for the last decoded string. */
+	private char[] chars = new char[256];
+	
+	/** Number of characters of the last decoded string. */
+	private int length;
+	
+	
+	/**
+	 * Decodes the remaining content of the buffer into a message.
+	 * 
+	 * @param buffer The buffer with the received datagram.
+	 * @param msg The message to fill. It is reset before decoding.
+	 * @return Boolean which is true if the buffer contained a JSON object with a code.
+	 */
+	public boolean decode(ByteBuffer buffer, NetworkMessage msg) {
+		msg.reset();
+		this.buffer = buffer;
+		try {
+			return decodeObject(msg);
+		} catch (BufferUnderflowException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		} finally {
+			this.buffer = null;
+		}
+	}
+	
+	/**
+	 * Decodes the top level object.
+	 * 
+	 * @param msg The message to fill.
+	 * @return Boolean which is true if the object contained a code.
+	 */
+	private boolean decodeObject(NetworkMessage msg) {
+		boolean hasCode = false;
+		skipWhitespace();
+		expect('{');
+		skipWhitespace();
+		if(peek() == '}') {
+			return false;
+		}
+		
+		while(true) {
+			skipWhitespace();
+			expect('"');
+			readString();
+			int key = keyId();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			
+			switch(key) {
+				case KEY_CODE:
+					msg.setCode((int) readNumber());
+					hasCode = true;
+					break;
+				case KEY_NAME:
+					msg.setName(readAnyValue());
+					break;
+				case KEY_TEXT:
+					msg.setText(readAnyValue());
+					break;
+				case KEY_CAPS:
+					msg.setCapabilities((int) readNumber());
+					break;
+				case KEY_IVAL:
+					msg.setInterval((int) readNumber());
+					break;
+				case KEY_SEQ:
+					msg.setSequence((int) readNumber());
+					break;
+				case KEY_EPOCH:
+					msg.setEpoch((int) readNumber());
+					break;
+				case KEY_GSEQ:
+					msg.setGroupSequence((int) readNumber());
+					break;
+				case KEY_TARGET:
+					msg.setTarget(readStringValue());
+					break;
+				case KEY_UPDATES:
+					decodeUpdates(msg);
+					break;
+				default:
+					skipValue();
+			}
+			
+			skipWhitespace();
+			byte b = buffer.get();
+			if(b == '}') {
+				return hasCode;
+			}
+			if(b != ',') {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Decodes an array of membership updates.
+	 * 
+	 * @param msg The message to which the updates are added.
+	 */
+	private void decodeUpdates(NetworkMessage msg) {
+		expect('[');
+		skipWhitespace();
+		if(peek() == ']') {
+			buffer.get();
+			return;
+		}
+		while(true) {
+			skipWhitespace();
+			msg.addUpdate(decodeUpdate());
+			skipWhitespace();
+			byte b = buffer.get();
+			if(b == ']') {
+				return;
+			}
+			if(b != ',') {
+				throw new IllegalArgumentException("',' expected");
+			}
+		}
+	}
+	
+	/**
+	 * Decodes a single membership update object.
+	 * 
+	 * @return The update.
+	 */
+	private MemberUpdate decodeUpdate() {
+		String address = null;
+		String name = null;
+		int state = 0;
+		int incarnation = 0;
+		expect('{');
+		skipWhitespace();
+		if(peek() == '}') {
+			buffer.get();
+			return new MemberUpdate(address, state, incarnation, name);
+		}
+		while(true) {
+			skipWhitespace();
+			expect('"');
+			readString();
+			int key = keyId();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			
+			switch(key) {
+				case KEY_ADDR:
+					address = readStringValue();
+					break;
+				case KEY_NAME:
+					name = readAnyValue();
+					break;
+				case KEY_STATE:
+					state = (int) readNumber();
+					break;
+				case KEY_INC:
+					incarnation = (int) readNumber();
+					break;
+				default:
+					skipValue();
+			}
+			
+			skipWhitespace();
+			byte b = buffer.get();
+			if(b == '}') {
+				return new MemberUpdate(address, state, incarnation, name);
+			}
+			if(b != ',') {
+				throw new IllegalArgumentException("',' expected");
+			}
+		}
+	}
+	
+	/**
+	 * Returns the id of the key which is held in the character buffer.
+	 * 
+	 * @return The id of the key.
+	 */
+	private int keyId() {
+		if(equalsChars("code")) return KEY_CODE;
+		if(equalsChars("name")) return KEY_NAME;
+		if(equalsChars("text")) return KEY_TEXT;
+		if(equalsChars("caps")) return KEY_CAPS;
+		if(equalsChars("seq")) return KEY_SEQ;
+		if(equalsChars("target")) return KEY_TARGET;
+		if(equalsChars("updates")) return KEY_UPDATES;
+		if(equalsChars("addr")) return KEY_ADDR;
+		if(equalsChars("state")) return KEY_STATE;
+		if(equalsChars("inc")) return KEY_INC;
+		if(equalsChars("ival")) return KEY_IVAL;
+		if(equalsChars("epoch")) return KEY_EPOCH;
+		if(equalsChars("gseq")) return KEY_GSEQ;
+		return KEY_UNKNOWN;
+	}
+	
+	/**
+	 * Compares the character buffer with a string.
+	 * 
+	 * @param s The string.
+	 * @return Boolean which is true if both are equal.
+	 */
+	private boolean equalsChars(String s) {
+		if(s.length() != length) return false;
+		for(int k=0; k<length; ++k) {
+			if(chars[k] != s.charAt(k)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Reads a string value or null.
+	 * 
+	 * @return The string or null.
+	 */
+	private String readStringValue() {
+		if(peek() == 'n') {
+			expectLiteral("null");
+			return null;
+		}
+		expect('"');
+		readString();
+		return new String(chars, 0, length);
+	}
+	
+	/**
+	 * Reads a value of any type as string. A string is returned without 
+	 * quotes, any other value as its JSON text, e.g. "null" for null.
+	 * 
+	 * @return The string.
+	 */
+	private String readAnyValue() {
+		if(peek() == '"') {
+			buffer.get();
+			readString();
+			return new String(chars, 0, length);
+		}
+		int start = buffer.position();
+		skipValue();
+		byte[] raw = new byte[buffer.position() - start];
+		for(int k=0; k<raw.length; ++k) {
+			raw[k] = buffer.get(start + k);
+		}
+		return new String(raw, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Reads an integer which may also be given as string (e.g. "code":"3").
+	 * 
+	 * @return The number.
+	 */
+	private long readNumber() {
+		boolean quoted = peek() == '"';
+		if(quoted) buffer.get();
+		
+		boolean negative = peek() == '-';
+		if(negative) buffer.get();
+		
+		long value = 0;
+		int digits = 0;
+		while(buffer.hasRemaining()) {
+			byte b = peek();
+			if(b < '0' || b > '9') break;
+			value = 10 * value + (b - '0');
+			buffer.get();
+			if(++digits > 18) throw new IllegalArgumentException("number too long");
+		}
+		if(digits == 0) throw new IllegalArgumentException("number expected");
+		
+		if(quoted) expect('"');
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Reads the rest of a string after the opening quote into the character buffer.
+	 */
+	private void readString() {
+		length = 0;
+		while(true) {
+			int b = buffer.get();
+			if(b == '"') {
+				return;
+			} else if(b == '\\') {
+				readEscape();
+			} else if(b >= 0) {
+				append((char) b);
+			} else {
+				readMultiByte(b & 0xFF);
+			}
+		}
+	}
+	
+	/**
+	 * Reads an escape sequence after the backslash.
+	 */
+	private void readEscape() {
+		byte b = buffer.get();
+		switch(b) {
+			case '"': append('"'); break;
+			case '\\': append('\\'); break;
+			case '/': append('/'); break;
+			case 'b': append('\b'); break;
+			case 'f': append('\f'); break;
+			case 'n': append('\n'); break;
+			case 'r': append('\r'); break;
+			case 't': append('\t'); break;
+			case 'u':
+				int c = 0;
+				for(int k=0; k<4; ++k) {
+					int digit = Character.digit(buffer.get(), 16);
+					if(digit < 0) throw new IllegalArgumentException("invalid escape");
+					c = (c << 4) | digit;
+				}
+				append((char) c);
+				break;
+			default:
+				throw new IllegalArgumentException("invalid escape");
+		}
+	}
+	
+	/**
+	 * Reads a multi-byte UTF-8 sequence.
+	 * 
+	 * @param first The first byte of the sequence.
+	 */
+	private void readMultiByte(int first) {
+		int count;
+		int codePoint;
+		if((first & 0xE0) == 0xC0) {
+			count = 1;
+			codePoint = first & 0x1F;
+		} else if((first & 0xF0) == 0xE0) {
+			count = 2;
+			codePoint = first & 0x0F;
+		} else if((first & 0xF8) == 0xF0) {
+			count = 3;
+			codePoint = first & 0x07;
+		} else {
+			throw new IllegalArgumentException("invalid UTF-8");
+		}
+		for(int k=0; k<count; ++k) {
+			int b = buffer.get() & 0xFF;
+			if((b & 0xC0) != 0x80) throw new IllegalArgumentException("invalid UTF-8");
+			codePoint = (codePoint << 6) | (b & 0x3F);
+		}
+		if(codePoint > Character.MAX_CODE_POINT) throw new IllegalArgumentException("invalid UTF-8");
+		
+		if(Character.isBmpCodePoint(codePoint)) {
+			append((char) codePoint);
+		} else {
+			append(Character.highSurrogate(codePoint));
+			append(Character.lowSurrogate(codePoint));
+		}
+	}
+	
+	/**
+	 * Skips a value of any type including nested objects and arrays. A 
+	 * literal ends at the next delimiter outside of parentheses and braces,
+	 * so a JSON function of json-lib like function(a,b){...} is skipped, too.
+	 */
+	private void skipValue() {
+		byte b = peek();
+		if(b == '"') {
+			buffer.get();
+			readString();
+		} else if(b == '{' || b == '[') {
+			int depth = 0;
+			do {
+				b = buffer.get();
+				if(b == '"') {
+					readString();
+				} else if(b == '{' || b == '[') {
+					++depth;
+				} else if(b == '}' || b == ']') {
+					--depth;
+				}
+			} while(depth > 0);
+		} else {
+			int depth = 0;
+			while(buffer.hasRemaining()) {
+				b = peek();
+				if(depth == 0 && (b == ',' || b == '}' || b == ']' || isWhitespace(b))) break;
+				buffer.get();
+				if(b == '"') {
+					readString();
+				} else if(b == '(' || b == '{') {
+					++depth;
+				} else if(b == ')' || b == '}') {
+					--depth;
+				}
+			}
+			if(depth != 0) throw new IllegalArgumentException("unbalanced literal");
+		}
+	}
+	
+	/**
+	 * Appends a character to the character buffer.
+	 * 
+	 * @param c The character.
+	 */
+	private void append(char c) {
+		if(length == chars.length) {
+			char[] newChars = new char[2 * chars.length];
+			System.arraycopy(chars, 0, newChars, 0, length);
+			chars = newChars;
+		}
+		chars[length++] = c;
+	}
+	
+	/**
+	 * Returns the next byte without consuming it.
+	 * 
+	 * @return The next byte.
+	 */
+	private byte peek() {
+		if(!buffer.hasRemaining()) throw new BufferUnderflowException();
+		return buffer.get(buffer.position());
+	}
+	
+	/**
+	 * Consumes the next byte which must be the given character.
+	 * 
+	 * @param c The expected character.
+	 */
+	private void expect(char c) {
+		if(buffer.get() != c) throw new IllegalArgumentException("'" + c + "' expected");
+	}
+	
+	/**
+	 * Consumes a literal like null.
+	 * 
+	 * @param literal The expected literal.
+	 */
+	private void expectLiteral(String literal) {
+		for(int k=0; k<literal.length(); ++k) {
+			expect(literal.charAt(k));
+		}
+	}
+	
+	/**
+	 * Skips whitespace.
+	 */
+	private void skipWhitespace() {
+		while(buffer.hasRemaining() && isWhitespace(buffer.get(buffer.position()))) {
+			buffer.get();
+		}
+	}
+	
+	/**
+	 * Returns whether a byte is JSON whitespace.
+	 * 
+	 * @param b The byte.
+	 * @return Boolean which is true for whitespace.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+	
+}
@@ -1,5 +1,8 @@
 package de.ulfbiallas.lantexter.model.network;
 
+import java.util.List;
+
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 /**
@@ -14,14 +17,22 @@ public class JsonTools {
 	 * Creates the network message to find out who is online.
 	 * 
 	 * @param myName The name of the user.
+	 * @param capabilities The capabilities of the user (see class Capabilities).
+	 * @param interval The interval in [s] in which the user broadcasts its alive signal.
+	 * @param epoch The epoch of the multicast messages of the user or 0.
+	 * @param groupSequence The sequence number of the last multicast message of the user or 0.
 	 * @return The network message as JSON string.
 	 */
-	public static String createWhoIsOnlineMessage(String myName) {
+	public static String createWhoIsOnlineMessage(String myName, int capabilities, int interval, int epoch, int groupSequence) {
 
 		JSONObject jsonMsg = new JSONObject()  
         .element( "code", "1" )
         .element( "name", myName )
         ;
+		if(capabilities != 0) jsonMsg.element( "caps", capabilities );
+		if(interval != 0) jsonMsg.element( "ival", interval );
+		if(epoch != 0) jsonMsg.element( "epoch", epoch );
+		if(groupSequence != 0) jsonMsg.element( "gseq", groupSequence );
 		
 		return jsonMsg.toString();
 	}
@@ -30,14 +41,18 @@ public class JsonTools {
 	 * Creates the network message to notify other participants of being online.
 	 * 
 	 * @param myName The name of the user.
+	 * @param capabilities The capabilities of the user (see class Capabilities).
+	 * @param interval The interval in [s] in which the user broadcasts its alive signal.
 	 * @return The network message as JSON string.
 	 */
-	public static String createIAmOnlineMessage(String myName) {
+	public static String createIAmOnlineMessage(String myName, int capabilities, int interval) {
 
 		JSONObject jsonMsg = new JSONObject()  
         .element( "code", "2" )
         .element( "name", myName )
         ;
+		if(capabilities != 0) jsonMsg.element( "caps", capabilities );
+		if(interval != 0) jsonMsg.element( "ival", interval );
 		
 		return jsonMsg.toString();
 	}	
@@ -94,5 +109,41 @@ public class JsonTools {
 		return jsonMsg.toString();	
 	}
 	
+	/**
+	 * Creates a message of the gossip membership protocol.
+	 * 
+	 * @param code The code of the message (PING, PING_REQ or ACK).
+	 * @param myName The name of the user.
+	 * @param sequence The sequence number of the probe.
+	 * @param target The IP address of the member to probe or null.
+	 * @param updates The piggybacked membership updates.
+	 * @return The network message as JSON string.
+	 */
+	public static String createMembershipMessage(int code, String myName, int sequence, String target, List<MemberUpdate> updates) {
+		
+		JSONObject jsonMsg = new JSONObject()  
+        .element( "code", Integer.toString(code) )
+        .element( "name", myName )
+        .element( "seq", sequence )
+        ;
+		if(target != null) jsonMsg.element( "target", target );
+		
+		if(!updates.isEmpty()) {
+			JSONArray jsonUpdates = new JSONArray();
+			for(int k=0; k<updates.size(); ++k) {
+				MemberUpdate update = updates.get(k);
+				JSONObject jsonUpdate = new JSONObject()
+				.element( "addr", update.getAddress() )
+				.element( "state", update.getState() )
+				.element( "inc", update.getIncarnation() )
+				;
+				if(update.getName() != null) jsonUpdate.element( "name", update.getName() );
+				jsonUpdates.add(jsonUpdate);
+			}
+			jsonMsg.element( "updates", jsonUpdates );
+		}
+		
+		return jsonMsg.toString();	
+	}
 	
 }
@@ -0,0 +1,95 @@
+package de.ulfbiallas.lantexter.model.network;
+
+/**
+ * Class which represents a membership update of the gossip protocol. 
+ * Updates are piggybacked on the probe messages and spread through 
+ * the group like an infection.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class MemberUpdate {
+
+	/** State of a member which answers probes. */
+	public static final int ALIVE = 1;
+	
+	/** State of a member which did not answer a probe. */
+	public static final int SUSPECT = 2;
+	
+	/** State of a member which has been suspected for too long or has left. */
+	public static final int DEAD = 3;
+	
+	/** The IP address of the member. */
+	private final String address;
+	
+	/** The state of the member. */
+	private final int state;
+	
+	/** The incarnation number of the member which orders updates about it. */
+	private final int incarnation;
+	
+	/** The (nick) name of the member. */
+	private final String name;
+	
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param address The IP address of the member.
+	 * @param state The state of the member.
+	 * @param incarnation The incarnation number of the member.
+	 * @param name The (nick) name of the member.
+	 */
+	public MemberUpdate(String address, int state, int incarnation, String name) {
+		this.address = address;
+		this.state = state;
+		this.incarnation = incarnation;
+		this.name = name;
+	}
+	
+	/**
+	 * Returns whether the update is complete.
+	 * 
+	 * @return Boolean which is true if the update is complete.
+	 */
+	public boolean isValid() {
+		return address != null && state >= ALIVE && state <= DEAD && incarnation >= 0;
+	}
+
+	/**
+	 * Returns the IP address of the member.
+	 * 
+	 * @return The IP address.
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns the state of the member.
+	 * 
+	 * @return The state.
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the incarnation number of the member.
+	 * 
+	 * @return The incarnation number.
+	 */
+	public int getIncarnation() {
+		return incarnation;
+	}
+
+	/**
+	 * Returns the (nick) name of the member.
+	 * 
+	 * @return The name or null.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+}
@@ -0,0 +1,489 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import de.ulfbiallas.lantexter.model.Constants;
+
+/**
+ * Receiver driven reliability for the multicast mode.
+ *
+ * The sender stamps each multicast message with a sequence number and keeps
+ * the last RETRANSMIT_BUFFER_SIZE encoded messages, so each message is still
+ * sent as a single datagram. A receiver detects gaps in the sequence numbers
+ * of a sender and requests the missing ranges with a NACK message to the
+ * group after a random delay. A receiver which sees the NACK of another
+ * receiver for the same messages postpones its own request, so a loss which
+ * affects many receivers causes only a few NACK messages. A lost last message
+ * is detected through the sequence number which is announced in the periodic
+ * WhoIsOnline broadcast.
+ *
+ * Optionally the sender adds a PARITY message after every k messages, which
+ * holds the XOR of their length prefixed encodings. A receiver which has
+ * lost exactly one of these messages rebuilds it from the parity and the
+ * other messages without a round trip. The NACK delay gives the parity
+ * message time to arrive before the lost message is requested.
+ *
+ * The sequence numbers belong to an epoch, a random number which is chosen
+ * at the start and which also identifies the sender of a NACK request.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class NackDelivery {
+
+	/** Interval in [ms] in which the due NACK requests are sent. */
+	public static final long TIMER_INTERVAL = 50;
+
+	/** Number of sent messages which are kept for retransmission. */
+	private static final int RETRANSMIT_BUFFER_SIZE = 256;
+
+	/** Maximum random delay in [ms] of the first NACK request for a message. */
+	private static final int NACK_DELAY = 200;
+
+	/** Time in [ms] after which a NACK request is repeated if the message is still missing. */
+	private static final long NACK_RETRY = 500;
+
+	/** Number of NACK requests after which a message is given up. */
+	private static final int MAX_NACKS = 5;
+
+	/** Maximum number of ranges in one NACK message. */
+	private static final int MAX_RANGES = 32;
+
+	/** Time in [ms] in which a message is retransmitted at most once. */
+	private static final long RETRANSMIT_HOLDOFF = 100;
+
+	/** Number of received messages per sender which are kept for the forward error correction. */
+	private static final int PARITY_BUFFER_SIZE = 2 * Constants.MAX_FEC_K;
+
+	/** Number of bytes of the length prefix of a message within the parity. */
+	private static final int LENGTH_PREFIX = 2;
+
+	private UDPTools updtools;
+
+	/** Random generator for the delay of the NACK requests. */
+	private Random random = new Random();
+
+	/** The epoch of the messages which are sent by this application. */
+	private final int epoch;
+
+	/** The sequence number of the last sent message. */
+	private int sequence;
+
+	/** The last sent messages, indexed by sequence number modulo buffer size. */
+	private byte[][] sentMessages = new byte[RETRANSMIT_BUFFER_SIZE][];
+
+	/** Time of the last retransmission of each buffered message. */
+	private long[] retransmitTimes = new long[RETRANSMIT_BUFFER_SIZE];
+
+	/** Number of messages which are protected by one parity message or 0. */
+	private int parityCount;
+
+	/** Number of sent messages since the last parity message. */
+	private int unprotected;
+
+	/** Codec to decode the messages which are rebuilt from a parity. */
+	private BinaryCodec codec = new BinaryCodec();
+
+	/** Receiving state per sender. */
+	private HashMap<InetAddress, Source> sources = new HashMap<InetAddress, Source>();
+
+	/** Counters. */
+	private long nacksSent;
+	private long nacksSuppressed;
+	private long retransmitted;
+	private long recovered;
+	private long lost;
+	private long duplicates;
+	private long parityRecovered;
+	private long parityUnrecoverable;
+
+
+	/**
+	 * Inner class which holds a message which is missing.
+	 */
+	private static class Missing {
+
+		/** Time at which the next NACK request is due. */
+		private long nackTime;
+
+		private int nacks;
+
+		private Missing(long nackTime) {
+			this.nackTime = nackTime;
+		}
+	}
+
+	/**
+	 * Inner class which holds the receiving state of one sender.
+	 */
+	private static class Source {
+		private final int epoch;
+
+		/** The highest sequence number which is received or announced. */
+		private int highest;
+
+		private TreeMap<Integer, Missing> missing = new TreeMap<Integer, Missing>();
+
+		/** The encodings of the last received messages or null until the sender has sent a parity message. */
+		private byte[][] encodings;
+
+		/** The sequence numbers of the kept encodings. */
+		private int[] encodedSequences;
+
+		private Source(int epoch, int highest) {
+			this.epoch = epoch;
+			this.highest = highest;
+		}
+	}
+
+
+	/**
+	 * Constructor.
+	 */
+	public NackDelivery() {
+		updtools = UDPTools.getInstance();
+		epoch = random.nextInt(Integer.MAX_VALUE - 1) + 1;
+	}
+
+	/**
+	 * Returns the epoch of the messages which are sent by this application.
+	 *
+	 * @return The epoch.
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Sets the number of messages after which a parity message is sent.
+	 *
+	 * @param parityCount The number of messages or 0 to disable the parity messages.
+	 */
+	public synchronized void setParityCount(int parityCount) {
+		this.parityCount = Math.max(0, Math.min(Constants.MAX_FEC_K, parityCount));
+		unprotected = 0;
+	}
+
+	/**
+	 * Returns the sequence number of the last sent message.
+	 *
+	 * @return The sequence number or 0 if no message is sent yet.
+	 */
+	public synchronized int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Stamps a message with the next sequence number, keeps it for
+	 * retransmission and sends it binary encoded to the multicast group.
+	 *
+	 * @param msg The message. It is not modified.
+	 */
+	public synchronized void send(NetworkMessage msg) {
+		int groupSequence = ++sequence;
+		msg.setEpoch(epoch);
+		msg.setGroupSequence(groupSequence);
+		byte[] data = Codecs.encode(Codecs.BINARY, msg);
+		msg.setEpoch(0);
+		msg.setGroupSequence(0);
+
+		int index = groupSequence % RETRANSMIT_BUFFER_SIZE;
+		sentMessages[index] = data;
+		retransmitTimes[index] = 0;
+		updtools.sendMsgToGroup(data);
+
+		if(parityCount > 0 && ++unprotected == parityCount) {
+			sendParity();
+			unprotected = 0;
+		}
+	}
+
+	/**
+	 * Sends the parity of the last parityCount messages to the group.
+	 */
+	private void sendParity() {
+		int length = 0;
+		for(int k=0; k<parityCount; ++k) {
+			length = Math.max(length, sentMessages[(sequence - k) % RETRANSMIT_BUFFER_SIZE].length);
+		}
+		byte[] parity = new byte[LENGTH_PREFIX + length];
+		for(int k=0; k<parityCount; ++k) {
+			xor(parity, sentMessages[(sequence - k) % RETRANSMIT_BUFFER_SIZE]);
+		}
+		NetworkMessage msg = new NetworkMessage(NetworkMessage.PARITY, null, null);
+		msg.setEpoch(epoch);
+		msg.setGroupSequence(sequence);
+		msg.setParityCount(parityCount);
+		msg.setParity(parity);
+		updtools.sendMsgToGroup(Codecs.encode(Codecs.BINARY, msg));
+	}
+
+	/**
+	 * Registers a received multicast message and detects gaps in front of it.
+	 * After the sender has sent a parity message, the received encoding is kept 
+	 * as it is, because a new encoding of the decoded message may differ.
+	 *
+	 * @param addr The address of the sender.
+	 * @param msg The message.
+	 * @return Boolean which is true if the message is new and has to be processed.
+	 */
+	public synchronized Boolean receive(InetAddress addr, NetworkMessage msg) {
+		if(msg.getEpoch() == epoch) {
+			// Own message which is looped back by the multicast group
+			return true;
+		}
+		int groupSequence = msg.getGroupSequence();
+		if(groupSequence < 0) return false;
+		Source source = getSource(addr, msg.getEpoch(), groupSequence - 1);
+		if(groupSequence > source.highest) {
+			addMissing(source, groupSequence - 1);
+			source.highest = groupSequence;
+		} else if(source.missing.remove(groupSequence) != null) {
+			++recovered;
+		} else {
+			++duplicates;
+			return false;
+		}
+		byte[] encoding = source.encodings != null ? msg.getEncoding() : null;
+		if(encoding != null) {
+			int index = groupSequence % PARITY_BUFFER_SIZE;
+			source.encodings[index] = encoding;
+			source.encodedSequences[index] = groupSequence;
+		}
+		return true;
+	}
+
+	/**
+	 * Processes a PARITY message. If exactly one of the protected messages is
+	 * missing, it is rebuilt from the parity and the other messages. The
+	 * rebuilt message has to be processed like a received one.
+	 *
+	 * @param addr The address of the sender.
+	 * @param msg The PARITY message.
+	 * @return The rebuilt message or null.
+	 */
+	public synchronized NetworkMessage processParity(InetAddress addr, NetworkMessage msg) {
+		if(msg.getEpoch() == epoch || msg.getParityCount() > Constants.MAX_FEC_K 
+				|| msg.getParity().length <= LENGTH_PREFIX) return null;
+		int last = msg.getGroupSequence();
+		Source source = getSource(addr, msg.getEpoch(), last);
+		if(source.encodings == null) {
+			source.encodings = new byte[PARITY_BUFFER_SIZE][];
+			source.encodedSequences = new int[PARITY_BUFFER_SIZE];
+		}
+		if(last > source.highest) {
+			addMissing(source, last);
+			source.highest = last;
+		}
+
+		byte[] block = msg.getParity().clone();
+		int missingSequence = 0;
+		int missingCount = 0;
+		Boolean complete = true;
+		for(int groupSequence=Math.max(1, last-msg.getParityCount()+1); groupSequence<=last; ++groupSequence) {
+			if(source.missing.containsKey(groupSequence)) {
+				missingSequence = groupSequence;
+				++missingCount;
+				continue;
+			}
+			int index = groupSequence % PARITY_BUFFER_SIZE;
+			byte[] encoding = source.encodings[index];
+			if(source.encodedSequences[index] != groupSequence || LENGTH_PREFIX + encoding.length > block.length) {
+				// Received before the encodings have been kept
+				complete = false;
+			} else {
+				xor(block, encoding);
+			}
+		}
+		if(missingCount == 0) return null;
+		if(missingCount > 1 || !complete) {
+			parityUnrecoverable += missingCount;
+			return null;
+		}
+
+		int length = ((block[0] & 0xFF) << 8) | (block[1] & 0xFF);
+		NetworkMessage rebuilt = new NetworkMessage();
+		if(length > block.length - LENGTH_PREFIX 
+				|| !codec.decode(ByteBuffer.wrap(block, LENGTH_PREFIX, length), rebuilt)
+				|| !rebuilt.isValid() || rebuilt.getGroupSequence() != missingSequence) {
+			++parityUnrecoverable;
+			return null;
+		}
+		rebuilt.setEncoding(ByteBuffer.wrap(block), LENGTH_PREFIX, LENGTH_PREFIX + length);
+		++parityRecovered;
+		return rebuilt;
+	}
+
+	/**
+	 * Processes the sequence number of the last message of a sender which is
+	 * announced in its WhoIsOnline message, so a lost last message is detected.
+	 *
+	 * @param addr The address of the sender.
+	 * @param msg The WhoIsOnline message.
+	 */
+	public synchronized void processAnnouncement(InetAddress addr, NetworkMessage msg) {
+		if(msg.getEpoch() == epoch) return;
+		Source source = getSource(addr, msg.getEpoch(), msg.getGroupSequence());
+		if(msg.getGroupSequence() > source.highest) {
+			addMissing(source, msg.getGroupSequence());
+			source.highest = msg.getGroupSequence();
+		}
+	}
+
+	/**
+	 * Processes a NACK message. If it requests own messages, they are
+	 * retransmitted to the group. Otherwise the own requests for the same
+	 * messages are postponed.
+	 *
+	 * @param msg The NACK message.
+	 */
+	public synchronized void processNack(NetworkMessage msg) {
+		long time = System.currentTimeMillis();
+		if(msg.getEpoch() == epoch) {
+			for(int k=0; k<msg.getMissingRanges().size(); ++k) {
+				SequenceRange range = msg.getMissingRanges().get(k);
+				if(!range.isValid()) continue;
+				int first = Math.max(1, Math.max(range.getFirst(), sequence - RETRANSMIT_BUFFER_SIZE + 1));
+				int last = Math.min(range.getLast(), sequence);
+				for(int groupSequence=first; groupSequence<=last; ++groupSequence) {
+					int index = groupSequence % RETRANSMIT_BUFFER_SIZE;
+					if(sentMessages[index] == null || time - retransmitTimes[index] < RETRANSMIT_HOLDOFF) continue;
+					retransmitTimes[index] = time;
+					updtools.sendMsgToGroup(sentMessages[index]);
+					++retransmitted;
+				}
+			}
+			return;
+		}
+
+		for(Source source : sources.values()) {
+			if(source.epoch != msg.getEpoch()) continue;
+			for(int k=0; k<msg.getMissingRanges().size(); ++k) {
+				SequenceRange range = msg.getMissingRanges().get(k);
+				if(!range.isValid()) continue;
+				for(Missing missing : source.missing.subMap(range.getFirst(), true, range.getLast(), true).values()) {
+					if(missing.nackTime < time + NACK_RETRY) {
+						missing.nackTime = time + NACK_RETRY;
+						++nacksSuppressed;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends a NACK message for each sender with missing messages whose request
+	 * is due. Messages which are requested too often are given up.
+	 */
+	public synchronized void sendNacks() {
+		long time = System.currentTimeMillis();
+		for(Source source : sources.values()) {
+			if(source.missing.isEmpty()) continue;
+			NetworkMessage nack = null;
+			int first = 0;
+			int last = 0;
+			Iterator<Map.Entry<Integer, Missing>> it = source.missing.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<Integer, Missing> entry = it.next();
+				Missing missing = entry.getValue();
+				if(missing.nackTime > time) continue;
+				if(missing.nacks >= MAX_NACKS) {
+					it.remove();
+					++lost;
+					continue;
+				}
+				int groupSequence = entry.getKey();
+				if(nack != null && groupSequence == last + 1) {
+					last = groupSequence;
+				} else {
+					if(nack == null) {
+						nack = new NetworkMessage(NetworkMessage.NACK, null, null);
+						nack.setEpoch(source.epoch);
+					} else if(nack.getMissingRanges().size() == MAX_RANGES - 1) {
+						break;
+					} else {
+						nack.addMissingRange(new SequenceRange(first, last));
+					}
+					first = groupSequence;
+					last = groupSequence;
+				}
+				++missing.nacks;
+				missing.nackTime = time + NACK_RETRY + random.nextInt(NACK_DELAY);
+			}
+			if(nack != null) {
+				nack.addMissingRange(new SequenceRange(first, last));
+				updtools.sendMsgToGroup(Codecs.encode(Codecs.BINARY, nack));
+				++nacksSent;
+			}
+		}
+	}
+
+	/**
+	 * Returns the receiving state of a sender. A new state is created if the
+	 * sender is unknown or has restarted with a new epoch.
+	 *
+	 * @param addr The address of the sender.
+	 * @param sourceEpoch The epoch of the sender.
+	 * @param highest The sequence number up to which all messages count as received for a new sender.
+	 * @return The receiving state.
+	 */
+	private Source getSource(InetAddress addr, int sourceEpoch, int highest) {
+		Source source = sources.get(addr);
+		if(source == null || source.epoch != sourceEpoch) {
+			source = new Source(sourceEpoch, highest);
+			sources.put(addr, source);
+		}
+		return source;
+	}
+
+	/**
+	 * Registers the messages after the highest received one up to a sequence
+	 * number as missing. Messages which the sender does not keep any more are
+	 * counted as lost.
+	 *
+	 * @param source The receiving state of the sender.
+	 * @param last The last missing sequence number.
+	 */
+	private void addMissing(Source source, int last) {
+		int first = Math.max(source.highest + 1, last - RETRANSMIT_BUFFER_SIZE + 1);
+		lost += first - source.highest - 1;
+		long time = System.currentTimeMillis();
+		for(int groupSequence=first; groupSequence<=last; ++groupSequence) {
+			source.missing.put(groupSequence, new Missing(time + random.nextInt(NACK_DELAY)));
+		}
+	}
+
+	/**
+	 * XORs a length prefixed message into a parity.
+	 *
+	 * @param parity The parity which is at least as long as the prefixed message.
+	 * @param data The message.
+	 */
+	private static void xor(byte[] parity, byte[] data) {
+		parity[0] ^= (byte) (data.length >>> 8);
+		parity[1] ^= (byte) data.length;
+		for(int k=0; k<data.length; ++k) {
+			parity[LENGTH_PREFIX + k] ^= data[k];
+		}
+	}
+
+	/**
+	 * Returns the counters as text.
+	 *
+	 * @return The text.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "nack delivery: " + nacksSent + " nacks sent, " + nacksSuppressed + " nacks suppressed, "
+				+ retransmitted + " retransmitted, " + recovered + " recovered, " + lost + " lost, "
+				+ duplicates + " duplicates, " + parityRecovered + " rebuilt from parity, " 
+				+ parityUnrecoverable + " not rebuildable from parity";
+	}
+
+}
@@ -0,0 +1,669 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Class which represents a single network message independent of its 
+ * wire encoding. Instances are reused by the receivers, so a processor 
+ * must not keep a reference to a received message.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class NetworkMessage {
+
+	/** Code of the message to find out who is online. */
+	public static final int WHO_IS_ONLINE = 1;
+	
+	/** Code of the answer to a WHO_IS_ONLINE message. */
+	public static final int I_AM_ONLINE = 2;
+	
+	/** Code of a chat text message. */
+	public static final int CHAT = 3;
+	
+	/** Code of the message which notifies of a name change. */
+	public static final int NEW_NAME = 4;
+	
+	/** Code of the message which notifies of leaving the chat. */
+	public static final int CHAT_LEFT = 5;
+	
+	/** Code of the direct probe of the gossip protocol. */
+	public static final int PING = 6;
+	
+	/** Code of the request to probe another member of the gossip protocol. */
+	public static final int PING_REQ = 7;
+	
+	/** Code of the answer to a PING message. */
+	public static final int ACK = 8;
+	
+	/** Code of the acknowledgement of the reliable delivery. */
+	public static final int DELIVERY_ACK = 9;
+	
+	/** Code of the request to retransmit missing multicast messages. */
+	public static final int NACK = 10;
+	
+	/** Code of the parity of several multicast messages of the forward error correction. */
+	public static final int PARITY = 11;
+	
+	/** Code of the offer to send a file. */
+	public static final int FILE_OFFER = 12;
+	
+	/** Code of the request for the content of an offered file, which is sent over TCP. */
+	public static final int FILE_ACCEPT = 13;
+	
+	/** Code of the announcement of the chunks of a distributed file which a participant has. */
+	public static final int HAVE = 14;
+	
+	/** The code of the message. */
+	private int code;
+	
+	/** The name of the sender. */
+	private String name;
+	
+	/** The text of a chat message. */
+	private String text;
+	
+	/** The capabilities which are advertised by the sender. */
+	private int capabilities;
+	
+	/** The interval in [s] in which the sender broadcasts its alive signal. */
+	private int interval;
+	
+	/** The sequence number of a probe. */
+	private int sequence;
+	
+	/** The IP address of the member which is probed by a PING_REQ message. */
+	private String target;
+	
+	/** The random number which identifies the sending session of the reliable delivery. */
+	private int epoch;
+	
+	/** The sequence number of the reliable delivery or 0 if the message is not reliable. */
+	private int reliableSequence;
+	
+	/** The lowest sequence number which the sender still retransmits, all messages in front of it are acknowledged or given up. */
+	private int reliableForward;
+	
+	/** The highest sequence number up to which all messages are received. */
+	private int acknowledged;
+	
+	/** Bit k is set if the message acknowledged+k+1 is received. */
+	private long selectiveAcks;
+	
+	/** The sequence number of a multicast message or the last one which is sent by the sender of a WHO_IS_ONLINE message. */
+	private int groupSequence;
+	
+	/** The ranges of multicast messages which are requested by a NACK message. */
+	private ArrayList<SequenceRange> missingRanges = new ArrayList<SequenceRange>();
+	
+	/** The number of multicast messages up to groupSequence which are protected by a PARITY message. */
+	private int parityCount;
+	
+	/** The XOR of the length prefixed encodings of the protected multicast messages. */
+	private byte[] parity;
+	
+	/** The id of a file transfer which is chosen by the sender of the file. */
+	private int transferId;
+	
+	/** The size of an offered file or the number of requested bytes (0 = up to the end). */
+	private long fileSize;
+	
+	/** The offset in bytes from which the content of a file is requested. */
+	private long fileOffset;
+	
+	/** The size of the chunks of a distributed file in bytes. */
+	private int chunkSize;
+	
+	/** The SHA-1 hashes of the chunks of a distributed file (20 bytes per chunk) or null. */
+	private byte[] chunkHashes;
+	
+	/** Bit k is set if the sender of a HAVE message has chunk k. */
+	private byte[] chunks;
+	
+	/** The piggybacked membership updates. */
+	private ArrayList<MemberUpdate> updates = new ArrayList<MemberUpdate>();
+	
+	/** The buffer which holds the received binary encoding or null. It is only valid while the message is processed. */
+	private ByteBuffer encoding;
+	
+	/** The position of the received encoding in the buffer. */
+	private int encodingStart;
+	
+	/** The end of the received encoding in the buffer. */
+	private int encodingEnd;
+	
+	
+	/**
+	 * Constructor. Creates an empty message.
+	 */
+	public NetworkMessage() {
+	}
+	
+	/**
+	 * Constructor. Creates a new message.
+	 * 
+	 * @param code The code of the message.
+	 * @param name The name of the sender.
+	 * @param text The text of a chat message or null.
+	 */
+	public NetworkMessage(int code, String name, String text) {
+		this.code = code;
+		this.name = name;
+		this.text = text;
+	}
+	
+	/**
+	 * Clears all fields, so the object can be reused for the next message.
+	 */
+	public void reset() {
+		code = 0;
+		name = null;
+		text = null;
+		capabilities = 0;
+		interval = 0;
+		sequence = 0;
+		target = null;
+		epoch = 0;
+		reliableSequence = 0;
+		reliableForward = 0;
+		acknowledged = 0;
+		selectiveAcks = 0;
+		groupSequence = 0;
+		missingRanges.clear();
+		parityCount = 0;
+		parity = null;
+		transferId = 0;
+		fileSize = 0;
+		fileOffset = 0;
+		chunkSize = 0;
+		chunkHashes = null;
+		chunks = null;
+		updates.clear();
+		encoding = null;
+	}
+	
+	/**
+	 * Returns whether all fields which are required by the code are set.
+	 * 
+	 * @return Boolean which is true if the message is complete.
+	 */
+	public boolean isValid() {
+		switch(code) {
+			case WHO_IS_ONLINE:
+			case I_AM_ONLINE:
+			case NEW_NAME:
+			case CHAT_LEFT:
+				return name != null;
+			case CHAT:
+				return name != null && text != null;
+			case PING:
+			case ACK:
+				return name != null;
+			case PING_REQ:
+				return name != null && target != null;
+			case DELIVERY_ACK:
+				return epoch != 0;
+			case NACK:
+				return epoch != 0 && !missingRanges.isEmpty();
+			case PARITY:
+				return epoch != 0 && groupSequence >= parityCount && parityCount > 0 && parity != null && parity.length > 2;
+			case FILE_OFFER:
+				return name != null && text != null && transferId != 0 && fileSize >= 0;
+			case FILE_ACCEPT:
+				return transferId != 0 && fileOffset >= 0 && fileSize >= 0;
+			case HAVE:
+				return transferId != 0 && chunks != null;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the code of the message.
+	 * 
+	 * @return The code of the message.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Sets the code of the message.
+	 * 
+	 * @param code The code of the message.
+	 */
+	public void setCode(int code) {
+		this.code = code;
+	}
+
+	/**
+	 * Returns the name of the sender.
+	 * 
+	 * @return The name of the sender.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Sets the name of the sender.
+	 * 
+	 * @param name The name of the sender.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the text of a chat message.
+	 * 
+	 * @return The text of the message or null.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Sets the text of a chat message.
+	 * 
+	 * @param text The text of the message.
+	 */
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Returns the capabilities which are advertised by the sender.
+	 * 
+	 * @return A bit mask of flags from the class Capabilities.
+	 */
+	public int getCapabilities() {
+		return capabilities;
+	}
+
+	/**
+	 * Sets the capabilities which are advertised by the sender.
+	 * 
+	 * @param capabilities A bit mask of flags from the class Capabilities.
+	 */
+	public void setCapabilities(int capabilities) {
+		this.capabilities = capabilities;
+	}
+	
+	/**
+	 * Returns the interval in which the sender broadcasts its alive signal.
+	 * 
+	 * @return The interval in [s] or 0 if it is not advertised.
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Sets the interval in which the sender broadcasts its alive signal.
+	 * 
+	 * @param interval The interval in [s].
+	 */
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Returns the sequence number of a probe.
+	 * 
+	 * @return The sequence number.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Sets the sequence number of a probe.
+	 * 
+	 * @param sequence The sequence number.
+	 */
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the IP address of the member which is probed by a PING_REQ message.
+	 * 
+	 * @return The IP address or null.
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * Sets the IP address of the member which is probed by a PING_REQ message.
+	 * 
+	 * @param target The IP address.
+	 */
+	public void setTarget(String target) {
+		this.target = target;
+	}
+
+	/**
+	 * Returns the random number which identifies the sending session of the reliable delivery.
+	 * 
+	 * @return The epoch or 0 if it is not set.
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Sets the random number which identifies the sending session of the reliable delivery.
+	 * 
+	 * @param epoch The epoch.
+	 */
+	public void setEpoch(int epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Returns the sequence number of the reliable delivery.
+	 * 
+	 * @return The sequence number or 0 if the message is not reliable.
+	 */
+	public int getReliableSequence() {
+		return reliableSequence;
+	}
+
+	/**
+	 * Sets the sequence number of the reliable delivery.
+	 * 
+	 * @param reliableSequence The sequence number.
+	 */
+	public void setReliableSequence(int reliableSequence) {
+		this.reliableSequence = reliableSequence;
+	}
+
+	/**
+	 * Returns the lowest sequence number which the sender still retransmits. 
+	 * The receiver does not wait for the messages in front of it.
+	 * 
+	 * @return The sequence number or 0 if it is not set.
+	 */
+	public int getReliableForward() {
+		return reliableForward;
+	}
+
+	/**
+	 * Sets the lowest sequence number which the sender still retransmits.
+	 * 
+	 * @param reliableForward The sequence number.
+	 */
+	public void setReliableForward(int reliableForward) {
+		this.reliableForward = reliableForward;
+	}
+
+	/**
+	 * Returns the highest sequence number up to which all messages are received.
+	 * 
+	 * @return The cumulative acknowledgement.
+	 */
+	public int getAcknowledged() {
+		return acknowledged;
+	}
+
+	/**
+	 * Sets the highest sequence number up to which all messages are received.
+	 * 
+	 * @param acknowledged The cumulative acknowledgement.
+	 */
+	public void setAcknowledged(int acknowledged) {
+		this.acknowledged = acknowledged;
+	}
+
+	/**
+	 * Returns the selective acknowledgements. Bit k is set if the message 
+	 * with the sequence number acknowledged+k+1 is received.
+	 * 
+	 * @return The bit mask of the selective acknowledgements.
+	 */
+	public long getSelectiveAcks() {
+		return selectiveAcks;
+	}
+
+	/**
+	 * Sets the selective acknowledgements.
+	 * 
+	 * @param selectiveAcks The bit mask of the selective acknowledgements.
+	 */
+	public void setSelectiveAcks(long selectiveAcks) {
+		this.selectiveAcks = selectiveAcks;
+	}
+
+	/**
+	 * Returns the sequence number of a multicast message. In a WHO_IS_ONLINE message 
+	 * it is the sequence number of the last multicast message of the sender.
+	 * 
+	 * @return The sequence number or 0 if it is not set.
+	 */
+	public int getGroupSequence() {
+		return groupSequence;
+	}
+
+	/**
+	 * Sets the sequence number of a multicast message.
+	 * 
+	 * @param groupSequence The sequence number.
+	 */
+	public void setGroupSequence(int groupSequence) {
+		this.groupSequence = groupSequence;
+	}
+
+	/**
+	 * Returns the ranges of multicast messages which are requested by a NACK message.
+	 * 
+	 * @return The list of ranges.
+	 */
+	public ArrayList<SequenceRange> getMissingRanges() {
+		return missingRanges;
+	}
+
+	/**
+	 * Adds a range of requested multicast messages. Invalid ranges are ignored.
+	 * 
+	 * @param range The range.
+	 */
+	public void addMissingRange(SequenceRange range) {
+		if(range.isValid()) missingRanges.add(range);
+	}
+
+	/**
+	 * Returns the number of multicast messages which are protected by a PARITY message. 
+	 * These are the messages up to the group sequence number of the PARITY message.
+	 * 
+	 * @return The number of messages.
+	 */
+	public int getParityCount() {
+		return parityCount;
+	}
+
+	/**
+	 * Sets the number of multicast messages which are protected by a PARITY message.
+	 * 
+	 * @param parityCount The number of messages.
+	 */
+	public void setParityCount(int parityCount) {
+		this.parityCount = parityCount;
+	}
+
+	/**
+	 * Returns the XOR of the length prefixed encodings of the protected multicast messages.
+	 * 
+	 * @return The parity or null.
+	 */
+	public byte[] getParity() {
+		return parity;
+	}
+
+	/**
+	 * Sets the XOR of the length prefixed encodings of the protected multicast messages.
+	 * 
+	 * @param parity The parity.
+	 */
+	public void setParity(byte[] parity) {
+		this.parity = parity;
+	}
+
+	/**
+	 * Returns the id of a file transfer.
+	 * 
+	 * @return The id or 0 if it is not set.
+	 */
+	public int getTransferId() {
+		return transferId;
+	}
+
+	/**
+	 * Sets the id of a file transfer.
+	 * 
+	 * @param transferId The id.
+	 */
+	public void setTransferId(int transferId) {
+		this.transferId = transferId;
+	}
+
+	/**
+	 * Returns the size of an offered file. In a FILE_ACCEPT message it is 
+	 * the number of requested bytes or 0 if the file is requested up to the end.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Sets the size of an offered file.
+	 * 
+	 * @param fileSize The size in bytes.
+	 */
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Returns the offset from which the content of a file is requested.
+	 * 
+	 * @return The offset in bytes.
+	 */
+	public long getFileOffset() {
+		return fileOffset;
+	}
+
+	/**
+	 * Sets the offset from which the content of a file is requested.
+	 * 
+	 * @param fileOffset The offset in bytes.
+	 */
+	public void setFileOffset(long fileOffset) {
+		this.fileOffset = fileOffset;
+	}
+
+	/**
+	 * Returns the size of the chunks of a distributed file.
+	 * 
+	 * @return The size in bytes or 0 if the file is not distributed in chunks.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the size of the chunks of a distributed file.
+	 * 
+	 * @param chunkSize The size in bytes.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the SHA-1 hashes of the chunks of a distributed file.
+	 * 
+	 * @return The concatenated hashes or null.
+	 */
+	public byte[] getChunkHashes() {
+		return chunkHashes;
+	}
+
+	/**
+	 * Sets the SHA-1 hashes of the chunks of a distributed file.
+	 * 
+	 * @param chunkHashes The concatenated hashes.
+	 */
+	public void setChunkHashes(byte[] chunkHashes) {
+		this.chunkHashes = chunkHashes;
+	}
+
+	/**
+	 * Returns the chunks which the sender of a HAVE message has.
+	 * 
+	 * @return The bit field of the chunks in the format of BitSet.toByteArray or null.
+	 */
+	public byte[] getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * Sets the chunks which the sender of a HAVE message has.
+	 * 
+	 * @param chunks The bit field of the chunks in the format of BitSet.toByteArray.
+	 */
+	public void setChunks(byte[] chunks) {
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Returns the piggybacked membership updates.
+	 * 
+	 * @return The list of updates.
+	 */
+	public ArrayList<MemberUpdate> getUpdates() {
+		return updates;
+	}
+
+	/**
+	 * Adds a piggybacked membership update. Invalid updates are ignored.
+	 * 
+	 * @param update The update.
+	 */
+	public void addUpdate(MemberUpdate update) {
+		if(update.isValid()) updates.add(update);
+	}
+
+	/**
+	 * Sets the binary encoding from which the message has been decoded. The 
+	 * buffer is not copied, so it must not be modified while the message is processed.
+	 * 
+	 * @param buffer The buffer.
+	 * @param start The position of the encoding in the buffer.
+	 * @param end The end of the encoding in the buffer.
+	 */
+	public void setEncoding(ByteBuffer buffer, int start, int end) {
+		this.encoding = buffer;
+		this.encodingStart = start;
+		this.encodingEnd = end;
+	}
+
+	/**
+	 * Returns a copy of the binary encoding from which the message has been decoded.
+	 * 
+	 * @return The encoding or null if the message has not been decoded from the binary codec.
+	 */
+	public byte[] getEncoding() {
+		if(encoding == null) return null;
+		byte[] copy = new byte[encodingEnd - encodingStart];
+		ByteBuffer view = encoding.duplicate();
+		view.position(encodingStart);
+		view.get(copy);
+		return copy;
+	}
+	
+}
@@ -0,0 +1,99 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class which reassembles fragmented messages, decodes received datagrams 
+ * with the matching codec and passes them to the packet processor. Each receive thread owns its 
+ * own dispatcher, so the decoded message object can be reused.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class PacketDispatcher {
+
+	private IPacketProcessor packetProcessor;
+	private IMessageCodec[] codecs;
+	private FragmentReassembler reassembler = new FragmentReassembler();
+	
+	/** The limiter of the messages per sender or null to accept all messages. */
+	private RateLimiter rateLimiter;
+	
+	/** The reusable message object. */
+	private NetworkMessage message = new NetworkMessage();
+	
+	/** Number of datagrams which have been dropped because of a runtime exception. */
+	private final AtomicLong malformedDatagrams = new AtomicLong();
+	
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param packetProcessor Class which processes the decoded messages.
+	 */
+	public PacketDispatcher(IPacketProcessor packetProcessor) {
+		this(packetProcessor, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param packetProcessor Class which processes the decoded messages.
+	 * @param rateLimiter The limiter of the messages per sender or null to accept all messages.
+	 */
+	public PacketDispatcher(IPacketProcessor packetProcessor, RateLimiter rateLimiter) {
+		this.packetProcessor = packetProcessor;
+		this.rateLimiter = rateLimiter;
+		codecs = Codecs.createAll();
+	}
+	
+	/**
+	 * Decodes a datagram and passes it to the packet processor. A fragment 
+	 * is only decoded when it completes its message. Invalid datagrams and datagrams 
+	 * of a sender which exceeds its rate are ignored. A message takes one token of 
+	 * the rate limiter, a fragmented one with the fragment which starts its reassembly, 
+	 * so a long message is not cut by the limit. The reassembler limits the cost of 
+	 * the remaining fragments. A runtime exception while a 
+	 * datagram is processed only drops this datagram, so a malformed datagram can 
+	 * not stop the receive thread.
+	 * 
+	 * @param buffer The buffer with the received datagram.
+	 * @param addr The sender of the datagram.
+	 * @param port The port of the sender.
+	 */
+	public void dispatch(ByteBuffer buffer, InetAddress addr, int port) {
+		boolean fragment = Fragments.isFragment(buffer);
+		if(rateLimiter != null && !(fragment && reassembler.isPending(buffer, addr)) && !rateLimiter.tryAcquire(addr)) return;
+		try {
+			if(fragment) {
+				buffer = reassembler.add(buffer, addr);
+				if(buffer == null) return;
+			}
+			for(int k=0; k<codecs.length; ++k) {
+				if(codecs[k].canDecode(buffer)) {
+					int start = buffer.position();
+					if(codecs[k].decode(buffer, message) && message.isValid()) {
+						if(codecs[k].getId() == Codecs.BINARY) message.setEncoding(buffer, start, buffer.limit());
+						packetProcessor.processMessage(message, addr, port);
+					}
+					return;
+				}
+			}
+		} catch (RuntimeException e) {
+			malformedDatagrams.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns the number of datagrams which have been dropped because 
+	 * a runtime exception occurred while they were processed.
+	 * 
+	 * @return The number of datagrams.
+	 */
+	public long getMalformedDatagrams() {
+		return malformedDatagrams.get();
+	}
+	
+}
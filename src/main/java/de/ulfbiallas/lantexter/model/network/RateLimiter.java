@@ -0,0 +1,251 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.net.InetAddress;
+
+/**
+ * Class which limits the number of messages which are accepted from a single
+ * sender with a token bucket per source address. Every received message takes
+ * one token, a fragmented message only with the fragment which starts its
+ * reassembly. The tokens are refilled with a constant rate up to the burst
+ * size. Messages without a token are dropped before they are reassembled or
+ * decoded, so a flooding sender can not keep the receive threads busy. The
+ * drops are only counted, they are not logged per sender.
+ *
+ * The buckets are kept in an open addressing hash table of primitive arrays,
+ * which is keyed by the hash code of the address. For an IPv4 address this is
+ * the address itself. The table holds at most MAX_SOURCES buckets, senders
+ * beyond that share a single bucket.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class RateLimiter {
+
+	/** Maximum number of senders with an own bucket. */
+	public static final int MAX_SOURCES = 4096;
+
+	/** Size of the hash table, twice the number of buckets and a power of two. */
+	private static final int CAPACITY = 2 * MAX_SOURCES;
+
+	/** The number of tokens which are refilled per [ms]. */
+	private final double rate;
+
+	/** The maximum number of tokens of a bucket. */
+	private final double burst;
+
+	/** The keys of the buckets. */
+	private int[] keys = new int[CAPACITY];
+
+	/** Flags which are true if the slot holds a bucket. */
+	private boolean[] used = new boolean[CAPACITY];
+
+	/** The number of tokens of the buckets. */
+	private double[] tokens = new double[CAPACITY];
+
+	/** The time in [ms] of the last refill of the buckets. */
+	private long[] refills = new long[CAPACITY];
+
+	/** The number of dropped messages per bucket. */
+	private long[] drops = new long[CAPACITY];
+
+	/** The number of buckets in the table. */
+	private int size = 0;
+
+	/** The time in [ms] of the last removal of idle buckets. */
+	private long lastPurge = 0;
+
+	/** The number of tokens of the bucket which is shared by the senders beyond MAX_SOURCES. */
+	private double overflowTokens;
+
+	/** The time in [ms] of the last refill of the shared bucket. */
+	private long overflowRefill;
+
+	/** The number of accepted messages. */
+	private long passed = 0;
+
+	/** The number of dropped messages. */
+	private long dropped = 0;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rate The number of messages per second which are accepted from a sender.
+	 * @param burst The number of messages which are accepted from a sender at once.
+	 */
+	public RateLimiter(int rate, int burst) {
+		this.rate = rate / 1000.0;
+		this.burst = Math.max(1, burst);
+		overflowTokens = this.burst;
+		overflowRefill = System.currentTimeMillis();
+	}
+
+	/**
+	 * Takes a token from the bucket of the sender.
+	 *
+	 * @param addr The sender of the message.
+	 * @return Boolean which is true if the message is accepted, false if it has to be dropped.
+	 */
+	public synchronized Boolean tryAcquire(InetAddress addr) {
+		long now = System.currentTimeMillis();
+		int key = addr.hashCode();
+		int slot = find(key);
+		if(slot < 0 && size >= MAX_SOURCES && now - lastPurge >= getRefillTime()) {
+			purge(now);
+		}
+		if(slot < 0 && size < MAX_SOURCES) {
+			slot = insert(key, now);
+		}
+
+		if(slot < 0) {
+			overflowTokens = Math.min(burst, overflowTokens + (now - overflowRefill) * rate);
+			overflowRefill = now;
+			if(overflowTokens < 1) {
+				++dropped;
+				return false;
+			}
+			overflowTokens -= 1;
+			++passed;
+			return true;
+		}
+
+		tokens[slot] = Math.min(burst, tokens[slot] + (now - refills[slot]) * rate);
+		refills[slot] = now;
+		if(tokens[slot] < 1) {
+			++drops[slot];
+			++dropped;
+			return false;
+		}
+		tokens[slot] -= 1;
+		++passed;
+		return true;
+	}
+
+	/**
+	 * Returns the slot of a bucket.
+	 *
+	 * @param key The key of the bucket.
+	 * @return The slot or -1 if the table holds no bucket with the key.
+	 */
+	private int find(int key) {
+		int slot = mix(key);
+		while(used[slot]) {
+			if(keys[slot] == key) return slot;
+			slot = (slot + 1) & (CAPACITY - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a full bucket to the table.
+	 *
+	 * @param key The key of the bucket.
+	 * @param now The current time in [ms].
+	 * @return The slot of the bucket.
+	 */
+	private int insert(int key, long now) {
+		int slot = mix(key);
+		while(used[slot]) {
+			slot = (slot + 1) & (CAPACITY - 1);
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		tokens[slot] = burst;
+		refills[slot] = now;
+		drops[slot] = 0;
+		++size;
+		return slot;
+	}
+
+	/**
+	 * Removes the buckets which have been refilled completely, they behave like
+	 * new buckets. The remaining buckets are inserted into new arrays, because
+	 * a slot of an open addressing table can not be simply cleared.
+	 *
+	 * @param now The current time in [ms].
+	 */
+	private void purge(long now) {
+		lastPurge = now;
+		int[] oldKeys = keys;
+		boolean[] oldUsed = used;
+		double[] oldTokens = tokens;
+		long[] oldRefills = refills;
+		long[] oldDrops = drops;
+		keys = new int[CAPACITY];
+		used = new boolean[CAPACITY];
+		tokens = new double[CAPACITY];
+		refills = new long[CAPACITY];
+		drops = new long[CAPACITY];
+		size = 0;
+
+		for(int k=0; k<CAPACITY; ++k) {
+			if(!oldUsed[k]) continue;
+			if(oldTokens[k] + (now - oldRefills[k]) * rate >= burst) continue;
+			int slot = insert(oldKeys[k], now);
+			tokens[slot] = oldTokens[k];
+			refills[slot] = oldRefills[k];
+			drops[slot] = oldDrops[k];
+		}
+	}
+
+	/**
+	 * Returns the time after which an empty bucket is full again.
+	 *
+	 * @return The time in [ms].
+	 */
+	private long getRefillTime() {
+		return rate > 0 ? (long) Math.ceil(burst / rate) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Spreads the bits of a key, so neighboring addresses do not form long
+	 * runs of occupied slots.
+	 *
+	 * @param key The key.
+	 * @return The first slot to probe.
+	 */
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (CAPACITY - 1);
+	}
+
+	/**
+	 * Returns the number of accepted messages.
+	 *
+	 * @return The number of messages.
+	 */
+	public synchronized long getPassed() {
+		return passed;
+	}
+
+	/**
+	 * Returns the number of dropped messages.
+	 *
+	 * @return The number of messages.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Returns the number of dropped messages of a sender.
+	 *
+	 * @param addr The sender.
+	 * @return The number of messages.
+	 */
+	public synchronized long getDropped(InetAddress addr) {
+		int slot = find(addr.hashCode());
+		return slot < 0 ? 0 : drops[slot];
+	}
+
+	/**
+	 * Converts the counters to a string.
+	 *
+	 * @return The counters.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "rate limiter: " + passed + " passed, " + dropped + " dropped, " + size + " senders";
+	}
+
+}
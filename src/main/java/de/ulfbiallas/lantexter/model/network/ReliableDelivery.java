@@ -0,0 +1,378 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Optional reliability layer on top of the datagrams of the class UDPTools.
+ *
+ * Each message to a peer gets a sequence number of its own per-peer sequence.
+ * The receiver acknowledges the highest sequence number up to which it has
+ * received all messages and the messages which it has received beyond it as
+ * bit mask, so a single lost datagram does not cause the retransmission of
+ * the following ones. Messages are delivered to the application as soon as
+ * they arrive and duplicates are dropped, so a lost message never delays
+ * the following ones.
+ *
+ * The sender keeps at most WINDOW_SIZE unacknowledged messages in flight per
+ * peer and retransmits them after a timeout which is computed from the
+ * measured round trip time (RFC 6298). Round trip times are only measured
+ * for messages which have not been retransmitted (Karn's algorithm).
+ *
+ * A message which has been sent MAX_TRANSMISSIONS times is given up. Every
+ * message carries the lowest sequence number which the sender still
+ * retransmits, so the receiver skips the given up messages instead of
+ * waiting for them forever.
+ *
+ * The sequence numbers belong to an epoch, a random number which is chosen
+ * at the start, so a receiver notices a restarted sender.
+ *
+ * All messages of this layer are binary encoded, because only the binary
+ * codec carries the fields of the reliable delivery.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class ReliableDelivery {
+
+	/** Interval in [ms] in which the retransmission timeouts are checked. */
+	public static final long TIMER_INTERVAL = 50;
+
+	/** Maximum number of unacknowledged messages per peer. */
+	private static final int WINDOW_SIZE = 32;
+
+	/** Number of messages beyond the cumulative acknowledgement which can be acknowledged selectively. */
+	private static final int SELECTIVE_ACK_BITS = 64;
+
+	/** Retransmission timeout in [ms] before the first round trip time is measured. */
+	private static final long INITIAL_TIMEOUT = 1000;
+
+	/** Lower bound of the retransmission timeout in [ms]. */
+	private static final long MIN_TIMEOUT = 200;
+
+	/** Upper bound of the retransmission timeout in [ms]. */
+	private static final long MAX_TIMEOUT = 10000;
+
+	/** Clock granularity in [ms]. */
+	private static final long CLOCK_GRANULARITY = 10;
+
+	/** Number of transmissions after which a message is given up. */
+	private static final int MAX_TRANSMISSIONS = 8;
+
+	private UDPTools updtools;
+
+	/** The epoch of the messages which are sent by this application. */
+	private final int epoch;
+
+	/** Sending state per peer. */
+	private HashMap<InetAddress, Sender> senders = new HashMap<InetAddress, Sender>();
+
+	/** Receiving state per peer. */
+	private HashMap<InetAddress, Receiver> receivers = new HashMap<InetAddress, Receiver>();
+
+	/** Counters. */
+	private long sent;
+	private long retransmitted;
+	private long acknowledged;
+	private long failed;
+	private long duplicates;
+
+
+	/**
+	 * Inner class which holds an unacknowledged message.
+	 */
+	private static class Outgoing {
+		private final byte[] data;
+
+		/** Time of the last transmission or 0 if the message waits for the window. */
+		private long sentTime;
+
+		private int transmissions;
+
+		private Outgoing(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Inner class which holds the sending state of one peer.
+	 */
+	private static class Sender {
+		private int nextSequence = 1;
+		private TreeMap<Integer, Outgoing> unacknowledged = new TreeMap<Integer, Outgoing>();
+		private long smoothedRtt;
+		private long rttVariation;
+		private long timeout = INITIAL_TIMEOUT;
+
+		/**
+		 * Updates the retransmission timeout with a round trip time sample.
+		 *
+		 * @param rtt The round trip time in [ms].
+		 */
+		private void addRttSample(long rtt) {
+			if(smoothedRtt == 0) {
+				smoothedRtt = Math.max(1, rtt);
+				rttVariation = rtt / 2;
+			} else {
+				rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+				smoothedRtt = Math.max(1, (7 * smoothedRtt + rtt) / 8);
+			}
+			timeout = Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT,
+					smoothedRtt + Math.max(CLOCK_GRANULARITY, 4 * rttVariation)));
+		}
+
+		/**
+		 * Returns whether a message lies within the window of messages in flight.
+		 *
+		 * @param sequence The sequence number of the message.
+		 * @return Boolean which is true if the message may be sent.
+		 */
+		private Boolean isInWindow(int sequence) {
+			return sequence - unacknowledged.firstKey() < WINDOW_SIZE;
+		}
+	}
+
+	/**
+	 * Inner class which holds the receiving state of one peer.
+	 */
+	private static class Receiver {
+		private final int epoch;
+		private int received;
+		private long selectiveAcks;
+
+		private Receiver(int epoch) {
+			this.epoch = epoch;
+		}
+	}
+
+
+	/**
+	 * Constructor.
+	 */
+	public ReliableDelivery() {
+		updtools = UDPTools.getInstance();
+		epoch = new Random().nextInt(Integer.MAX_VALUE - 1) + 1;
+	}
+
+	/**
+	 * Sends a message reliably to a peer. The message is sent immediately if
+	 * the window of the peer is not full, otherwise as soon as it has space.
+	 *
+	 * @param addr The address of the peer.
+	 * @param msg The message. It is not modified, so it can be sent to several peers.
+	 */
+	public synchronized void send(InetAddress addr, NetworkMessage msg) {
+		Sender sender = senders.get(addr);
+		if(sender == null) {
+			sender = new Sender();
+			senders.put(addr, sender);
+		}
+		int sequence = sender.nextSequence++;
+		msg.setEpoch(epoch);
+		msg.setReliableSequence(sequence);
+		msg.setReliableForward(sender.unacknowledged.isEmpty() ? sequence : sender.unacknowledged.firstKey());
+		Outgoing outgoing = new Outgoing(Codecs.encode(Codecs.BINARY, msg));
+		msg.setEpoch(0);
+		msg.setReliableSequence(0);
+		msg.setReliableForward(0);
+
+		sender.unacknowledged.put(sequence, outgoing);
+		if(sender.isInWindow(sequence)) {
+			transmit(addr, outgoing);
+		}
+	}
+
+	/**
+	 * Registers a received reliable message and acknowledges it. The receive 
+	 * window is moved past the messages which the sender has given up and past 
+	 * a message which lies beyond the window, so a gap can not block the 
+	 * following messages. Every message is acknowledged, also a duplicate.
+	 *
+	 * @param addr The address of the sender.
+	 * @param msg The message.
+	 * @return Boolean which is true if the message is new and has to be processed.
+	 */
+	public synchronized Boolean receive(InetAddress addr, NetworkMessage msg) {
+		Receiver receiver = receivers.get(addr);
+		if(receiver == null || receiver.epoch != msg.getEpoch()) {
+			receiver = new Receiver(msg.getEpoch());
+			receivers.put(addr, receiver);
+		}
+
+		slide(receiver, msg.getReliableForward() - 1);
+		slide(receiver, msg.getReliableSequence() - SELECTIVE_ACK_BITS);
+
+		int offset = msg.getReliableSequence() - receiver.received - 1;
+		Boolean isNew = offset >= 0 && (receiver.selectiveAcks & (1L << offset)) == 0;
+		if(isNew) {
+			receiver.selectiveAcks |= 1L << offset;
+			slide(receiver, receiver.received);
+		} else {
+			++duplicates;
+		}
+
+		NetworkMessage ack = new NetworkMessage(NetworkMessage.DELIVERY_ACK, null, null);
+		ack.setEpoch(receiver.epoch);
+		ack.setAcknowledged(receiver.received);
+		ack.setSelectiveAcks(receiver.selectiveAcks);
+		updtools.sendMsg(addr, Codecs.encode(Codecs.BINARY, ack));
+		return isNew;
+	}
+
+	/**
+	 * Moves the receive window, so all messages up to a sequence number count 
+	 * as received, and then past all following messages which are received.
+	 *
+	 * @param receiver The receiving state of the peer.
+	 * @param sequence The sequence number.
+	 */
+	private void slide(Receiver receiver, int sequence) {
+		int shift = sequence - receiver.received;
+		if(shift > 0) {
+			receiver.selectiveAcks = shift < SELECTIVE_ACK_BITS ? receiver.selectiveAcks >>> shift : 0;
+			receiver.received = sequence;
+		}
+		while((receiver.selectiveAcks & 1) != 0) {
+			receiver.selectiveAcks >>>= 1;
+			++receiver.received;
+		}
+	}
+
+	/**
+	 * Processes an acknowledgement. Acknowledged messages are removed, messages
+	 * which are reported missing in front of a selectively acknowledged message
+	 * are retransmitted early and the window is refilled.
+	 *
+	 * @param addr The address of the receiver.
+	 * @param msg The DELIVERY_ACK message.
+	 */
+	public synchronized void processAck(InetAddress addr, NetworkMessage msg) {
+		Sender sender = senders.get(addr);
+		if(sender == null || msg.getEpoch() != epoch) return;
+		long time = System.currentTimeMillis();
+
+		Iterator<Map.Entry<Integer, Outgoing>> it = sender.unacknowledged.headMap(msg.getAcknowledged(), true).entrySet().iterator();
+		while(it.hasNext()) {
+			acknowledge(sender, it.next().getValue(), time);
+			it.remove();
+		}
+		int highestSelective = 0;
+		long selectiveAcks = msg.getSelectiveAcks();
+		for(int k=0; k<SELECTIVE_ACK_BITS && selectiveAcks != 0; ++k, selectiveAcks >>>= 1) {
+			if((selectiveAcks & 1) == 0) continue;
+			highestSelective = msg.getAcknowledged() + k + 1;
+			Outgoing outgoing = sender.unacknowledged.remove(highestSelective);
+			if(outgoing != null) acknowledge(sender, outgoing, time);
+		}
+
+		// A message which is missing in front of a received one is most probably lost
+		for(Map.Entry<Integer, Outgoing> entry : sender.unacknowledged.headMap(highestSelective).entrySet()) {
+			Outgoing outgoing = entry.getValue();
+			if(outgoing.transmissions == 1 && time - outgoing.sentTime > sender.smoothedRtt) {
+				transmit(addr, outgoing);
+			}
+		}
+		fillWindow(addr, sender);
+	}
+
+	/**
+	 * Retransmits all messages whose retransmission timeout has expired and
+	 * gives up messages which have been sent too often. The timeout of a peer
+	 * is doubled when messages to it have to be retransmitted.
+	 */
+	public synchronized void checkTimeouts() {
+		long time = System.currentTimeMillis();
+		for(Map.Entry<InetAddress, Sender> peer : senders.entrySet()) {
+			Sender sender = peer.getValue();
+			Boolean expired = false;
+			Iterator<Outgoing> it = sender.unacknowledged.values().iterator();
+			while(it.hasNext()) {
+				Outgoing outgoing = it.next();
+				if(outgoing.sentTime == 0 || time - outgoing.sentTime < sender.timeout) continue;
+				if(outgoing.transmissions >= MAX_TRANSMISSIONS) {
+					it.remove();
+					++failed;
+				} else {
+					transmit(peer.getKey(), outgoing);
+					expired = true;
+				}
+			}
+			if(expired) {
+				sender.timeout = Math.min(MAX_TIMEOUT, 2 * sender.timeout);
+			}
+			fillWindow(peer.getKey(), sender);
+		}
+	}
+
+	/**
+	 * Discards the unacknowledged messages to a peer, e.g. because it has left 
+	 * the chat. The receiving state is kept, so retransmissions of messages 
+	 * which are already processed are still recognized as duplicates.
+	 *
+	 * @param addr The address of the peer.
+	 */
+	public synchronized void removePeer(InetAddress addr) {
+		senders.remove(addr);
+	}
+
+	/**
+	 * Removes an acknowledged message and measures the round trip time if
+	 * the message has been sent only once.
+	 *
+	 * @param sender The sending state of the peer.
+	 * @param outgoing The acknowledged message.
+	 * @param time The current time.
+	 */
+	private void acknowledge(Sender sender, Outgoing outgoing, long time) {
+		if(outgoing.transmissions == 1) {
+			sender.addRttSample(time - outgoing.sentTime);
+		}
+		++acknowledged;
+	}
+
+	/**
+	 * Sends all waiting messages which fit into the window.
+	 *
+	 * @param addr The address of the peer.
+	 * @param sender The sending state of the peer.
+	 */
+	private void fillWindow(InetAddress addr, Sender sender) {
+		for(Map.Entry<Integer, Outgoing> entry : sender.unacknowledged.entrySet()) {
+			if(!sender.isInWindow(entry.getKey())) break;
+			if(entry.getValue().sentTime == 0) transmit(addr, entry.getValue());
+		}
+	}
+
+	/**
+	 * Sends a message and remembers the time.
+	 *
+	 * @param addr The address of the peer.
+	 * @param outgoing The message.
+	 */
+	private void transmit(InetAddress addr, Outgoing outgoing) {
+		if(outgoing.transmissions == 0) {
+			++sent;
+		} else {
+			++retransmitted;
+		}
+		outgoing.sentTime = System.currentTimeMillis();
+		++outgoing.transmissions;
+		updtools.sendMsg(addr, outgoing.data);
+	}
+
+	/**
+	 * Returns the counters as text.
+	 *
+	 * @return The text.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "reliable delivery: " + sent + " sent, " + retransmitted + " retransmitted, "
+				+ acknowledged + " acknowledged, " + failed + " failed, " + duplicates + " duplicates";
+	}
+
+}
@@ -0,0 +1,57 @@
+package de.ulfbiallas.lantexter.model.network;
+
+/**
+ * Class which represents a range of consecutive sequence numbers,
+ * e.g. of the messages which are requested by a NACK message.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class SequenceRange {
+
+	/** The first sequence number of the range. */
+	private int first;
+
+	/** The last sequence number of the range. */
+	private int last;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param first The first sequence number of the range.
+	 * @param last The last sequence number of the range.
+	 */
+	public SequenceRange(int first, int last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * Returns whether the range is not empty and only contains valid sequence numbers.
+	 *
+	 * @return Boolean which is true if the range is valid.
+	 */
+	public boolean isValid() {
+		return first > 0 && last >= first;
+	}
+
+	/**
+	 * Returns the first sequence number of the range.
+	 *
+	 * @return The first sequence number.
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	/**
+	 * Returns the last sequence number of the range.
+	 *
+	 * @return The last sequence number.
+	 */
+	public int getLast() {
+		return last;
+	}
+
+}
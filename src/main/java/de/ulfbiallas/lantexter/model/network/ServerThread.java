@@ -5,43 +5,77 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import de.ulfbiallas.lantexter.model.Constants;
 import de.ulfbiallas.lantexter.model.ModelNotification;
 
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import net.sf.json.JSONSerializer;
-
 /**
- * Class which opens an UDP port and starts a separate thread to receive UDP datagrams.
+ * Class which opens an UDP port and runs a blocking task to receive UDP datagrams.
  * 
  * @author Ulf Biallas
  *
  */
-public class ServerThread extends Thread {
+public class ServerThread implements Runnable, IPacketReceiver {
 
 	private IPacketProcessor packetProcessor;
 	private DatagramSocket socket;
+	private PacketDispatcher dispatcher;
 	
 	
 	/**
-	 * Constructor. Opens an UDP port and starts the thread to receive datagrams.
+	 * Constructor. Opens an UDP port and starts the task to receive datagrams.
 	 * 
 	 * @param packetProcessor Class which processes the incoming UDP datagrams.
 	 * @param port The port to open.
+	 * @param executor The executor which runs the blocking receive task.
 	 */
-	public ServerThread(IPacketProcessor packetProcessor, int port) {
-		super();
+	public ServerThread(IPacketProcessor packetProcessor, int port, Executor executor) {
+		this(packetProcessor, port, null, null, executor);
+	}
+	
+	/**
+	 * Constructor. Opens an UDP port, joins a multicast group 
+	 * and starts the task to receive datagrams.
+	 * 
+	 * @param packetProcessor Class which processes the incoming UDP datagrams.
+	 * @param port The port to open.
+	 * @param group The multicast group to join or null to receive unicast only.
+	 * @param rateLimiter The limiter of the datagrams per sender or null to accept all datagrams.
+	 * @param executor The executor which runs the blocking receive task.
+	 */
+	public ServerThread(IPacketProcessor packetProcessor, int port, InetAddress group, RateLimiter rateLimiter, Executor executor) {
 		this.packetProcessor = packetProcessor;
+		dispatcher = new PacketDispatcher(packetProcessor, rateLimiter);
 		
 		try {
-			socket = new DatagramSocket(port);
-			start();
+			if(group != null) {
+				MulticastSocket multicastSocket = new MulticastSocket(port);
+				socket = multicastSocket;
+				try {
+					multicastSocket.joinGroup(new InetSocketAddress(group, port), UDPTools.getMulticastInterface());
+				} catch (IOException e) {
+					// Fall back to unicast
+					e.printStackTrace();
+				}
+			} else {
+				socket = new DatagramSocket(port);
+			}
+			executor.execute(this);
+		} catch (RejectedExecutionException e) {
+			socket.close();
+			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
 		} catch (java.lang.IllegalArgumentException e) {
 			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
 		} catch (SocketException e) {
 			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
+		} catch (IOException e) {
+			packetProcessor.onError(ModelNotification.CONNECTION_ERROR);
 		}
 	}
 	
@@ -49,8 +83,7 @@ public class ServerThread extends Thread {
 	 * Stops receiving datagrams and closes the UDP port.
 	 */
 	public void shutdown() {
-		interrupt();
-		socket.close();
+		if(socket != null) socket.close();
 	}
 	
 	/**
@@ -59,28 +92,25 @@ public class ServerThread extends Thread {
 	public void run() {
 
 		packetProcessor.onSuccessfulStarted();
+		
+		byte[] buffer = new byte[Constants.RECEIVE_BUFFER_SIZE];
+		DatagramPacket packet = new DatagramPacket( buffer, buffer.length );
 				
-	    while ( true ) { 	   
+	    while ( !socket.isClosed() ) { 	   
 	    	try {
    		
-	    		DatagramPacket packet = new DatagramPacket( new byte[1024], 1024 ); 	      
+	    		packet.setLength( buffer.length );
 				socket.receive( packet );
 	
 				InetAddress address = packet.getAddress(); 			  
 				int         port    = packet.getPort(); 
 				int         len     = packet.getLength(); 
-				byte[]      data    = packet.getData(); 
 				 
-				String msg = new String( data, 0, len );
-				JSONObject jsonMsg = (JSONObject) JSONSerializer.toJSON( msg );
-				      
-				packetProcessor.processMessage(jsonMsg, address, port);
+				dispatcher.dispatch(ByteBuffer.wrap( buffer, 0, len ), address, port);
 				      
 		    // Ignore invalid packets
 			} catch (IOException e) {
 
-			} catch (JSONException e) {
-
 			}		      		      
 	    } 
 	}
@@ -0,0 +1,192 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of TCP connections to the StreamServerThread of other participants
+ * which is used for large messages. There is at most one connection per
+ * participant. It is opened with the first message and kept open until it
+ * is idle for IDLE_TIMEOUT.
+ *
+ * The messages to a participant are queued and written in order by a task
+ * of the executor, so the caller never blocks on a connect or write. If a
+ * message can not be written, it is sent as datagram instead.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class StreamConnections {
+
+	/** Time in [ms] after which an idle connection is closed. */
+	public static final long IDLE_TIMEOUT = 60000;
+
+	/** Timeout in [ms] to establish a connection. */
+	private static final int CONNECT_TIMEOUT = 2000;
+
+	private UDPTools updtools;
+
+	/** The port of the StreamServerThread of the other participants. */
+	private int port;
+
+	/** The executor which runs the blocking connects and writes. */
+	private Executor executor;
+
+	/** The connection to each participant. */
+	private ConcurrentHashMap<InetAddress, Connection> connections = new ConcurrentHashMap<InetAddress, Connection>();
+
+
+	/**
+	 * Inner class which holds the connection to a participant and the messages
+	 * which wait to be written. It is run as task to write the waiting messages.
+	 */
+	private class Connection implements Runnable {
+		private final InetAddress addr;
+		private ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<byte[]>();
+		private AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		/** The channel or null if it is not open. Guarded by this. */
+		private SocketChannel channel;
+
+		/** Time of the last write. Guarded by this. */
+		private long lastUse;
+
+		private Connection(InetAddress addr) {
+			this.addr = addr;
+		}
+
+		/**
+		 * Writes all waiting messages.
+		 */
+		@Override
+		public void run() {
+			do {
+				byte[] msg;
+				while((msg = queue.poll()) != null) {
+					write(msg);
+				}
+				scheduled.set(false);
+			} while(!queue.isEmpty() && scheduled.compareAndSet(false, true));
+		}
+
+		/**
+		 * Writes a message as frame. A broken connection is reopened once.
+		 * If the message can still not be written, it is sent as datagram.
+		 *
+		 * @param msg The encoded message.
+		 */
+		private synchronized void write(byte[] msg) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			header.putInt(0, msg.length);
+			for(int k=0; k<2; ++k) {
+				try {
+					if(channel == null) {
+						channel = SocketChannel.open();
+						channel.socket().setTcpNoDelay(true);
+						channel.socket().connect(new InetSocketAddress(addr, port), CONNECT_TIMEOUT);
+					}
+					ByteBuffer[] frame = new ByteBuffer[] { header, ByteBuffer.wrap(msg) };
+					header.rewind();
+					while(frame[1].hasRemaining()) {
+						channel.write(frame);
+					}
+					lastUse = System.currentTimeMillis();
+					return;
+				} catch (IOException e) {
+					close();
+				}
+			}
+			updtools.sendMsg(addr, msg);
+		}
+
+		/**
+		 * Closes the channel if it is idle.
+		 *
+		 * @param time The current time.
+		 */
+		private synchronized void closeIdle(long time) {
+			if(channel != null && queue.isEmpty() && time - lastUse > IDLE_TIMEOUT) {
+				close();
+			}
+		}
+
+		/**
+		 * Closes the channel.
+		 */
+		private synchronized void close() {
+			if(channel == null) return;
+			try {
+				channel.close();
+			} catch (IOException e) {
+
+			}
+			channel = null;
+		}
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param port The port of the StreamServerThread of the other participants.
+	 * @param executor The executor which runs the blocking connects and writes.
+	 */
+	public StreamConnections(int port, Executor executor) {
+		updtools = UDPTools.getInstance();
+		this.port = port;
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues an encoded message for a participant. It is written by a task
+	 * of the executor after all messages which are queued before.
+	 *
+	 * @param addr The address of the participant.
+	 * @param msg The encoded message.
+	 */
+	public void send(InetAddress addr, byte[] msg) {
+		Connection connection = connections.get(addr);
+		if(connection == null) {
+			Connection created = new Connection(addr);
+			connection = connections.putIfAbsent(addr, created);
+			if(connection == null) connection = created;
+		}
+		connection.queue.add(msg);
+		if(connection.scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(connection);
+			} catch (RejectedExecutionException e) {
+				connection.queue.clear();
+				connection.scheduled.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Closes all connections which are idle for IDLE_TIMEOUT.
+	 */
+	public void closeIdle() {
+		long time = System.currentTimeMillis();
+		for(Connection connection : connections.values()) {
+			connection.closeIdle(time);
+		}
+	}
+
+	/**
+	 * Closes all connections.
+	 */
+	public void closeAll() {
+		for(Connection connection : connections.values()) {
+			connection.close();
+		}
+	}
+
+}
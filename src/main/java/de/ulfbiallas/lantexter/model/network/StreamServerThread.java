@@ -0,0 +1,321 @@
+package de.ulfbiallas.lantexter.model.network;
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Class which opens a non-blocking TCP port and runs a blocking task which
+ * accepts connections and receives length prefixed messages on them with
+ * a Selector. The connections are kept open for further messages until
+ * they are idle for IDLE_TIMEOUT. The messages are passed to the packet
+ * processor like received datagrams.
+ *
+ * A frame consists of the length of the message (4 bytes) and the
+ * encoded message.
+ *
+ * The number of connections per address and in total and the bytes which
+ * are buffered for incomplete frames are limited. The receive buffer of a
+ * connection grows with the received data, not with the declared length of
+ * a frame, so a sender can not reserve memory without sending it.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class StreamServerThread implements Runnable, IPacketReceiver {
+
+	/** Time in [ms] after which an idle connection is closed. It is longer than the idle timeout of the sender. */
+	public static final long IDLE_TIMEOUT = 2 * StreamConnections.IDLE_TIMEOUT;
+
+	/** Interval in [ms] in which idle connections are searched. */
+	private static final long IDLE_CHECK_INTERVAL = 5000;
+
+	/** Maximum size of a message in bytes. */
+	private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	/** Initial size of the receive buffer of a connection. */
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+	/** Maximum number of connections. */
+	private static final int MAX_CONNECTIONS = 64;
+
+	/** Maximum number of connections of one address. */
+	private static final int MAX_CONNECTIONS_PER_ADDRESS = 4;
+
+	/** Maximum number of bytes of all receive buffers. */
+	private static final int MAX_BUFFERED_BYTES = 2 * MAX_FRAME_SIZE;
+
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private PacketDispatcher dispatcher;
+
+	/** Flag which is cleared to stop the receive loop. */
+	private volatile boolean running = true;
+
+	/** Flag which is set when the receive task has been handed to the executor. */
+	private volatile boolean started = false;
+
+	/** The number of open connections per address. Only used by the receive task. */
+	private HashMap<InetAddress, Integer> connectionCounts = new HashMap<InetAddress, Integer>();
+
+	/** The number of open connections. Only used by the receive task. */
+	private int connectionCount = 0;
+
+	/** The size of all receive buffers in bytes. Only used by the receive task. */
+	private long bufferedBytes = 0;
+
+
+	/**
+	 * Inner class which holds the receive state of a connection.
+	 */
+	private static class Connection {
+		private final InetAddress addr;
+		private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private long lastActivity = System.currentTimeMillis();
+
+		private Connection(InetAddress addr) {
+			this.addr = addr;
+		}
+	}
+
+
+	/**
+	 * Constructor. Opens a TCP port and starts the task to receive messages.
+	 * If the port can not be opened, no messages are received over TCP,
+	 * but the chat keeps working with datagrams.
+	 *
+	 * @param packetProcessor Class which processes the incoming messages.
+	 * @param port The port to open.
+	 * @param executor The executor which runs the blocking receive task.
+	 */
+	public StreamServerThread(IPacketProcessor packetProcessor, int port, Executor executor) {
+		this(packetProcessor, port, null, executor);
+	}
+
+	/**
+	 * Constructor. Opens a TCP port and starts the task to receive messages.
+	 * If the port can not be opened, no messages are received over TCP,
+	 * but the chat keeps working with datagrams.
+	 *
+	 * @param packetProcessor Class which processes the incoming messages.
+	 * @param port The port to open.
+	 * @param rateLimiter The limiter of the messages per sender or null to accept all messages.
+	 * @param executor The executor which runs the blocking receive task.
+	 */
+	public StreamServerThread(IPacketProcessor packetProcessor, int port, RateLimiter rateLimiter, Executor executor) {
+		dispatcher = new PacketDispatcher(packetProcessor, rateLimiter);
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			executor.execute(this);
+			started = true;
+		} catch (RejectedExecutionException e) {
+			close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+		}
+	}
+
+	/**
+	 * Stops receiving messages and closes the TCP port and all connections.
+	 */
+	public void shutdown() {
+		running = false;
+		if(selector != null) {
+			selector.wakeup();
+		}
+		if(!started) {
+			close();
+		}
+	}
+
+	/**
+	 * Accepts connections and waits for incoming messages.
+	 */
+	public void run() {
+		long lastIdleCheck = System.currentTimeMillis();
+		while(running) {
+			try {
+				selector.select(IDLE_CHECK_INTERVAL);
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if(!key.isValid()) continue;
+					if(key.isAcceptable()) {
+						accept();
+					} else if(key.isReadable()) {
+						read(key);
+					}
+				}
+				long time = System.currentTimeMillis();
+				if(time - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+					closeIdle(time);
+					lastIdleCheck = time;
+				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (IOException e) {
+
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Accepts all pending connections. A connection beyond the limits is closed at once.
+	 *
+	 * @throws IOException If a connection can not be accepted.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while((channel = serverChannel.accept()) != null) {
+			InetAddress addr = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+			Integer count = connectionCounts.get(addr);
+			if(connectionCount >= MAX_CONNECTIONS || (count != null && count >= MAX_CONNECTIONS_PER_ADDRESS) 
+					|| bufferedBytes + INITIAL_BUFFER_SIZE > MAX_BUFFERED_BYTES) {
+				channel.close();
+				continue;
+			}
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new Connection(addr));
+			connectionCounts.put(addr, count == null ? 1 : count + 1);
+			++connectionCount;
+			bufferedBytes += INITIAL_BUFFER_SIZE;
+		}
+	}
+
+	/**
+	 * Reads the available data of a connection and dispatches all complete messages.
+	 * The connection is closed at the end of the stream, if a frame is invalid or if
+	 * its buffer can not grow within the limit of all buffers. A grown buffer is
+	 * shrunk again when the large frame has been dispatched.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void read(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		try {
+			if(channel.read(connection.buffer) < 0) {
+				closeConnection(key);
+				return;
+			}
+			connection.lastActivity = System.currentTimeMillis();
+
+			InetSocketAddress sender = (InetSocketAddress) channel.getRemoteAddress();
+			ByteBuffer buffer = connection.buffer;
+			buffer.flip();
+			int needed = 0;
+			while(buffer.remaining() >= 4) {
+				int length = buffer.getInt(buffer.position());
+				if(length <= 0 || length > MAX_FRAME_SIZE) {
+					closeConnection(key);
+					return;
+				}
+				if(buffer.remaining() < 4 + length) {
+					needed = 4 + length;
+					break;
+				}
+				buffer.getInt();
+				ByteBuffer frame = buffer.slice();
+				frame.limit(length);
+				dispatcher.dispatch(frame, sender.getAddress(), sender.getPort());
+				buffer.position(buffer.position() + length);
+			}
+			buffer.compact();
+			int capacity = buffer.capacity();
+			if(needed > capacity && !buffer.hasRemaining()) {
+				capacity = Math.min(needed, 2 * capacity);
+			} else if(capacity > INITIAL_BUFFER_SIZE && buffer.position() <= INITIAL_BUFFER_SIZE && needed <= INITIAL_BUFFER_SIZE) {
+				capacity = INITIAL_BUFFER_SIZE;
+			}
+			if(capacity != buffer.capacity()) {
+				if(bufferedBytes + capacity - buffer.capacity() > MAX_BUFFERED_BYTES) {
+					closeConnection(key);
+					return;
+				}
+				bufferedBytes += capacity - buffer.capacity();
+				buffer.flip();
+				connection.buffer = ByteBuffer.allocate(capacity).put(buffer);
+			}
+		} catch (IOException e) {
+			closeConnection(key);
+		}
+	}
+
+	/**
+	 * Closes all connections which have been idle for IDLE_TIMEOUT.
+	 *
+	 * @param time The current time.
+	 */
+	private void closeIdle(long time) {
+		for(SelectionKey key : selector.keys()) {
+			Connection connection = (Connection) key.attachment();
+			if(connection != null && time - connection.lastActivity > IDLE_TIMEOUT) {
+				closeConnection(key);
+			}
+		}
+	}
+
+	/**
+	 * Closes a connection and releases its share of the limits.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void closeConnection(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		if(connection != null && key.attach(null) != null) {
+			Integer count = connectionCounts.get(connection.addr);
+			if(count == null || count <= 1) {
+				connectionCounts.remove(connection.addr);
+			} else {
+				connectionCounts.put(connection.addr, count - 1);
+			}
+			--connectionCount;
+			bufferedBytes -= connection.buffer.capacity();
+		}
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+
+		}
+	}
+
+	/**
+	 * Closes the selector, all connections and the TCP port.
+	 */
+	private void close() {
+		try {
+			if(selector != null) {
+				for(SelectionKey key : selector.keys()) {
+					key.channel().close();
+				}
+				selector.close();
+			}
+			if(serverChannel != null) serverChannel.close();
+		} catch (IOException e) {
+
+		} catch (ClosedSelectorException e) {
+
+		}
+	}
+
+}
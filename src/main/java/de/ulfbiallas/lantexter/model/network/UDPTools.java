@@ -5,15 +5,21 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import de.ulfbiallas.lantexter.model.Constants;
 import de.ulfbiallas.lantexter.model.ModelNotification;
 
 
 
 /**
- * Singleton tool class to send UDP datagrams.
+ * Singleton tool class to send UDP datagrams. Messages which do not fit 
+ * into the receive buffer are sent as several fragments.
  * 
  * @author Ulf Biallas
  *
@@ -22,12 +28,18 @@ public class UDPTools {
 	
 	private static final UDPTools udptools = new UDPTools();
 
+	/** Id of the next fragmented message. */
+	private AtomicInteger nextMessageId = new AtomicInteger();
+	
 	/** UDP Socket to send the datagrams. */
 	private MulticastSocket datagramSocket;
 
 	/** Port on the receiver side. */
 	private int port;
 	
+	/** Multicast group to send to or null if multicast is disabled. */
+	private InetAddress multicastGroup;
+	
 	/** 
 	 * Private constructor which does nothing. 
 	 */
@@ -66,6 +78,65 @@ public class UDPTools {
 		}
 	}
     
+	/**
+	 * Enables the multicast mode. Datagrams which are sent with sendMsgToGroup() 
+	 * are addressed to the given group.
+	 * 
+	 * @param group The multicast group or null to disable the multicast mode.
+	 * @param ttl The time to live of the multicast datagrams.
+	 */
+	public void setMulticastGroup(InetAddress group, int ttl) {
+		multicastGroup = group;
+		if(group == null) return;
+		try {
+			datagramSocket.setTimeToLive(ttl);
+			NetworkInterface networkInterface = getMulticastInterface();
+			if(networkInterface != null) {
+				datagramSocket.setNetworkInterface(networkInterface);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns whether the multicast mode is enabled.
+	 * 
+	 * @return Boolean which is true if datagrams are sent to a multicast group.
+	 */
+	public Boolean isMulticastEnabled() {
+		return multicastGroup != null;
+	}
+	
+	/**
+	 * Returns the network interface which is used for multicast. 
+	 * This is the interface of the local host address if it supports 
+	 * multicast, otherwise the first active non-loopback interface 
+	 * which supports multicast.
+	 * 
+	 * @return The network interface or null if none was found.
+	 * @throws SocketException If the interfaces can not be queried.
+	 */
+	public static NetworkInterface getMulticastInterface() throws SocketException {
+		try {
+			NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+			if(networkInterface != null && networkInterface.isUp() && networkInterface.supportsMulticast()) {
+				return networkInterface;
+			}
+		} catch (UnknownHostException e) {
+			
+		}
+		
+		Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+		while(interfaces != null && interfaces.hasMoreElements()) {
+			NetworkInterface networkInterface = interfaces.nextElement();
+			if(networkInterface.isUp() && !networkInterface.isLoopback() && networkInterface.supportsMulticast()) {
+				return networkInterface;
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Sends a byte array to a specific receiver.
 	 * 
@@ -74,13 +145,43 @@ public class UDPTools {
 	 */
 	public void sendMsg(InetAddress addr, byte[] msg) {
 		System.out.println("sendMsg to " + addr);
-		try {
-			DatagramPacket packet;
-			packet = new DatagramPacket( msg, msg.length, addr, port ); 
-			datagramSocket.send( packet );
-		} catch (IOException e) {
-			e.printStackTrace();
-		} 		
+		sendMsg(new InetAddress[] { addr }, msg);
+	}
+	
+	/**
+	 * Sends the same byte array to several receivers. The datagram is 
+	 * created once and only its destination is changed per receiver. 
+	 * A byte array which does not fit into the receive buffer is split 
+	 * into fragments once and the fragments are sent to every receiver.
+	 * 
+	 * @param addrs Addresses of the receivers.
+	 * @param msg Message to send.
+	 */
+	public void sendMsg(InetAddress[] addrs, byte[] msg) {
+		if(addrs.length == 0) return;
+		byte[][] datagrams = msg.length > Constants.RECEIVE_BUFFER_SIZE 
+				? Fragments.split(msg, Constants.RECEIVE_BUFFER_SIZE, nextMessageId.incrementAndGet()) 
+				: new byte[][] { msg };
+		for(int j=0; j<datagrams.length; ++j) {
+			DatagramPacket packet = new DatagramPacket( datagrams[j], datagrams[j].length, addrs[0], port );
+			for(int k=0; k<addrs.length; ++k) {
+				try {
+					packet.setAddress( addrs[k] );
+					datagramSocket.send( packet );
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends a byte array to the multicast group.
+	 * 
+	 * @param msg Message to send.
+	 */
+	public void sendMsgToGroup(byte[] msg) {
+		sendMsg(multicastGroup, msg);
 	}
 	
 	/**
@@ -90,10 +191,19 @@ public class UDPTools {
 	 * @param msg The text message.
 	 */
 	public void sendStringToIp(String ip, String msg) {	
+		sendMsgToIp(ip, msg.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Sends a byte array to a specific IP.
+	 * 
+	 * @param ip The IP of the receiver.
+	 * @param msg Message to send.
+	 */
+	public void sendMsgToIp(String ip, byte[] msg) {	
 		try {
-			byte[] bmsg = msg.getBytes();
 			InetAddress addr = InetAddress.getByName( ip );
-			sendMsg(addr, bmsg);
+			sendMsg(addr, msg);
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		} 
@@ -0,0 +1,76 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tool class which writes strings as UTF-8 directly into a buffer.
+ * 
+ * @author Ulf Biallas
+ *
+ */
+public class Utf8 {
+
+	/**
+	 * Returns the number of bytes of the UTF-8 encoding of a string.
+	 * Unpaired surrogates are counted as a single '?'.
+	 * 
+	 * @param s The string.
+	 * @return The length of the encoding in bytes.
+	 */
+	public static int length(String s) {
+		int length = 0;
+		for(int k=0; k<s.length(); ++k) {
+			char c = s.charAt(k);
+			if(c < 0x80) {
+				length += 1;
+			} else if(c < 0x800) {
+				length += 2;
+			} else if(Character.isSurrogate(c)) {
+				if(Character.isHighSurrogate(c) && k+1 < s.length() && Character.isLowSurrogate(s.charAt(k+1))) {
+					length += 4;
+					++k;
+				} else {
+					length += 1;
+				}
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * Writes the UTF-8 encoding of a string into the buffer.
+	 * Unpaired surrogates are written as '?'.
+	 * 
+	 * @param buffer The target buffer.
+	 * @param s The string.
+	 * @throws java.nio.BufferOverflowException If the buffer is too small.
+	 */
+	public static void put(ByteBuffer buffer, String s) {
+		for(int k=0; k<s.length(); ++k) {
+			char c = s.charAt(k);
+			if(c < 0x80) {
+				buffer.put((byte) c);
+			} else if(c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if(Character.isSurrogate(c)) {
+				if(Character.isHighSurrogate(c) && k+1 < s.length() && Character.isLowSurrogate(s.charAt(k+1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++k));
+					buffer.put((byte) (0xF0 | (cp >> 18)));
+					buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+					buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (cp & 0x3F)));
+				} else {
+					buffer.put((byte) '?');
+				}
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+	
+}
@@ -6,17 +6,22 @@ import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.HashMap;
+import java.util.LinkedList;
 import javax.swing.BoxLayout;
 import javax.swing.DefaultListModel;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JEditorPane;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
@@ -25,15 +30,26 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
 
 import de.ulfbiallas.lantexter.model.ChatHistory;
 import de.ulfbiallas.lantexter.model.Constants;
-import de.ulfbiallas.lantexter.model.ModelNotification;
-import de.ulfbiallas.lantexter.model.ParticipantList;
+import de.ulfbiallas.lantexter.model.FileTransfer;
+import de.ulfbiallas.lantexter.model.IModelListener;
+import de.ulfbiallas.lantexter.model.ModelEvent;
+import de.ulfbiallas.lantexter.model.Participant;
 import de.ulfbiallas.lantexter.model.Settings;
+import de.ulfbiallas.lantexter.model.network.Capabilities;
 
 
 /**
@@ -43,23 +59,46 @@ import de.ulfbiallas.lantexter.model.Settings;
  * @author Ulf Biallas
  *
  */
-public class ChatGui extends JFrame implements Observer {
+public class ChatGui extends JFrame implements IModelListener {
 
 	private static final long serialVersionUID = 1L;
 	
 	/** The GUI elements */
 	private JTextArea inputTextArea = new JTextArea();
 	private JEditorPane outputTextArea = new JEditorPane();
-	private DefaultListModel<String> participantsJListModel = new DefaultListModel<String>();
-	private JList<String> participantsJList = new JList<String>(participantsJListModel);
+	private DefaultListModel<Participant> participantsJListModel = new DefaultListModel<Participant>();
+	private JList<Participant> participantsJList = new JList<Participant>(participantsJListModel);
+	
+	/** Map from the id of a listed participant to its index in the list model. */
+	private HashMap<String, Integer> participantIndices = new HashMap<String, Integer>();
 	private JButton sendButton = new JButton();
 	private JSplitPane textAreSplitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
 	private JSplitPane mainSplitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
+	private JScrollPane outputScrollPane;
+	private JProgressBar transferProgressBar = new JProgressBar(0, 100);
+	
+	/** The file transfer whose progress is shown or null. */
+	private FileTransfer shownTransfer;
+	
+	/** The offered files which the user has not been asked about yet. */
+	private LinkedList<FileTransfer> pendingOffers = new LinkedList<FileTransfer>();
+	
+	/** Flag which is set while the user is asked about the pending offers. */
+	private Boolean askingForFiles = false;
+	
+	/** Task which asks the user about the next pending offer. */
+	private Runnable askForFileTask = new Runnable() {
+		public void run() {
+			askForNextFile();
+		}
+	};
 	
 	/** Menu bar item */
 	private JMenu fileMenu;
 	private JMenuItem fileConnectMenuItem;
 	private JMenuItem fileDisconnectMenuItem;
+	private JMenuItem fileSendFileMenuItem;
+	private JMenuItem fileDistributeFileMenuItem;
 	private JMenuItem fileSettingsMenuItem;
 	private JMenuItem fileQuitMenuItem;
 	private JMenu helpMenu;
@@ -72,8 +111,23 @@ public class ChatGui extends JFrame implements Observer {
 	/** Flag which is set if the user is online. */
 	private Boolean statusOnline = false;
 	
+	/** Index of the first and behind the last message of the chat history which are shown in the output text area. */
+	private int firstRenderedMessage = 0;
+	private int renderedMessages = 0;
+	
+	/** Number of older messages which are loaded when the user scrolls to the top. */
+	private static final int HISTORY_PAGE_SIZE = 50;
+	
+	/** Flag which is set while older messages are loaded. */
+	private Boolean loadingOlderMessages = false;
+	
+	/** Delay in [ms] to collect changes which require a complete rendering of the chat history. */
+	private static final int RENDER_DELAY = 200;
+	
+	/** Timer which renders the complete chat history once after a series of changes. */
+	private Timer renderTimer;
+	
 	private Settings settings;
-	private ParticipantList participantList;
 	private ChatHistory chatHistory;
 	
 	
@@ -85,7 +139,6 @@ public class ChatGui extends JFrame implements Observer {
 		setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
 		
 		settings = Settings.getInstance();
-		participantList = ParticipantList.getInstance();
 		chatHistory = ChatHistory.getInstance();			
 		
 		URL iconUrl = ClassLoader.getSystemResource(Constants.ICON_FILE);
@@ -98,6 +151,13 @@ public class ChatGui extends JFrame implements Observer {
 		
 		outputTextArea.setContentType("text/html");
 		
+		renderTimer = new Timer(RENDER_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				renderChatText();
+			}
+		});
+		renderTimer.setRepeats(false);
+		
 		sendButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
 				for(int k=0; k<chatGuiListener.size(); ++k) {
@@ -140,6 +200,8 @@ public class ChatGui extends JFrame implements Observer {
 	private void setInputsEnabled(Boolean enabled) {
 		inputTextArea.setEnabled(enabled);
 		sendButton.setEnabled(enabled);
+		fileSendFileMenuItem.setEnabled(enabled);
+		fileDistributeFileMenuItem.setEnabled(enabled);
 		statusOnline = enabled;
 		refreshTitle();
 	}
@@ -161,8 +223,21 @@ public class ChatGui extends JFrame implements Observer {
 		inputPanel.add(inputScrollPane);
 		inputPanel.add(sendButton);
 		
-		JScrollPane outputScrollPane = new JScrollPane(outputTextArea);
+		outputScrollPane = new JScrollPane(outputTextArea);
 		outputScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+		outputScrollPane.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+			public void adjustmentValueChanged(AdjustmentEvent e) {
+				if(e.getValue() == 0 && !e.getValueIsAdjusting() && firstRenderedMessage > 0 && !loadingOlderMessages) {
+					loadingOlderMessages = true;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							loadOlderMessages();
+							loadingOlderMessages = false;
+						}
+					});
+				}
+			}
+		});
 		
 		textAreSplitPane.setLeftComponent(outputScrollPane);
 		textAreSplitPane.setRightComponent(inputPanel);
@@ -173,6 +248,9 @@ public class ChatGui extends JFrame implements Observer {
 		participantsLabel = new JLabel(settings.getLanguage().getLabel("label_participants"));
 		participantsPanel.add(participantsLabel, BorderLayout.NORTH);
 		participantsPanel.add(participantsScrollPane, BorderLayout.CENTER);
+		transferProgressBar.setStringPainted(true);
+		transferProgressBar.setVisible(false);
+		participantsPanel.add(transferProgressBar, BorderLayout.SOUTH);
 		
 		mainSplitPane.setLeftComponent(textAreSplitPane);
 		mainSplitPane.setRightComponent(participantsPanel);		
@@ -189,10 +267,14 @@ public class ChatGui extends JFrame implements Observer {
 		fileMenu = new JMenu(settings.getLanguage().getLabel("menu_file")); 
 		fileConnectMenuItem = new JMenuItem(settings.getLanguage().getLabel("menu_file_connect"));
 		fileDisconnectMenuItem = new JMenuItem(settings.getLanguage().getLabel("menu_file_disconnect"));
+		fileSendFileMenuItem = new JMenuItem(settings.getLanguage().getLabel("menu_file_sendfile"));
+		fileDistributeFileMenuItem = new JMenuItem(settings.getLanguage().getLabel("menu_file_distributefile"));
 		fileSettingsMenuItem = new JMenuItem(settings.getLanguage().getLabel("menu_file_settings"));
 		fileQuitMenuItem = new JMenuItem(settings.getLanguage().getLabel("menu_file_quit"));
 		fileMenu.add(fileConnectMenuItem);
 		fileMenu.add(fileDisconnectMenuItem);
+		fileMenu.add(fileSendFileMenuItem);
+		fileMenu.add(fileDistributeFileMenuItem);
 		fileMenu.add(fileSettingsMenuItem);
 		fileMenu.add(fileQuitMenuItem);
 		
@@ -227,6 +309,23 @@ public class ChatGui extends JFrame implements Observer {
 			}
 		});
 	
+		fileSendFileMenuItem.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				chooseFileToSend();
+			}
+		});
+		
+		fileDistributeFileMenuItem.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				JFileChooser fileChooser = new JFileChooser();
+				if(fileChooser.showOpenDialog(ChatGui.this) == JFileChooser.APPROVE_OPTION) {
+					for(int k=0; k<chatGuiListener.size(); ++k) {
+						chatGuiListener.get(k).distributeFile(fileChooser.getSelectedFile());
+					}
+				}
+			}
+		});
+	
 		fileSettingsMenuItem.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
 				for(int k=0; k<chatGuiListener.size(); ++k) {
@@ -259,6 +358,8 @@ public class ChatGui extends JFrame implements Observer {
 		fileMenu.setText(settings.getLanguage().getLabel("menu_file")); 
 		fileConnectMenuItem.setText(settings.getLanguage().getLabel("menu_file_connect"));
 		fileDisconnectMenuItem.setText(settings.getLanguage().getLabel("menu_file_disconnect"));
+		fileSendFileMenuItem.setText(settings.getLanguage().getLabel("menu_file_sendfile"));
+		fileDistributeFileMenuItem.setText(settings.getLanguage().getLabel("menu_file_distributefile"));
 		fileSettingsMenuItem.setText(settings.getLanguage().getLabel("menu_file_settings"));
 		fileQuitMenuItem.setText(settings.getLanguage().getLabel("menu_file_quit"));
 		helpMenu.setText(settings.getLanguage().getLabel("menu_help"));
@@ -270,6 +371,164 @@ public class ChatGui extends JFrame implements Observer {
 		refreshTitle();
 	}
 	
+	/**
+	 * Lets the user choose a file and offers it to the selected participant.
+	 */
+	private void chooseFileToSend() {
+		Participant participant = participantsJList.getSelectedValue();
+		if(participant == null || !participant.supports(Capabilities.FILE_TRANSFER)) {
+			JOptionPane.showMessageDialog(this,
+					settings.getLanguage().getLabel(participant == null ? "file_select_participant" : "file_not_supported"),
+					settings.getLanguage().getLabel("file_title"),
+					JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		JFileChooser fileChooser = new JFileChooser();
+		if(fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+			for(int k=0; k<chatGuiListener.size(); ++k) {
+				chatGuiListener.get(k).sendFile(participant, fileChooser.getSelectedFile());
+			}
+		}
+	}
+	
+	/**
+	 * Queues an offered file. The user is asked outside of the delivery of the 
+	 * event bus, because the modal dialogs would block the delivery of the 
+	 * following events. Offers which arrive while a dialog is open are asked
+	 * one after another.
+	 * 
+	 * @param transfer The offered file.
+	 */
+	private void queueFileOffer(FileTransfer transfer) {
+		pendingOffers.add(transfer);
+		if(!askingForFiles) {
+			askingForFiles = true;
+			SwingUtilities.invokeLater(askForFileTask);
+		}
+	}
+	
+	/**
+	 * Asks the user about the next pending offer and schedules the 
+	 * following one after the dialogs are closed.
+	 */
+	private void askForNextFile() {
+		FileTransfer transfer = pendingOffers.poll();
+		if(transfer == null) {
+			askingForFiles = false;
+			return;
+		}
+		askToAcceptFile(transfer);
+		SwingUtilities.invokeLater(askForFileTask);
+	}
+	
+	/**
+	 * Asks the user whether an offered file should be received and where it should be saved.
+	 * 
+	 * @param transfer The offered file.
+	 */
+	private void askToAcceptFile(FileTransfer transfer) {
+		int dialogResult = JOptionPane.showConfirmDialog(this, 
+				transfer.getPeerName() + " " + settings.getLanguage().getLabel("file_offer_description") + " " 
+						+ transfer.getFileName() + " (" + (transfer.getSize() + 1023) / 1024 + " KB)", 
+				settings.getLanguage().getLabel("file_title"),
+				JOptionPane.YES_NO_OPTION);
+		if(dialogResult != JOptionPane.YES_OPTION) return;
+		
+		JFileChooser fileChooser = new JFileChooser();
+		fileChooser.setSelectedFile(new File(transfer.getFileName()));
+		if(fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+			for(int k=0; k<chatGuiListener.size(); ++k) {
+				chatGuiListener.get(k).acceptFile(transfer, fileChooser.getSelectedFile());
+			}
+		}
+	}
+	
+	/**
+	 * Renders the latest messages of the chat history. 
+	 * At most as many messages as the history keeps in memory are rendered.
+	 */
+	private void renderChatText() {
+		int size = chatHistory.size();
+		firstRenderedMessage = Math.max(0, size - chatHistory.getCapacity());
+		outputTextArea.setText(chatHistory.getChatText(firstRenderedMessage, size));
+		renderedMessages = size;
+		outputTextArea.setCaretPosition(outputTextArea.getDocument().getLength());
+	}
+	
+	/**
+	 * Appends the messages which are not rendered yet to the output text area.
+	 * The oldest rendered messages are removed, so the document does not hold 
+	 * more messages than the history keeps in memory.
+	 * 
+	 * @param untilIndex The index after the last message to append.
+	 */
+	private void appendNewMessages(int untilIndex) {
+		int size = Math.min(untilIndex, chatHistory.size());
+		if(renderedMessages >= size) return;
+		
+		HTMLDocument document = (HTMLDocument) outputTextArea.getDocument();
+		Element body = getBodyElement(document);
+		if(renderedMessages < size - chatHistory.getCapacity()) {
+			renderChatText();
+			return;
+		}
+		try {
+			document.insertBeforeEnd(body, chatHistory.getChatText(renderedMessages, size));
+			renderedMessages = size;
+			
+			int index = 0;
+			while(renderedMessages - firstRenderedMessage > chatHistory.getCapacity() && index < body.getElementCount()) {
+				Element element = body.getElement(index);
+				if(element.getAttributes().getAttribute(StyleConstants.NameAttribute) == HTML.Tag.DIV) {
+					document.removeElement(element);
+					++firstRenderedMessage;
+				} else {
+					++index;
+				}
+			}
+			outputTextArea.setCaretPosition(document.getLength());
+		} catch (BadLocationException e) {
+			renderChatText();
+		} catch (IOException e) {
+			renderChatText();
+		}
+	}
+	
+	/**
+	 * Inserts a page of older messages at the top of the output text area. 
+	 * The messages are read from the spill file of the history if necessary.
+	 * The visible part of the text does not move.
+	 */
+	private void loadOlderMessages() {
+		if(firstRenderedMessage <= 0) return;
+		
+		int fromIndex = Math.max(0, firstRenderedMessage - HISTORY_PAGE_SIZE);
+		HTMLDocument document = (HTMLDocument) outputTextArea.getDocument();
+		int oldHeight = outputTextArea.getPreferredSize().height;
+		try {
+			document.insertAfterStart(getBodyElement(document), chatHistory.getChatText(fromIndex, firstRenderedMessage));
+			firstRenderedMessage = fromIndex;
+		} catch (BadLocationException e) {
+			return;
+		} catch (IOException e) {
+			return;
+		}
+		outputTextArea.revalidate();
+		outputScrollPane.validate();
+		int newHeight = outputTextArea.getPreferredSize().height;
+		outputScrollPane.getVerticalScrollBar().setValue(newHeight - oldHeight);
+	}
+	
+	/**
+	 * Returns the body element of the HTML document.
+	 * 
+	 * @param document The HTML document.
+	 * @return The body element.
+	 */
+	private static Element getBodyElement(HTMLDocument document) {
+		return document.getElement(document.getDefaultRootElement(), StyleConstants.NameAttribute, HTML.Tag.BODY);
+	}
+	
 	/**
 	 * Adds an controller to the GUI.
 	 * 
@@ -288,36 +547,79 @@ public class ChatGui extends JFrame implements Observer {
 		chatGuiListener.remove(listener);
 	}
 
+	/**
+	 * Adds a participant to the list if it is online or removes it if it is offline. 
+	 * A removed entry is replaced by the last entry, so both operations take constant time.
+	 * 
+	 * @param participant The participant.
+	 */
+	private void updateParticipantEntry(Participant participant) {
+		Integer index = participantIndices.get(participant.getId());
+		if(participant.isOnline()) {
+			if(index == null) {
+				participantIndices.put(participant.getId(), participantsJListModel.size());
+				participantsJListModel.addElement(participant);
+			}
+		} else if(index != null) {
+			int last = participantsJListModel.size() - 1;
+			if(index != last) {
+				Participant moved = participantsJListModel.get(last);
+				participantsJListModel.set(index, moved);
+				participantIndices.put(moved.getId(), index);
+			}
+			participantsJListModel.remove(last);
+			participantIndices.remove(participant.getId());
+		}
+	}
+
 	/**
 	 * @inheritDoc
 	 */
 	@Override
-	public void update(Observable arg0, Object arg1) {
-		ModelNotification notificationType = (ModelNotification) arg1;
+	public void modelChanged(ModelEvent event) {
 		
-		switch(notificationType) {
-			case LIST_OF_PARTICIPANTS_CHANGED: 
-				participantsJListModel.clear();
-				ArrayList<String> participants = participantList.getParticipantNames();
-				for(int k=0; k<participants.size(); ++k) {
-					participantsJListModel.addElement(participants.get(k));
-				}			
+		switch(event.getType()) {
+			case PARTICIPANT_ADDED:
+			case PARTICIPANT_ONLINE:
+			case PARTICIPANT_OFFLINE:
+				updateParticipantEntry(event.getParticipant());
+				break;
+				
+			case PARTICIPANT_RENAMED:
+				Integer index = participantIndices.get(event.getParticipant().getId());
+				if(index != null) {
+					participantsJListModel.set(index, event.getParticipant());
+				}
+				renderTimer.restart();
 				break;
 				
-			case MESSAGE_RECEIVED: 
-				outputTextArea.setText(chatHistory.getChatText());	
-				outputTextArea.setCaretPosition(outputTextArea.getDocument().getLength());			
+			case MESSAGE_APPENDED: 
+				if(!renderTimer.isRunning() && event.getMessageIndex() >= renderedMessages) {
+					appendNewMessages(event.getMessageIndex() + 1);
+				}
 				break;			
 				
-			case LANGUAGE_CHANGED:
-				refreshLabels();
-				outputTextArea.setText(chatHistory.getChatText());	
-				outputTextArea.setCaretPosition(outputTextArea.getDocument().getLength());					
+			case FILE_OFFERED:
+				queueFileOffer(event.getFileTransfer());
+				break;
+				
+			case FILE_TRANSFER_PROGRESS:
+				shownTransfer = event.getFileTransfer();
+				transferProgressBar.setValue(shownTransfer.getProgress());
+				transferProgressBar.setString(shownTransfer.toString());
+				transferProgressBar.setVisible(true);
+				break;
+				
+			case FILE_TRANSFER_FINISHED:
+				if(event.getFileTransfer() == shownTransfer) {
+					shownTransfer = null;
+					transferProgressBar.setVisible(false);
+				}
 				break;
 				
-			case NAME_CHANGED:
-				outputTextArea.setText(chatHistory.getChatText());	
-				outputTextArea.setCaretPosition(outputTextArea.getDocument().getLength());	
+			case LANGUAGE_CHANGED:
+				refreshLabels();
+				renderTimer.restart();
 				break;
 				
 			case CONNECTION_ESTABLISHED: 
@@ -1,5 +1,10 @@
 package de.ulfbiallas.lantexter.view;
 
+import java.io.File;
+
+import de.ulfbiallas.lantexter.model.FileTransfer;
+import de.ulfbiallas.lantexter.model.Participant;
+
 /**
  * Interface for a ChatGUI controller.
  * 
@@ -25,6 +30,29 @@ public interface ChatGuiListener {
 	 */
 	public void sendMessage(String msg);
 	
+	/**
+	 * Offers a file to another chat user.
+	 * 
+	 * @param participant The user which should receive the file.
+	 * @param file The file to send.
+	 */
+	public void sendFile(Participant participant, File file);
+	
+	/**
+	 * Distributes a file to all other chat users.
+	 * 
+	 * @param file The file to send.
+	 */
+	public void distributeFile(File file);
+	
+	/**
+	 * Receives a file which is offered by another chat user.
+	 * 
+	 * @param transfer The offered file.
+	 * @param target The file to write.
+	 */
+	public void acceptFile(FileTransfer transfer, File target);
+	
 	/**
 	 * Quits the program.
 	 */
@@ -7,8 +7,6 @@ import java.awt.event.ActionListener;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Observable;
-import java.util.Observer;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
@@ -23,7 +21,8 @@ import com.jgoodies.forms.layout.CellConstraints;
 import com.jgoodies.forms.layout.FormLayout;
 
 import de.ulfbiallas.lantexter.model.Constants;
-import de.ulfbiallas.lantexter.model.ModelNotification;
+import de.ulfbiallas.lantexter.model.IModelListener;
+import de.ulfbiallas.lantexter.model.ModelEvent;
 import de.ulfbiallas.lantexter.model.Settings;
 import de.ulfbiallas.lantexter.model.Language.LanguageId;
 
@@ -35,7 +34,7 @@ import de.ulfbiallas.lantexter.model.Language.LanguageId;
  * @author Ulf Biallas
  *
  */
-public class SettingsGui extends JFrame implements Observer {
+public class SettingsGui extends JFrame implements IModelListener {
 
 	private static final long serialVersionUID = 1L;
 		
@@ -211,9 +210,8 @@ public class SettingsGui extends JFrame implements Observer {
 	 * @inheritDoc
 	 */
 	@Override
-	public void update(Observable arg0, Object arg1) {
-		ModelNotification notificationType = (ModelNotification) arg1;
-		switch(notificationType) {
+	public void modelChanged(ModelEvent event) {
+		switch(event.getType()) {
 			case SETTINGS_CHANGED: 
 				refreshForms();		
 				break;
@@ -221,6 +219,9 @@ public class SettingsGui extends JFrame implements Observer {
 			case LANGUAGE_CHANGED:
 				refreshLabels();
 				break;
+				
+			default:
+				break;
 		}
 		
 		
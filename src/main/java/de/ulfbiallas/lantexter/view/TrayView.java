@@ -10,14 +10,14 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Observable;
-import java.util.Observer;
 
 import javax.swing.ImageIcon;
 
 import de.ulfbiallas.lantexter.model.ChatHistory;
 import de.ulfbiallas.lantexter.model.Constants;
-import de.ulfbiallas.lantexter.model.ModelNotification;
+import de.ulfbiallas.lantexter.model.IModelListener;
+import de.ulfbiallas.lantexter.model.ModelEvent;
+import de.ulfbiallas.lantexter.model.message.IMessage;
 import de.ulfbiallas.lantexter.model.Settings;
 
 /**
@@ -26,7 +26,7 @@ import de.ulfbiallas.lantexter.model.Settings;
  * @author Ulf Biallas
  *
  */
-public class TrayView implements Observer {
+public class TrayView implements IModelListener {
 
 	/** Menu elements. */
 	private TrayIcon trayIcon;
@@ -170,20 +170,19 @@ public class TrayView implements Observer {
 	 * @inheritDoc
 	 */
 	@Override
-	public void update(Observable arg0, Object arg1) {
-		ModelNotification notificationType = (ModelNotification) arg1;
-		switch(notificationType) {
-			case LIST_OF_PARTICIPANTS_CHANGED: 
-				
-				break;
+	public void modelChanged(ModelEvent event) {
+		switch(event.getType()) {
 			case LANGUAGE_CHANGED:
 				refreshLabels();
 				break;
-			case MESSAGE_RECEIVED: 
-				if(chatGuiMinimizedToTray) {
-					trayIcon.displayMessage(constsAndProps.getLanguage().getLabel("notification_newmessage"), chatHistory.getLatestMessage().toString(), MessageType.INFO);
+			case MESSAGE_APPENDED: 
+				IMessage message = chatHistory.getMessage(event.getMessageIndex());
+				if(chatGuiMinimizedToTray && message != null) {
+					trayIcon.displayMessage(constsAndProps.getLanguage().getLabel("notification_newmessage"), message.getMessageText(), MessageType.INFO);
 				}
-				break;						
+				break;
+			default:
+				break;
 		}
 	}	
 
@@ -0,0 +1,46 @@
+package de.ulfbiallas.lantexter.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests of the parsing of received member addresses in the class GossipMembership.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class GossipMembershipTest {
+
+	/**
+	 * IP address literals are accepted.
+	 */
+	@Test
+	public void parsesAddressLiterals() {
+		assertArrayEquals(new byte[] { (byte) 192, (byte) 168, 0, 17 }, GossipMembership.parseAddress("192.168.0.17").getAddress());
+		assertArrayEquals(new byte[] { 0, 0, 0, 0 }, GossipMembership.parseAddress("0.0.0.0").getAddress());
+		assertEquals(16, GossipMembership.parseAddress("fe80::1").getAddress().length);
+	}
+
+	/**
+	 * Host names and malformed literals are rejected without a lookup.
+	 */
+	@Test
+	public void rejectsHostNames() {
+		assertNull(GossipMembership.parseAddress(null));
+		assertNull(GossipMembership.parseAddress(""));
+		assertNull(GossipMembership.parseAddress("localhost"));
+		assertNull(GossipMembership.parseAddress("example.com"));
+		assertNull(GossipMembership.parseAddress("1.2.3"));
+		assertNull(GossipMembership.parseAddress("1.2.3.4.5"));
+		assertNull(GossipMembership.parseAddress("1.2.3.256"));
+		assertNull(GossipMembership.parseAddress("1..3.4"));
+		assertNull(GossipMembership.parseAddress("1.2.3.4a"));
+		assertNull(GossipMembership.parseAddress("fe80::1%eth0"));
+		assertNull(GossipMembership.parseAddress("host:80"));
+		assertNull(GossipMembership.parseAddress("1:2:3"));
+	}
+
+}
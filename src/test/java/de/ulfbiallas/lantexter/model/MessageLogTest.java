@@ -0,0 +1,210 @@
+package de.ulfbiallas.lantexter.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ulfbiallas.lantexter.model.message.IMessage;
+import de.ulfbiallas.lantexter.model.message.NameChangeMessage;
+
+/**
+ * Tests of the class MessageLog. The log is closed and opened again before
+ * the records are read, because only written records can be read.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class MessageLogTest {
+
+	private File logFile;
+	private File indexFile;
+
+
+	/**
+	 * Creates the files of the log.
+	 *
+	 * @throws IOException If the files can not be created.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		logFile = File.createTempFile("messagelogtest", ".log");
+		indexFile = File.createTempFile("messagelogtest", ".idx");
+	}
+
+	/**
+	 * Deletes the files of the log.
+	 */
+	@After
+	public void tearDown() {
+		for(int k=1; k<32; ++k) {
+			new File(logFile.getPath() + "." + k).delete();
+		}
+		logFile.delete();
+		indexFile.delete();
+	}
+
+	/**
+	 * The latest messages are restored after a restart.
+	 *
+	 * @throws IOException If the log can not be opened.
+	 */
+	@Test
+	public void restoresLatestMessagesAfterRestart() throws IOException {
+		MessageLog messageLog = new MessageLog(logFile, indexFile);
+		assertTrue(messageLog.open(10).isEmpty());
+		for(int k=0; k<300; ++k) {
+			messageLog.append(new NameChangeMessage("a" + k, "b" + k));
+		}
+		assertEquals(300, messageLog.getRecordCount());
+		messageLog.close();
+
+		messageLog = new MessageLog(logFile, indexFile);
+		ArrayList<IMessage> messages = messageLog.open(10);
+		assertEquals(300, messageLog.getRecordCount());
+		assertEquals(10, messages.size());
+		for(int k=0; k<10; ++k) {
+			assertEquals(new NameChangeMessage("a" + (290+k), "b" + (290+k)).getMessageText(), messages.get(k).getMessageText());
+		}
+		assertEquals(new NameChangeMessage("a5", "b5").getMessageText(), messageLog.read(5, 6).get(0).getMessageText());
+		messageLog.close();
+	}
+
+	/**
+	 * A damaged last record is dropped and its record number is used again.
+	 *
+	 * @throws IOException If the log can not be opened.
+	 */
+	@Test
+	public void dropsTornTail() throws IOException {
+		MessageLog messageLog = new MessageLog(logFile, indexFile);
+		messageLog.open(0);
+		for(int k=0; k<5; ++k) {
+			messageLog.append(new NameChangeMessage("a" + k, "b" + k));
+		}
+		messageLog.close();
+
+		// Damage the payload of the last record
+		RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+		int offset = 0;
+		int last = 0;
+		int length;
+		while((length = file.readInt()) > 0) {
+			last = offset;
+			offset += 8 + length;
+			file.seek(offset);
+		}
+		file.seek(last + 8 + 1);
+		int value = file.read();
+		file.seek(last + 8 + 1);
+		file.write(value ^ 0xFF);
+		file.close();
+
+		messageLog = new MessageLog(logFile, indexFile);
+		ArrayList<IMessage> messages = messageLog.open(10);
+		assertEquals(4, messageLog.getRecordCount());
+		assertEquals(4, messages.size());
+		messageLog.append(new NameChangeMessage("c", "d"));
+		assertEquals(5, messageLog.getRecordCount());
+		messageLog.close();
+
+		messageLog = new MessageLog(logFile, indexFile);
+		messages = messageLog.open(1);
+		assertEquals(5, messageLog.getRecordCount());
+		assertEquals(new NameChangeMessage("c", "d").getMessageText(), messages.get(0).getMessageText());
+		messageLog.close();
+	}
+
+	/**
+	 * Old segments are deleted and their records can not be read anymore,
+	 * while the record numbers of the later records stay the same.
+	 *
+	 * @throws IOException If the log can not be opened.
+	 */
+	@Test
+	public void rotatesSegments() throws IOException {
+		char[] padding = new char[100];
+		Arrays.fill(padding, 'x');
+		String text = new String(padding);
+
+		MessageLog messageLog = new MessageLog(logFile, indexFile, 4096, 3);
+		messageLog.open(0);
+		for(int k=0; k<500; ++k) {
+			messageLog.append(new NameChangeMessage(text, "b" + k));
+		}
+		messageLog.close();
+
+		assertFalse(logFile.exists());
+		assertFalse(new File(logFile.getPath() + ".1").exists());
+
+		messageLog = new MessageLog(logFile, indexFile, 4096, 3);
+		messageLog.open(0);
+		assertEquals(500, messageLog.getRecordCount());
+		assertTrue(messageLog.read(0, 10).isEmpty());
+		ArrayList<IMessage> messages = messageLog.read(490, 500);
+		assertEquals(10, messages.size());
+		for(int k=0; k<10; ++k) {
+			assertEquals(new NameChangeMessage(text, "b" + (490+k)).getMessageText(), messages.get(k).getMessageText());
+		}
+		messageLog.append(new NameChangeMessage("c", "d"));
+		messageLog.close();
+
+		messageLog = new MessageLog(logFile, indexFile, 4096, 3);
+		messages = messageLog.open(1);
+		assertEquals(501, messageLog.getRecordCount());
+		assertEquals(new NameChangeMessage("c", "d").getMessageText(), messages.get(0).getMessageText());
+		messageLog.close();
+	}
+
+	/**
+	 * Every appended message takes one record number, also a message of an
+	 * unknown type and a message which is too large, so the record numbers
+	 * match the order of the appended messages.
+	 *
+	 * @throws IOException If the log can not be opened.
+	 */
+	@Test
+	public void everyMessageTakesOneRecordNumber() throws IOException {
+		char[] large = new char[17 * 1024 * 1024];
+		Arrays.fill(large, '\u00e4');
+
+		MessageLog messageLog = new MessageLog(logFile, indexFile);
+		messageLog.open(0);
+		messageLog.append(new NameChangeMessage("a", "b"));
+		messageLog.append(new IMessage() {
+			public String getMessageText() {
+				return "unknown";
+			}
+			public String getMessageTextAsHTML() {
+				return "<b>unknown</b>";
+			}
+		});
+		messageLog.append(new NameChangeMessage("a", new String(large)));
+		messageLog.append(new NameChangeMessage("c", "d"));
+		assertEquals(4, messageLog.getRecordCount());
+		messageLog.close();
+
+		messageLog = new MessageLog(logFile, indexFile);
+		ArrayList<IMessage> messages = messageLog.open(10);
+		assertEquals(4, messageLog.getRecordCount());
+		assertEquals(4, messages.size());
+		assertEquals("unknown", messages.get(1).getMessageText());
+		assertEquals("<b>unknown</b>", messages.get(1).getMessageTextAsHTML());
+		String truncated = messages.get(2).getMessageText();
+		assertTrue(truncated.length() > 1024 * 1024);
+		assertFalse(truncated.contains("\ufffd"));
+		assertEquals(new NameChangeMessage("c", "d").getMessageText(), messages.get(3).getMessageText());
+		assertEquals(new NameChangeMessage("c", "d").getMessageText(), messageLog.read(3, 4).get(0).getMessageText());
+		messageLog.close();
+	}
+
+}
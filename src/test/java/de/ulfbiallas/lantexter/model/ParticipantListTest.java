@@ -0,0 +1,173 @@
+package de.ulfbiallas.lantexter.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import de.ulfbiallas.lantexter.model.network.Capabilities;
+
+/**
+ * Stress test of the class ParticipantList. Several threads add participants,
+ * set them online and offline, rename them and change their capabilities
+ * while other threads read the online snapshot. Every snapshot has to be
+ * consistent and after the writers have stopped the snapshot has to match
+ * the online states of the participants.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class ParticipantListTest {
+
+	/** Number of threads which modify the list. */
+	private static final int WRITERS = 4;
+
+	/** Number of threads which read snapshots. */
+	private static final int READERS = 4;
+
+	/** Number of participants which are used by the test. */
+	private static final int PARTICIPANTS = 64;
+
+	/** Number of operations of every writer. */
+	private static final int OPERATIONS = 50000;
+
+	private ParticipantList participantList = ParticipantList.getInstance();
+
+
+	/**
+	 * Runs the writers and readers concurrently and checks the snapshots.
+	 *
+	 * @throws Exception If a thread fails.
+	 */
+	@Test
+	public void concurrentChangesKeepSnapshotsConsistent() throws Exception {
+		final String[] ids = new String[PARTICIPANTS];
+		final InetAddress[] addresses = new InetAddress[PARTICIPANTS];
+		for(int k=0; k<PARTICIPANTS; ++k) {
+			addresses[k] = InetAddress.getByAddress(new byte[] { 10, 99, 0, (byte) k });
+			ids[k] = "stress/" + addresses[k].getHostAddress();
+		}
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] writers = new Thread[WRITERS];
+		Thread[] readers = new Thread[READERS];
+
+		for(int k=0; k<WRITERS; ++k) {
+			final long seed = k;
+			writers[k] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						Random random = new Random(seed);
+						for(int n=0; n<OPERATIONS; ++n) {
+							int index = random.nextInt(PARTICIPANTS);
+							String id = ids[index];
+							switch(random.nextInt(5)) {
+								case 0:
+									participantList.addParticipant(participantList.createNewParticipant(id, "name" + index, addresses[index]));
+									break;
+								case 1:
+									participantList.setParticipantOnline(id);
+									break;
+								case 2:
+									participantList.setParticipantOffline(id);
+									break;
+								case 3:
+									participantList.changeName(id, "name" + index + "/" + n);
+									break;
+								default:
+									participantList.setCapabilities(id, random.nextBoolean() ? Capabilities.CODEC_BINARY : 0);
+									break;
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			}, "writer " + k);
+		}
+
+		for(int k=0; k<READERS; ++k) {
+			readers[k] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						while(running.get()) {
+							checkConsistent(participantList.getOnlineSnapshot());
+							participantList.getParticipantNames();
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			}, "reader " + k);
+		}
+
+		for(int k=0; k<WRITERS; ++k) writers[k].start();
+		for(int k=0; k<READERS; ++k) readers[k].start();
+		start.countDown();
+		for(int k=0; k<WRITERS; ++k) writers[k].join();
+		running.set(false);
+		for(int k=0; k<READERS; ++k) readers[k].join();
+
+		if(failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+
+		OnlineSnapshot snapshot = participantList.getOnlineSnapshot();
+		checkConsistent(snapshot);
+		HashSet<String> online = new HashSet<String>();
+		HashSet<String> binary = new HashSet<String>();
+		for(int k=0; k<PARTICIPANTS; ++k) {
+			Participant participant = participantList.getParticipant(ids[k]);
+			if(participant == null || !participant.isOnline()) continue;
+			online.add(ids[k]);
+			if(participant.supports(Capabilities.CODEC_BINARY)) binary.add(ids[k]);
+		}
+		HashSet<String> snapshotOnline = new HashSet<String>();
+		HashSet<String> snapshotBinary = new HashSet<String>();
+		for(Participant participant : snapshot.getParticipants()) {
+			if(!participant.getId().startsWith("stress/")) continue;
+			snapshotOnline.add(participant.getId());
+		}
+		for(InetAddress addr : snapshot.getBinaryAddresses()) {
+			String id = "stress/" + addr.getHostAddress();
+			if(online.contains(id)) snapshotBinary.add(id);
+		}
+		assertEquals(online, snapshotOnline);
+		assertEquals(binary, snapshotBinary);
+	}
+
+	/**
+	 * Checks that a snapshot contains every participant once and that the
+	 * address arrays match the participants.
+	 *
+	 * @param snapshot The snapshot.
+	 */
+	private static void checkConsistent(OnlineSnapshot snapshot) {
+		Participant[] participants = snapshot.getParticipants();
+		assertEquals(participants.length, snapshot.getAddresses().length);
+		assertEquals(participants.length, snapshot.getBinaryAddresses().length + snapshot.getJsonAddresses().length);
+
+		HashSet<String> ids = new HashSet<String>();
+		for(int k=0; k<participants.length; ++k) {
+			assertNotNull(participants[k]);
+			assertTrue(ids.add(participants[k].getId()));
+			assertEquals(participants[k].getInetAddress(), snapshot.getAddresses()[k]);
+		}
+		HashSet<InetAddress> addresses = new HashSet<InetAddress>();
+		for(InetAddress addr : snapshot.getBinaryAddresses()) assertTrue(addresses.add(addr));
+		for(InetAddress addr : snapshot.getJsonAddresses()) assertTrue(addresses.add(addr));
+	}
+
+}
@@ -0,0 +1,208 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the class BinaryCodec. The fields have to survive a round trip,
+ * truncated and oversized input has to be rejected without an exception.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class BinaryCodecTest {
+
+	private BinaryCodec codec = new BinaryCodec();
+	private NetworkMessage msg = new NetworkMessage();
+
+
+	/**
+	 * All fields including large and negative numbers survive a round trip.
+	 */
+	@Test
+	public void roundTripsAllFields() {
+		NetworkMessage original = createMessage();
+		assertTrue(codec.decode(ByteBuffer.wrap(encode(original)), msg));
+
+		assertEquals(NetworkMessage.HAVE, msg.getCode());
+		assertEquals(original.getName(), msg.getName());
+		assertEquals(original.getText(), msg.getText());
+		assertEquals(Capabilities.CODEC_BINARY, msg.getCapabilities());
+		assertEquals(127, msg.getInterval());
+		assertEquals(128, msg.getSequence());
+		assertEquals("10.0.0.1", msg.getTarget());
+		assertEquals(Integer.MAX_VALUE, msg.getEpoch());
+		assertEquals(-1, msg.getReliableSequence());
+		assertEquals(3, msg.getReliableForward());
+		assertEquals(16384, msg.getAcknowledged());
+		assertEquals(0x8000000000000001L, msg.getSelectiveAcks());
+		assertEquals(Integer.MIN_VALUE, msg.getGroupSequence());
+		assertEquals(2, msg.getMissingRanges().size());
+		assertEquals(5, msg.getMissingRanges().get(1).getFirst());
+		assertEquals(300, msg.getMissingRanges().get(1).getLast());
+		assertEquals(4, msg.getParityCount());
+		assertArrayEquals(original.getParity(), msg.getParity());
+		assertEquals(-42, msg.getTransferId());
+		assertEquals(5000000000L, msg.getFileSize());
+		assertEquals(1L << 40, msg.getFileOffset());
+		assertEquals(1024 * 1024, msg.getChunkSize());
+		assertArrayEquals(original.getChunkHashes(), msg.getChunkHashes());
+		assertArrayEquals(new byte[0], msg.getChunks());
+		assertEquals(2, msg.getUpdates().size());
+		assertEquals("10.0.0.2", msg.getUpdates().get(0).getAddress());
+		assertEquals(MemberUpdate.SUSPECT, msg.getUpdates().get(0).getState());
+		assertEquals(7, msg.getUpdates().get(0).getIncarnation());
+		assertEquals("\u00e4lice", msg.getUpdates().get(0).getName());
+		assertNull(msg.getUpdates().get(1).getName());
+	}
+
+	/**
+	 * Fields which are not set are not encoded and decode to their defaults.
+	 */
+	@Test
+	public void omitsEmptyFields() {
+		byte[] data = encode(new NetworkMessage(NetworkMessage.WHO_IS_ONLINE, null, null));
+		assertEquals(3, data.length);
+		assertTrue(codec.decode(ByteBuffer.wrap(data), msg));
+		assertEquals(NetworkMessage.WHO_IS_ONLINE, msg.getCode());
+		assertNull(msg.getName());
+		assertEquals(0, msg.getSequence());
+		assertTrue(msg.getUpdates().isEmpty());
+	}
+
+	/**
+	 * Strings are also decoded from a direct buffer.
+	 */
+	@Test
+	public void decodesDirectBuffers() {
+		char[] text = new char[1000];
+		Arrays.fill(text, '\u20ac');
+		NetworkMessage original = new NetworkMessage(NetworkMessage.CHAT, "\ud83d\ude00", new String(text));
+		byte[] data = encode(original);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		assertTrue(codec.decode(buffer, msg));
+		assertEquals(original.getName(), msg.getName());
+		assertEquals(original.getText(), msg.getText());
+	}
+
+	/**
+	 * A field with an unknown tag is skipped.
+	 */
+	@Test
+	public void skipsUnknownFields() {
+		byte[] data = encode(new NetworkMessage(NetworkMessage.CHAT, "bob", "hi"));
+		byte[] extended = Arrays.copyOf(data, data.length + 5);
+		System.arraycopy(new byte[] { 99, 3, 1, 2, 3 }, 0, extended, data.length, 5);
+		assertTrue(codec.decode(ByteBuffer.wrap(extended), msg));
+		assertEquals("bob", msg.getName());
+		assertEquals("hi", msg.getText());
+	}
+
+	/**
+	 * A message which is cut within its header or a field is rejected,
+	 * one which is cut between two fields is decoded without the rest.
+	 */
+	@Test
+	public void rejectsTruncatedInput() {
+		NetworkMessage original = new NetworkMessage(NetworkMessage.CHAT, "bob", "hello");
+		original.setSequence(1000);
+		byte[] data = encode(original);
+		// header, name (2 + 3), text (2 + 5), sequence (2 + 2)
+		assertEquals(3 + 5 + 7 + 4, data.length);
+		int[] boundaries = { 3, 8, 15, 19 };
+		for(int length=0; length<data.length; ++length) {
+			boolean boundary = Arrays.binarySearch(boundaries, length) >= 0;
+			assertEquals("length " + length, boundary, codec.decode(ByteBuffer.wrap(data, 0, length), msg));
+		}
+	}
+
+	/**
+	 * Lengths and varints beyond the input or beyond 64 bits are rejected.
+	 */
+	@Test
+	public void rejectsOversizedInput() {
+		byte[] header = { BinaryCodec.MAGIC, BinaryCodec.VERSION, NetworkMessage.CHAT };
+
+		// Length larger than the remaining bytes
+		assertFalse(decode(header, new byte[] { 2, 10, 'a', 'b' }));
+		// Length of 2^35
+		assertFalse(decode(header, new byte[] { 2, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1 }));
+		// Varint with more than 64 bits
+		byte[] varint = new byte[12];
+		Arrays.fill(varint, (byte) 0xFF);
+		varint[0] = 4;
+		assertFalse(decode(header, varint));
+		// Update whose address is longer than the field
+		assertFalse(decode(header, new byte[] { 6, 4, 1, 1, 5, 'a' }));
+		// Wrong version
+		assertFalse(codec.decode(ByteBuffer.wrap(new byte[] { BinaryCodec.MAGIC, 2, NetworkMessage.CHAT }), msg));
+	}
+
+	/**
+	 * Creates a message with all fields.
+	 *
+	 * @return The message.
+	 */
+	private static NetworkMessage createMessage() {
+		NetworkMessage original = new NetworkMessage(NetworkMessage.HAVE, "b\u00f6b", "text \ud83d\ude00");
+		original.setCapabilities(Capabilities.CODEC_BINARY);
+		original.setInterval(127);
+		original.setSequence(128);
+		original.setTarget("10.0.0.1");
+		original.setEpoch(Integer.MAX_VALUE);
+		original.setReliableSequence(-1);
+		original.setReliableForward(3);
+		original.setAcknowledged(16384);
+		original.setSelectiveAcks(0x8000000000000001L);
+		original.setGroupSequence(Integer.MIN_VALUE);
+		original.addMissingRange(new SequenceRange(1, 2));
+		original.addMissingRange(new SequenceRange(5, 300));
+		original.setParityCount(4);
+		original.setParity(new byte[] { 0, 1, (byte) 0xFF });
+		original.setTransferId(-42);
+		original.setFileSize(5000000000L);
+		original.setFileOffset(1L << 40);
+		original.setChunkSize(1024 * 1024);
+		original.setChunkHashes(new byte[40]);
+		original.setChunks(new byte[0]);
+		original.addUpdate(new MemberUpdate("10.0.0.2", MemberUpdate.SUSPECT, 7, "\u00e4lice"));
+		original.addUpdate(new MemberUpdate("10.0.0.3", MemberUpdate.ALIVE, 0, null));
+		return original;
+	}
+
+	/**
+	 * Encodes a message with the binary codec.
+	 *
+	 * @param original The message.
+	 * @return The encoded message.
+	 */
+	private byte[] encode(NetworkMessage original) {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		codec.encode(original, buffer);
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * Decodes a header followed by fields.
+	 *
+	 * @param header The header.
+	 * @param fields The encoded fields.
+	 * @return The result of the codec.
+	 */
+	private boolean decode(byte[] header, byte[] fields) {
+		byte[] data = Arrays.copyOf(header, header.length + fields.length);
+		System.arraycopy(fields, 0, data, header.length, fields.length);
+		return codec.decode(ByteBuffer.wrap(data), msg);
+	}
+
+}
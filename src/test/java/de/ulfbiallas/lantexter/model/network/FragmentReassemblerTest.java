@@ -0,0 +1,216 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the class FragmentReassembler: reassembly in any order, dropped
+ * duplicates and overlaps, the limits of the incomplete messages and the
+ * timeout.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class FragmentReassemblerTest {
+
+	private FragmentReassembler reassembler = new FragmentReassembler();
+	private InetAddress addr;
+
+
+	/**
+	 * Creates the address of the sender.
+	 *
+	 * @throws Exception If the address can not be created.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		addr = InetAddress.getByAddress(new byte[] { 10, 99, 0, 1 });
+	}
+
+	/**
+	 * The fragments of the class Fragments are reassembled in any order.
+	 */
+	@Test
+	public void reassemblesInAnyOrder() {
+		byte[] msg = createMessage(5000);
+		byte[][] fragments = Fragments.split(msg, 1024, 1);
+		for(int k=fragments.length-1; k>0; --k) {
+			assertNull(add(fragments[k]));
+		}
+		ByteBuffer result = add(fragments[0]);
+		assertNotNull(result);
+		assertArrayEquals(msg, toArray(result));
+	}
+
+	/**
+	 * A duplicate fragment is dropped and does not complete the message.
+	 */
+	@Test
+	public void dropsDuplicates() {
+		byte[] msg = createMessage(3000);
+		byte[][] fragments = Fragments.split(msg, 1024, 1);
+		assertNull(add(fragments[0]));
+		assertNull(add(fragments[0]));
+		assertNull(add(fragments[1]));
+		assertNull(add(fragments[1]));
+		assertArrayEquals(msg, toArray(add(fragments[2])));
+	}
+
+	/**
+	 * A fragment which overlaps the received data at another offset is dropped.
+	 */
+	@Test
+	public void dropsOverlaps() {
+		byte[] msg = createMessage(3072);
+		assertNull(add(createFragment(1, msg, 1024, 1024)));
+		assertNull(add(createFragment(1, msg, 512, 1024)));
+		assertNull(add(createFragment(1, msg, 1536, 1024)));
+		assertNull(add(createFragment(1, msg, 0, 2048)));
+		assertNull(add(createFragment(1, msg, 2048, 1024)));
+		assertArrayEquals(msg, toArray(add(createFragment(1, msg, 0, 1024))));
+	}
+
+	/**
+	 * Oversized messages, fragments beyond the message and small fragments
+	 * which do not end their message are dropped.
+	 */
+	@Test
+	public void dropsInvalidFragments() {
+		byte[] msg = createMessage(2048);
+		ByteBuffer oversized = ByteBuffer.allocate(Fragments.HEADER_SIZE + 1024);
+		oversized.put(Fragments.MAGIC).putInt(1).putInt(0).putInt(1024 * 1024 + 1);
+		oversized.flip();
+		assertNull(reassembler.add(oversized, addr));
+		assertFalse(reassembler.isPending(ByteBuffer.wrap(oversized.array()), addr));
+
+		byte[] beyond = createFragment(2, createMessage(4096), 1536, 1024);
+		ByteBuffer.wrap(beyond).putInt(9, msg.length);
+		assertNull(add(beyond));
+		assertFalse(reassembler.isPending(ByteBuffer.wrap(createFragment(2, msg, 0, 1024)), addr));
+
+		assertNull(add(createFragment(3, msg, 0, 100)));
+		assertFalse(reassembler.isPending(ByteBuffer.wrap(createFragment(3, msg, 0, 1024)), addr));
+
+		// A small last fragment is fine
+		assertNull(add(createFragment(4, msg, 0, 1948)));
+		assertArrayEquals(msg, toArray(add(createFragment(4, msg, 1948, 100))));
+
+		// The total size has to match the first fragment
+		assertNull(add(createFragment(5, msg, 0, 1024)));
+		assertNull(add(createFragment(5, createMessage(4096), 1024, 1024)));
+		assertArrayEquals(msg, toArray(add(createFragment(5, msg, 1024, 1024))));
+	}
+
+	/**
+	 * A sender can not have more than eight incomplete messages and the
+	 * oldest incomplete message is dropped when the size limit is reached.
+	 *
+	 * @throws Exception If an address can not be created.
+	 */
+	@Test
+	public void limitsIncompleteMessages() throws Exception {
+		byte[] msg = createMessage(2048);
+		for(int k=1; k<=9; ++k) {
+			assertNull(add(createFragment(k, msg, 0, 1024)));
+		}
+		for(int k=1; k<=8; ++k) {
+			assertTrue(reassembler.isPending(ByteBuffer.wrap(createFragment(k, msg, 1024, 1024)), addr));
+		}
+		assertFalse(reassembler.isPending(ByteBuffer.wrap(createFragment(9, msg, 1024, 1024)), addr));
+
+		// Four messages of 1 MB from other senders push out the messages of the first sender
+		byte[] large = createMessage(1024 * 1024);
+		InetAddress[] others = new InetAddress[4];
+		for(int k=0; k<others.length; ++k) {
+			others[k] = InetAddress.getByAddress(new byte[] { 10, 99, 1, (byte) k });
+			assertNull(reassembler.add(ByteBuffer.wrap(createFragment(1, large, 0, 1024)), others[k]));
+		}
+		assertFalse(reassembler.isPending(ByteBuffer.wrap(createFragment(1, msg, 1024, 1024)), addr));
+		for(int k=0; k<others.length; ++k) {
+			assertTrue(reassembler.isPending(ByteBuffer.wrap(createFragment(1, large, 1024, 1024)), others[k]));
+		}
+	}
+
+	/**
+	 * An incomplete message is dropped after the timeout.
+	 *
+	 * @throws Exception If the thread is interrupted.
+	 */
+	@Test
+	public void dropsIncompleteMessagesAfterTimeout() throws Exception {
+		reassembler = new FragmentReassembler(50);
+		byte[] msg = createMessage(2048);
+		assertNull(add(createFragment(1, msg, 0, 1024)));
+		Thread.sleep(100);
+		// The first fragment is dropped, so the second one starts a new reassembly
+		assertNull(add(createFragment(1, msg, 1024, 1024)));
+		assertNull(add(createFragment(1, msg, 1024, 1024)));
+		assertArrayEquals(msg, toArray(add(createFragment(1, msg, 0, 1024))));
+	}
+
+	/**
+	 * Adds a fragment of the sender.
+	 *
+	 * @param fragment The fragment datagram.
+	 * @return The result of the reassembler.
+	 */
+	private ByteBuffer add(byte[] fragment) {
+		return reassembler.add(ByteBuffer.wrap(fragment), addr);
+	}
+
+	/**
+	 * Creates a fragment datagram.
+	 *
+	 * @param messageId The id of the message.
+	 * @param msg The message.
+	 * @param offset The offset of the fragment in the message.
+	 * @param length The length of the fragment.
+	 * @return The datagram.
+	 */
+	private static byte[] createFragment(int messageId, byte[] msg, int offset, int length) {
+		ByteBuffer fragment = ByteBuffer.allocate(Fragments.HEADER_SIZE + length);
+		fragment.put(Fragments.MAGIC);
+		fragment.putInt(messageId);
+		fragment.putInt(offset);
+		fragment.putInt(msg.length);
+		fragment.put(msg, offset, length);
+		return fragment.array();
+	}
+
+	/**
+	 * Creates a message with varying bytes.
+	 *
+	 * @param length The length of the message.
+	 * @return The message.
+	 */
+	private static byte[] createMessage(int length) {
+		byte[] msg = new byte[length];
+		for(int k=0; k<length; ++k) {
+			msg[k] = (byte) (k * 31 + k / 256);
+		}
+		return msg;
+	}
+
+	/**
+	 * Returns the remaining bytes of a buffer.
+	 *
+	 * @param buffer The buffer or null.
+	 * @return The bytes or null.
+	 */
+	private static byte[] toArray(ByteBuffer buffer) {
+		if(buffer == null) return null;
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		return data;
+	}
+
+}
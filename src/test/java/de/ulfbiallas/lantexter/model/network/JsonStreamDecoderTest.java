@@ -0,0 +1,121 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+
+import org.junit.Test;
+
+/**
+ * Tests of the class JsonStreamDecoder. The decoded name and text are
+ * compared with the values which json-lib returns for the same packet.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class JsonStreamDecoderTest {
+
+	private JsonStreamDecoder decoder = new JsonStreamDecoder();
+	private NetworkMessage msg = new NetworkMessage();
+
+
+	/**
+	 * Texts which json-lib sends as string or as other JSON value.
+	 */
+	@Test
+	public void decodesChatTextsLikeJsonLib() {
+		String[] texts = {
+			"hello",
+			"",
+			"[1, 2]",
+			"{\"a\":1}",
+			"null",
+			"true",
+			"42",
+			"  [1, 2]  ",
+			"quote \" backslash \\ slash / tab \t newline \n control \u0001",
+			"umlaut \u00e4\u00f6\u00fc, euro \u20ac, emoji \ud83d\ude00",
+			"[{\"x\":[1,{\"y\":\"}\"}]}]"
+		};
+		for(int k=0; k<texts.length; ++k) {
+			String packet = JsonTools.createChatMessage("bob", texts[k]);
+			assertTrue(packet, decode(packet));
+			assertEquals(packet, NetworkMessage.CHAT, msg.getCode());
+			assertEquals(packet, "bob", msg.getName());
+			assertEquals(packet, jsonLibText(packet), msg.getText());
+			assertTrue(packet, msg.isValid());
+		}
+	}
+
+	/**
+	 * Arrays, objects and null are returned as their JSON text.
+	 */
+	@Test
+	public void returnsOtherValuesAsJsonText() {
+		assertTrue(decode("{\"code\":\"3\",\"name\":\"bob\",\"text\":[1,2]}"));
+		assertEquals("[1,2]", msg.getText());
+
+		assertTrue(decode("{\"code\":\"3\",\"name\":\"bob\",\"text\":{\"a\":1}}"));
+		assertEquals("{\"a\":1}", msg.getText());
+
+		assertTrue(decode("{\"code\":\"3\",\"name\":\"bob\",\"text\":null}"));
+		assertEquals("null", msg.getText());
+		assertTrue(msg.isValid());
+
+		assertTrue(decode("{\"code\":\"3\",\"name\":null,\"text\":function(a,b){ return [a, b]; }}"));
+		assertEquals("null", msg.getName());
+		assertEquals("function(a,b){ return [a, b]; }", msg.getText());
+	}
+
+	/**
+	 * Escaped characters including a surrogate pair.
+	 */
+	@Test
+	public void decodesEscapes() {
+		assertTrue(decode("{\"code\":3,\"name\":\"a\\u00e4\\\"\\\\\\/\\b\\f\\n\\r\\t\",\"text\":\"\\ud83d\\ude00\"}"));
+		assertEquals("a\u00e4\"\\/\b\f\n\r\t", msg.getName());
+		assertEquals("\ud83d\ude00", msg.getText());
+	}
+
+	/**
+	 * Invalid packets are rejected without an exception.
+	 */
+	@Test
+	public void rejectsInvalidPackets() {
+		assertFalse(decode(""));
+		assertFalse(decode("{}"));
+		assertFalse(decode("{\"code\":3,\"name\":\"bob\""));
+		assertFalse(decode("{\"code\":3,\"text\":\"\\x\"}"));
+		assertFalse(decode("{\"code\":3,\"text\":[1,2}"));
+		assertFalse(decode("{\"code\":3,\"text\":\"open"));
+		assertFalse(decode("{\"name\":\"bob\"}"));
+	}
+
+	/**
+	 * Decodes a packet with the stream decoder.
+	 *
+	 * @param packet The JSON text.
+	 * @return The result of the decoder.
+	 */
+	private boolean decode(String packet) {
+		return decoder.decode(ByteBuffer.wrap(packet.getBytes(StandardCharsets.UTF_8)), msg);
+	}
+
+	/**
+	 * Decodes the text of a packet with json-lib.
+	 *
+	 * @param packet The JSON text.
+	 * @return The text.
+	 */
+	private static String jsonLibText(String packet) {
+		JSONObject jsonMsg = (JSONObject) JSONSerializer.toJSON(packet);
+		return jsonMsg.optString("text", null);
+	}
+
+}
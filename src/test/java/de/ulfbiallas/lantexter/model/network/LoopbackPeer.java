@@ -0,0 +1,104 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Socket on the loopback interface which receives the datagrams of the class
+ * UDPTools in the tests of the delivery layers. UDPTools sends to the port of
+ * the socket and the multicast group is the loopback address, so all unicast
+ * and group datagrams to the loopback address arrive here.
+ *
+ * @author Ulf Biallas
+ *
+ */
+class LoopbackPeer {
+
+	/** Time in [ms] to wait for a datagram which is expected. */
+	private static final int RECEIVE_TIMEOUT = 1000;
+
+	/** Time in [ms] to wait for a datagram which is not expected. */
+	private static final int QUIET_TIMEOUT = 100;
+
+	private DatagramSocket socket;
+	private InetAddress address;
+	private BinaryCodec codec = new BinaryCodec();
+
+
+	/**
+	 * Constructor. Opens the socket and directs UDPTools to it.
+	 *
+	 * @throws IOException If the socket can not be opened.
+	 */
+	LoopbackPeer() throws IOException {
+		address = InetAddress.getByName("127.0.0.1");
+		socket = new DatagramSocket(0, address);
+		UDPTools.getInstance().init(null, socket.getLocalPort());
+		UDPTools.getInstance().setMulticastGroup(address, 1);
+	}
+
+	/**
+	 * Returns the address of the socket.
+	 *
+	 * @return The loopback address.
+	 */
+	InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Receives and decodes the next datagram like the PacketDispatcher does.
+	 *
+	 * @return The message or null if no datagram arrives in time.
+	 * @throws IOException If the socket fails.
+	 */
+	NetworkMessage receive() throws IOException {
+		return receive(RECEIVE_TIMEOUT);
+	}
+
+	/**
+	 * Returns whether no datagram arrives within a short time.
+	 *
+	 * @return Boolean which is true if no datagram has arrived.
+	 * @throws IOException If the socket fails.
+	 */
+	Boolean isQuiet() throws IOException {
+		return receive(QUIET_TIMEOUT) == null;
+	}
+
+	/**
+	 * Closes the socket.
+	 */
+	void close() {
+		socket.close();
+	}
+
+	/**
+	 * Receives and decodes the next datagram.
+	 *
+	 * @param timeout The time in [ms] to wait.
+	 * @return The message or null if no datagram arrives in time.
+	 * @throws IOException If the socket fails or the datagram can not be decoded.
+	 */
+	private NetworkMessage receive(int timeout) throws IOException {
+		byte[] data = new byte[64 * 1024];
+		DatagramPacket packet = new DatagramPacket(data, data.length);
+		socket.setSoTimeout(timeout);
+		try {
+			socket.receive(packet);
+		} catch (SocketTimeoutException e) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(data, packet.getLength()));
+		NetworkMessage msg = new NetworkMessage();
+		if(!codec.decode(buffer, msg)) throw new IOException("invalid datagram");
+		msg.setEncoding(buffer, 0, buffer.limit());
+		return msg;
+	}
+
+}
@@ -0,0 +1,243 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the class NackDelivery including the rebuilding of lost messages
+ * from a parity. The multicast group is the loopback address, so the
+ * datagrams to the group are captured by a socket.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class NackDeliveryTest {
+
+	/** Time in [ms] after which the first NACK request of a gap is due. */
+	private static final long NACK_DUE = 250;
+
+	/** Epoch of the other sender. */
+	private static final int EPOCH = 7;
+
+	private LoopbackPeer peer;
+	private NackDelivery delivery;
+	private InetAddress sender;
+
+
+	/**
+	 * Opens the loopback socket.
+	 *
+	 * @throws IOException If the socket can not be opened.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		peer = new LoopbackPeer();
+		delivery = new NackDelivery();
+		sender = InetAddress.getByName("10.99.0.1");
+	}
+
+	/**
+	 * Closes the loopback socket.
+	 */
+	@After
+	public void tearDown() {
+		peer.close();
+	}
+
+	/**
+	 * Gaps in the sequence and after the announced sequence number are
+	 * requested with a NACK and a recovered message is accepted once.
+	 *
+	 * @throws Exception If the socket fails.
+	 */
+	@Test
+	public void requestsGaps() throws Exception {
+		assertTrue(delivery.receive(sender, createMessage(1)));
+		assertTrue(delivery.receive(sender, createMessage(4)));
+		delivery.sendNacks();
+		assertTrue(peer.isQuiet());
+
+		Thread.sleep(NACK_DUE);
+		delivery.sendNacks();
+		checkNack(new int[] { 2, 3 });
+
+		assertTrue(delivery.receive(sender, createMessage(2)));
+		assertFalse(delivery.receive(sender, createMessage(2)));
+		assertFalse(delivery.receive(sender, createMessage(4)));
+
+		// The last two messages are announced, the request for 3 is not due yet
+		NetworkMessage announcement = new NetworkMessage(NetworkMessage.WHO_IS_ONLINE, "alice", null);
+		announcement.setEpoch(EPOCH);
+		announcement.setGroupSequence(6);
+		delivery.processAnnouncement(sender, announcement);
+		Thread.sleep(NACK_DUE);
+		delivery.sendNacks();
+		checkNack(new int[] { 5, 6 });
+		assertTrue(peer.isQuiet());
+	}
+
+	/**
+	 * The NACK of another receiver for the same messages postpones the own request.
+	 *
+	 * @throws Exception If the socket fails.
+	 */
+	@Test
+	public void suppressesNackOfOtherReceiver() throws Exception {
+		delivery.receive(sender, createMessage(1));
+		delivery.receive(sender, createMessage(5));
+
+		NetworkMessage nack = new NetworkMessage(NetworkMessage.NACK, null, null);
+		nack.setEpoch(EPOCH);
+		nack.addMissingRange(new SequenceRange(2, 3));
+		delivery.processNack(nack);
+
+		Thread.sleep(NACK_DUE);
+		delivery.sendNacks();
+		checkNack(new int[] { 4, 4 });
+		assertTrue(peer.isQuiet());
+	}
+
+	/**
+	 * Requested own messages are retransmitted to the group, but at most
+	 * once within the holdoff time.
+	 *
+	 * @throws Exception If the socket fails.
+	 */
+	@Test
+	public void retransmitsOnceWithinHoldoff() throws Exception {
+		for(int k=1; k<=3; ++k) {
+			delivery.send(new NetworkMessage(NetworkMessage.CHAT, "bob", "m" + k));
+			assertEquals(k, peer.receive().getGroupSequence());
+		}
+
+		NetworkMessage nack = new NetworkMessage(NetworkMessage.NACK, null, null);
+		nack.setEpoch(delivery.getEpoch());
+		nack.addMissingRange(new SequenceRange(1, 2));
+		delivery.processNack(nack);
+		assertEquals("m1", peer.receive().getText());
+		assertEquals("m2", peer.receive().getText());
+
+		delivery.processNack(nack);
+		assertTrue(peer.isQuiet());
+
+		Thread.sleep(100);
+		delivery.processNack(nack);
+		assertEquals(1, peer.receive().getGroupSequence());
+		assertEquals(2, peer.receive().getGroupSequence());
+	}
+
+	/**
+	 * A single lost message of a parity group is rebuilt from the parity,
+	 * also if it is longer than the other messages.
+	 *
+	 * @throws IOException If the socket fails.
+	 */
+	@Test
+	public void rebuildsSingleLossFromParity() throws IOException {
+		NackDelivery receiver = new NackDelivery();
+		NetworkMessage[] received = sendWithParity(new String[] { "a", "b", "c" });
+		// The encodings are kept after the first parity
+		for(int k=0; k<3; ++k) {
+			assertTrue(receiver.receive(sender, received[k]));
+		}
+		assertNull(receiver.processParity(sender, received[3]));
+
+		received = sendWithParity(new String[] { "short", "a much longer text than the others", "x" });
+		assertTrue(receiver.receive(sender, received[0]));
+		assertTrue(receiver.receive(sender, received[2]));
+		NetworkMessage rebuilt = receiver.processParity(sender, received[3]);
+		assertNotNull(rebuilt);
+		assertEquals(5, rebuilt.getGroupSequence());
+		assertEquals("a much longer text than the others", rebuilt.getText());
+		assertEquals(received[1].getEncoding().length, rebuilt.getEncoding().length);
+		assertTrue(receiver.receive(sender, rebuilt));
+		assertFalse(receiver.receive(sender, received[1]));
+	}
+
+	/**
+	 * Two lost messages of a parity group can not be rebuilt and are requested.
+	 *
+	 * @throws Exception If the socket fails.
+	 */
+	@Test
+	public void requestsTwoLossesDespiteParity() throws Exception {
+		NackDelivery receiver = new NackDelivery();
+		NetworkMessage[] received = sendWithParity(new String[] { "a", "b", "c" });
+		for(int k=0; k<3; ++k) {
+			receiver.receive(sender, received[k]);
+		}
+		receiver.processParity(sender, received[3]);
+
+		received = sendWithParity(new String[] { "d", "e", "f" });
+		assertTrue(receiver.receive(sender, received[2]));
+		assertNull(receiver.processParity(sender, received[3]));
+
+		Thread.sleep(NACK_DUE);
+		receiver.sendNacks();
+		NetworkMessage nack = peer.receive();
+		assertEquals(NetworkMessage.NACK, nack.getCode());
+		assertEquals(delivery.getEpoch(), nack.getEpoch());
+		assertEquals(4, nack.getMissingRanges().get(0).getFirst());
+		assertEquals(5, nack.getMissingRanges().get(0).getLast());
+	}
+
+	/**
+	 * Sends messages with a parity after every three of them and captures them.
+	 *
+	 * @param texts The texts of the three messages.
+	 * @return The captured messages followed by the parity message.
+	 * @throws IOException If the socket fails.
+	 */
+	private NetworkMessage[] sendWithParity(String[] texts) throws IOException {
+		delivery.setParityCount(texts.length);
+		NetworkMessage[] received = new NetworkMessage[texts.length + 1];
+		for(int k=0; k<texts.length; ++k) {
+			delivery.send(new NetworkMessage(NetworkMessage.CHAT, "bob", texts[k]));
+			received[k] = peer.receive();
+		}
+		received[texts.length] = peer.receive();
+		assertEquals(NetworkMessage.PARITY, received[texts.length].getCode());
+		return received;
+	}
+
+	/**
+	 * Receives a NACK and checks its ranges.
+	 *
+	 * @param ranges The expected first and last sequence numbers of the ranges.
+	 * @throws IOException If the socket fails.
+	 */
+	private void checkNack(int[] ranges) throws IOException {
+		NetworkMessage nack = peer.receive();
+		assertEquals(NetworkMessage.NACK, nack.getCode());
+		assertEquals(EPOCH, nack.getEpoch());
+		assertEquals(ranges.length / 2, nack.getMissingRanges().size());
+		for(int k=0; k<nack.getMissingRanges().size(); ++k) {
+			assertEquals(ranges[2*k], nack.getMissingRanges().get(k).getFirst());
+			assertEquals(ranges[2*k+1], nack.getMissingRanges().get(k).getLast());
+		}
+	}
+
+	/**
+	 * Creates a multicast message of the other sender.
+	 *
+	 * @param groupSequence The sequence number.
+	 * @return The message.
+	 */
+	private static NetworkMessage createMessage(int groupSequence) {
+		NetworkMessage msg = new NetworkMessage(NetworkMessage.CHAT, "alice", "m" + groupSequence);
+		msg.setEpoch(EPOCH);
+		msg.setGroupSequence(groupSequence);
+		return msg;
+	}
+
+}
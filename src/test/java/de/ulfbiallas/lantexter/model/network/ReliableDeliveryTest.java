@@ -0,0 +1,225 @@
+package de.ulfbiallas.lantexter.model.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the class ReliableDelivery. The datagrams of the sender and the
+ * acknowledgements of the receiver are captured on the loopback interface.
+ *
+ * @author Ulf Biallas
+ *
+ */
+public class ReliableDeliveryTest {
+
+	private LoopbackPeer peer;
+	private ReliableDelivery delivery;
+	private InetAddress addr;
+
+
+	/**
+	 * Opens the loopback socket.
+	 *
+	 * @throws IOException If the socket can not be opened.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		peer = new LoopbackPeer();
+		delivery = new ReliableDelivery();
+		addr = peer.getAddress();
+	}
+
+	/**
+	 * Closes the loopback socket.
+	 */
+	@After
+	public void tearDown() {
+		peer.close();
+	}
+
+	/**
+	 * At most 32 messages are in flight and the window slides with the
+	 * cumulative acknowledgement.
+	 *
+	 * @throws IOException If the socket fails.
+	 */
+	@Test
+	public void slidesWindowWithAcknowledgements() throws IOException {
+		for(int k=1; k<=40; ++k) {
+			delivery.send(addr, new NetworkMessage(NetworkMessage.CHAT, "bob", "m" + k));
+		}
+		int epoch = 0;
+		for(int k=1; k<=32; ++k) {
+			NetworkMessage msg = peer.receive();
+			assertEquals(k, msg.getReliableSequence());
+			assertEquals("m" + k, msg.getText());
+			epoch = msg.getEpoch();
+		}
+		assertTrue(peer.isQuiet());
+
+		delivery.processAck(addr, createAck(epoch, 5, 0));
+		for(int k=33; k<=37; ++k) {
+			assertEquals(k, peer.receive().getReliableSequence());
+		}
+		assertTrue(peer.isQuiet());
+	}
+
+	/**
+	 * A message which is missing in front of a selectively acknowledged
+	 * message is retransmitted without waiting for the timeout.
+	 *
+	 * @throws Exception If the socket fails.
+	 */
+	@Test
+	public void retransmitsGapInFrontOfSelectiveAck() throws Exception {
+		delivery.send(addr, new NetworkMessage(NetworkMessage.CHAT, "bob", "m1"));
+		Thread.sleep(50);
+		delivery.send(addr, new NetworkMessage(NetworkMessage.CHAT, "bob", "m2"));
+		delivery.send(addr, new NetworkMessage(NetworkMessage.CHAT, "bob", "m3"));
+		int epoch = peer.receive().getEpoch();
+		peer.receive();
+		peer.receive();
+		Thread.sleep(10);
+
+		delivery.processAck(addr, createAck(epoch, 0, 0x2));
+		NetworkMessage msg = peer.receive();
+		assertEquals(1, msg.getReliableSequence());
+		assertEquals("m1", msg.getText());
+		assertTrue(peer.isQuiet());
+	}
+
+	/**
+	 * The receiver acknowledges the messages beyond a gap selectively,
+	 * detects duplicates and skips the messages which the sender has given up.
+	 *
+	 * @throws IOException If the socket fails.
+	 */
+	@Test
+	public void acknowledgesSelectively() throws IOException {
+		assertTrue(delivery.receive(addr, createMessage(7, 1, 1)));
+		checkAck(7, 1, 0);
+		assertTrue(delivery.receive(addr, createMessage(7, 3, 1)));
+		checkAck(7, 1, 0x2);
+		assertFalse(delivery.receive(addr, createMessage(7, 3, 1)));
+		checkAck(7, 1, 0x2);
+		assertTrue(delivery.receive(addr, createMessage(7, 2, 1)));
+		checkAck(7, 3, 0);
+		assertFalse(delivery.receive(addr, createMessage(7, 1, 1)));
+		checkAck(7, 3, 0);
+
+		// The sender has given up the messages 4 and 5
+		assertTrue(delivery.receive(addr, createMessage(7, 7, 6)));
+		checkAck(7, 5, 0x2);
+		assertTrue(delivery.receive(addr, createMessage(7, 6, 6)));
+		checkAck(7, 7, 0);
+	}
+
+	/**
+	 * A restarted sender with a new epoch starts a new sequence.
+	 *
+	 * @throws IOException If the socket fails.
+	 */
+	@Test
+	public void resetsSequenceOnNewEpoch() throws IOException {
+		for(int k=1; k<=3; ++k) {
+			assertTrue(delivery.receive(addr, createMessage(7, k, 1)));
+			checkAck(7, k, 0);
+		}
+		assertTrue(delivery.receive(addr, createMessage(8, 1, 1)));
+		checkAck(8, 1, 0);
+		assertTrue(delivery.receive(addr, createMessage(8, 2, 1)));
+		checkAck(8, 2, 0);
+	}
+
+	/**
+	 * An unacknowledged message is retransmitted after the timeout, which
+	 * doubles with every retransmission. An acknowledgement of another epoch
+	 * is ignored.
+	 *
+	 * @throws Exception If the socket fails.
+	 */
+	@Test
+	public void backsOffRetransmissionTimeout() throws Exception {
+		delivery.send(addr, new NetworkMessage(NetworkMessage.CHAT, "bob", "m1"));
+		delivery.send(addr, new NetworkMessage(NetworkMessage.CHAT, "bob", "m2"));
+		int epoch = peer.receive().getEpoch();
+		peer.receive();
+
+		delivery.processAck(addr, createAck(epoch + 1, 2, 0));
+		// The round trip time of the first message sets the timeout to its minimum of 200 ms
+		delivery.processAck(addr, createAck(epoch, 1, 0));
+		delivery.checkTimeouts();
+		assertTrue(peer.isQuiet());
+
+		Thread.sleep(250);
+		delivery.checkTimeouts();
+		NetworkMessage msg = peer.receive();
+		assertEquals(2, msg.getReliableSequence());
+		assertTrue(peer.isQuiet());
+
+		// The timeout is 400 ms now
+		Thread.sleep(150);
+		delivery.checkTimeouts();
+		assertTrue(peer.isQuiet());
+		Thread.sleep(250);
+		delivery.checkTimeouts();
+		assertEquals(2, peer.receive().getReliableSequence());
+	}
+
+	/**
+	 * Receives the acknowledgement of the receiver and checks it.
+	 *
+	 * @param epoch The expected epoch.
+	 * @param acknowledged The expected cumulative acknowledgement.
+	 * @param selectiveAcks The expected selective acknowledgements.
+	 * @throws IOException If the socket fails.
+	 */
+	private void checkAck(int epoch, int acknowledged, long selectiveAcks) throws IOException {
+		NetworkMessage ack = peer.receive();
+		assertEquals(NetworkMessage.DELIVERY_ACK, ack.getCode());
+		assertEquals(epoch, ack.getEpoch());
+		assertEquals(acknowledged, ack.getAcknowledged());
+		assertEquals(selectiveAcks, ack.getSelectiveAcks());
+	}
+
+	/**
+	 * Creates a reliable message.
+	 *
+	 * @param epoch The epoch of the sender.
+	 * @param sequence The sequence number.
+	 * @param forward The lowest sequence number which the sender still retransmits.
+	 * @return The message.
+	 */
+	private static NetworkMessage createMessage(int epoch, int sequence, int forward) {
+		NetworkMessage msg = new NetworkMessage(NetworkMessage.CHAT, "alice", "m" + sequence);
+		msg.setEpoch(epoch);
+		msg.setReliableSequence(sequence);
+		msg.setReliableForward(forward);
+		return msg;
+	}
+
+	/**
+	 * Creates an acknowledgement.
+	 *
+	 * @param epoch The epoch of the sender.
+	 * @param acknowledged The cumulative acknowledgement.
+	 * @param selectiveAcks The selective acknowledgements.
+	 * @return The DELIVERY_ACK message.
+	 */
+	private static NetworkMessage createAck(int epoch, int acknowledged, long selectiveAcks) {
+		NetworkMessage ack = new NetworkMessage(NetworkMessage.DELIVERY_ACK, null, null);
+		ack.setEpoch(epoch);
+		ack.setAcknowledged(acknowledged);
+		ack.setSelectiveAcks(selectiveAcks);
+		return ack;
+	}
+
+}